@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.nats;
+
+import cf.nats.CfNats;
+import cf.nats.DefaultCfNats;
+import cf.nats.message.RouterRegister;
+import cloudfoundry.norouter.routingtable.RoutingTable;
+import nats.client.MockNats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the full path of a router.register heartbeat, from publishing the message on {@link MockNats} through
+ * {@link NatsRouteProvider} into a {@link RoutingTable}.
+ *
+ * @author Mike Heath
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NatsRouteProviderBenchmark {
+
+	@Param({"10000", "100000"})
+	public int routes;
+
+	private MockNats mockNats;
+	private CfNats nats;
+	private RoutingTable routingTable;
+	private NatsRouteProvider routeProvider;
+	private RouterRegister[] messages;
+	private int next;
+
+	@Setup
+	public void setup() {
+		mockNats = new MockNats();
+		nats = new DefaultCfNats(mockNats);
+		routingTable = RoutingTable.create()
+				.eventPublisher(event -> {})
+				.routeProvider(() -> true)
+				.build();
+		routeProvider = NatsRouteProvider.create()
+				.nats(nats)
+				.routeRegistrar(routingTable)
+				.interner(routingTable.getInterner())
+				.build();
+		routeProvider.start();
+		messages = new RouterRegister[routes];
+		for (int i = 0; i < routes; i++) {
+			final String host = "10." + (i >> 16 & 0xff) + "." + (i >> 8 & 0xff) + "." + (i & 0xff);
+			messages[i] = new RouterRegister(host, 61000, "app" + (i / 4) + ".example.com");
+			nats.publish(messages[i]);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		routeProvider.close();
+		routingTable.close();
+		mockNats.close();
+	}
+
+	@Benchmark
+	public void registerHeartbeat() {
+		if (next == routes) {
+			next = 0;
+		}
+		nats.publish(messages[next++]);
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetSocketAddress;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link RouteInterner} lookups made for every router.register heartbeat. The values are all pooled,
+ * so run with JMH's GC profiler, {@code -prof gc}, to check that the lookups don't allocate.
+ *
+ * @author Mike Heath
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class RouteInternerBenchmark {
+
+	private static final int VALUES = 10000;
+
+	private RouteInterner interner;
+	private String[] hosts;
+	private String[] applicationGuids;
+	// Keep the pooled instances reachable.
+	private InetSocketAddress[] addresses;
+	private UUID[] uuids;
+
+	@Setup
+	public void setup() {
+		interner = new RouteInterner();
+		hosts = new String[VALUES];
+		applicationGuids = new String[VALUES];
+		addresses = new InetSocketAddress[VALUES];
+		uuids = new UUID[VALUES];
+		for (int i = 0; i < VALUES; i++) {
+			hosts[i] = "10.0." + (i >> 8 & 0xff) + "." + (i & 0xff);
+			applicationGuids[i] = UUID.randomUUID().toString();
+			addresses[i] = interner.address(hosts[i], 61000);
+			uuids[i] = interner.applicationGuid(applicationGuids[i]);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next;
+
+		int next() {
+			if (++next == VALUES) {
+				next = 0;
+			}
+			return next;
+		}
+	}
+
+	@Benchmark
+	public InetSocketAddress address(Cursor cursor) {
+		return interner.address(hosts[cursor.next()], 61000);
+	}
+
+	@Benchmark
+	public UUID applicationGuid(Cursor cursor) {
+		return interner.applicationGuid(applicationGuids[cursor.next()]);
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link RoutingTable} operations performed for every NATS message and every proxied request.
+ *
+ * @author Mike Heath
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingTableBenchmark {
+
+	private static final int ROUTES_PER_HOST = 4;
+
+	@Param({"10000", "100000"})
+	public int routes;
+
+	private RoutingTable routingTable;
+	private String[] hosts;
+	private InetSocketAddress[] addresses;
+	private UUID[] applicationGuids;
+	private String[] privateInstanceIds;
+	private String[] changedPrivateInstanceIds;
+
+	/**
+	 * Walks through the routes, one cursor per benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next;
+		private int pass;
+
+		int next(int routes) {
+			if (next == routes) {
+				next = 0;
+				pass++;
+			}
+			return next++;
+		}
+	}
+
+	@Setup
+	public void setup() {
+		routingTable = RoutingTable.create()
+				.eventPublisher(event -> {})
+				.routeProvider(() -> true)
+				.build();
+		hosts = new String[routes];
+		addresses = new InetSocketAddress[routes];
+		applicationGuids = new UUID[routes];
+		privateInstanceIds = new String[routes];
+		changedPrivateInstanceIds = new String[routes];
+		for (int i = 0; i < routes; i++) {
+			final int application = i / ROUTES_PER_HOST;
+			hosts[i] = "app" + application + ".example.com";
+			addresses[i] = InetSocketAddress.createUnresolved("10." + (i >> 16 & 0xff) + "." + (i >> 8 & 0xff) + "." + (i & 0xff), 61000);
+			applicationGuids[i] = new UUID(0, application);
+			privateInstanceIds[i] = UUID.randomUUID().toString();
+			changedPrivateInstanceIds[i] = UUID.randomUUID().toString();
+			routingTable.insertRoute(hosts[i], addresses[i], applicationGuids[i], i % ROUTES_PER_HOST, privateInstanceIds[i]);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		routingTable.close();
+	}
+
+	/**
+	 * A heartbeat for a route that hasn't changed, the common case.
+	 */
+	@Benchmark
+	public void registerUnchangedRoute(Cursor cursor) {
+		final int i = cursor.next(routes);
+		routingTable.registerRoute(hosts[i], addresses[i], applicationGuids[i], i % ROUTES_PER_HOST, privateInstanceIds[i]);
+	}
+
+	/**
+	 * A register that replaces the route's private instance id, alternating between two ids on every pass.
+	 */
+	@Benchmark
+	public void registerChangedRoute(Cursor cursor) {
+		final int i = cursor.next(routes);
+		final String privateInstanceId = (cursor.pass & 1) == 0 ? changedPrivateInstanceIds[i] : privateInstanceIds[i];
+		routingTable.registerRoute(hosts[i], addresses[i], applicationGuids[i], i % ROUTES_PER_HOST, privateInstanceId);
+	}
+
+	/**
+	 * Unregisters a route and inserts it back so the table size stays constant.
+	 */
+	@Benchmark
+	public boolean unregisterRoute(Cursor cursor) {
+		final int i = cursor.next(routes);
+		final boolean removed = routingTable.unregisterRoute(hosts[i], addresses[i]);
+		routingTable.insertRoute(hosts[i], addresses[i], applicationGuids[i], i % ROUTES_PER_HOST, privateInstanceIds[i]);
+		return removed;
+	}
+
+	@Benchmark
+	@Threads(4)
+	public Set<RouteDetails> getRoutesConcurrently(Cursor cursor) {
+		return routingTable.getRoutes(hosts[cursor.next(routes)]);
+	}
+
+	@Benchmark
+	public RouteDetails getRouteByAddress(Cursor cursor) {
+		return routingTable.getRouteByAddress(addresses[cursor.next(routes)]);
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a {@link RoutingTable#cleanupStaleRoutes()} sweep that evicts every route in the table.
+ *
+ * @author Mike Heath
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StaleRouteCleanupBenchmark {
+
+	private static final Duration STALE_ROUTE_TIMEOUT = Duration.ofMillis(50);
+
+	@Param({"10000", "100000", "1000000"})
+	public int routes;
+
+	private RoutingTable routingTable;
+
+	@Setup(Level.Invocation)
+	public void populate() throws InterruptedException {
+		routingTable = RoutingTable.create()
+				.eventPublisher(event -> {})
+				.routeProvider(() -> true)
+				.staleRouteTimeout(STALE_ROUTE_TIMEOUT)
+				.build();
+		for (int i = 0; i < routes; i++) {
+			final InetSocketAddress address = InetSocketAddress.createUnresolved("10." + (i >> 16 & 0xff) + "." + (i >> 8 & 0xff) + "." + (i & 0xff), 61000);
+			routingTable.insertRoute("app" + (i / 4) + ".example.com", address, null, i % 4, null);
+		}
+		Thread.sleep(STALE_ROUTE_TIMEOUT.toMillis() * 2);
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDown() {
+		routingTable.close();
+	}
+
+	@Benchmark
+	public int cleanupStaleRoutes() {
+		return routingTable.cleanupStaleRoutes();
+	}
+}
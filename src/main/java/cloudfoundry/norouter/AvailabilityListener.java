@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter;
+
+/**
+ * Notified when an {@link ObservableRouteProvider} becomes available or unavailable, and when the reason it's
+ * unavailable changes.
+ *
+ * @author Mike Heath
+ */
+@FunctionalInterface
+public interface AvailabilityListener {
+
+	/**
+	 * @param reason why the provider is unavailable, {@code null} if it's available
+	 */
+	void availabilityChanged(RouteProvider provider, boolean available, String reason);
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the availability of an {@link ObservableRouteProvider} and notifies its listeners of changes. Reading the
+ * availability is a single volatile read. Listeners are notified when the availability flips and when the reason of
+ * an unavailable provider changes, so aggregates like {@link CompositeRouteProvider} never report a stale reason.
+ * Updates that change nothing aren't pushed. Listeners are notified in the order of the changes, on the thread making
+ * the update.
+ *
+ * @author Mike Heath
+ */
+public final class AvailabilityState {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AvailabilityState.class);
+
+	private final RouteProvider provider;
+	private final List<AvailabilityListener> listeners = new CopyOnWriteArrayList<>();
+
+	private volatile State state;
+
+	/**
+	 * @param provider the provider passed to listeners
+	 * @param reason why the provider is initially unavailable
+	 */
+	public AvailabilityState(RouteProvider provider, String reason) {
+		this.provider = Objects.requireNonNull(provider, "provider is a required argument");
+		state = new State(false, reason);
+	}
+
+	public boolean isAvailable() {
+		return state.available;
+	}
+
+	public String getUnavailableReason() {
+		return state.reason;
+	}
+
+	public void available() {
+		update(true, null);
+	}
+
+	public void unavailable(String reason) {
+		Objects.requireNonNull(reason, "reason is a required argument");
+		update(false, reason);
+	}
+
+	private void update(boolean available, String reason) {
+		final State current = state;
+		if (current.available == available && Objects.equals(current.reason, reason)) {
+			return;
+		}
+		synchronized (this) {
+			final State previous = state;
+			if (previous.available == available && Objects.equals(previous.reason, reason)) {
+				return;
+			}
+			state = new State(available, reason);
+			if (previous.available != available) {
+				if (available) {
+					LOGGER.info("{} is available", provider);
+				} else {
+					LOGGER.warn("{} is unavailable: {}", provider, reason);
+				}
+			} else {
+				LOGGER.debug("{} is still unavailable: {}", provider, reason);
+			}
+			for (AvailabilityListener listener : listeners) {
+				try {
+					listener.availabilityChanged(provider, available, reason);
+				} catch (RuntimeException e) {
+					LOGGER.error("Error notifying availability listener {}", listener, e);
+				}
+			}
+		}
+	}
+
+	public void addListener(AvailabilityListener listener) {
+		listeners.add(Objects.requireNonNull(listener, "listener is a required argument"));
+	}
+
+	public void removeListener(AvailabilityListener listener) {
+		listeners.remove(listener);
+	}
+
+	private static final class State {
+		final boolean available;
+		final String reason;
+
+		State(boolean available, String reason) {
+			this.available = available;
+			this.reason = reason;
+		}
+	}
+}
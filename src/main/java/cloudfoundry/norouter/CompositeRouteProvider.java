@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A {@link RouteProvider} that is available when all of its providers are. The aggregate availability of
+ * {@link ObservableRouteProvider}s is kept up to date as they push their changes, so checking it is a volatile
+ * read. Plain {@code RouteProvider}s can't tell when they change and are asked on each call.
+ *
+ * <p>A composite without any provider is unavailable, nothing would refresh the routes in the routing table.
+ *
+ * @author Mike Heath
+ */
+public class CompositeRouteProvider implements ObservableRouteProvider {
+
+	private static final String NO_PROVIDERS = "No route providers";
+	private static final RouteProvider[] NO_POLLED_PROVIDERS = new RouteProvider[0];
+
+	private final AvailabilityState availability = new AvailabilityState(this, NO_PROVIDERS);
+	private final List<ObservableRouteProvider> observed = new CopyOnWriteArrayList<>();
+	private volatile RouteProvider[] polled = NO_POLLED_PROVIDERS;
+
+	private final AvailabilityListener listener = (provider, available, reason) -> update();
+
+	public synchronized void addProvider(RouteProvider provider) {
+		if (provider == this) {
+			throw new IllegalArgumentException("A composite can't contain itself");
+		}
+		if (provider instanceof ObservableRouteProvider) {
+			final ObservableRouteProvider observable = (ObservableRouteProvider) provider;
+			observed.add(observable);
+			observable.addAvailabilityListener(listener);
+		} else {
+			final RouteProvider[] updated = Arrays.copyOf(polled, polled.length + 1);
+			updated[polled.length] = provider;
+			polled = updated;
+		}
+		update();
+	}
+
+	public synchronized void removeProvider(RouteProvider provider) {
+		if (provider instanceof ObservableRouteProvider) {
+			final ObservableRouteProvider observable = (ObservableRouteProvider) provider;
+			if (observed.remove(observable)) {
+				observable.removeAvailabilityListener(listener);
+			}
+		} else {
+			polled = Arrays.stream(polled).filter(p -> p != provider).toArray(RouteProvider[]::new);
+		}
+		update();
+	}
+
+	private synchronized void update() {
+		if (observed.isEmpty() && polled.length == 0) {
+			availability.unavailable(NO_PROVIDERS);
+			return;
+		}
+		for (ObservableRouteProvider provider : observed) {
+			if (!provider.isAvailable()) {
+				availability.unavailable(provider + ": " + provider.getUnavailableReason());
+				return;
+			}
+		}
+		availability.available();
+	}
+
+	@Override
+	public boolean isAvailable() {
+		if (!availability.isAvailable()) {
+			return false;
+		}
+		for (RouteProvider provider : polled) {
+			if (!provider.isAvailable()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String getUnavailableReason() {
+		final String reason = availability.getUnavailableReason();
+		if (reason != null) {
+			return reason;
+		}
+		for (RouteProvider provider : polled) {
+			if (!provider.isAvailable()) {
+				return provider + " is unavailable";
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void addAvailabilityListener(AvailabilityListener listener) {
+		availability.addListener(listener);
+	}
+
+	@Override
+	public void removeAvailabilityListener(AvailabilityListener listener) {
+		availability.removeListener(listener);
+	}
+
+	@Override
+	public String toString() {
+		return "CompositeRouteProvider";
+	}
+}
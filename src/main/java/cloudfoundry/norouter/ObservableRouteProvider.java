@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter;
+
+/**
+ * A {@link RouteProvider} that pushes its availability changes to listeners rather than computing its availability
+ * on each call, so {@link #isAvailable()} is cheap enough to call as often as needed.
+ *
+ * @author Mike Heath
+ */
+public interface ObservableRouteProvider extends RouteProvider {
+
+	/**
+	 * Returns why the provider is unavailable, or {@code null} if it's available.
+	 */
+	String getUnavailableReason();
+
+	void addAvailabilityListener(AvailabilityListener listener);
+
+	void removeAvailabilityListener(AvailabilityListener listener);
+
+}
@@ -29,6 +29,16 @@ public class NatsProperties {
 
 	private List<String> machines = new ArrayList<>();
 
+	/**
+	 * The number of threads handling route messages, 0 handles them on the NATS callback thread.
+	 */
+	private int partitions = 0;
+
+	/**
+	 * The number of route messages each partition queues before the NATS callback thread waits.
+	 */
+	private int partitionQueueCapacity = 10000;
+
 	public List<String> getMachines() {
 		return machines;
 	}
@@ -36,4 +46,20 @@ public class NatsProperties {
 	public void setMachines(List<String> machines) {
 		this.machines = machines;
 	}
+
+	public int getPartitions() {
+		return partitions;
+	}
+
+	public void setPartitions(int partitions) {
+		this.partitions = partitions;
+	}
+
+	public int getPartitionQueueCapacity() {
+		return partitionQueueCapacity;
+	}
+
+	public void setPartitionQueueCapacity(int partitionQueueCapacity) {
+		this.partitionQueueCapacity = partitionQueueCapacity;
+	}
 }
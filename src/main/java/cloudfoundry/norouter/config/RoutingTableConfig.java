@@ -19,9 +19,19 @@ import cf.nats.CfNats;
 import cf.nats.DefaultCfNats;
 import cf.spring.NettyEventLoopGroupFactoryBean;
 import cf.spring.PidFileFactory;
+import cloudfoundry.norouter.CompositeRouteProvider;
 import cloudfoundry.norouter.RouteProvider;
+import cloudfoundry.norouter.journal.RouteJournal;
 import cloudfoundry.norouter.nats.NatsRouteProvider;
+import cloudfoundry.norouter.nats.NatsRouteReplicator;
+import cloudfoundry.norouter.nats.NatsShardMembership;
+import cloudfoundry.norouter.routingtable.AggregatingRouteChangeLogger;
+import cloudfoundry.norouter.routingtable.RouteRegistrar;
 import cloudfoundry.norouter.routingtable.RoutingTable;
+import cloudfoundry.norouter.routingtable.ShardedRouteRegistrar;
+import cloudfoundry.norouter.seed.SeedFileRouteProvider;
+import cloudfoundry.norouter.web.MetricsController;
+import cloudfoundry.norouter.web.RoutesController;
 import io.netty.channel.EventLoopGroup;
 import nats.client.Nats;
 import nats.client.NatsConnector;
@@ -44,9 +54,10 @@ import org.springframework.scheduling.concurrent.ScheduledExecutorFactoryBean;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.LinkedList;
-import java.util.Map;
+import java.util.Optional;
 import java.util.Queue;
 
 /**
@@ -98,30 +109,28 @@ public class RoutingTableConfig {
 	}
 
 	@Bean
-	NatsRouteProvider natsRouteProvider(RoutingTable routingTable, CfNats nats) {
-		return NatsRouteProvider.create()
+	NatsRouteProvider natsRouteProvider(RoutingTable routingTable, CfNats nats, Optional<ShardedRouteRegistrar> shardedRouteRegistrar) {
+		final RouteRegistrar registrar = shardedRouteRegistrar.isPresent() ? shardedRouteRegistrar.get() : routingTable;
+		final NatsRouteProvider.Builder builder = NatsRouteProvider.create()
 				// TODO Add host parameter
-				.routeRegistrar(routingTable)
-				.nats(nats)
-				.build();
+				.routeRegistrar(registrar)
+				.interner(routingTable.getInterner())
+				.scheduler(staleRouteEvictionScheduledExecutor().getObject())
+				.nats(nats);
+		if (natsProperties.getPartitions() > 0) {
+			builder.partitions(natsProperties.getPartitions(), natsProperties.getPartitionQueueCapacity());
+		}
+		return builder.build();
 	}
 
 	@Bean
-	RouteProvider compositeRouteProvider() {
-		return new RouteProvider() {
-			@Override
-			public boolean isAvailable() {
-				final Map<String, RouteProvider> providerMap = beanFactory.getBeansOfType(RouteProvider.class);
-				boolean available = true;
-				for (RouteProvider provider : providerMap.values()) {
-					if (provider == this) {
-						continue;
-					}
-					available &= provider.isAvailable();
-				}
-				return available;
-			}
-		};
+	CompositeRouteProvider compositeRouteProvider() {
+		return new CompositeRouteProvider();
+	}
+
+	@Bean
+	RouteProviderRegistration routeProviderRegistration() {
+		return new RouteProviderRegistration(beanFactory, compositeRouteProvider());
 	}
 
 	@Bean
@@ -131,15 +140,160 @@ public class RoutingTableConfig {
 		return scheduledExecutorFactoryBean;
 	}
 
+	// Snapshot files, replication and shard membership each get their own thread. Writing a snapshot or sending
+	// one to a peer takes seconds on a large table and must neither delay evictions nor each other.
+
+	@Bean
+	ScheduledExecutorFactoryBean snapshotScheduledExecutor() {
+		return singleThreadScheduledExecutor("snapshot-");
+	}
+
+	@Bean
+	ScheduledExecutorFactoryBean replicationScheduledExecutor() {
+		return singleThreadScheduledExecutor("replication-");
+	}
+
+	@Bean
+	ScheduledExecutorFactoryBean membershipScheduledExecutor() {
+		return singleThreadScheduledExecutor("shard-membership-");
+	}
+
+	private static ScheduledExecutorFactoryBean singleThreadScheduledExecutor(String threadNamePrefix) {
+		final ScheduledExecutorFactoryBean scheduledExecutorFactoryBean = new ScheduledExecutorFactoryBean();
+		scheduledExecutorFactoryBean.setPoolSize(1);
+		scheduledExecutorFactoryBean.setThreadNamePrefix(threadNamePrefix);
+		return scheduledExecutorFactoryBean;
+	}
+
 	@Bean
 	RoutingTable routingTable(
-			ApplicationEventPublisher publisher
+			ApplicationEventPublisher publisher,
+			@Value("${norouter.routingTable.snapshotFile:}") String snapshotFile,
+			Optional<RouteJournal> routeJournal
 	) {
-		return new RoutingTable(
-				publisher,
-				staleRouteEvictionScheduledExecutor().getObject(),
-				Duration.ofMinutes(5), // TODO Make the stale route duration configurable
-				compositeRouteProvider());
+		final RoutingTable.Builder builder = RoutingTable.create()
+				.eventPublisher(publisher)
+				.scheduler(staleRouteEvictionScheduledExecutor().getObject())
+				.staleRouteTimeout(Duration.ofMinutes(5)) // TODO Make the stale route duration configurable
+				.routeProvider(compositeRouteProvider());
+		if (!snapshotFile.isEmpty()) {
+			builder.persistSnapshots(Paths.get(snapshotFile), Duration.ofSeconds(30))
+					.snapshotScheduler(snapshotScheduledExecutor().getObject());
+		}
+		routeJournal.ifPresent(builder::changeListener);
+		return builder.build();
+	}
+
+	@Bean(initMethod = "load", destroyMethod = "close")
+	@ConditionalOnProperty("norouter.routingTable.seedFile")
+	SeedFileRouteProvider seedFileRouteProvider(
+			RoutingTable routingTable,
+			Optional<ShardedRouteRegistrar> shardedRouteRegistrar,
+			@Value("${norouter.routingTable.seedFile}") String seedFile) {
+		// The seed file is loaded before shard membership forms, while this node is still alone on the ring, so every
+		// host is seeded. The hosts owned by other members are released once they are discovered.
+		final RouteRegistrar registrar = shardedRouteRegistrar.isPresent() ? shardedRouteRegistrar.get() : routingTable;
+		return SeedFileRouteProvider.create()
+				.seedFile(Paths.get(seedFile))
+				.registrar(registrar)
+				.interner(routingTable.getInterner())
+				.scheduler(staleRouteEvictionScheduledExecutor().getObject())
+				.build();
+	}
+
+	@Bean
+	@ConditionalOnProperty("norouter.routingTable.journalDirectory")
+	RouteJournal routeJournal(@Value("${norouter.routingTable.journalDirectory}") String journalDirectory) {
+		return RouteJournal.create()
+				.directory(Paths.get(journalDirectory))
+				.build();
+	}
+
+	@Bean(initMethod = "start", destroyMethod = "close")
+	@ConditionalOnProperty("norouter.replication.enabled")
+	NatsRouteReplicator natsRouteReplicator(RoutingTable routingTable, Nats nats, Optional<ShardedRouteRegistrar> shardedRouteRegistrar) {
+		final RouteRegistrar registrar = shardedRouteRegistrar.isPresent() ? shardedRouteRegistrar.get() : routingTable;
+		return NatsRouteReplicator.create()
+				.nats(nats)
+				.routingTable(routingTable)
+				.registrar(registrar)
+				.scheduler(replicationScheduledExecutor().getObject())
+				.build();
+	}
+
+	@Bean
+	@ConditionalOnProperty("norouter.sharding.memberId")
+	ShardedRouteRegistrar shardedRouteRegistrar(RoutingTable routingTable, @Value("${norouter.sharding.memberId}") String memberId) {
+		return ShardedRouteRegistrar.create()
+				.routingTable(routingTable)
+				.memberId(memberId)
+				.build();
+	}
+
+	@Bean(initMethod = "start", destroyMethod = "close")
+	@ConditionalOnProperty("norouter.sharding.memberId")
+	NatsShardMembership natsShardMembership(
+			ShardedRouteRegistrar shardedRouteRegistrar,
+			CfNats nats,
+			NatsRouteProvider natsRouteProvider,
+			@Value("${norouter.sharding.address:}") String address) {
+		return NatsShardMembership.create()
+				.nats(nats)
+				.registrar(shardedRouteRegistrar)
+				.scheduler(membershipScheduledExecutor().getObject())
+				.address(address.isEmpty() ? null : address)
+				// Have the hosts this node gained registered right away rather than on the next register interval.
+				.rebalanceListener(natsRouteProvider::requestRegistrations)
+				.build();
+	}
+
+	@Bean(destroyMethod = "close")
+	@ConditionalOnProperty(value = "norouter.logging.routeChanges", matchIfMissing = true)
+	AggregatingRouteChangeLogger routeChangeLogger(@Value("${norouter.logging.maxLinesPerMinute:6}") int maxLinesPerMinute) {
+		return AggregatingRouteChangeLogger.create()
+				.scheduler(staleRouteEvictionScheduledExecutor().getObject())
+				.maxLinesPerMinute(maxLinesPerMinute)
+				.build();
+	}
+
+	@Bean
+	MetricsController metricsController(RoutingTable routingTable, NatsRouteProvider natsRouteProvider) {
+		return new MetricsController(routingTable, natsRouteProvider);
+	}
+
+	@Bean
+	RoutesController routesController(RoutingTable routingTable) {
+		return new RoutesController(routingTable);
+	}
+
+	/**
+	 * Adds every other {@link RouteProvider} bean to the composite once the context is refreshed. The providers
+	 * depend on the routing table, which depends on the composite, so they can't be passed in when it's created.
+	 * Until then the composite is unavailable, so no route is evicted while the context starts.
+	 */
+	static class RouteProviderRegistration implements ApplicationListener<ContextRefreshedEvent> {
+
+		private final ListableBeanFactory beanFactory;
+		private final CompositeRouteProvider compositeRouteProvider;
+		private boolean registered = false;
+
+		RouteProviderRegistration(ListableBeanFactory beanFactory, CompositeRouteProvider compositeRouteProvider) {
+			this.beanFactory = beanFactory;
+			this.compositeRouteProvider = compositeRouteProvider;
+		}
+
+		@Override
+		public synchronized void onApplicationEvent(ContextRefreshedEvent event) {
+			if (registered) {
+				return;
+			}
+			registered = true;
+			for (RouteProvider provider : beanFactory.getBeansOfType(RouteProvider.class).values()) {
+				if (provider != compositeRouteProvider) {
+					compositeRouteProvider.addProvider(provider);
+				}
+			}
+		}
 	}
 
 	static class QueuedEventPublisher implements ApplicationEventPublisher, ApplicationListener<ContextRefreshedEvent>, Ordered {
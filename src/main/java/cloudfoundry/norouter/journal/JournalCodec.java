@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.journal;
+
+import cloudfoundry.norouter.routingtable.RouteChangeListener.ChangeType;
+import cloudfoundry.norouter.routingtable.RouteDetails;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Encodes and decodes journal records. A record is framed as its body's length, the CRC-32 of the body and the body.
+ * A torn write at the end of a segment is detected by a frame extending beyond the end of the segment or by a
+ * checksum mismatch.
+ *
+ * @author Mike Heath
+ */
+final class JournalCodec {
+
+	static final int FRAME_HEADER_SIZE = 8;
+
+	private static final byte HAS_APPLICATION_GUID = 1;
+	private static final byte HAS_APPLICATION_INDEX = 2;
+	private static final byte HAS_PRIVATE_INSTANCE_ID = 4;
+
+	private static final ChangeType[] TYPES = ChangeType.values();
+
+	private JournalCodec() {
+	}
+
+	/**
+	 * Appends the framed record to {@code buffer}, returning the buffer or a larger copy if it was too small.
+	 */
+	static ByteBuffer encode(ByteBuffer buffer, long sequence, long timestamp, ChangeType type, RouteDetails route) {
+		final byte[] host = utf8(route.getHost());
+		final byte[] addressHost = utf8(route.getAddress().getHostString());
+		final byte[] privateInstanceId = route.getPrivateInstanceId() == null ? null : utf8(route.getPrivateInstanceId());
+		final int bodySize = 8 + 8 + 1 + 1
+				+ 2 + host.length
+				+ 2 + addressHost.length + 2
+				+ (route.getApplicationGuid() == null ? 0 : 16)
+				+ (route.getApplicationIndex() == null ? 0 : 4)
+				+ (privateInstanceId == null ? 0 : 2 + privateInstanceId.length);
+		if (buffer.remaining() < FRAME_HEADER_SIZE + bodySize) {
+			final ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + FRAME_HEADER_SIZE + bodySize));
+			buffer.flip();
+			larger.put(buffer);
+			buffer = larger;
+		}
+		final int start = buffer.position();
+		buffer.putInt(bodySize);
+		buffer.putInt(0); // Checksum, filled in below
+		buffer.putLong(sequence);
+		buffer.putLong(timestamp);
+		buffer.put((byte) type.ordinal());
+		byte flags = 0;
+		if (route.getApplicationGuid() != null) {
+			flags |= HAS_APPLICATION_GUID;
+		}
+		if (route.getApplicationIndex() != null) {
+			flags |= HAS_APPLICATION_INDEX;
+		}
+		if (privateInstanceId != null) {
+			flags |= HAS_PRIVATE_INSTANCE_ID;
+		}
+		buffer.put(flags);
+		putString(buffer, host);
+		putString(buffer, addressHost);
+		buffer.putChar((char) route.getAddress().getPort());
+		if (route.getApplicationGuid() != null) {
+			buffer.putLong(route.getApplicationGuid().getMostSignificantBits());
+			buffer.putLong(route.getApplicationGuid().getLeastSignificantBits());
+		}
+		if (route.getApplicationIndex() != null) {
+			buffer.putInt(route.getApplicationIndex());
+		}
+		if (privateInstanceId != null) {
+			putString(buffer, privateInstanceId);
+		}
+		buffer.putInt(start + 4, checksum(buffer, start + FRAME_HEADER_SIZE, bodySize));
+		return buffer;
+	}
+
+	/**
+	 * Returns the size of the complete, valid record starting at the buffer's position or -1 if the buffer doesn't
+	 * hold a complete record yet.
+	 *
+	 * @throws CorruptRecordException if the record is complete but its checksum doesn't match
+	 */
+	static int frameSize(ByteBuffer buffer) throws CorruptRecordException {
+		if (buffer.remaining() < FRAME_HEADER_SIZE) {
+			return -1;
+		}
+		final int start = buffer.position();
+		final int bodySize = buffer.getInt(start);
+		if (bodySize < 0) {
+			throw new CorruptRecordException("Negative record length");
+		}
+		if (buffer.remaining() - FRAME_HEADER_SIZE < bodySize) {
+			return -1;
+		}
+		if (buffer.getInt(start + 4) != checksum(buffer, start + FRAME_HEADER_SIZE, bodySize)) {
+			throw new CorruptRecordException("Record checksum mismatch");
+		}
+		return FRAME_HEADER_SIZE + bodySize;
+	}
+
+	/**
+	 * Decodes the record at the buffer's position, which must have been validated by {@link #frameSize(ByteBuffer)}.
+	 */
+	static JournalRecord decode(ByteBuffer buffer) {
+		buffer.position(buffer.position() + FRAME_HEADER_SIZE);
+		final long sequence = buffer.getLong();
+		final long timestamp = buffer.getLong();
+		final ChangeType type = TYPES[buffer.get()];
+		final byte flags = buffer.get();
+		final String host = getString(buffer);
+		final InetSocketAddress address = InetSocketAddress.createUnresolved(getString(buffer), buffer.getChar());
+		final UUID applicationGuid = ((flags & HAS_APPLICATION_GUID) == 0) ? null : new UUID(buffer.getLong(), buffer.getLong());
+		final Integer applicationIndex = ((flags & HAS_APPLICATION_INDEX) == 0) ? null : buffer.getInt();
+		final String privateInstanceId = ((flags & HAS_PRIVATE_INSTANCE_ID) == 0) ? null : getString(buffer);
+		return new JournalRecord(sequence, timestamp, type, host, address, applicationGuid, applicationIndex, privateInstanceId);
+	}
+
+	private static int checksum(ByteBuffer buffer, int offset, int length) {
+		final CRC32 crc = new CRC32();
+		final ByteBuffer body = buffer.duplicate();
+		body.limit(offset + length).position(offset);
+		crc.update(body);
+		return (int) crc.getValue();
+	}
+
+	private static byte[] utf8(String string) {
+		final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > Character.MAX_VALUE) {
+			throw new IllegalArgumentException("String too long to journal: " + string.length() + " characters");
+		}
+		return bytes;
+	}
+
+	private static void putString(ByteBuffer buffer, byte[] bytes) {
+		buffer.putChar((char) bytes.length);
+		buffer.put(bytes);
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		final int length = buffer.getChar();
+		final String string;
+		if (buffer.hasArray()) {
+			string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+		} else {
+			final byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			string = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return string;
+	}
+
+	static class CorruptRecordException extends Exception {
+		CorruptRecordException(String message) {
+			super(message);
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Streams the records of a {@link RouteJournal} in sequence order. Segments are read through a small buffer, so
+ * reading never loads a whole segment into memory.
+ *
+ * <p>{@link #next()} returns {@code null} once it has caught up with the journal. Calling it again later returns
+ * the records appended in the meantime, so a reader can tail a journal that is being written, from this or
+ * another process.
+ *
+ * @author Mike Heath
+ */
+public class JournalReader implements AutoCloseable {
+
+	private final Path directory;
+	private final long fromSequence;
+	private SegmentCursor cursor;
+
+	/**
+	 * Creates a reader returning the records with a sequence number of at least {@code fromSequence}.
+	 */
+	public JournalReader(Path directory, long fromSequence) {
+		this.directory = directory;
+		this.fromSequence = fromSequence;
+	}
+
+	/**
+	 * Returns the next record or {@code null} if there are no more records at the moment.
+	 */
+	public JournalRecord next() throws IOException {
+		while (true) {
+			if (cursor == null) {
+				final Path segment = firstSegment();
+				if (segment == null) {
+					return null;
+				}
+				cursor = new SegmentCursor(segment);
+			}
+			final JournalRecord record = cursor.next();
+			if (record != null) {
+				if (record.getSequence() < fromSequence) {
+					continue;
+				}
+				return record;
+			}
+			// More records may still be appended to the current segment until the writer has moved on to the next.
+			final Path next = nextSegment(cursor.firstSequence);
+			if (next == null) {
+				return null;
+			}
+			// The writer closes a segment before creating the next one, so anything left is complete now.
+			final JournalRecord last = cursor.next();
+			if (last != null) {
+				if (last.getSequence() < fromSequence) {
+					continue;
+				}
+				return last;
+			}
+			cursor.close();
+			cursor = new SegmentCursor(next);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (cursor != null) {
+			cursor.close();
+			cursor = null;
+		}
+	}
+
+	private Path firstSegment() throws IOException {
+		final List<Path> segments = RouteJournal.listSegments(directory);
+		Path first = null;
+		for (Path segment : segments) {
+			if (first == null || RouteJournal.firstSequence(segment) <= fromSequence) {
+				first = segment;
+			}
+		}
+		return first;
+	}
+
+	private Path nextSegment(long firstSequence) throws IOException {
+		for (Path segment : RouteJournal.listSegments(directory)) {
+			if (RouteJournal.firstSequence(segment) > firstSequence) {
+				return segment;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the records of a single segment.
+	 */
+	static final class SegmentCursor implements AutoCloseable {
+		private static final int BUFFER_SIZE = 64 * 1024;
+
+		final long firstSequence;
+		private final FileChannel channel;
+		private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		// The file offset of the end of the data in #buffer.
+		private long readPosition;
+		// The file offset of the end of the last complete record returned.
+		private long validPosition;
+
+		SegmentCursor(Path segment) throws IOException {
+			firstSequence = RouteJournal.firstSequence(segment);
+			channel = FileChannel.open(segment, StandardOpenOption.READ);
+			buffer.flip();
+		}
+
+		/**
+		 * Returns the next record or {@code null} if the rest of the segment doesn't hold a complete, valid record.
+		 */
+		JournalRecord next() throws IOException {
+			while (true) {
+				final int size;
+				try {
+					size = JournalCodec.frameSize(buffer);
+				} catch (JournalCodec.CorruptRecordException e) {
+					// Either a torn write at the end of the segment or a write still in progress.
+					return null;
+				}
+				if (size > 0) {
+					final int start = buffer.position();
+					final JournalRecord record = JournalCodec.decode(buffer);
+					buffer.position(start + size);
+					validPosition += size;
+					return record;
+				}
+				if (buffer.remaining() >= JournalCodec.FRAME_HEADER_SIZE) {
+					final int needed = JournalCodec.FRAME_HEADER_SIZE + buffer.getInt(buffer.position());
+					if (needed > buffer.capacity()) {
+						final ByteBuffer larger = ByteBuffer.allocate(needed);
+						larger.put(buffer);
+						larger.flip();
+						buffer = larger;
+					}
+				}
+				buffer.compact();
+				final int read = channel.read(buffer, readPosition);
+				buffer.flip();
+				if (read <= 0) {
+					return null;
+				}
+				readPosition += read;
+			}
+		}
+
+		/**
+		 * Returns the offset just past the last valid record returned by {@link #next()}.
+		 */
+		long getValidPosition() {
+			return validPosition;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.journal;
+
+import cloudfoundry.norouter.routingtable.RouteChangeListener.ChangeType;
+import cloudfoundry.norouter.routingtable.RouteDetails;
+
+import java.net.InetSocketAddress;
+import java.util.UUID;
+
+/**
+ * A single change recorded in a {@link RouteJournal}.
+ *
+ * @author Mike Heath
+ */
+public final class JournalRecord implements RouteDetails {
+
+	private final long sequence;
+	private final long timestamp;
+	private final ChangeType type;
+	private final String host;
+	private final InetSocketAddress address;
+	private final UUID applicationGuid;
+	private final Integer applicationIndex;
+	private final String privateInstanceId;
+
+	public JournalRecord(long sequence, long timestamp, ChangeType type, String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId) {
+		this.sequence = sequence;
+		this.timestamp = timestamp;
+		this.type = type;
+		this.host = host;
+		this.address = address;
+		this.applicationGuid = applicationGuid;
+		this.applicationIndex = applicationIndex;
+		this.privateInstanceId = privateInstanceId;
+	}
+
+	/**
+	 * Returns the record's position in the journal. Sequence numbers increase with every change but compaction
+	 * leaves gaps.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Returns the time the change was made in milliseconds since the epoch.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public ChangeType getType() {
+		return type;
+	}
+
+	@Override
+	public String getHost() {
+		return host;
+	}
+
+	@Override
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	@Override
+	public UUID getApplicationGuid() {
+		return applicationGuid;
+	}
+
+	@Override
+	public Integer getApplicationIndex() {
+		return applicationIndex;
+	}
+
+	@Override
+	public String getPrivateInstanceId() {
+		return privateInstanceId;
+	}
+
+	@Override
+	public String toString() {
+		return "JournalRecord{" +
+				"sequence=" + sequence +
+				", type=" + type +
+				", host='" + host + '\'' +
+				", address=" + address +
+				'}';
+	}
+}
@@ -0,0 +1,556 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.journal;
+
+import cloudfoundry.norouter.routingtable.RouteChangeListener;
+import cloudfoundry.norouter.routingtable.RouteDetails;
+import cloudfoundry.norouter.routingtable.RouteRegistrar;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only, sequence numbered journal of the changes made to a routing table. Register it as the table's
+ * {@link cloudfoundry.norouter.routingtable.RoutingTable.Builder#changeListener(RouteChangeListener) change
+ * listener} to record every register, unregister and eviction.
+ *
+ * <p>Appending only queues the change. A single writer thread writes everything queued since its last write in one
+ * batch and forces it to disk, so the cost of syncing is shared by all the changes in the batch. With
+ * {@link Durability#SYNC} appending waits until the change has been forced to disk. As a change listener the journal
+ * doesn't wait in {@link #routeChanged}, which the table invokes while holding host locks, but in
+ * {@link #changesApplied()} once the table has released them, so a write waits for its own changes only.
+ *
+ * <p>A batch that fails to write stays queued and is retried, with a growing delay, together with the changes
+ * appended since. Its changes don't become durable until a retry succeeds.
+ *
+ * <p>The journal is split into segment files named after the sequence number of their first record. A new segment
+ * is started once the current one exceeds the maximum segment size. {@link #compact()} rewrites the closed
+ * segments into a single segment holding only the routes still registered. Use a {@link JournalReader} to read or
+ * tail the journal.
+ *
+ * @author Mike Heath
+ */
+public class RouteJournal implements RouteChangeListener, AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RouteJournal.class);
+
+	static final String SEGMENT_SUFFIX = ".journal";
+	private static final String COMPACTING_SUFFIX = ".compacting";
+	private static final long MIN_RETRY_DELAY = 100;
+	private static final long MAX_RETRY_DELAY = TimeUnit.SECONDS.toMillis(5);
+
+	public enum Durability {
+		/**
+		 * Appending returns immediately, changes are forced to disk in the background shortly after.
+		 */
+		ASYNC,
+		/**
+		 * Appending waits until the change has been forced to disk, and fails if writing it fails.
+		 */
+		SYNC
+	}
+
+	private final Path directory;
+	private final long maxSegmentSize;
+	private final Durability durability;
+
+	private final Object queueLock = new Object();
+	// Guarded by #queueLock
+	private List<PendingRecord> queue = new ArrayList<>();
+	private long lastSequence;
+	private long durableSequence;
+	private boolean closed;
+	// The last failed write and the last sequence number of the batch it failed to write.
+	private IOException writeFailure;
+	private long failedSequence;
+
+	private final Object segmentLock = new Object();
+	// Guarded by #segmentLock
+	private FileChannel segment;
+	private long segmentSize;
+
+	private final Thread writer;
+	// With SYNC durability, the sequence number of the last change the table reported on this thread that it hasn't
+	// waited for yet.
+	private final ThreadLocal<long[]> unsyncedSequence = ThreadLocal.withInitial(() -> new long[1]);
+
+	public static Builder create() {
+		return new Builder();
+	}
+
+	public static class Builder {
+		private Path directory;
+		private long maxSegmentSize = 64 * 1024 * 1024;
+		private Durability durability = Durability.ASYNC;
+
+		public Builder directory(Path directory) {
+			Objects.requireNonNull(directory);
+			this.directory = directory;
+			return this;
+		}
+
+		public Builder maxSegmentSize(long maxSegmentSize) {
+			if (maxSegmentSize <= 0) {
+				throw new IllegalArgumentException("maxSegmentSize must be positive");
+			}
+			this.maxSegmentSize = maxSegmentSize;
+			return this;
+		}
+
+		public Builder durability(Durability durability) {
+			Objects.requireNonNull(durability);
+			this.durability = durability;
+			return this;
+		}
+
+		/**
+		 * Opens the journal, creating the directory if needed. An existing journal is appended to, a partially
+		 * written record at the end of the last segment is discarded.
+		 */
+		public RouteJournal build() {
+			try {
+				return new RouteJournal(this);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Unable to open route journal in " + directory, e);
+			}
+		}
+	}
+
+	private RouteJournal(Builder builder) throws IOException {
+		Objects.requireNonNull(builder.directory, "directory is a required argument");
+		directory = builder.directory;
+		maxSegmentSize = builder.maxSegmentSize;
+		durability = builder.durability;
+
+		Files.createDirectories(directory);
+		recover();
+
+		writer = new Thread(this::writeRecords, "route-journal-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	private void recover() throws IOException {
+		try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory, "*" + COMPACTING_SUFFIX)) {
+			for (Path leftover : leftovers) {
+				Files.delete(leftover);
+			}
+		}
+		final List<Path> segments = listSegments(directory);
+		if (segments.isEmpty()) {
+			return;
+		}
+		final Path last = segments.get(segments.size() - 1);
+		lastSequence = firstSequence(last) - 1;
+		final long validPosition;
+		try (JournalReader.SegmentCursor cursor = new JournalReader.SegmentCursor(last)) {
+			for (JournalRecord record = cursor.next(); record != null; record = cursor.next()) {
+				lastSequence = record.getSequence();
+			}
+			validPosition = cursor.getValidPosition();
+		}
+		durableSequence = lastSequence;
+		segment = FileChannel.open(last, StandardOpenOption.WRITE);
+		if (segment.size() > validPosition) {
+			LOGGER.warn("Discarding {} bytes of incomplete records at the end of {}", segment.size() - validPosition, last);
+			segment.truncate(validPosition);
+		}
+		segment.position(validPosition);
+		segmentSize = validPosition;
+	}
+
+	@Override
+	public void routeChanged(ChangeType type, RouteDetails route) {
+		final long sequence = enqueue(type, route);
+		if (durability == Durability.SYNC) {
+			unsyncedSequence.get()[0] = sequence;
+		}
+	}
+
+	/**
+	 * With {@link Durability#SYNC}, waits until the changes reported on this thread have been forced to disk.
+	 *
+	 * @throws UncheckedIOException if writing the changes failed
+	 */
+	@Override
+	public void changesApplied() {
+		if (durability == Durability.SYNC) {
+			final long[] unsynced = unsyncedSequence.get();
+			final long sequence = unsynced[0];
+			if (sequence > 0) {
+				unsynced[0] = 0;
+				awaitDurable(sequence);
+			}
+		}
+	}
+
+	/**
+	 * Appends a change to the journal.
+	 *
+	 * @return the change's sequence number
+	 * @throws UncheckedIOException with {@link Durability#SYNC} if writing the change failed. The change stays
+	 *         queued and is written once a retry succeeds.
+	 */
+	public long append(ChangeType type, RouteDetails route) {
+		final long sequence = enqueue(type, route);
+		if (durability == Durability.SYNC) {
+			awaitDurable(sequence);
+		}
+		return sequence;
+	}
+
+	private long enqueue(ChangeType type, RouteDetails route) {
+		final PendingRecord record = new PendingRecord(type, route, System.currentTimeMillis());
+		synchronized (queueLock) {
+			if (closed) {
+				throw new IllegalStateException("Route journal has been closed");
+			}
+			record.sequence = ++lastSequence;
+			queue.add(record);
+			if (queue.size() == 1) {
+				queueLock.notifyAll();
+			}
+			return record.sequence;
+		}
+	}
+
+	/**
+	 * Waits until the change with {@code sequence} and every change before it have been forced to disk.
+	 *
+	 * @throws UncheckedIOException if writing the change failed. The change stays queued and is written once a retry
+	 *         succeeds.
+	 */
+	public void awaitDurable(long sequence) {
+		synchronized (queueLock) {
+			while (durableSequence < sequence) {
+				if (writeFailure != null && failedSequence >= sequence) {
+					throw new UncheckedIOException("Unable to journal change " + sequence, writeFailure);
+				}
+				try {
+					queueLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the sequence number of the last change appended.
+	 */
+	public long getLastSequence() {
+		synchronized (queueLock) {
+			return lastSequence;
+		}
+	}
+
+	/**
+	 * Returns the sequence number of the last change forced to disk.
+	 */
+	public long getDurableSequence() {
+		synchronized (queueLock) {
+			return durableSequence;
+		}
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	private void writeRecords() {
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		// Holds a failed batch until it is written.
+		List<PendingRecord> batch = new ArrayList<>();
+		long retryDelay = 0;
+		while (true) {
+			synchronized (queueLock) {
+				if (retryDelay > 0 && !closed) {
+					try {
+						queueLock.wait(retryDelay);
+					} catch (InterruptedException e) {
+						// Only closing stops the writer.
+					}
+				}
+				while (batch.isEmpty() && queue.isEmpty() && !closed) {
+					try {
+						queueLock.wait();
+					} catch (InterruptedException e) {
+						// Only closing stops the writer.
+					}
+				}
+				if (batch.isEmpty() && queue.isEmpty()) {
+					return;
+				}
+				if (batch.isEmpty()) {
+					batch = queue;
+					queue = new ArrayList<>();
+				} else {
+					batch.addAll(queue);
+					queue.clear();
+				}
+			}
+			buffer.clear();
+			IOException failure = null;
+			try {
+				for (PendingRecord record : batch) {
+					try {
+						buffer = JournalCodec.encode(buffer, record.sequence, record.timestamp, record.type, record.route);
+					} catch (IllegalArgumentException e) {
+						LOGGER.error("Unable to journal {} of {}", record.type, record.route, e);
+					}
+				}
+				buffer.flip();
+				write(buffer, batch.get(0).sequence);
+			} catch (IOException e) {
+				failure = e;
+			} catch (RuntimeException e) {
+				failure = new IOException(e);
+			}
+			final boolean closing;
+			synchronized (queueLock) {
+				final long last = batch.get(batch.size() - 1).sequence;
+				if (failure == null) {
+					durableSequence = last;
+					writeFailure = null;
+				} else {
+					writeFailure = failure;
+					failedSequence = last;
+				}
+				closing = closed;
+				queueLock.notifyAll();
+			}
+			if (failure == null) {
+				batch = new ArrayList<>();
+				retryDelay = 0;
+			} else if (closing) {
+				LOGGER.error("Discarding {} route changes the closed journal was unable to write", batch.size(), failure);
+				return;
+			} else {
+				retryDelay = Math.min(Math.max(retryDelay * 2, MIN_RETRY_DELAY), MAX_RETRY_DELAY);
+				LOGGER.error("Unable to journal {} route changes, retrying in {}ms", batch.size(), retryDelay, failure);
+			}
+		}
+	}
+
+	/**
+	 * Writes and forces {@code buffer} to the current segment. A failed write is truncated away so that retrying
+	 * it doesn't leave a partial record in the middle of the segment.
+	 */
+	private void write(ByteBuffer buffer, long firstSequence) throws IOException {
+		synchronized (segmentLock) {
+			if (segment == null || segmentSize >= maxSegmentSize) {
+				closeSegment();
+				segment = FileChannel.open(directory.resolve(segmentName(firstSequence)), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+				segmentSize = 0;
+			}
+			final long start = segmentSize;
+			try {
+				while (buffer.hasRemaining()) {
+					segmentSize += segment.write(buffer);
+				}
+				segment.force(false);
+			} catch (IOException e) {
+				try {
+					segment.truncate(start);
+					segment.position(start);
+					segmentSize = start;
+				} catch (IOException truncateFailure) {
+					// Retry in a new segment, readers skip the incomplete record at the end of this one.
+					e.addSuppressed(truncateFailure);
+					closeSegment();
+				}
+				throw e;
+			}
+		}
+	}
+
+	// Must hold #segmentLock
+	private void closeSegment() throws IOException {
+		if (segment != null) {
+			segment.close();
+			segment = null;
+		}
+	}
+
+	/**
+	 * Rewrites the journal into a single segment holding only the last register of each route that is still
+	 * registered. Records keep their sequence numbers. Changes appended while compacting go to a new segment and
+	 * are not compacted.
+	 */
+	public synchronized void compact() throws IOException {
+		final List<Path> segments;
+		synchronized (segmentLock) {
+			closeSegment();
+			segments = listSegments(directory);
+		}
+		if (segments.isEmpty()) {
+			return;
+		}
+		final Map<Map.Entry<String, InetSocketAddress>, JournalRecord> routes = new HashMap<>();
+		long records = 0;
+		for (Path path : segments) {
+			try (JournalReader.SegmentCursor cursor = new JournalReader.SegmentCursor(path)) {
+				for (JournalRecord record = cursor.next(); record != null; record = cursor.next()) {
+					final Map.Entry<String, InetSocketAddress> key = new AbstractMap.SimpleImmutableEntry<>(record.getHost(), record.getAddress());
+					if (record.getType() == ChangeType.REGISTER) {
+						routes.put(key, record);
+					} else {
+						routes.remove(key);
+					}
+					records++;
+				}
+			}
+		}
+		final List<JournalRecord> compacted = new ArrayList<>(routes.values());
+		compacted.sort(Comparator.comparingLong(JournalRecord::getSequence));
+
+		final Path target = segments.get(0);
+		final Path temp = directory.resolve(target.getFileName() + COMPACTING_SUFFIX);
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+			for (JournalRecord record : compacted) {
+				buffer = JournalCodec.encode(buffer, record.getSequence(), record.getTimestamp(), record.getType(), record);
+				if (buffer.position() > buffer.capacity() / 2) {
+					writeFully(channel, buffer);
+				}
+			}
+			writeFully(channel, buffer);
+			channel.force(false);
+		}
+		try {
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		for (Path path : segments.subList(1, segments.size())) {
+			Files.delete(path);
+		}
+		LOGGER.info("Compacted {} journal records in {} segments to {} records", records, segments.size(), compacted.size());
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Stops accepting changes, writes the changes already queued and closes the journal.
+	 */
+	@Override
+	public void close() {
+		synchronized (queueLock) {
+			closed = true;
+			queueLock.notifyAll();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (segmentLock) {
+			try {
+				closeSegment();
+			} catch (IOException e) {
+				LOGGER.warn("Error closing journal segment", e);
+			}
+		}
+	}
+
+	/**
+	 * Applies the changes in the journal at {@code directory} to {@code registrar} in order. Registers are applied
+	 * with {@link RouteRegistrar#insertRoute}, unregisters and evictions with {@link RouteRegistrar#unregisterRoute}.
+	 * Don't replay into a table that journals to the same directory.
+	 *
+	 * @return the number of records applied
+	 */
+	public static long replay(Path directory, RouteRegistrar registrar) throws IOException {
+		long count = 0;
+		try (JournalReader reader = new JournalReader(directory, 0)) {
+			for (JournalRecord record = reader.next(); record != null; record = reader.next()) {
+				if (record.getType() == ChangeType.REGISTER) {
+					registrar.insertRoute(record.getHost(), record.getAddress(), record.getApplicationGuid(), record.getApplicationIndex(), record.getPrivateInstanceId());
+				} else {
+					registrar.unregisterRoute(record.getHost(), record.getAddress());
+				}
+				count++;
+			}
+		}
+		return count;
+	}
+
+	static String segmentName(long firstSequence) {
+		return String.format("%020d%s", firstSequence, SEGMENT_SUFFIX);
+	}
+
+	static long firstSequence(Path segment) {
+		final String name = segment.getFileName().toString();
+		return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	/**
+	 * Returns the segments in {@code directory} ordered by the sequence number of their first record.
+	 */
+	static List<Path> listSegments(Path directory) throws IOException {
+		final List<Path> segments = new ArrayList<>();
+		if (!Files.isDirectory(directory)) {
+			return segments;
+		}
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+			for (Path path : stream) {
+				segments.add(path);
+			}
+		}
+		segments.sort(Comparator.comparingLong(RouteJournal::firstSequence));
+		return segments;
+	}
+
+	private static class PendingRecord {
+		private final ChangeType type;
+		private final RouteDetails route;
+		private final long timestamp;
+		// Assigned while holding the queue lock.
+		private long sequence;
+
+		private PendingRecord(ChangeType type, RouteDetails route, long timestamp) {
+			this.type = type;
+			this.route = route;
+			this.timestamp = timestamp;
+		}
+	}
+}
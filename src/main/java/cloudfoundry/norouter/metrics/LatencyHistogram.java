@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds with one bucket per power of two. Percentiles are reported as the upper
+ * bound of the bucket they fall in, so they are accurate to within a factor of two.
+ *
+ * <p>Every bucket is a {@link LongAdder}, so recording from many threads doesn't contend or lock.
+ *
+ * @author Mike Heath
+ */
+public class LatencyHistogram {
+
+	// Bucket i holds durations in [2^(i-1), 2^i), bucket 0 holds durations of zero.
+	private final LongAdder[] buckets = new LongAdder[Long.SIZE + 1];
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	public LatencyHistogram() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets[Long.SIZE - Long.numberOfLeadingZeros(nanos)].increment();
+		total.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (LongAdder bucket : buckets) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	public long getMaxNanos() {
+		return max.get();
+	}
+
+	public double getMeanNanos() {
+		final long count = getCount();
+		return count == 0 ? 0 : total.sum() / (double) count;
+	}
+
+	/**
+	 * Returns an upper bound of the given percentile.
+	 *
+	 * @param percentile the percentile between 0 and 1, e.g. 0.99
+	 */
+	public long getPercentileNanos(double percentile) {
+		if (percentile < 0 || percentile > 1) {
+			throw new IllegalArgumentException("percentile must be between 0 and 1");
+		}
+		final long[] counts = new long[buckets.length];
+		long count = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			counts[i] = buckets[i].sum();
+			count += counts[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(percentile * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				final long upperBound = (i == 0) ? 0 : (i >= Long.SIZE - 1) ? Long.MAX_VALUE : (1L << i) - 1;
+				return Math.min(upperBound, getMaxNanos());
+			}
+		}
+		return getMaxNanos();
+	}
+}
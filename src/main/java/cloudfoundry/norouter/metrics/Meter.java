@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events and tracks their rate as an exponentially weighted moving average over one minute.
+ *
+ * <p>Marking an event only increments a {@link LongAdder}, so concurrent writers don't contend with each other.
+ * The moving average is brought up to date when the rate is read.
+ *
+ * @author Mike Heath
+ */
+public class Meter {
+
+	private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+	private static final double SECONDS_PER_TICK = 5.0;
+	private static final double ALPHA = 1 - Math.exp(-SECONDS_PER_TICK / 60.0);
+
+	private final LongAdder count = new LongAdder();
+	private final long startTime;
+
+	// Only accessed while holding this meter's monitor, i.e. when the rate is read.
+	private long lastTick;
+	private long lastCount;
+	private double rate;
+	private boolean initialized;
+
+	public Meter() {
+		this(System.nanoTime());
+	}
+
+	Meter(long startTime) {
+		this.startTime = startTime;
+		lastTick = startTime;
+	}
+
+	public void mark() {
+		count.increment();
+	}
+
+	public void mark(long events) {
+		count.add(events);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Returns the number of events per second averaged over the last minute.
+	 */
+	public double getOneMinuteRate() {
+		return getOneMinuteRate(System.nanoTime());
+	}
+
+	synchronized double getOneMinuteRate(long now) {
+		final long ticks = (now - lastTick) / TICK_INTERVAL;
+		if (ticks > 0) {
+			lastTick += ticks * TICK_INTERVAL;
+			final long current = count.sum();
+			// The rate is only brought up to date when read, so spread the events counted since the last read evenly
+			// over the ticks that elapsed, as if the average had been updated on every tick.
+			final double tickRate = (current - lastCount) / (ticks * SECONDS_PER_TICK);
+			lastCount = current;
+			if (initialized) {
+				rate = tickRate + (rate - tickRate) * Math.pow(1 - ALPHA, ticks);
+			} else {
+				rate = tickRate;
+				initialized = true;
+			}
+		}
+		return rate;
+	}
+
+	/**
+	 * Returns the number of events per second since the meter was created.
+	 */
+	public double getMeanRate() {
+		final long elapsed = System.nanoTime() - startTime;
+		return elapsed <= 0 ? 0 : count.sum() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+	}
+}
@@ -23,10 +23,15 @@ import cf.nats.message.RouterGreet;
 import cf.nats.message.RouterRegister;
 import cf.nats.message.RouterStart;
 import cf.nats.message.RouterUnregister;
-import cloudfoundry.norouter.RouteProvider;
+import cloudfoundry.norouter.AvailabilityListener;
+import cloudfoundry.norouter.AvailabilityState;
+import cloudfoundry.norouter.ObservableRouteProvider;
+import cloudfoundry.norouter.metrics.Meter;
+import cloudfoundry.norouter.routingtable.RouteInterner;
 import cloudfoundry.norouter.routingtable.RouteRegistrar;
 import nats.client.Registration;
 import nats.client.Subscription;
+import nats.client.spring.NatsDisconnectedApplicationEvent;
 import nats.client.spring.NatsServerReadyApplicationEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,30 +42,47 @@ import org.springframework.core.Ordered;
 
 import java.net.InetSocketAddress;
 import java.time.Duration;
-import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * Registers the routes announced over NATS. The provider is available while it's connected to NATS and receives the
+ * pings it sends to itself. Pings mark it available as they arrive, losing the NATS connection marks it unavailable
+ * right away and a watchdog running every ping interval marks it unavailable once no ping was received for two ping
+ * intervals.
+ *
  * @author Mike Heath
  */
-public class NatsRouteProvider implements AutoCloseable, RouteProvider, ApplicationListener<ApplicationEvent>, Ordered {
+public class NatsRouteProvider implements AutoCloseable, ObservableRouteProvider, ApplicationListener<ApplicationEvent>, Ordered {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(NatsRouteProvider.class);
 
+	private static final String NOT_CONNECTED = "Not connected to NATS";
+
 	private final CfNats nats;
 	private final Duration natsPingInterval;
 
 	private volatile boolean started = false;
+	private volatile boolean closed = false;
 
 	private Subscription routerGreetSubscription;
 
 	private Registration pingRegistration;
 	private Subscription pingSubscription;
-	private volatile Instant lastPingReceipt;
+	// System.nanoTime() of the last ping received, only valid once pingReceived is set.
+	private volatile long lastPingReceipt;
+	private volatile boolean pingReceived = false;
+
+	private final AvailabilityState availability = new AvailabilityState(this, "Not started");
+	private final ScheduledExecutorService watchdogScheduler;
+	private final boolean ownsWatchdogScheduler;
+	private ScheduledFuture<?> watchdogFuture;
 
 	private RouterStart routerStartMessage;
 
@@ -68,6 +90,13 @@ public class NatsRouteProvider implements AutoCloseable, RouteProvider, Applicat
 	private Subscription routeUnregisterSubscription;
 
 	private final RouteRegistrar registrar;
+	private final RouteInterner interner;
+
+	private final Meter registerMessages = new Meter();
+	private final Meter unregisterMessages = new Meter();
+
+	// Null when route messages are handled on the NATS callback thread.
+	private final PartitionedExecutor partitions;
 
 	public static Builder create() {
 		return new Builder();
@@ -81,6 +110,10 @@ public class NatsRouteProvider implements AutoCloseable, RouteProvider, Applicat
 		private Duration registerInterval = Duration.ofSeconds(30);
 		private UUID routerId = UUID.randomUUID();
 		private RouteRegistrar registrar;
+		private RouteInterner interner;
+		private int partitions;
+		private int partitionQueueCapacity;
+		private ScheduledExecutorService scheduler;
 
 		public Builder addHost(String host) {
 			Objects.requireNonNull(routerId);
@@ -117,6 +150,44 @@ public class NatsRouteProvider implements AutoCloseable, RouteProvider, Applicat
 			return this;
 		}
 
+		/**
+		 * Sets the interner used to canonicalize the addresses and application GUIDs decoded from NATS messages.
+		 * Use the routing table's interner so both share the same instances.
+		 */
+		public Builder interner(RouteInterner interner) {
+			Objects.requireNonNull(interner);
+			this.interner = interner;
+			return this;
+		}
+
+		/**
+		 * Handles route messages on {@code partitions} worker threads instead of the NATS callback thread. Messages
+		 * are assigned to a worker by their backend address, so the messages for the same backend, e.g. a register
+		 * followed by an unregister, are always handled in the order they arrived. Each worker queues up to
+		 * {@code queueCapacity} messages before the NATS callback thread has to wait.
+		 */
+		public Builder partitions(int partitions, int queueCapacity) {
+			if (partitions < 1) {
+				throw new IllegalArgumentException("partitions must be positive");
+			}
+			if (queueCapacity < 1) {
+				throw new IllegalArgumentException("queueCapacity must be positive");
+			}
+			this.partitions = partitions;
+			this.partitionQueueCapacity = queueCapacity;
+			return this;
+		}
+
+		/**
+		 * Sets the scheduler running the availability watchdog. By default the provider runs the watchdog on a
+		 * thread of its own.
+		 */
+		public Builder scheduler(ScheduledExecutorService scheduler) {
+			Objects.requireNonNull(scheduler);
+			this.scheduler = scheduler;
+			return this;
+		}
+
 		public NatsRouteProvider build() {
 			return new NatsRouteProvider(this);
 		}
@@ -126,10 +197,18 @@ public class NatsRouteProvider implements AutoCloseable, RouteProvider, Applicat
 	private NatsRouteProvider(Builder builder) {
 		Objects.requireNonNull(builder.registrar, "routeRegistrar is a required argument");
 		registrar = builder.registrar;
+		interner = (builder.interner == null) ? new RouteInterner() : builder.interner;
+		partitions = (builder.partitions == 0) ? null : new PartitionedExecutor("nats-route-handler", builder.partitions, builder.partitionQueueCapacity);
 
 		Objects.requireNonNull(builder.nats, "nats is a required argument");
 		nats = builder.nats;
 		natsPingInterval = (builder.natsPingInterval == null) ? builder.registerInterval : builder.natsPingInterval;
+		ownsWatchdogScheduler = builder.scheduler == null;
+		watchdogScheduler = ownsWatchdogScheduler ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "nats-route-provider-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		}) : builder.scheduler;
 
 		// TODO Version field isn't used anymore, remove from cf-nats
 		// TODO Refactor RouterStart to accept a Duration instance
@@ -141,27 +220,36 @@ public class NatsRouteProvider implements AutoCloseable, RouteProvider, Applicat
 	}
 
 	public void start() {
-		pingSubscription = nats.subscribe(PingMessage.class, (message) -> lastPingReceipt = Instant.now());
+		pingSubscription = nats.subscribe(PingMessage.class, (message) -> {
+			lastPingReceipt = System.nanoTime();
+			pingReceived = true;
+			checkAvailability();
+		});
 		pingRegistration = nats.publish(new PingMessage(), natsPingInterval.toMillis(), TimeUnit.MILLISECONDS);
 
 		routeRegisterSubscription = nats.subscribe(RouterRegister.class, publication -> {
+			registerMessages.mark();
 			final RouterRegister routerRegister = publication.getMessageBody();
-			routerRegister.getUris().forEach(uri -> {
-				final InetSocketAddress address = InetSocketAddress.createUnresolved(routerRegister.getHost(), routerRegister.getPort());
-				registrar.registerRoute(
-						uri,
+			dispatch(routerRegister.getHost(), routerRegister.getPort(), () -> {
+				// Decode once per message rather than once per URI. The address and GUID of a heartbeat are already
+				// pooled and found without allocating, the table interns the private instance id of new routes.
+				final InetSocketAddress address = interner.address(routerRegister.getHost(), routerRegister.getPort());
+				final UUID applicationGuid = interner.applicationGuid(routerRegister.getApp());
+				registrar.registerRoutes(
+						routerRegister.getUris(),
 						address,
-						routerRegister.getApp() == null ? null : UUID.fromString(routerRegister.getApp()),
+						applicationGuid,
 						routerRegister.getIndex(),
 						routerRegister.getPrivateInstanceId());
 			});
 		});
 
 		routeUnregisterSubscription = nats.subscribe(RouterUnregister.class, publication -> {
+			unregisterMessages.mark();
 			final RouterUnregister routerUnregister = publication.getMessageBody();
-			routerUnregister.getUris().forEach(uri -> {
-				final InetSocketAddress address = InetSocketAddress.createUnresolved(routerUnregister.getHost(), routerUnregister.getPort());
-				registrar.unregisterRoute(uri, address);
+			dispatch(routerUnregister.getHost(), routerUnregister.getPort(), () -> {
+				final InetSocketAddress address = interner.address(routerUnregister.getHost(), routerUnregister.getPort());
+				registrar.unregisterRoutes(routerUnregister.getUris(), address);
 			});
 		});
 
@@ -169,10 +257,37 @@ public class NatsRouteProvider implements AutoCloseable, RouteProvider, Applicat
 
 		nats.publish(routerStartMessage);
 		started = true;
+		final long interval = natsPingInterval.toNanos();
+		watchdogFuture = watchdogScheduler.scheduleWithFixedDelay(this::checkAvailability, interval, interval, TimeUnit.NANOSECONDS);
+		checkAvailability();
 		LOGGER.info("Listening for route updates over NATS");
 	}
 
+	private void checkAvailability() {
+		if (closed) {
+			availability.unavailable("Closed");
+		} else if (!started) {
+			availability.unavailable("Not started");
+		} else if (!nats.isConnected()) {
+			availability.unavailable(NOT_CONNECTED);
+		} else if (!pingReceived) {
+			availability.unavailable("No ping received over NATS yet");
+		} else if (System.nanoTime() - lastPingReceipt >= natsPingInterval.toNanos() * 2) {
+			availability.unavailable("No ping received over NATS for two ping intervals");
+		} else {
+			availability.available();
+		}
+	}
+
 	public void close() {
+		closed = true;
+		if (watchdogFuture != null) {
+			watchdogFuture.cancel(false);
+		}
+		if (ownsWatchdogScheduler) {
+			watchdogScheduler.shutdown();
+		}
+		checkAvailability();
 		if (pingRegistration != null) {
 			pingRegistration.remove();
 		}
@@ -188,6 +303,28 @@ public class NatsRouteProvider implements AutoCloseable, RouteProvider, Applicat
 		if (routeUnregisterSubscription != null) {
 			routeUnregisterSubscription.close();
 		}
+		if (partitions != null) {
+			partitions.close();
+		}
+	}
+
+	/**
+	 * Handles a message for the given backend on the calling thread, or on the backend's partition if messages are
+	 * partitioned.
+	 */
+	private void dispatch(String backendHost, Integer backendPort, Runnable handler) {
+		if (partitions == null) {
+			handler.run();
+		} else {
+			partitions.execute(Objects.hashCode(backendHost) * 31 + Objects.hashCode(backendPort), handler);
+		}
+	}
+
+	/**
+	 * Returns the number of route messages waiting to be handled, always 0 unless messages are partitioned.
+	 */
+	public int getPendingMessageCount() {
+		return (partitions == null) ? 0 : partitions.getQueueDepth();
 	}
 
 	@Override
@@ -195,9 +332,28 @@ public class NatsRouteProvider implements AutoCloseable, RouteProvider, Applicat
 		if (event instanceof ContextRefreshedEvent) {
 			start();
 		} else if (event instanceof NatsServerReadyApplicationEvent) {
-			if (isStarted()) {
-				nats.publish(routerStartMessage);
-			}
+			requestRegistrations();
+		} else if (event instanceof NatsDisconnectedApplicationEvent) {
+			natsDisconnected();
+		}
+	}
+
+	/**
+	 * Marks the provider unavailable as soon as the NATS connection drops rather than on the next watchdog run. Pings
+	 * or the watchdog make it available again once reconnected.
+	 */
+	private void natsDisconnected() {
+		if (!closed) {
+			availability.unavailable(NOT_CONNECTED);
+		}
+	}
+
+	/**
+	 * Publishes a router start message, asking every route emitter to register all of its routes again.
+	 */
+	public void requestRegistrations() {
+		if (isStarted()) {
+			nats.publish(routerStartMessage);
 		}
 	}
 
@@ -208,17 +364,53 @@ public class NatsRouteProvider implements AutoCloseable, RouteProvider, Applicat
 
 	@Override
 	public boolean isAvailable() {
-		boolean available = started && nats.isConnected();
-		final Instant lastPingTime = lastPingReceipt == null ? Instant.MIN : lastPingReceipt;
-		final Duration timeSincePing = Duration.between(lastPingTime, Instant.now());
-		available &= timeSincePing.compareTo(natsPingInterval.multipliedBy(2)) < 0;
-		return available;
+		return availability.isAvailable();
+	}
+
+	@Override
+	public String getUnavailableReason() {
+		return availability.getUnavailableReason();
+	}
+
+	@Override
+	public void addAvailabilityListener(AvailabilityListener listener) {
+		availability.addListener(listener);
+	}
+
+	@Override
+	public void removeAvailabilityListener(AvailabilityListener listener) {
+		availability.removeListener(listener);
 	}
 
 	public boolean isStarted() {
 		return started;
 	}
 
+	/**
+	 * Returns the time since the last ping sent to ourselves over NATS was received, or {@code null} if no ping has
+	 * been received yet. Pings are sent every ping interval, so anything much larger indicates NATS is lagging.
+	 */
+	public Duration getTimeSinceLastPing() {
+		return pingReceived ? Duration.ofNanos(System.nanoTime() - lastPingReceipt) : null;
+	}
+
+	public Duration getNatsPingInterval() {
+		return natsPingInterval;
+	}
+
+	public Meter getRegisterMessages() {
+		return registerMessages;
+	}
+
+	public Meter getUnregisterMessages() {
+		return unregisterMessages;
+	}
+
+	@Override
+	public String toString() {
+		return "NatsRouteProvider";
+	}
+
 	@NatsSubject("norouter.ping")
 	private static class PingMessage extends JsonObject implements MessageBody<Void> {
 		public PingMessage() {
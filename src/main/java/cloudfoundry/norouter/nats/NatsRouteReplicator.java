@@ -0,0 +1,722 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.nats;
+
+import cf.nats.CfNats;
+import cf.nats.DefaultCfNats;
+import cloudfoundry.norouter.routingtable.RouteChange;
+import cloudfoundry.norouter.routingtable.RouteChanges;
+import cloudfoundry.norouter.routingtable.RouteDetails;
+import cloudfoundry.norouter.routingtable.RouteInterner;
+import cloudfoundry.norouter.routingtable.RouteRegistrar;
+import cloudfoundry.norouter.routingtable.RoutingTable;
+import cloudfoundry.norouter.routingtable.RoutingTableSnapshot;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nats.client.Message;
+import nats.client.Nats;
+import nats.client.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Replicates routing tables between norouter nodes over NATS so a node joining a running cluster is warm within
+ * seconds instead of waiting for a full register interval.
+ *
+ * <p>A joining node publishes a {@link ReplicationSyncRequest}. Serving nodes subscribe to sync requests in a
+ * queue group, so exactly one of them streams its table back as gzip compressed {@link ReplicationSnapshotChunk}s.
+ * The joining node registers the routes of the snapshot and from then on follows the {@link ReplicationDelta}s of
+ * that node. Every serving node publishes its deltas periodically from {@link RoutingTable#changesSince(long)} on a
+ * subject of its own, which only its followers subscribe to, so each delta is delivered once per follower rather
+ * than to the whole cluster. If a delta is missed or the source asks for a resync, the joining node requests a new
+ * snapshot. It does the same when no chunk arrived for a sync timeout while a snapshot streams, e.g. because the
+ * last chunk was lost or the source died, and after {@value #MAX_SYNC_REQUESTS} stalled transfers in a row it serves
+ * its table as it is.
+ *
+ * <p>Following must never form a cycle: the nodes of a cycle would keep registering each other's routes and no
+ * route on it would ever be evicted. A node leaves the sync queue group while it requests a snapshot, but the nodes
+ * following it, directly or through others, are still in it. So snapshot chunks and deltas carry the chain of nodes
+ * their source follows, and a node rejects answers from a source whose chain contains it and asks again, up to
+ * {@value #MAX_SYNC_REQUESTS} times. If a delta reveals a cycle that formed anyway, e.g. because two nodes synced
+ * at the same time, the node requests a new snapshot. Replicated routes are registered like routes received over
+ * NATS, so they are evicted as usual if they aren't registered again.
+ *
+ * @author Mike Heath
+ */
+public class NatsRouteReplicator implements AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(NatsRouteReplicator.class);
+
+	static final String QUEUE_GROUP = "norouter.replication";
+	static final String DELTA_SUBJECT_PREFIX = "norouter.replication.delta.";
+
+	// How often a sync request is sent before giving up on peers that only answer from downstream, and how often a
+	// snapshot transfer is attempted before the node serves its table as it is.
+	static final int MAX_SYNC_REQUESTS = 3;
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	// Deltas are split at sequence boundaries once they hold this many changes.
+	private static final int MAX_CHANGES_PER_DELTA = 1000;
+
+	private static final byte HAS_APPLICATION_GUID = 1;
+	private static final byte HAS_APPLICATION_INDEX = 2;
+	private static final byte HAS_PRIVATE_INSTANCE_ID = 4;
+
+	private final String nodeId = UUID.randomUUID().toString();
+	private final Nats nats;
+	private final CfNats cfNats;
+	private final RoutingTable routingTable;
+	private final RouteRegistrar registrar;
+	private final RouteInterner interner;
+	private final ScheduledExecutorService scheduler;
+	private final int chunkSize;
+	private final Duration deltaInterval;
+	private final Duration syncTimeout;
+	private final boolean join;
+
+	private Subscription syncSubscription;
+	private Subscription chunkSubscription;
+	private ScheduledFuture<?> deltaFuture;
+
+	// Guarded by this.
+	private boolean serving;
+	private boolean closed;
+	private long lastPublished;
+	private Sync sync;
+	private String following;
+	// The nodes this node follows, directly or through others, nearest first.
+	private List<String> upstream = Collections.emptyList();
+	private Subscription followSubscription;
+	private long applied;
+
+	public static Builder create() {
+		return new Builder();
+	}
+
+	public static class Builder {
+		private Nats nats;
+		private RoutingTable routingTable;
+		private RouteRegistrar registrar;
+		private ScheduledExecutorService scheduler;
+		private int chunkSize = 256 * 1024;
+		private Duration deltaInterval = Duration.ofMillis(250);
+		private Duration syncTimeout = Duration.ofSeconds(5);
+		private boolean join = true;
+
+		/**
+		 * Sets the NATS connection. Deltas are published on per node subjects, so the replicator needs the plain
+		 * connection rather than a {@link CfNats}.
+		 */
+		public Builder nats(Nats nats) {
+			Objects.requireNonNull(nats);
+			this.nats = nats;
+			return this;
+		}
+
+		/**
+		 * Sets the table that is served to peers.
+		 */
+		public Builder routingTable(RoutingTable routingTable) {
+			Objects.requireNonNull(routingTable);
+			this.routingTable = routingTable;
+			return this;
+		}
+
+		/**
+		 * Sets where replicated routes are registered, defaults to the {@link #routingTable(RoutingTable) routing
+		 * table}.
+		 */
+		public Builder registrar(RouteRegistrar registrar) {
+			Objects.requireNonNull(registrar);
+			this.registrar = registrar;
+			return this;
+		}
+
+		/**
+		 * Sets the scheduler used to publish deltas and to send and apply snapshots off the NATS callback thread.
+		 */
+		public Builder scheduler(ScheduledExecutorService scheduler) {
+			Objects.requireNonNull(scheduler);
+			this.scheduler = scheduler;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of compressed bytes per snapshot chunk, defaults to 256KB.
+		 */
+		public Builder chunkSize(int chunkSize) {
+			if (chunkSize < 1) {
+				throw new IllegalArgumentException("chunkSize must be positive");
+			}
+			this.chunkSize = chunkSize;
+			return this;
+		}
+
+		public Builder deltaInterval(Duration deltaInterval) {
+			Objects.requireNonNull(deltaInterval);
+			this.deltaInterval = deltaInterval;
+			return this;
+		}
+
+		/**
+		 * Sets how long a joining node waits for a snapshot before it assumes it's the first node and starts
+		 * serving, defaults to five seconds. Once a snapshot is streaming, it's also how long the node waits for the
+		 * next chunk before it requests the snapshot again.
+		 */
+		public Builder syncTimeout(Duration syncTimeout) {
+			Objects.requireNonNull(syncTimeout);
+			this.syncTimeout = syncTimeout;
+			return this;
+		}
+
+		/**
+		 * Sets whether the node requests a snapshot from its peers when started, the default. Otherwise it only
+		 * serves its table.
+		 */
+		public Builder join(boolean join) {
+			this.join = join;
+			return this;
+		}
+
+		public NatsRouteReplicator build() {
+			return new NatsRouteReplicator(this);
+		}
+	}
+
+	private NatsRouteReplicator(Builder builder) {
+		Objects.requireNonNull(builder.nats, "nats is a required argument");
+		Objects.requireNonNull(builder.routingTable, "routingTable is a required argument");
+		Objects.requireNonNull(builder.scheduler, "scheduler is a required argument");
+		nats = builder.nats;
+		cfNats = new DefaultCfNats(builder.nats);
+		routingTable = builder.routingTable;
+		registrar = (builder.registrar == null) ? builder.routingTable : builder.registrar;
+		interner = builder.routingTable.getInterner();
+		scheduler = builder.scheduler;
+		chunkSize = builder.chunkSize;
+		deltaInterval = builder.deltaInterval;
+		syncTimeout = builder.syncTimeout;
+		join = builder.join;
+	}
+
+	public synchronized void start() {
+		chunkSubscription = cfNats.subscribe(ReplicationSnapshotChunk.class, publication -> onChunk(publication.getMessageBody()));
+		if (join) {
+			requestSync();
+		} else {
+			startServing();
+		}
+	}
+
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Returns {@code true} once the node serves its table to peers.
+	 */
+	public synchronized boolean isServing() {
+		return serving;
+	}
+
+	/**
+	 * Returns the id of the node whose deltas this node follows, or {@code null}.
+	 */
+	public synchronized String getFollowing() {
+		return following;
+	}
+
+	/**
+	 * Returns the ids of the nodes this node follows, directly or through other nodes, nearest first.
+	 */
+	public synchronized List<String> getUpstream() {
+		return upstream;
+	}
+
+	synchronized boolean isSyncing() {
+		return sync != null;
+	}
+
+	/**
+	 * Returns the subject the deltas of node {@code nodeId} are published on.
+	 */
+	static String deltaSubject(String nodeId) {
+		return DELTA_SUBJECT_PREFIX + nodeId;
+	}
+
+	private synchronized void startServing() {
+		if (closed) {
+			return;
+		}
+		if (syncSubscription == null) {
+			syncSubscription = cfNats.subscribe(ReplicationSyncRequest.class, QUEUE_GROUP, publication -> {
+				final ReplicationSyncRequest request = publication.getMessageBody();
+				if (!nodeId.equals(request.getNodeId())) {
+					scheduler.execute(() -> sendSnapshot(request.getRequestId()));
+				}
+			});
+		}
+		if (serving) {
+			return;
+		}
+		serving = true;
+		lastPublished = routingTable.snapshot().getVersion();
+		deltaFuture = scheduler.scheduleWithFixedDelay(this::publishDeltas, deltaInterval.toMillis(), deltaInterval.toMillis(), TimeUnit.MILLISECONDS);
+		LOGGER.info("Serving routing table replicas as node {}", nodeId);
+	}
+
+	// ---- Serving
+
+	private void sendSnapshot(String requestId) {
+		final List<String> chain = getUpstream();
+		final RoutingTableSnapshot snapshot = routingTable.snapshot();
+		try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new ChunkOutputStream(requestId, snapshot.getVersion(), chain), 8192))) {
+			writeSnapshot(snapshot, out);
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("Unable to send routing table snapshot for sync request {}", requestId, e);
+		}
+	}
+
+	private static void writeSnapshot(RoutingTableSnapshot snapshot, DataOutputStream out) throws IOException {
+		try {
+			snapshot.forEachHost((host, routes) -> {
+				try {
+					out.writeBoolean(true);
+					out.writeUTF(host);
+					out.writeInt(routes.size());
+					for (RouteDetails route : routes) {
+						writeRoute(route, out);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		out.writeBoolean(false);
+	}
+
+	private static void writeRoute(RouteDetails route, DataOutputStream out) throws IOException {
+		out.writeUTF(route.getAddress().getHostString());
+		out.writeChar(route.getAddress().getPort());
+		byte flags = 0;
+		if (route.getApplicationGuid() != null) {
+			flags |= HAS_APPLICATION_GUID;
+		}
+		if (route.getApplicationIndex() != null) {
+			flags |= HAS_APPLICATION_INDEX;
+		}
+		if (route.getPrivateInstanceId() != null) {
+			flags |= HAS_PRIVATE_INSTANCE_ID;
+		}
+		out.writeByte(flags);
+		if (route.getApplicationGuid() != null) {
+			out.writeLong(route.getApplicationGuid().getMostSignificantBits());
+			out.writeLong(route.getApplicationGuid().getLeastSignificantBits());
+		}
+		if (route.getApplicationIndex() != null) {
+			out.writeInt(route.getApplicationIndex());
+		}
+		if (route.getPrivateInstanceId() != null) {
+			out.writeUTF(route.getPrivateInstanceId());
+		}
+	}
+
+	void publishDeltas() {
+		// Publish outside the lock so a slow connection doesn't hold up following.
+		final String subject = deltaSubject(nodeId);
+		for (ReplicationDelta delta : collectDeltas()) {
+			try {
+				nats.publish(subject, MAPPER.writeValueAsString(delta));
+			} catch (IOException e) {
+				LOGGER.error("Unable to encode replication delta up to {}", delta.getSequence(), e);
+			}
+		}
+	}
+
+	private synchronized List<ReplicationDelta> collectDeltas() {
+		if (closed) {
+			return Collections.emptyList();
+		}
+		final RouteChanges changes = routingTable.changesSince(lastPublished);
+		final List<ReplicationDelta> deltas = new ArrayList<>();
+		if (changes.isResync()) {
+			deltas.add(new ReplicationDelta(nodeId, lastPublished, changes.getSequence(), true, null, upstream));
+		} else {
+			long since = lastPublished;
+			List<ReplicationDelta.Change> batch = new ArrayList<>();
+			for (RouteChange change : changes.getChanges()) {
+				// Never split changes sharing a sequence, followers skip sequences they've seen.
+				if (batch.size() >= MAX_CHANGES_PER_DELTA && change.getSequence() != batch.get(batch.size() - 1).getSequence()) {
+					final long sequence = batch.get(batch.size() - 1).getSequence();
+					deltas.add(new ReplicationDelta(nodeId, since, sequence, false, batch, upstream));
+					since = sequence;
+					batch = new ArrayList<>();
+				}
+				final RouteDetails route = change.getRoute();
+				batch.add(new ReplicationDelta.Change(
+						change.getSequence(),
+						change.getType(),
+						route.getHost(),
+						route.getAddress().getHostString(),
+						route.getAddress().getPort(),
+						route.getApplicationGuid(),
+						route.getApplicationIndex(),
+						route.getPrivateInstanceId()));
+			}
+			if (!batch.isEmpty()) {
+				deltas.add(new ReplicationDelta(nodeId, since, changes.getSequence(), false, batch, upstream));
+			}
+		}
+		lastPublished = changes.getSequence();
+		return deltas;
+	}
+
+	/**
+	 * Publishes everything written to it as snapshot chunks of at most {@link #chunkSize} bytes, the last one when
+	 * closed.
+	 */
+	private class ChunkOutputStream extends OutputStream {
+		private final String requestId;
+		private final long sequence;
+		private final List<String> upstream;
+		private final byte[] buffer = new byte[chunkSize];
+		private int position;
+		private int index;
+
+		private ChunkOutputStream(String requestId, long sequence, List<String> upstream) {
+			this.requestId = requestId;
+			this.sequence = sequence;
+			this.upstream = upstream;
+		}
+
+		@Override
+		public void write(int b) {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			while (len > 0) {
+				if (position == buffer.length) {
+					publish(false);
+				}
+				final int count = Math.min(len, buffer.length - position);
+				System.arraycopy(b, off, buffer, position, count);
+				position += count;
+				off += count;
+				len -= count;
+			}
+		}
+
+		@Override
+		public void close() {
+			publish(true);
+		}
+
+		private void publish(boolean last) {
+			cfNats.publish(new ReplicationSnapshotChunk(requestId, nodeId, sequence, index++, last, Arrays.copyOf(buffer, position), upstream));
+			position = 0;
+		}
+	}
+
+	// ---- Following
+
+	synchronized void requestSync() {
+		if (closed) {
+			return;
+		}
+		unfollow();
+		if (syncSubscription != null) {
+			// Leave the queue group while syncing, so our own request goes to a peer.
+			syncSubscription.close();
+			syncSubscription = null;
+		}
+		// A sync requested while another is incomplete is a retry, give up after a few.
+		sync = new Sync(UUID.randomUUID().toString(), (sync == null) ? 1 : sync.attempt + 1);
+		final Sync requested = sync;
+		scheduleSyncTimeout(requested, syncTimeout.toNanos());
+		publishSyncRequest(requested);
+	}
+
+	// Must hold this
+	private void scheduleSyncTimeout(Sync requested, long delay) {
+		scheduler.schedule(() -> syncTimedOut(requested), delay, TimeUnit.NANOSECONDS);
+	}
+
+	// Must hold this
+	private void publishSyncRequest(Sync requested) {
+		requested.requests++;
+		cfNats.publish(new ReplicationSyncRequest(requested.requestId, nodeId));
+	}
+
+	// Must hold this
+	private void follow(String sourceId) {
+		unfollow();
+		followSubscription = nats.subscribe(deltaSubject(sourceId), this::onDelta);
+	}
+
+	// Must hold this
+	private void unfollow() {
+		following = null;
+		upstream = Collections.emptyList();
+		if (followSubscription != null) {
+			followSubscription.close();
+			followSubscription = null;
+		}
+	}
+
+	/**
+	 * Runs {@link #syncTimeout} after a sync was requested and again after each chunk received since. Chunks don't
+	 * reschedule the timeout themselves, it's pushed back here by the time since the last one.
+	 */
+	private synchronized void syncTimedOut(Sync requested) {
+		if (sync != requested || requested.complete) {
+			return;
+		}
+		final long remaining = requested.lastActivity + syncTimeout.toNanos() - System.nanoTime();
+		if (remaining > 0) {
+			scheduleSyncTimeout(requested, remaining);
+			return;
+		}
+		if (requested.sourceId == null) {
+			LOGGER.info("No peer answered sync request {}, serving the routing table as it is", requested.requestId);
+		} else if (requested.attempt < MAX_SYNC_REQUESTS) {
+			LOGGER.warn("Snapshot from {} stalled after {} chunks, requesting a new snapshot", requested.sourceId, requested.chunks.size());
+			requestSync();
+			return;
+		} else {
+			LOGGER.warn("Snapshot from {} stalled after {} chunks {} times, serving the routing table as it is",
+					requested.sourceId, requested.chunks.size(), requested.attempt);
+			unfollow();
+		}
+		sync = null;
+		startServing();
+	}
+
+	private synchronized void onChunk(ReplicationSnapshotChunk chunk) {
+		if (sync == null || !sync.requestId.equals(chunk.getRequestId())) {
+			return;
+		}
+		if (sync.sourceId == null) {
+			if (sync.rejected.contains(chunk.getSourceId())) {
+				return;
+			}
+			if (chunk.getUpstream().contains(nodeId)) {
+				sync.rejected.add(chunk.getSourceId());
+				LOGGER.info("Rejected snapshot from {}, it follows this node", chunk.getSourceId());
+				if (sync.requests < MAX_SYNC_REQUESTS) {
+					publishSyncRequest(sync);
+				}
+				return;
+			}
+			sync.sourceId = chunk.getSourceId();
+			sync.upstream = chunk.getUpstream();
+			// Subscribe right away, deltas published while the snapshot is in flight are applied after it.
+			follow(sync.sourceId);
+		} else if (!sync.sourceId.equals(chunk.getSourceId())) {
+			return;
+		}
+		if (chunk.getIndex() != sync.chunks.size()) {
+			LOGGER.warn("Missed snapshot chunk {} from {}, requesting a new snapshot", sync.chunks.size(), sync.sourceId);
+			requestSync();
+			return;
+		}
+		sync.chunks.add(chunk.getData());
+		sync.lastActivity = System.nanoTime();
+		if (chunk.isLast()) {
+			sync.complete = true;
+			final Sync completed = sync;
+			final long sequence = chunk.getSequence();
+			scheduler.execute(() -> applySnapshot(completed, sequence));
+		}
+	}
+
+	private void applySnapshot(Sync completed, long sequence) {
+		final long start = System.currentTimeMillis();
+		final int count;
+		try {
+			count = readSnapshot(completed.chunks);
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("Unable to apply routing table snapshot from {}", completed.sourceId, e);
+			requestSync();
+			return;
+		}
+		synchronized (this) {
+			if (sync != completed) {
+				return;
+			}
+			sync = null;
+			following = completed.sourceId;
+			upstream = chain(following, completed.upstream);
+			applied = sequence;
+			LOGGER.info("Replicated {} routes from {} in {}ms", count, following, System.currentTimeMillis() - start);
+			for (ReplicationDelta delta : completed.deltas) {
+				applyDelta(delta);
+			}
+			startServing();
+		}
+	}
+
+	private int readSnapshot(List<byte[]> chunks) throws IOException {
+		final List<InputStream> streams = new ArrayList<>(chunks.size());
+		for (byte[] chunk : chunks) {
+			streams.add(new ByteArrayInputStream(chunk));
+		}
+		int count = 0;
+		try (DataInputStream in = new DataInputStream(new GZIPInputStream(new SequenceInputStream(Collections.enumeration(streams)), 8192))) {
+			while (in.readBoolean()) {
+				final String host = in.readUTF();
+				final int routes = in.readInt();
+				for (int i = 0; i < routes; i++) {
+					final InetSocketAddress address = interner.address(in.readUTF(), in.readChar());
+					final byte flags = in.readByte();
+					final UUID applicationGuid = ((flags & HAS_APPLICATION_GUID) == 0) ? null : interner.applicationGuid(new UUID(in.readLong(), in.readLong()));
+					final Integer applicationIndex = ((flags & HAS_APPLICATION_INDEX) == 0) ? null : in.readInt();
+					final String privateInstanceId = ((flags & HAS_PRIVATE_INSTANCE_ID) == 0) ? null : in.readUTF();
+					registrar.registerRoute(host, address, applicationGuid, applicationIndex, privateInstanceId);
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	private void onDelta(Message message) {
+		final ReplicationDelta delta;
+		try {
+			delta = MAPPER.readValue(message.getBody(), ReplicationDelta.class);
+		} catch (IOException e) {
+			LOGGER.error("Unable to decode replication delta on {}", message.getSubject(), e);
+			return;
+		}
+		onDelta(delta);
+	}
+
+	private synchronized void onDelta(ReplicationDelta delta) {
+		if (following == null) {
+			// Deltas published while the snapshot is in flight are applied once it has been.
+			if (sync != null && (sync.sourceId == null || sync.sourceId.equals(delta.getSourceId()))) {
+				sync.deltas.add(delta);
+			}
+			return;
+		}
+		if (following.equals(delta.getSourceId())) {
+			applyDelta(delta);
+		}
+	}
+
+	private void applyDelta(ReplicationDelta delta) {
+		if (!delta.getSourceId().equals(following) || delta.getSequence() <= applied) {
+			return;
+		}
+		if (delta.isResync() || delta.getSince() > applied) {
+			LOGGER.warn("Lost track of the changes of {}, requesting a new snapshot", following);
+			requestSync();
+			return;
+		}
+		if (delta.getUpstream().contains(nodeId)) {
+			LOGGER.warn("Following {} formed a cycle through {}, requesting a new snapshot", following, delta.getUpstream());
+			requestSync();
+			return;
+		}
+		upstream = chain(following, delta.getUpstream());
+		for (ReplicationDelta.Change change : delta.getChanges()) {
+			if (change.getSequence() <= applied) {
+				continue;
+			}
+			final InetSocketAddress address = interner.address(change.getAddress(), change.getPort());
+			switch (change.getType()) {
+				case REGISTER:
+					registrar.registerRoute(change.getHost(), address, change.getApplicationGuid(), change.getApplicationIndex(), change.getPrivateInstanceId());
+					break;
+				case UNREGISTER:
+				case EVICT:
+					registrar.unregisterRoute(change.getHost(), address);
+					break;
+				default:
+					throw new IllegalStateException("Unknown change type " + change.getType());
+			}
+		}
+		applied = delta.getSequence();
+	}
+
+	private static List<String> chain(String source, List<String> sourceUpstream) {
+		final List<String> chain = new ArrayList<>(sourceUpstream.size() + 1);
+		chain.add(source);
+		chain.addAll(sourceUpstream);
+		return Collections.unmodifiableList(chain);
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+		if (deltaFuture != null) {
+			deltaFuture.cancel(false);
+		}
+		for (Subscription subscription : Arrays.asList(syncSubscription, chunkSubscription, followSubscription)) {
+			if (subscription != null) {
+				subscription.close();
+			}
+		}
+	}
+
+	private static final class Sync {
+		private final String requestId;
+		private final List<byte[]> chunks = new ArrayList<>();
+		private final List<ReplicationDelta> deltas = new ArrayList<>();
+		// Peers that answered but follow this node.
+		private final Set<String> rejected = new HashSet<>();
+		// Counts the snapshot transfers attempted in a row, starting at 1.
+		private final int attempt;
+		private int requests;
+		private String sourceId;
+		private List<String> upstream = Collections.emptyList();
+		// System.nanoTime() of the request or the last chunk received.
+		private long lastActivity = System.nanoTime();
+		private boolean complete;
+
+		private Sync(String requestId, int attempt) {
+			this.requestId = requestId;
+			this.attempt = attempt;
+		}
+	}
+}
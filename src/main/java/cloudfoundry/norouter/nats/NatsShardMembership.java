@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.nats;
+
+import cf.nats.CfNats;
+import cloudfoundry.norouter.routingtable.ConsistentHashRing;
+import cloudfoundry.norouter.routingtable.ShardedRouteRegistrar;
+import nats.client.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the ring of a {@link ShardedRouteRegistrar} in sync with the members of a cluster. Each member announces
+ * itself over NATS every announce interval, a member that isn't heard from within the member timeout is taken off
+ * the ring. When a member joins, every other member announces itself right away so the new member learns the ring
+ * without waiting for the next interval.
+ *
+ * <p>The ring is updated on the scheduler rather than the NATS callback thread, since releasing the hosts this
+ * member lost scans the routing table. Whenever this member gains hosts, i.e. when other members leave, the
+ * rebalance listener is invoked, e.g. to ask route emitters to register their routes again so this member picks up
+ * the hosts it gained. Members joining only take hosts away, so they don't invoke the listener.
+ *
+ * @author Mike Heath
+ */
+public class NatsShardMembership implements AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(NatsShardMembership.class);
+
+	private final CfNats nats;
+	private final ShardedRouteRegistrar registrar;
+	private final ScheduledExecutorService scheduler;
+	private final Duration announceInterval;
+	private final long memberTimeoutNanos;
+	private final String address;
+	private final Runnable rebalanceListener;
+
+	private final Map<String, Member> members = new ConcurrentHashMap<>();
+
+	private Subscription subscription;
+	private ScheduledFuture<?> announceFuture;
+
+	public static Builder create() {
+		return new Builder();
+	}
+
+	public static class Builder {
+		private CfNats nats;
+		private ShardedRouteRegistrar registrar;
+		private ScheduledExecutorService scheduler;
+		private Duration announceInterval = Duration.ofSeconds(5);
+		private Duration memberTimeout;
+		private String address;
+		private Runnable rebalanceListener;
+
+		public Builder nats(CfNats nats) {
+			this.nats = nats;
+			return this;
+		}
+
+		public Builder registrar(ShardedRouteRegistrar registrar) {
+			this.registrar = registrar;
+			return this;
+		}
+
+		public Builder scheduler(ScheduledExecutorService scheduler) {
+			this.scheduler = scheduler;
+			return this;
+		}
+
+		public Builder announceInterval(Duration announceInterval) {
+			Objects.requireNonNull(announceInterval);
+			this.announceInterval = announceInterval;
+			return this;
+		}
+
+		/**
+		 * Sets how long a member may go unheard before it's taken off the ring, three announce intervals by default.
+		 */
+		public Builder memberTimeout(Duration memberTimeout) {
+			Objects.requireNonNull(memberTimeout);
+			this.memberTimeout = memberTimeout;
+			return this;
+		}
+
+		/**
+		 * Sets the address announced to peers, so they can tell where the hosts this member owns are served.
+		 */
+		public Builder address(String address) {
+			this.address = address;
+			return this;
+		}
+
+		public Builder rebalanceListener(Runnable rebalanceListener) {
+			this.rebalanceListener = rebalanceListener;
+			return this;
+		}
+
+		public NatsShardMembership build() {
+			return new NatsShardMembership(this);
+		}
+	}
+
+	private NatsShardMembership(Builder builder) {
+		Objects.requireNonNull(builder.nats, "nats is a required argument");
+		Objects.requireNonNull(builder.registrar, "registrar is a required argument");
+		Objects.requireNonNull(builder.scheduler, "scheduler is a required argument");
+		nats = builder.nats;
+		registrar = builder.registrar;
+		scheduler = builder.scheduler;
+		announceInterval = builder.announceInterval;
+		memberTimeoutNanos = ((builder.memberTimeout == null) ? builder.announceInterval.multipliedBy(3) : builder.memberTimeout).toNanos();
+		address = builder.address;
+		rebalanceListener = builder.rebalanceListener;
+	}
+
+	public synchronized void start() {
+		subscription = nats.subscribe(ShardAnnouncement.class, publication -> onAnnouncement(publication.getMessageBody()));
+		final long interval = announceInterval.toMillis();
+		announceFuture = scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				announce();
+				expireMembers();
+			} catch (RuntimeException e) {
+				LOGGER.error("Error maintaining shard membership", e);
+			}
+		}, 0, interval, TimeUnit.MILLISECONDS);
+	}
+
+	private void announce() {
+		nats.publish(new ShardAnnouncement(registrar.getMemberId(), address));
+	}
+
+	private void onAnnouncement(ShardAnnouncement announcement) {
+		final String memberId = announcement.getMemberId();
+		if (memberId == null || memberId.equals(registrar.getMemberId())) {
+			return;
+		}
+		final Member member = members.get(memberId);
+		if (member != null) {
+			member.address = announcement.getAddress();
+			member.lastSeen = System.nanoTime();
+			return;
+		}
+		if (members.putIfAbsent(memberId, new Member(announcement.getAddress())) == null) {
+			LOGGER.info("Shard member {} joined", memberId);
+			scheduler.execute(() -> {
+				updateRing();
+				announce();
+			});
+		}
+	}
+
+	private void expireMembers() {
+		final long now = System.nanoTime();
+		boolean expired = false;
+		for (Map.Entry<String, Member> entry : members.entrySet()) {
+			if (now - entry.getValue().lastSeen > memberTimeoutNanos && members.remove(entry.getKey(), entry.getValue())) {
+				LOGGER.info("Shard member {} timed out", entry.getKey());
+				expired = true;
+			}
+		}
+		if (expired) {
+			updateRing();
+		}
+	}
+
+	private synchronized void updateRing() {
+		final ConsistentHashRing previous = registrar.getRing();
+		if (registrar.setMembers(members.keySet())
+				&& rebalanceListener != null
+				&& registrar.getRing().gainsHosts(registrar.getMemberId(), previous)) {
+			rebalanceListener.run();
+		}
+	}
+
+	/**
+	 * Returns the ids of the peers currently on the ring, not including this member.
+	 */
+	public Set<String> getPeers() {
+		return Collections.unmodifiableSet(members.keySet());
+	}
+
+	/**
+	 * Returns the id of the member holding the routes of {@code host}.
+	 */
+	public String getOwner(String host) {
+		return registrar.getOwner(host);
+	}
+
+	/**
+	 * Returns the announced address of the member holding the routes of {@code host}, or {@code null} if the owner
+	 * didn't announce an address.
+	 */
+	public String getOwnerAddress(String host) {
+		final String owner = registrar.getOwner(host);
+		if (registrar.getMemberId().equals(owner)) {
+			return address;
+		}
+		final Member member = members.get(owner);
+		return (member == null) ? null : member.address;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (announceFuture != null) {
+			announceFuture.cancel(false);
+		}
+		if (subscription != null) {
+			subscription.close();
+		}
+	}
+
+	private static class Member {
+		volatile String address;
+		volatile long lastSeen = System.nanoTime();
+
+		Member(String address) {
+			this.address = address;
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.nats;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks on a fixed number of lanes, each with its own thread. Tasks with the same key always run on the same
+ * lane, in the order they were submitted, while tasks with different keys run in parallel.
+ *
+ * <p>Each lane has a bounded queue. Submitting to a full lane blocks until there is room, so a burst of messages
+ * slows down the submitting thread instead of exhausting memory or dropping tasks.
+ *
+ * @author Mike Heath
+ */
+class PartitionedExecutor implements AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PartitionedExecutor.class);
+
+	private static final Runnable SHUTDOWN = () -> {};
+
+	private final Lane[] lanes;
+
+	PartitionedExecutor(String name, int partitions, int queueCapacity) {
+		if (partitions < 1) {
+			throw new IllegalArgumentException("partitions must be positive");
+		}
+		lanes = new Lane[partitions];
+		for (int i = 0; i < partitions; i++) {
+			lanes[i] = new Lane(queueCapacity);
+			lanes[i].thread = new Thread(lanes[i], name + "-" + i);
+			lanes[i].thread.setDaemon(true);
+			lanes[i].thread.start();
+		}
+	}
+
+	/**
+	 * Queues {@code task} on the lane for {@code key}, waiting for room if the lane is full.
+	 */
+	void execute(int key, Runnable task) {
+		final Lane lane = lanes[((key ^ (key >>> 16)) & Integer.MAX_VALUE) % lanes.length];
+		try {
+			lane.queue.put(task);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while queueing task", e);
+		}
+	}
+
+	int getPartitions() {
+		return lanes.length;
+	}
+
+	/**
+	 * Returns the number of tasks waiting across all lanes.
+	 */
+	int getQueueDepth() {
+		int depth = 0;
+		for (Lane lane : lanes) {
+			depth += lane.queue.size();
+		}
+		return depth;
+	}
+
+	/**
+	 * Runs the tasks already queued and stops the lanes.
+	 */
+	@Override
+	public void close() {
+		for (Lane lane : lanes) {
+			try {
+				lane.queue.put(SHUTDOWN);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		for (Lane lane : lanes) {
+			try {
+				lane.thread.join(TimeUnit.SECONDS.toMillis(10));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private static class Lane implements Runnable {
+		private final BlockingQueue<Runnable> queue;
+		private Thread thread;
+
+		private Lane(int capacity) {
+			queue = new ArrayBlockingQueue<>(capacity);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				final Runnable task;
+				try {
+					task = queue.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (task == SHUTDOWN) {
+					return;
+				}
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					LOGGER.error("Error handling NATS message", e);
+				}
+			}
+		}
+	}
+}
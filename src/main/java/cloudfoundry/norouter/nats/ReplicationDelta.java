@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.nats;
+
+import cf.common.JsonObject;
+import cloudfoundry.norouter.routingtable.RouteChangeListener;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The changes made to a node's routing table after {@link #getSince()} up to {@link #getSequence()}, published
+ * periodically by every node serving replicas on the node's own delta subject, see {@link
+ * NatsRouteReplicator#deltaSubject(String)}. If the node can no longer tell what changed, {@link #isResync()} is set
+ * and followers have to request a new snapshot.
+ *
+ * @author Mike Heath
+ */
+public class ReplicationDelta extends JsonObject {
+
+	private final String sourceId;
+	private final long since;
+	private final long sequence;
+	private final boolean resync;
+	private final List<Change> changes;
+	private final List<String> upstream;
+
+	@JsonCreator
+	public ReplicationDelta(
+			@JsonProperty("sourceId") String sourceId,
+			@JsonProperty("since") long since,
+			@JsonProperty("sequence") long sequence,
+			@JsonProperty("resync") boolean resync,
+			@JsonProperty("changes") List<Change> changes,
+			@JsonProperty("upstream") List<String> upstream) {
+		this.sourceId = sourceId;
+		this.since = since;
+		this.sequence = sequence;
+		this.resync = resync;
+		this.changes = (changes == null) ? Collections.emptyList() : changes;
+		this.upstream = (upstream == null) ? Collections.emptyList() : upstream;
+	}
+
+	public String getSourceId() {
+		return sourceId;
+	}
+
+	public long getSince() {
+		return since;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public boolean isResync() {
+		return resync;
+	}
+
+	public List<Change> getChanges() {
+		return changes;
+	}
+
+	/**
+	 * Returns the ids of the nodes the source currently follows, see {@link ReplicationSnapshotChunk#getUpstream()}.
+	 */
+	public List<String> getUpstream() {
+		return upstream;
+	}
+
+	public static class Change extends JsonObject {
+		private final long sequence;
+		private final RouteChangeListener.ChangeType type;
+		private final String host;
+		private final String address;
+		private final int port;
+		private final UUID applicationGuid;
+		private final Integer applicationIndex;
+		private final String privateInstanceId;
+
+		@JsonCreator
+		public Change(
+				@JsonProperty("sequence") long sequence,
+				@JsonProperty("type") RouteChangeListener.ChangeType type,
+				@JsonProperty("host") String host,
+				@JsonProperty("address") String address,
+				@JsonProperty("port") int port,
+				@JsonProperty("applicationGuid") UUID applicationGuid,
+				@JsonProperty("applicationIndex") Integer applicationIndex,
+				@JsonProperty("privateInstanceId") String privateInstanceId) {
+			this.sequence = sequence;
+			this.type = type;
+			this.host = host;
+			this.address = address;
+			this.port = port;
+			this.applicationGuid = applicationGuid;
+			this.applicationIndex = applicationIndex;
+			this.privateInstanceId = privateInstanceId;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public RouteChangeListener.ChangeType getType() {
+			return type;
+		}
+
+		public String getHost() {
+			return host;
+		}
+
+		public String getAddress() {
+			return address;
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+		public UUID getApplicationGuid() {
+			return applicationGuid;
+		}
+
+		public Integer getApplicationIndex() {
+			return applicationIndex;
+		}
+
+		public String getPrivateInstanceId() {
+			return privateInstanceId;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.nats;
+
+import cf.common.JsonObject;
+import cf.nats.MessageBody;
+import cf.nats.NatsSubject;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A piece of a gzip compressed routing table snapshot sent in answer to a {@link ReplicationSyncRequest}. Chunks
+ * are numbered from 0, the last chunk of a snapshot has {@link #isLast()} set.
+ *
+ * @author Mike Heath
+ */
+@NatsSubject("norouter.replication.snapshot")
+public class ReplicationSnapshotChunk extends JsonObject implements MessageBody<Void> {
+
+	private final String requestId;
+	private final String sourceId;
+	private final long sequence;
+	private final int index;
+	private final boolean last;
+	private final byte[] data;
+	private final List<String> upstream;
+
+	@JsonCreator
+	public ReplicationSnapshotChunk(
+			@JsonProperty("requestId") String requestId,
+			@JsonProperty("sourceId") String sourceId,
+			@JsonProperty("sequence") long sequence,
+			@JsonProperty("index") int index,
+			@JsonProperty("last") boolean last,
+			@JsonProperty("data") byte[] data,
+			@JsonProperty("upstream") List<String> upstream) {
+		this.requestId = requestId;
+		this.sourceId = sourceId;
+		this.sequence = sequence;
+		this.index = index;
+		this.last = last;
+		this.data = data;
+		this.upstream = (upstream == null) ? Collections.emptyList() : upstream;
+	}
+
+	public String getRequestId() {
+		return requestId;
+	}
+
+	/**
+	 * Returns the id of the node sending the snapshot.
+	 */
+	public String getSourceId() {
+		return sourceId;
+	}
+
+	/**
+	 * Returns the version of the source's routing table the snapshot was taken at.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public boolean isLast() {
+		return last;
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * Returns the ids of the nodes the source follows, directly or through other nodes, nearest first. A node never
+	 * follows a source that follows it.
+	 */
+	public List<String> getUpstream() {
+		return upstream;
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.nats;
+
+import cf.common.JsonObject;
+import cf.nats.MessageBody;
+import cf.nats.NatsSubject;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Published by a joining node to ask one of its running peers for a snapshot of the routing table. Peers answer
+ * with {@link ReplicationSnapshotChunk}s carrying the same request id.
+ *
+ * @author Mike Heath
+ */
+@NatsSubject("norouter.replication.sync")
+public class ReplicationSyncRequest extends JsonObject implements MessageBody<Void> {
+
+	private final String requestId;
+	private final String nodeId;
+
+	@JsonCreator
+	public ReplicationSyncRequest(
+			@JsonProperty("requestId") String requestId,
+			@JsonProperty("nodeId") String nodeId) {
+		this.requestId = requestId;
+		this.nodeId = nodeId;
+	}
+
+	public String getRequestId() {
+		return requestId;
+	}
+
+	public String getNodeId() {
+		return nodeId;
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.nats;
+
+import cf.common.JsonObject;
+import cf.nats.MessageBody;
+import cf.nats.NatsSubject;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Published periodically by each member of a sharded cluster to announce it's alive. A member that isn't heard from
+ * for a while is taken off the ring.
+ *
+ * @author Mike Heath
+ */
+@NatsSubject("norouter.shard.announce")
+public class ShardAnnouncement extends JsonObject implements MessageBody<Void> {
+
+	private final String memberId;
+	private final String address;
+
+	@JsonCreator
+	public ShardAnnouncement(
+			@JsonProperty("memberId") String memberId,
+			@JsonProperty("address") String address) {
+		this.memberId = memberId;
+		this.address = address;
+	}
+
+	public String getMemberId() {
+		return memberId;
+	}
+
+	/**
+	 * Returns the address peers can reach this member at, e.g. {@code 10.0.0.1:8080}, or {@code null} if the member
+	 * didn't announce one.
+	 */
+	public String getAddress() {
+		return address;
+	}
+}
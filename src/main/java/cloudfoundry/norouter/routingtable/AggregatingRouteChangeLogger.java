@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.Ordered;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logs route changes as periodic INFO summaries instead of a line per change. Each summary holds the number of
+ * routes registered and unregistered, the applications (or hosts, for routes without an application) with the
+ * most changes and a sample of the changes. Per-route detail is logged at DEBUG.
+ *
+ * <p>The listener only queues events on the publishing thread; they are counted and logged from the scheduler.
+ * Summaries are limited to a budget of lines per minute. When the budget is used up, changes keep accumulating
+ * into the next summary that fits the budget. Once too many events are waiting, further events are dropped and
+ * counted.
+ *
+ * <p>Handles {@link RouteRegisterEvent}s, {@link RouteUnregisterEvent}s and {@link RouteChangeBatchEvent}s and
+ * replaces {@link LoggingRouteRegisterEventListener} and {@link LoggingRouteUnregisterEventListener}.
+ *
+ * @author Mike Heath
+ */
+public class AggregatingRouteChangeLogger implements ApplicationListener<ApplicationEvent>, Ordered, AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AggregatingRouteChangeLogger.class);
+
+	private final ScheduledExecutorService scheduler;
+	private final int topGroups;
+	private final int sampleSize;
+	private final int maxPending;
+	private final double linesPerNano;
+	private final double maxTokens;
+	private final int order;
+
+	private final Queue<ApplicationEvent> events = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final LongAdder dropped = new LongAdder();
+	private final ScheduledFuture<?> flushFuture;
+
+	// Only accessed from #flush(), which is synchronized.
+	private final Map<String, int[]> groups = new HashMap<>();
+	private final List<String> sample = new ArrayList<>();
+	private int registered;
+	private int unregistered;
+	private long windowStart = System.nanoTime();
+	private int suppressed;
+	private double tokens;
+	private long lastRefill = System.nanoTime();
+
+	public static Builder create() {
+		return new Builder();
+	}
+
+	public static class Builder {
+		private ScheduledExecutorService scheduler;
+		private Duration interval = Duration.ofSeconds(10);
+		private int maxLinesPerMinute = 6;
+		private int topGroups = 10;
+		private int sampleSize = 5;
+		private int maxPending = 100000;
+		private int order = Integer.MIN_VALUE;
+
+		public Builder scheduler(ScheduledExecutorService scheduler) {
+			this.scheduler = scheduler;
+			return this;
+		}
+
+		/**
+		 * Sets how often a summary is logged, provided the log budget allows it.
+		 */
+		public Builder interval(Duration interval) {
+			Objects.requireNonNull(interval);
+			this.interval = interval;
+			return this;
+		}
+
+		/**
+		 * Sets the number of summary lines that may be logged per minute.
+		 */
+		public Builder maxLinesPerMinute(int maxLinesPerMinute) {
+			if (maxLinesPerMinute < 1) {
+				throw new IllegalArgumentException("maxLinesPerMinute must be positive");
+			}
+			this.maxLinesPerMinute = maxLinesPerMinute;
+			return this;
+		}
+
+		/**
+		 * Sets the number of applications or hosts with the most changes listed in a summary.
+		 */
+		public Builder topGroups(int topGroups) {
+			this.topGroups = topGroups;
+			return this;
+		}
+
+		/**
+		 * Sets the number of individual changes listed in a summary.
+		 */
+		public Builder sampleSize(int sampleSize) {
+			this.sampleSize = sampleSize;
+			return this;
+		}
+
+		/**
+		 * Sets the number of events that may wait to be counted before further events are dropped.
+		 */
+		public Builder maxPending(int maxPending) {
+			if (maxPending < 1) {
+				throw new IllegalArgumentException("maxPending must be positive");
+			}
+			this.maxPending = maxPending;
+			return this;
+		}
+
+		public Builder order(int order) {
+			this.order = order;
+			return this;
+		}
+
+		public AggregatingRouteChangeLogger build() {
+			return new AggregatingRouteChangeLogger(this);
+		}
+	}
+
+	private AggregatingRouteChangeLogger(Builder builder) {
+		Objects.requireNonNull(builder.scheduler, "scheduler is a required argument");
+		scheduler = builder.scheduler;
+		topGroups = builder.topGroups;
+		sampleSize = builder.sampleSize;
+		maxPending = builder.maxPending;
+		linesPerNano = builder.maxLinesPerMinute / (double) TimeUnit.MINUTES.toNanos(1);
+		maxTokens = builder.maxLinesPerMinute;
+		tokens = maxTokens;
+		order = builder.order;
+		final long interval = builder.interval.toMillis();
+		flushFuture = scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationEvent event) {
+		final int weight;
+		if (event instanceof RouteChangeBatchEvent) {
+			weight = ((RouteChangeBatchEvent) event).size();
+		} else if (event instanceof RouteRegisterEvent || event instanceof RouteUnregisterEvent) {
+			weight = 1;
+		} else {
+			return;
+		}
+		if (pending.addAndGet(weight) > maxPending) {
+			pending.addAndGet(-weight);
+			dropped.add(weight);
+			return;
+		}
+		events.offer(event);
+	}
+
+	/**
+	 * Counts the queued events and logs a summary if there were changes and the log budget allows it.
+	 *
+	 * @return the summary logged, or {@code null} if none was
+	 */
+	synchronized String flush() {
+		try {
+			ApplicationEvent event;
+			while ((event = events.poll()) != null) {
+				if (event instanceof RouteChangeBatchEvent) {
+					final RouteChangeBatchEvent batch = (RouteChangeBatchEvent) event;
+					batch.getRegisterEvents().forEach(this::count);
+					batch.getUnregisterEvents().forEach(this::count);
+					pending.addAndGet(-batch.size());
+				} else {
+					count((AbstractRouteEvent) event);
+					pending.decrementAndGet();
+				}
+			}
+			final long droppedEvents = dropped.sumThenReset();
+			if (registered == 0 && unregistered == 0 && droppedEvents == 0) {
+				return null;
+			}
+			if (!takeToken()) {
+				suppressed++;
+				// Dropped events are reported with the next summary logged.
+				dropped.add(droppedEvents);
+				return null;
+			}
+			final String summary = summary(droppedEvents);
+			LOGGER.info(summary);
+			reset();
+			return summary;
+		} catch (RuntimeException e) {
+			LOGGER.error("Error logging route changes", e);
+			return null;
+		}
+	}
+
+	private void count(AbstractRouteEvent event) {
+		final boolean register = event instanceof RouteRegisterEvent;
+		if (LOGGER.isDebugEnabled()) {
+			if (register) {
+				LOGGER.debug("Registering route {} with target address {}", event.getHost(), event.getAddress());
+			} else {
+				LOGGER.debug("Unregistering address {} from route {}", event.getAddress(), event.getHost());
+			}
+		}
+		final String group = (event.getApplicationGuid() == null) ? event.getHost() : event.getApplicationGuid().toString();
+		final int[] counts = groups.computeIfAbsent(group, key -> new int[2]);
+		if (register) {
+			registered++;
+			counts[0]++;
+		} else {
+			unregistered++;
+			counts[1]++;
+		}
+		if (sample.size() < sampleSize) {
+			sample.add((register ? "+" : "-") + event.getHost() + ' ' + format(event.getAddress()));
+		}
+	}
+
+	private boolean takeToken() {
+		final long now = System.nanoTime();
+		tokens = Math.min(maxTokens, tokens + (now - lastRefill) * linesPerNano);
+		lastRefill = now;
+		if (tokens < 1) {
+			return false;
+		}
+		tokens--;
+		return true;
+	}
+
+	private String summary(long droppedEvents) {
+		final StringBuilder summary = new StringBuilder("Route changes over the last ")
+				.append(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - windowStart)).append("s: ")
+				.append(registered).append(" registered, ")
+				.append(unregistered).append(" unregistered for ")
+				.append(groups.size()).append(" applications or hosts");
+		if (topGroups > 0 && !groups.isEmpty()) {
+			summary.append("; most changes: ");
+			final List<Map.Entry<String, int[]>> busiest = new ArrayList<>(groups.entrySet());
+			busiest.sort((a, b) -> Integer.compare(b.getValue()[0] + b.getValue()[1], a.getValue()[0] + a.getValue()[1]));
+			for (int i = 0; i < Math.min(topGroups, busiest.size()); i++) {
+				final Map.Entry<String, int[]> entry = busiest.get(i);
+				if (i > 0) {
+					summary.append(", ");
+				}
+				summary.append(entry.getKey()).append(" (+").append(entry.getValue()[0]).append("/-").append(entry.getValue()[1]).append(')');
+			}
+		}
+		if (!sample.isEmpty()) {
+			summary.append("; sample: ").append(String.join(", ", sample));
+		}
+		if (suppressed > 0) {
+			summary.append("; ").append(suppressed).append(" summaries held back by the log budget");
+		}
+		if (droppedEvents > 0) {
+			summary.append("; ").append(droppedEvents).append(" changes dropped");
+		}
+		return summary.toString();
+	}
+
+	private void reset() {
+		groups.clear();
+		sample.clear();
+		registered = 0;
+		unregistered = 0;
+		suppressed = 0;
+		windowStart = System.nanoTime();
+	}
+
+	private static String format(InetSocketAddress address) {
+		return address.getHostString() + ':' + address.getPort();
+	}
+
+	@Override
+	public int getOrder() {
+		return order;
+	}
+
+	/**
+	 * Stops the periodic summaries and logs the changes still pending, regardless of the log budget.
+	 */
+	@Override
+	public void close() {
+		flushFuture.cancel(false);
+		synchronized (this) {
+			tokens = Math.max(tokens, 1);
+			flush();
+		}
+	}
+}
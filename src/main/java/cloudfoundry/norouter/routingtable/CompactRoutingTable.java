@@ -0,0 +1,757 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import cloudfoundry.norouter.RouteProvider;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link RouteRegistrar} that stores routes in primitive arrays rather than as objects, for tables holding
+ * millions of routes. A route takes roughly 60 bytes plus its share of the index arrays, and the table creates no
+ * garbage while routes are refreshed. {@link RouteDetails} instances are only created when routes are read.
+ *
+ * <p>Backend addresses in canonical dotted decimal IPv4 form, without leading zeros, are stored as a {@code long}
+ * holding the address and the port. Any other address, e.g. a hostname, an IPv6 address or an IPv4 address with
+ * zero padded octets, is kept as an object in a side table shared by the routes to it, and read back exactly as it
+ * was registered. Application GUIDs are stored as two {@code long}s.
+ *
+ * <p>Unlike {@link RoutingTable}, reads and writes share a single read/write lock. Like it, stale routes are found
+ * with a {@link TimingWheel}, so a sweep only examines the routes that may have expired and a route outlives the
+ * stale route timeout by at most a tick. The sweep takes the write lock for a bounded number of routes at a time.
+ * Events are queued while the lock is held and published, in order, once it was released, so slow listeners never
+ * block readers. The thread releasing the lock may publish events queued by other threads.
+ *
+ * @author Mike Heath
+ */
+public class CompactRoutingTable implements AutoCloseable, RouteRegistrar {
+
+	private static final int NO_ROUTE = -1;
+	// Returned by #encodeAddress for addresses that aren't canonical IPv4.
+	private static final long NOT_IPV4 = -1;
+	// Marks encoded addresses holding an index into #otherAddresses rather than an IPv4 address, above its 48 bits.
+	private static final long OTHER_ADDRESS = 1L << 62;
+	private static final int TICKS_PER_TIMEOUT = 60;
+	// The number of due routes examined per write lock acquisition when evicting.
+	private static final int EVICTION_BATCH_SIZE = 1024;
+	private static final byte HAS_APPLICATION_GUID = 1;
+	private static final byte HAS_APPLICATION_INDEX = 2;
+
+	private final ApplicationEventPublisher eventPublisher;
+	private final RouteProvider routeProvider;
+	private final long staleRouteTimeout;
+	private final ScheduledFuture<?> staleRouteScheduleFuture;
+	private final RouteInterner interner = new RouteInterner();
+	// Holds route slots. A slot is in the wheel at most once, the entry of a freed slot is dropped when it comes due
+	// unless the slot was reused in the meantime.
+	private final TimingWheel<Integer> staleRouteWheel;
+
+	// Events of changes made while holding #lock, published in order by whoever holds #publishLock.
+	private final Queue<ApplicationEvent> events = new ConcurrentLinkedQueue<>();
+	private final ReentrantLock publishLock = new ReentrantLock();
+
+	// All fields below must only be accessed while holding #lock.
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// Route storage, indexed by route slot. A slot is free when its host is null, free slots are chained through
+	// #nextRoute starting at #freeRoute.
+	private long[] addresses;
+	private long[] applicationGuidsMost;
+	private long[] applicationGuidsLeast;
+	private int[] applicationIndexes;
+	private byte[] flags;
+	private long[] lastUpdated;
+	// Whether the slot is in #staleRouteWheel.
+	private boolean[] scheduled;
+	private String[] hosts;
+	private String[] privateInstanceIds;
+	// The next route of the same host, forming a singly linked list per host.
+	private int[] nextRoute;
+	private int usedSlots;
+	private int freeRoute = NO_ROUTE;
+	private int routeCount;
+
+	// Open addressing host table using linear probing, mapping a host to its first route slot.
+	private String[] hostKeys;
+	private int[] hostFirstRoutes;
+	private int hostCount;
+
+	// The addresses that aren't canonical IPv4, with the number of routes to each. Indexes are reused once no route
+	// refers to them.
+	private final Map<InetSocketAddress, Integer> otherAddressIndexes = new HashMap<>();
+	private InetSocketAddress[] otherAddresses = new InetSocketAddress[16];
+	private int[] otherAddressRoutes = new int[16];
+	private final Deque<Integer> freeOtherAddresses = new ArrayDeque<>();
+	private int usedOtherAddresses;
+
+	// Open addressing address table using linear probing, mapping an encoded address to a route slot.
+	private long[] addressKeys;
+	private int[] addressRoutes;
+	private int addressCount;
+
+	public CompactRoutingTable(ApplicationEventPublisher eventPublisher, ScheduledExecutorService scheduler, Duration staleRouteTimeout, RouteProvider routeProvider, int initialCapacity) {
+		Objects.requireNonNull(eventPublisher, "eventPublisher is a required argument");
+		Objects.requireNonNull(staleRouteTimeout, "staleRouteTimeout is a required argument");
+		Objects.requireNonNull(routeProvider, "routeProvider is a required argument");
+		this.eventPublisher = eventPublisher;
+		this.routeProvider = routeProvider;
+		this.staleRouteTimeout = staleRouteTimeout.toMillis();
+
+		final int capacity = Math.max(16, initialCapacity);
+		addresses = new long[capacity];
+		applicationGuidsMost = new long[capacity];
+		applicationGuidsLeast = new long[capacity];
+		applicationIndexes = new int[capacity];
+		flags = new byte[capacity];
+		lastUpdated = new long[capacity];
+		scheduled = new boolean[capacity];
+		hosts = new String[capacity];
+		privateInstanceIds = new String[capacity];
+		nextRoute = new int[capacity];
+
+		final int tableSize = tableSizeFor(capacity);
+		hostKeys = new String[tableSize];
+		hostFirstRoutes = new int[tableSize];
+		addressKeys = new long[tableSize];
+		addressRoutes = new int[tableSize];
+		Arrays.fill(addressRoutes, NO_ROUTE);
+
+		final long tick = Math.max(1, this.staleRouteTimeout / TICKS_PER_TIMEOUT);
+		staleRouteWheel = new TimingWheel<>(tick, this.staleRouteTimeout, System.currentTimeMillis());
+		staleRouteScheduleFuture =
+				(scheduler == null) ? null : scheduler.scheduleAtFixedRate(
+						this::cleanupStaleRoutes,
+						tick,
+						tick,
+						TimeUnit.MILLISECONDS
+				);
+	}
+
+	@Override
+	public void close() {
+		if (staleRouteScheduleFuture != null) {
+			staleRouteScheduleFuture.cancel(true);
+		}
+	}
+
+	@Override
+	public void insertRoute(String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId) {
+		addRoute(host, address, applicationGuid, applicationIndex, privateInstanceId, false);
+	}
+
+	@Override
+	public void registerRoute(String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId) {
+		addRoute(host, address, applicationGuid, applicationIndex, privateInstanceId, true);
+	}
+
+	private void addRoute(String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId, boolean register) {
+		host = host.toLowerCase();
+		final long ipv4Address = encodeAddress(address);
+		final long now = System.currentTimeMillis();
+		lock.writeLock().lock();
+		try {
+			final long encodedAddress = (ipv4Address == NOT_IPV4) ? otherAddress(address) : ipv4Address;
+			int hostSlot = findHost(host);
+			int route = (hostSlot < 0) ? NO_ROUTE : findRoute(hostFirstRoutes[hostSlot], encodedAddress);
+			if (route != NO_ROUTE && matches(route, applicationGuid, privateInstanceId)) {
+				if (register) {
+					lastUpdated[route] = now;
+				}
+				return;
+			}
+			if (route == NO_ROUTE) {
+				route = allocateRoute();
+				if (hostSlot < 0) {
+					hostSlot = addHost(interner.host(host));
+				}
+				hosts[route] = hostKeys[hostSlot];
+				addresses[route] = encodedAddress;
+				if ((encodedAddress & OTHER_ADDRESS) != 0) {
+					otherAddressRoutes[(int) encodedAddress]++;
+				}
+				nextRoute[route] = hostFirstRoutes[hostSlot];
+				hostFirstRoutes[hostSlot] = route;
+				routeCount++;
+				if (!scheduled[route]) {
+					scheduled[route] = true;
+					staleRouteWheel.schedule(route, now + staleRouteTimeout + 1);
+				}
+			}
+			byte routeFlags = 0;
+			if (applicationGuid != null) {
+				routeFlags |= HAS_APPLICATION_GUID;
+				applicationGuidsMost[route] = applicationGuid.getMostSignificantBits();
+				applicationGuidsLeast[route] = applicationGuid.getLeastSignificantBits();
+			}
+			if (applicationIndex != null) {
+				routeFlags |= HAS_APPLICATION_INDEX;
+				applicationIndexes[route] = applicationIndex;
+			}
+			flags[route] = routeFlags;
+			privateInstanceIds[route] = interner.privateInstanceId(privateInstanceId);
+			lastUpdated[route] = now;
+			putAddress(encodedAddress, route);
+			if (register) {
+				events.add(RouteRegisterEvent.fromRouteDetails(this, toRouteDetails(route)));
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		publishEvents();
+	}
+
+	@Override
+	public boolean unregisterRoute(String host, InetSocketAddress address) {
+		host = host.toLowerCase();
+		final long ipv4Address = encodeAddress(address);
+		lock.writeLock().lock();
+		try {
+			final long encodedAddress = (ipv4Address == NOT_IPV4) ? findOtherAddress(address) : ipv4Address;
+			if (encodedAddress == NOT_IPV4) {
+				return false;
+			}
+			removeAddress(encodedAddress, NO_ROUTE);
+			final int hostSlot = findHost(host);
+			if (hostSlot < 0) {
+				return false;
+			}
+			final int route = findRoute(hostFirstRoutes[hostSlot], encodedAddress);
+			if (route == NO_ROUTE) {
+				return false;
+			}
+			removeRoute(hostSlot, route);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+			publishEvents();
+		}
+	}
+
+	@Override
+	public RouteDetails getRouteByAddress(InetSocketAddress address) {
+		final long ipv4Address = encodeAddress(address);
+		lock.readLock().lock();
+		try {
+			final long encodedAddress = (ipv4Address == NOT_IPV4) ? findOtherAddress(address) : ipv4Address;
+			if (encodedAddress == NOT_IPV4) {
+				return null;
+			}
+			final int i = findAddress(encodedAddress);
+			return (i < 0) ? null : toRouteDetails(addressRoutes[i]);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public Set<RouteDetails> getRoutes(String host) {
+		host = host.toLowerCase();
+		final Set<RouteDetails> routes = new HashSet<>();
+		lock.readLock().lock();
+		try {
+			final int hostSlot = findHost(host);
+			if (hostSlot >= 0) {
+				for (int route = hostFirstRoutes[hostSlot]; route != NO_ROUTE; route = nextRoute[route]) {
+					routes.add(toRouteDetails(route));
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return routes;
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return routeCount;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Evicts the routes that have not been refreshed within the stale route timeout. Only the routes whose timer
+	 * tick has come due are examined, {@value #EVICTION_BATCH_SIZE} at a time. Nothing is evicted while the
+	 * {@link RouteProvider} is unavailable.
+	 *
+	 * @return the number of routes evicted or -1 if the route provider is unavailable
+	 */
+	protected int cleanupStaleRoutes() {
+		if (!routeProvider.isAvailable()) {
+			return -1;
+		}
+		final long now = System.currentTimeMillis();
+		final List<Integer> due = new ArrayList<>();
+		staleRouteWheel.advance(now, (route, time) -> {
+			due.add(route);
+			return -1;
+		});
+		int count = 0;
+		for (int start = 0; start < due.size(); start += EVICTION_BATCH_SIZE) {
+			lock.writeLock().lock();
+			try {
+				for (Integer route : due.subList(start, Math.min(due.size(), start + EVICTION_BATCH_SIZE))) {
+					if (evictIfStale(route, now)) {
+						count++;
+					}
+				}
+			} finally {
+				lock.writeLock().unlock();
+				publishEvents();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Evicts the route in the given slot if it's stale, reschedules it otherwise. Must hold the write lock.
+	 */
+	private boolean evictIfStale(Integer route, long now) {
+		final int slot = route;
+		if (hosts[slot] == null) {
+			scheduled[slot] = false;
+			return false;
+		}
+		final long deadline = lastUpdated[slot] + staleRouteTimeout;
+		if (now <= deadline) {
+			staleRouteWheel.schedule(route, deadline + 1);
+			return false;
+		}
+		scheduled[slot] = false;
+		removeAddress(addresses[slot], slot);
+		removeRoute(findHost(hosts[slot]), slot);
+		return true;
+	}
+
+	/**
+	 * Publishes the queued events unless another thread already does. Must be invoked after releasing the lock.
+	 */
+	private void publishEvents() {
+		// Check again after unlocking, events queued while we were publishing were left to us.
+		while (!events.isEmpty() && publishLock.tryLock()) {
+			try {
+				for (ApplicationEvent event; (event = events.poll()) != null; ) {
+					eventPublisher.publishEvent(event);
+				}
+			} finally {
+				publishLock.unlock();
+			}
+		}
+	}
+
+	private boolean matches(int route, UUID applicationGuid, String privateInstanceId) {
+		if (applicationGuid == null) {
+			if ((flags[route] & HAS_APPLICATION_GUID) != 0) {
+				return false;
+			}
+		} else if ((flags[route] & HAS_APPLICATION_GUID) == 0
+				|| applicationGuidsMost[route] != applicationGuid.getMostSignificantBits()
+				|| applicationGuidsLeast[route] != applicationGuid.getLeastSignificantBits()) {
+			return false;
+		}
+		return Objects.equals(privateInstanceIds[route], privateInstanceId);
+	}
+
+	private RouteDetails toRouteDetails(int route) {
+		return new CompactRoute(
+				hosts[route],
+				address(addresses[route]),
+				((flags[route] & HAS_APPLICATION_GUID) == 0) ? null : new UUID(applicationGuidsMost[route], applicationGuidsLeast[route]),
+				((flags[route] & HAS_APPLICATION_INDEX) == 0) ? null : applicationIndexes[route],
+				privateInstanceIds[route]);
+	}
+
+	private int findRoute(int first, long encodedAddress) {
+		for (int route = first; route != NO_ROUTE; route = nextRoute[route]) {
+			if (addresses[route] == encodedAddress) {
+				return route;
+			}
+		}
+		return NO_ROUTE;
+	}
+
+	private void removeRoute(int hostSlot, int route) {
+		final RouteDetails details = toRouteDetails(route);
+		int previous = NO_ROUTE;
+		for (int r = hostFirstRoutes[hostSlot]; r != route; r = nextRoute[r]) {
+			previous = r;
+		}
+		if (previous == NO_ROUTE) {
+			hostFirstRoutes[hostSlot] = nextRoute[route];
+		} else {
+			nextRoute[previous] = nextRoute[route];
+		}
+		final boolean last = hostFirstRoutes[hostSlot] == NO_ROUTE;
+		if (last) {
+			removeHost(hostSlot);
+		}
+		hosts[route] = null;
+		privateInstanceIds[route] = null;
+		if ((addresses[route] & OTHER_ADDRESS) != 0) {
+			releaseOtherAddress((int) addresses[route]);
+		}
+		nextRoute[route] = freeRoute;
+		freeRoute = route;
+		routeCount--;
+		events.add(RouteUnregisterEvent.fromRouteDetails(this, details, last));
+	}
+
+	private int allocateRoute() {
+		if (freeRoute != NO_ROUTE) {
+			final int route = freeRoute;
+			freeRoute = nextRoute[route];
+			return route;
+		}
+		if (usedSlots == hosts.length) {
+			final int capacity = hosts.length * 2;
+			addresses = Arrays.copyOf(addresses, capacity);
+			applicationGuidsMost = Arrays.copyOf(applicationGuidsMost, capacity);
+			applicationGuidsLeast = Arrays.copyOf(applicationGuidsLeast, capacity);
+			applicationIndexes = Arrays.copyOf(applicationIndexes, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+			lastUpdated = Arrays.copyOf(lastUpdated, capacity);
+			scheduled = Arrays.copyOf(scheduled, capacity);
+			hosts = Arrays.copyOf(hosts, capacity);
+			privateInstanceIds = Arrays.copyOf(privateInstanceIds, capacity);
+			nextRoute = Arrays.copyOf(nextRoute, capacity);
+		}
+		return usedSlots++;
+	}
+
+	// Host table
+
+	private int findHost(String host) {
+		final int mask = hostKeys.length - 1;
+		for (int i = hash(host.hashCode()) & mask; hostKeys[i] != null; i = (i + 1) & mask) {
+			if (hostKeys[i].equals(host)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int addHost(String host) {
+		if ((hostCount + 1) * 2 > hostKeys.length) {
+			resizeHosts(hostKeys.length * 2);
+		}
+		final int mask = hostKeys.length - 1;
+		int i = hash(host.hashCode()) & mask;
+		while (hostKeys[i] != null) {
+			i = (i + 1) & mask;
+		}
+		hostKeys[i] = host;
+		hostFirstRoutes[i] = NO_ROUTE;
+		hostCount++;
+		return i;
+	}
+
+	private void removeHost(int slot) {
+		final int mask = hostKeys.length - 1;
+		// Shift back following entries of the probe sequence so lookups never need tombstones.
+		int hole = slot;
+		for (int i = (hole + 1) & mask; hostKeys[i] != null; i = (i + 1) & mask) {
+			final int ideal = hash(hostKeys[i].hashCode()) & mask;
+			if (shouldShift(hole, i, ideal)) {
+				hostKeys[hole] = hostKeys[i];
+				hostFirstRoutes[hole] = hostFirstRoutes[i];
+				hole = i;
+			}
+		}
+		hostKeys[hole] = null;
+		hostFirstRoutes[hole] = NO_ROUTE;
+		hostCount--;
+	}
+
+	private void resizeHosts(int size) {
+		final String[] oldKeys = hostKeys;
+		final int[] oldFirstRoutes = hostFirstRoutes;
+		hostKeys = new String[size];
+		hostFirstRoutes = new int[size];
+		final int mask = size - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] != null) {
+				int i = hash(oldKeys[j].hashCode()) & mask;
+				while (hostKeys[i] != null) {
+					i = (i + 1) & mask;
+				}
+				hostKeys[i] = oldKeys[j];
+				hostFirstRoutes[i] = oldFirstRoutes[j];
+			}
+		}
+	}
+
+	// Address table, a slot is empty when its route is NO_ROUTE.
+
+	private int findAddress(long encodedAddress) {
+		final int mask = addressKeys.length - 1;
+		for (int i = hash(Long.hashCode(encodedAddress)) & mask; addressRoutes[i] != NO_ROUTE; i = (i + 1) & mask) {
+			if (addressKeys[i] == encodedAddress) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void putAddress(long encodedAddress, int route) {
+		final int existing = findAddress(encodedAddress);
+		if (existing >= 0) {
+			addressRoutes[existing] = route;
+			return;
+		}
+		if ((addressCount + 1) * 2 > addressKeys.length) {
+			resizeAddresses(addressKeys.length * 2);
+		}
+		final int mask = addressKeys.length - 1;
+		int i = hash(Long.hashCode(encodedAddress)) & mask;
+		while (addressRoutes[i] != NO_ROUTE) {
+			i = (i + 1) & mask;
+		}
+		addressKeys[i] = encodedAddress;
+		addressRoutes[i] = route;
+		addressCount++;
+	}
+
+	/**
+	 * Removes the address from the address table if it maps to {@code route}, or regardless of the route it maps
+	 * to if {@code route} is {@code NO_ROUTE}.
+	 */
+	private void removeAddress(long encodedAddress, int route) {
+		final int slot = findAddress(encodedAddress);
+		if (slot < 0 || (route != NO_ROUTE && addressRoutes[slot] != route)) {
+			return;
+		}
+		final int mask = addressKeys.length - 1;
+		int hole = slot;
+		for (int i = (hole + 1) & mask; addressRoutes[i] != NO_ROUTE; i = (i + 1) & mask) {
+			final int ideal = hash(Long.hashCode(addressKeys[i])) & mask;
+			if (shouldShift(hole, i, ideal)) {
+				addressKeys[hole] = addressKeys[i];
+				addressRoutes[hole] = addressRoutes[i];
+				hole = i;
+			}
+		}
+		addressRoutes[hole] = NO_ROUTE;
+		addressCount--;
+	}
+
+	private void resizeAddresses(int size) {
+		final long[] oldKeys = addressKeys;
+		final int[] oldRoutes = addressRoutes;
+		addressKeys = new long[size];
+		addressRoutes = new int[size];
+		Arrays.fill(addressRoutes, NO_ROUTE);
+		final int mask = size - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldRoutes[j] != NO_ROUTE) {
+				int i = hash(Long.hashCode(oldKeys[j])) & mask;
+				while (addressRoutes[i] != NO_ROUTE) {
+					i = (i + 1) & mask;
+				}
+				addressKeys[i] = oldKeys[j];
+				addressRoutes[i] = oldRoutes[j];
+			}
+		}
+	}
+
+	/**
+	 * Returns {@code true} if the entry at {@code i}, whose ideal slot is {@code ideal}, may move into the empty
+	 * slot {@code hole} without becoming unreachable, i.e. if {@code ideal} is not cyclically within (hole, i].
+	 */
+	private static boolean shouldShift(int hole, int i, int ideal) {
+		if (hole <= i) {
+			return ideal <= hole || ideal > i;
+		}
+		return ideal <= hole && ideal > i;
+	}
+
+	private static int hash(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	private static int tableSizeFor(int entries) {
+		return Integer.highestOneBit(Math.max(16, entries * 2) - 1) << 1;
+	}
+
+	// Address encoding
+
+	/**
+	 * Encodes a canonical IPv4 address and port as {@code address << 16 | port}.
+	 *
+	 * @return the encoded address or {@link #NOT_IPV4} if the address isn't a dotted decimal IPv4 address without
+	 * leading zeros, which wouldn't decode back to the same string
+	 */
+	static long encodeAddress(InetSocketAddress address) {
+		final String host = address.getHostString();
+		long ip = 0;
+		int octet = 0;
+		int octets = 0;
+		int digits = 0;
+		for (int i = 0; i <= host.length(); i++) {
+			final char c = (i == host.length()) ? '.' : host.charAt(i);
+			if (c == '.') {
+				if (digits == 0 || octet > 255 || ++octets > 4) {
+					return NOT_IPV4;
+				}
+				ip = (ip << 8) | octet;
+				octet = 0;
+				digits = 0;
+			} else if (c >= '0' && c <= '9' && digits < 3 && !(digits == 1 && octet == 0)) {
+				octet = octet * 10 + (c - '0');
+				digits++;
+			} else {
+				return NOT_IPV4;
+			}
+		}
+		if (octets != 4) {
+			return NOT_IPV4;
+		}
+		return (ip << 16) | address.getPort();
+	}
+
+	private InetSocketAddress address(long encodedAddress) {
+		return ((encodedAddress & OTHER_ADDRESS) == 0) ? decodeAddress(encodedAddress) : otherAddresses[(int) encodedAddress];
+	}
+
+	/**
+	 * Returns the encoded address of an address that isn't IPv4, adding it to the side table if it's new. Must hold
+	 * the write lock, the caller must add a route to it.
+	 */
+	private long otherAddress(InetSocketAddress address) {
+		final Integer index = otherAddressIndexes.get(address);
+		if (index != null) {
+			return OTHER_ADDRESS | index;
+		}
+		final int newIndex;
+		if (freeOtherAddresses.isEmpty()) {
+			if (usedOtherAddresses == otherAddresses.length) {
+				otherAddresses = Arrays.copyOf(otherAddresses, usedOtherAddresses * 2);
+				otherAddressRoutes = Arrays.copyOf(otherAddressRoutes, usedOtherAddresses * 2);
+			}
+			newIndex = usedOtherAddresses++;
+		} else {
+			newIndex = freeOtherAddresses.pop();
+		}
+		otherAddresses[newIndex] = address;
+		otherAddressRoutes[newIndex] = 0;
+		otherAddressIndexes.put(address, newIndex);
+		return OTHER_ADDRESS | newIndex;
+	}
+
+	/**
+	 * Returns the encoded address of an address that isn't IPv4 or {@link #NOT_IPV4} if no route has it. Must hold
+	 * the lock.
+	 */
+	private long findOtherAddress(InetSocketAddress address) {
+		final Integer index = otherAddressIndexes.get(address);
+		return (index == null) ? NOT_IPV4 : OTHER_ADDRESS | index;
+	}
+
+	private void releaseOtherAddress(int index) {
+		if (--otherAddressRoutes[index] == 0) {
+			otherAddressIndexes.remove(otherAddresses[index]);
+			otherAddresses[index] = null;
+			freeOtherAddresses.push(index);
+		}
+	}
+
+	static InetSocketAddress decodeAddress(long encodedAddress) {
+		final long ip = encodedAddress >>> 16;
+		final String host = ((ip >>> 24) & 0xff) + "." + ((ip >>> 16) & 0xff) + "." + ((ip >>> 8) & 0xff) + "." + (ip & 0xff);
+		return InetSocketAddress.createUnresolved(host, (int) (encodedAddress & 0xffff));
+	}
+
+	private static final class CompactRoute implements RouteDetails {
+		private final String host;
+		private final InetSocketAddress address;
+		private final UUID applicationGuid;
+		private final Integer applicationIndex;
+		private final String privateInstanceId;
+
+		private CompactRoute(String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId) {
+			this.host = host;
+			this.address = address;
+			this.applicationGuid = applicationGuid;
+			this.applicationIndex = applicationIndex;
+			this.privateInstanceId = privateInstanceId;
+		}
+
+		@Override
+		public InetSocketAddress getAddress() {
+			return address;
+		}
+
+		@Override
+		public UUID getApplicationGuid() {
+			return applicationGuid;
+		}
+
+		@Override
+		public Integer getApplicationIndex() {
+			return applicationIndex;
+		}
+
+		@Override
+		public String getHost() {
+			return host;
+		}
+
+		@Override
+		public String getPrivateInstanceId() {
+			return privateInstanceId;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+
+			final CompactRoute route = (CompactRoute) o;
+			return host.equals(route.host)
+					&& address.equals(route.address)
+					&& Objects.equals(applicationGuid, route.applicationGuid)
+					&& Objects.equals(privateInstanceId, route.privateInstanceId);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = address.hashCode();
+			result = 31 * result + host.hashCode();
+			return result;
+		}
+	}
+}
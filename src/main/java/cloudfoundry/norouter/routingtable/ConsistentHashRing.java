@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * An immutable consistent-hash ring assigning each host to one of a set of members. Every member is placed on the
+ * ring at a number of virtual nodes and owns the hosts hashing between its points and the preceding points, so
+ * adding or removing a member only moves the hosts next to its own points, roughly {@code 1/members} of them.
+ *
+ * <p>Host and member hashes are computed from their characters and don't depend on the JVM, so every member of a
+ * cluster computes the same ring from the same set of members.
+ *
+ * @author Mike Heath
+ */
+public final class ConsistentHashRing {
+
+	public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+	private final SortedSet<String> members;
+	private final int virtualNodes;
+	// The points on the ring in ascending order and the index in #owners of the member placed at each.
+	private final long[] points;
+	private final String[] owners;
+
+	public ConsistentHashRing(Collection<String> members) {
+		this(members, DEFAULT_VIRTUAL_NODES);
+	}
+
+	public ConsistentHashRing(Collection<String> members, int virtualNodes) {
+		if (virtualNodes < 1) {
+			throw new IllegalArgumentException("virtualNodes must be positive");
+		}
+		this.members = Collections.unmodifiableSortedSet(new TreeSet<>(members));
+		this.virtualNodes = virtualNodes;
+		final int size = this.members.size() * virtualNodes;
+		final long[][] placed = new long[size][];
+		final String[] memberArray = this.members.toArray(new String[this.members.size()]);
+		int n = 0;
+		for (int m = 0; m < memberArray.length; m++) {
+			for (int i = 0; i < virtualNodes; i++) {
+				placed[n++] = new long[] {hash(memberArray[m] + '#' + i), m};
+			}
+		}
+		// Ties are broken by member so colliding points resolve the same way everywhere.
+		Arrays.sort(placed, (a, b) -> a[0] == b[0] ? Long.compare(a[1], b[1]) : Long.compare(a[0], b[0]));
+		points = new long[size];
+		owners = new String[size];
+		for (int i = 0; i < size; i++) {
+			points[i] = placed[i][0];
+			owners[i] = memberArray[(int) placed[i][1]];
+		}
+	}
+
+	public SortedSet<String> getMembers() {
+		return members;
+	}
+
+	public int getVirtualNodes() {
+		return virtualNodes;
+	}
+
+	public boolean isEmpty() {
+		return members.isEmpty();
+	}
+
+	/**
+	 * Returns the member owning {@code host}, or {@code null} if the ring has no members. Hosts are compared
+	 * ignoring case.
+	 */
+	public String owner(String host) {
+		return ownerOf(hash(host.toLowerCase()));
+	}
+
+	private String ownerOf(long hash) {
+		if (points.length == 0) {
+			return null;
+		}
+		int i = Arrays.binarySearch(points, hash);
+		if (i < 0) {
+			i = -i - 1;
+			if (i == points.length) {
+				i = 0;
+			}
+		} else {
+			// Equal points are sorted by member, take the first.
+			while (i > 0 && points[i - 1] == points[i]) {
+				i--;
+			}
+		}
+		return owners[i];
+	}
+
+	/**
+	 * Returns {@code true} if {@code member} owns hosts on this ring it didn't own on {@code previous}. Members
+	 * only gain hosts when other members leave, never when members join.
+	 */
+	public boolean gainsHosts(String member, ConsistentHashRing previous) {
+		// Ownership only changes at the points of either ring, so compare the owners at each of them.
+		for (long point : points) {
+			if (member.equals(ownerOf(point)) && !member.equals(previous.ownerOf(point))) {
+				return true;
+			}
+		}
+		for (long point : previous.points) {
+			if (member.equals(ownerOf(point)) && !member.equals(previous.ownerOf(point))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public ConsistentHashRing withMember(String member) {
+		if (members.contains(member)) {
+			return this;
+		}
+		final TreeSet<String> updated = new TreeSet<>(members);
+		updated.add(member);
+		return new ConsistentHashRing(updated, virtualNodes);
+	}
+
+	public ConsistentHashRing withoutMember(String member) {
+		if (!members.contains(member)) {
+			return this;
+		}
+		final TreeSet<String> updated = new TreeSet<>(members);
+		updated.remove(member);
+		return new ConsistentHashRing(updated, virtualNodes);
+	}
+
+	/**
+	 * 64 bit FNV-1a over the characters of {@code value}, finished with the MurmurHash3 mixer to spread the nearly
+	 * identical keys of virtual nodes across the ring.
+	 */
+	static long hash(String value) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return "ConsistentHashRing{members=" + members + ", virtualNodes=" + virtualNodes + '}';
+	}
+}
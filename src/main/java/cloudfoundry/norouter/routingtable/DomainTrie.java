@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of wildcard hosts such as {@code *.apps.example.com} keyed by their domain labels in reverse order. Looking
+ * up a host walks one trie node per label and returns the most specific wildcard covering the host.
+ *
+ * <p>Lookups are lock free, modifications must be serialized by the caller or are synchronized on the trie.
+ *
+ * @author Mike Heath
+ */
+class DomainTrie {
+
+	static final String WILDCARD_PREFIX = "*.";
+
+	private final Node root = new Node();
+
+	static boolean isWildcard(String host) {
+		return host.startsWith(WILDCARD_PREFIX);
+	}
+
+	synchronized void add(String wildcardHost) {
+		Node node = root;
+		int end = wildcardHost.length();
+		while (end > WILDCARD_PREFIX.length()) {
+			final int start = wildcardHost.lastIndexOf('.', end - 1) + 1;
+			node = node.children.computeIfAbsent(wildcardHost.substring(start, end), label -> new Node());
+			end = start - 1;
+		}
+		node.wildcardHost = wildcardHost;
+	}
+
+	synchronized void remove(String wildcardHost) {
+		remove(root, wildcardHost, wildcardHost.length());
+	}
+
+	// Returns true if the node became empty and may be pruned.
+	private boolean remove(Node node, String wildcardHost, int end) {
+		if (end <= WILDCARD_PREFIX.length()) {
+			if (wildcardHost.equals(node.wildcardHost)) {
+				node.wildcardHost = null;
+			}
+		} else {
+			final int start = wildcardHost.lastIndexOf('.', end - 1) + 1;
+			final String label = wildcardHost.substring(start, end);
+			final Node child = node.children.get(label);
+			if (child != null && remove(child, wildcardHost, start - 1)) {
+				node.children.remove(label);
+			}
+		}
+		return node.wildcardHost == null && node.children.isEmpty();
+	}
+
+	/**
+	 * Finds the most specific wildcard host matching {@code host}. A wildcard matches any host with at least one
+	 * more label than the wildcard's suffix, so {@code *.example.com} matches {@code a.example.com} and
+	 * {@code a.b.example.com} but not {@code example.com}.
+	 *
+	 * @return the matching wildcard host or {@code null} if no wildcard matches
+	 */
+	String find(String host) {
+		String match = null;
+		Node node = root;
+		int end = host.length();
+		while (end > 0) {
+			final int start = host.lastIndexOf('.', end - 1) + 1;
+			node = node.children.get(host.substring(start, end));
+			if (node == null) {
+				break;
+			}
+			if (start == 0) {
+				// All labels consumed, a wildcard needs at least one more label to match.
+				break;
+			}
+			final String wildcardHost = node.wildcardHost;
+			if (wildcardHost != null) {
+				match = wildcardHost;
+			}
+			end = start - 1;
+		}
+		return match;
+	}
+
+	private static class Node {
+		private final Map<String, Node> children = new ConcurrentHashMap<>();
+		private volatile String wildcardHost;
+	}
+}
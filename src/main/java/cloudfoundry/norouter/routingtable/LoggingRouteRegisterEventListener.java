@@ -22,8 +22,12 @@ import org.springframework.context.ApplicationListener;
 import org.springframework.core.Ordered;
 
 /**
+ * Logs every route register at INFO on the publishing thread.
+ *
  * @author Mike Heath
+ * @deprecated logs a line per change on the write path, use {@link AggregatingRouteChangeLogger}
  */
+@Deprecated
 public class LoggingRouteRegisterEventListener implements ApplicationListener<RouteRegisterEvent>, Ordered {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(LoggingRouteRegisterEventListener.class);
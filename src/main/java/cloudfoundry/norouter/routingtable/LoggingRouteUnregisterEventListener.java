@@ -21,8 +21,12 @@ import org.springframework.context.ApplicationListener;
 import org.springframework.core.Ordered;
 
 /**
+ * Logs every route unregister at INFO on the publishing thread.
+ *
  * @author Mike Heath
+ * @deprecated logs a line per change on the write path, use {@link AggregatingRouteChangeLogger}
  */
+@Deprecated
 public class LoggingRouteUnregisterEventListener implements ApplicationListener<RouteUnregisterEvent>, Ordered {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(LoggingRouteUnregisterEventListener.class);
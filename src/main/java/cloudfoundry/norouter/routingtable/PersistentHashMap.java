@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable hash array mapped trie. Updates return a new map that shares every node not on the path to the
+ * updated key with the original map, so an update copies at most one node per level (log32 of the size).
+ *
+ * <p>Neither keys nor values may be {@code null}.
+ *
+ * @author Mike Heath
+ */
+final class PersistentHashMap<K, V> {
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(null, 0);
+
+	private final Node root;
+	private final int size;
+
+	private PersistentHashMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <K, V> PersistentHashMap<K, V> empty() {
+		return (PersistentHashMap<K, V>) EMPTY;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	V get(Object key) {
+		return root == null ? null : (V) root.get(0, hash(key), key);
+	}
+
+	PersistentHashMap<K, V> put(K key, V value) {
+		final int hash = hash(key);
+		final Node node = (root == null ? BitmapNode.EMPTY : root);
+		final boolean present = node.get(0, hash, key) != null;
+		final Node newRoot = node.put(0, hash, key, value);
+		if (newRoot == root) {
+			return this;
+		}
+		return new PersistentHashMap<>(newRoot, present ? size : size + 1);
+	}
+
+	PersistentHashMap<K, V> remove(Object key) {
+		if (root == null) {
+			return this;
+		}
+		final Node newRoot = root.remove(0, hash(key), key);
+		if (newRoot == root) {
+			return this;
+		}
+		return newRoot == null ? empty() : new PersistentHashMap<>(newRoot, size - 1);
+	}
+
+	@SuppressWarnings("unchecked")
+	void forEach(BiConsumer<? super K, ? super V> action) {
+		if (root != null) {
+			root.forEach((BiConsumer<Object, Object>) action);
+		}
+	}
+
+	private static int hash(Object key) {
+		final int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private interface Node {
+		Object get(int shift, int hash, Object key);
+
+		Node put(int shift, int hash, Object key, Object value);
+
+		/**
+		 * @return the updated node, {@code this} if the key wasn't present or {@code null} if the node is now empty
+		 */
+		Node remove(int shift, int hash, Object key);
+
+		void forEach(BiConsumer<Object, Object> action);
+	}
+
+	/**
+	 * A node holding up to 32 slots, only the occupied slots are stored. Each slot takes two array elements, either a
+	 * key and its value, or {@code null} and a child node.
+	 */
+	private static final class BitmapNode implements Node {
+		static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+		private final int bitmap;
+		private final Object[] array;
+
+		BitmapNode(int bitmap, Object[] array) {
+			this.bitmap = bitmap;
+			this.array = array;
+		}
+
+		@Override
+		public Object get(int shift, int hash, Object key) {
+			final int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return null;
+			}
+			final int i = index(bit);
+			final Object k = array[i];
+			final Object v = array[i + 1];
+			if (k == null) {
+				return ((Node) v).get(shift + BITS, hash, key);
+			}
+			return key.equals(k) ? v : null;
+		}
+
+		@Override
+		public Node put(int shift, int hash, Object key, Object value) {
+			final int bit = bit(hash, shift);
+			final int i = index(bit);
+			if ((bitmap & bit) == 0) {
+				final Object[] updated = new Object[array.length + 2];
+				System.arraycopy(array, 0, updated, 0, i);
+				updated[i] = key;
+				updated[i + 1] = value;
+				System.arraycopy(array, i, updated, i + 2, array.length - i);
+				return new BitmapNode(bitmap | bit, updated);
+			}
+			final Object k = array[i];
+			final Object v = array[i + 1];
+			if (k == null) {
+				final Node child = ((Node) v).put(shift + BITS, hash, key, value);
+				return child == v ? this : new BitmapNode(bitmap, set(i + 1, child));
+			}
+			if (key.equals(k)) {
+				return value == v ? this : new BitmapNode(bitmap, set(i + 1, value));
+			}
+			final Object[] updated = set(i + 1, createNode(shift + BITS, k, v, hash, key, value));
+			updated[i] = null;
+			return new BitmapNode(bitmap, updated);
+		}
+
+		@Override
+		public Node remove(int shift, int hash, Object key) {
+			final int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+			final int i = index(bit);
+			final Object k = array[i];
+			final Object v = array[i + 1];
+			if (k == null) {
+				final Node child = ((Node) v).remove(shift + BITS, hash, key);
+				if (child == v) {
+					return this;
+				}
+				if (child != null) {
+					return new BitmapNode(bitmap, set(i + 1, child));
+				}
+			} else if (!key.equals(k)) {
+				return this;
+			}
+			if (bitmap == bit) {
+				return null;
+			}
+			final Object[] updated = new Object[array.length - 2];
+			System.arraycopy(array, 0, updated, 0, i);
+			System.arraycopy(array, i + 2, updated, i, updated.length - i);
+			return new BitmapNode(bitmap ^ bit, updated);
+		}
+
+		@Override
+		public void forEach(BiConsumer<Object, Object> action) {
+			for (int i = 0; i < array.length; i += 2) {
+				if (array[i] == null) {
+					((Node) array[i + 1]).forEach(action);
+				} else {
+					action.accept(array[i], array[i + 1]);
+				}
+			}
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1)) * 2;
+		}
+
+		private Object[] set(int i, Object value) {
+			final Object[] updated = array.clone();
+			updated[i] = value;
+			return updated;
+		}
+
+		private static int bit(int hash, int shift) {
+			return 1 << ((hash >>> shift) & MASK);
+		}
+
+		private static Node createNode(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+			final int hash1 = hash(key1);
+			if (hash1 == hash2) {
+				return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+			}
+			return EMPTY.put(shift, hash1, key1, value1).put(shift, hash2, key2, value2);
+		}
+	}
+
+	/**
+	 * A node holding keys that share the same full hash.
+	 */
+	private static final class CollisionNode implements Node {
+		private final int hash;
+		private final Object[] array;
+
+		CollisionNode(int hash, Object[] array) {
+			this.hash = hash;
+			this.array = array;
+		}
+
+		@Override
+		public Object get(int shift, int hash, Object key) {
+			final int i = indexOf(key);
+			return i < 0 ? null : array[i + 1];
+		}
+
+		@Override
+		public Node put(int shift, int hash, Object key, Object value) {
+			if (hash != this.hash) {
+				final Node node = new BitmapNode(BitmapNode.bit(this.hash, shift), new Object[] {null, this});
+				return node.put(shift, hash, key, value);
+			}
+			final int i = indexOf(key);
+			if (i >= 0) {
+				if (array[i + 1] == value) {
+					return this;
+				}
+				final Object[] updated = array.clone();
+				updated[i + 1] = value;
+				return new CollisionNode(hash, updated);
+			}
+			final Object[] updated = new Object[array.length + 2];
+			System.arraycopy(array, 0, updated, 0, array.length);
+			updated[array.length] = key;
+			updated[array.length + 1] = value;
+			return new CollisionNode(hash, updated);
+		}
+
+		@Override
+		public Node remove(int shift, int hash, Object key) {
+			final int i = indexOf(key);
+			if (i < 0) {
+				return this;
+			}
+			if (array.length == 2) {
+				return null;
+			}
+			final Object[] updated = new Object[array.length - 2];
+			System.arraycopy(array, 0, updated, 0, i);
+			System.arraycopy(array, i + 2, updated, i, updated.length - i);
+			return new CollisionNode(hash, updated);
+		}
+
+		@Override
+		public void forEach(BiConsumer<Object, Object> action) {
+			for (int i = 0; i < array.length; i += 2) {
+				action.accept(array[i], array[i + 1]);
+			}
+		}
+
+		private int indexOf(Object key) {
+			for (int i = 0; i < array.length; i += 2) {
+				if (key.equals(array[i])) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+}
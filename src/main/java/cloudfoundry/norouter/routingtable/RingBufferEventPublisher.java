@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An {@link ApplicationEventPublisher} that hands events to one or more consumer threads through bounded,
+ * preallocated ring buffers, and publishes them to a delegate from those threads. Route events for the same host
+ * always go through the same ring buffer so they are delivered in the order they were published. Other events go
+ * through the first ring buffer.
+ *
+ * <p>When a ring buffer is full, publishing either waits for the consumer to catch up using the configured
+ * {@link WaitStrategy}, so no event is lost, or, if the publisher drops on overflow, drops the event and counts it.
+ * Dropped events are reported to the delegate with a {@link RouteEventsDroppedEvent} from the consumer thread, so
+ * listeners know to catch up some other way. Events published after the publisher was closed are ignored.
+ *
+ * @author Mike Heath
+ */
+public class RingBufferEventPublisher implements ApplicationEventPublisher, AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RingBufferEventPublisher.class);
+
+	/**
+	 * How consumer threads wait for events and how publishers wait for space in a full ring buffer.
+	 */
+	public enum WaitStrategy {
+		/**
+		 * Spins continuously. Lowest latency but keeps a core busy per consumer.
+		 */
+		BUSY_SPIN,
+		/**
+		 * Spins briefly, then yields the CPU between attempts.
+		 */
+		YIELDING,
+		/**
+		 * Spins, then yields, then sleeps for increasingly long periods up to a millisecond.
+		 */
+		SLEEPING,
+		/**
+		 * Parks idle consumers until an event is published. Uses the least CPU at the cost of waking the consumer.
+		 */
+		BLOCKING
+	}
+
+	private static final int SPIN_TRIES = 100;
+	private static final int YIELD_TRIES = 200;
+	private static final long MAX_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final ApplicationEventPublisher delegate;
+	private final WaitStrategy waitStrategy;
+	private final Lane[] lanes;
+	private final boolean dropOnOverflow;
+	private final LongAdder publisherWaits = new LongAdder();
+
+	private volatile boolean running = true;
+
+	/**
+	 * @param delegate the publisher events are handed to from the consumer threads
+	 * @param consumers the number of consumer threads, each with its own ring buffer
+	 * @param bufferSize the capacity of each ring buffer, rounded up to a power of two
+	 * @param waitStrategy how idle consumers and blocked publishers wait
+	 */
+	public RingBufferEventPublisher(ApplicationEventPublisher delegate, int consumers, int bufferSize, WaitStrategy waitStrategy) {
+		this(delegate, consumers, bufferSize, waitStrategy, false);
+	}
+
+	/**
+	 * @param delegate the publisher events are handed to from the consumer threads
+	 * @param consumers the number of consumer threads, each with its own ring buffer
+	 * @param bufferSize the capacity of each ring buffer, rounded up to a power of two
+	 * @param waitStrategy how idle consumers and, unless dropping on overflow, blocked publishers wait
+	 * @param dropOnOverflow whether events published to a full ring buffer are dropped and reported with a
+	 * {@link RouteEventsDroppedEvent} rather than waiting
+	 */
+	public RingBufferEventPublisher(ApplicationEventPublisher delegate, int consumers, int bufferSize, WaitStrategy waitStrategy, boolean dropOnOverflow) {
+		if (consumers < 1) {
+			throw new IllegalArgumentException("consumers must be positive");
+		}
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("bufferSize must be positive");
+		}
+		this.delegate = delegate;
+		this.waitStrategy = waitStrategy;
+		this.dropOnOverflow = dropOnOverflow;
+		final int capacity = (bufferSize == 1) ? 1 : Integer.highestOneBit(bufferSize - 1) << 1;
+		lanes = new Lane[consumers];
+		for (int i = 0; i < consumers; i++) {
+			lanes[i] = new Lane(capacity);
+			final Thread thread = new Thread(lanes[i], "route-event-dispatcher-" + i);
+			thread.setDaemon(true);
+			lanes[i].consumer = thread;
+			thread.start();
+		}
+	}
+
+	@Override
+	public void publishEvent(ApplicationEvent event) {
+		if (!running) {
+			LOGGER.debug("Ignoring event {} published after close", event);
+			return;
+		}
+		laneFor(event).offer(event);
+	}
+
+	private Lane laneFor(ApplicationEvent event) {
+		if (lanes.length == 1 || !(event instanceof RouteDetails)) {
+			return lanes[0];
+		}
+		final int h = ((RouteDetails) event).getHost().hashCode();
+		return lanes[((h ^ (h >>> 16)) & Integer.MAX_VALUE) % lanes.length];
+	}
+
+	/**
+	 * Returns the number of events waiting to be dispatched across all ring buffers.
+	 */
+	public long getQueueDepth() {
+		long depth = 0;
+		for (Lane lane : lanes) {
+			depth += lane.depth();
+		}
+		return depth;
+	}
+
+	/**
+	 * Returns the number of events waiting in the ring buffer of the given consumer.
+	 */
+	public long getQueueDepth(int consumer) {
+		return lanes[consumer].depth();
+	}
+
+	public int getConsumerCount() {
+		return lanes.length;
+	}
+
+	public int getBufferSize() {
+		return lanes[0].buffer.length;
+	}
+
+	public long getPublishedCount() {
+		long count = 0;
+		for (Lane lane : lanes) {
+			count += lane.tail.get();
+		}
+		return count;
+	}
+
+	public long getDispatchedCount() {
+		long count = 0;
+		for (Lane lane : lanes) {
+			count += lane.head;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of times a publisher had to wait because a ring buffer was full.
+	 */
+	public long getPublisherWaitCount() {
+		return publisherWaits.sum();
+	}
+
+	/**
+	 * Returns the number of events dropped because a ring buffer was full.
+	 */
+	public long getDroppedCount() {
+		long count = 0;
+		for (Lane lane : lanes) {
+			count += lane.dropped.get();
+		}
+		return count;
+	}
+
+	/**
+	 * Stops accepting events and waits for the events already published to be dispatched.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		for (Lane lane : lanes) {
+			LockSupport.unpark(lane.consumer);
+		}
+		for (Lane lane : lanes) {
+			try {
+				lane.consumer.join(TimeUnit.SECONDS.toMillis(10));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private void idle(int attempt) {
+		switch (waitStrategy) {
+			case BUSY_SPIN:
+				break;
+			case YIELDING:
+				if (attempt > SPIN_TRIES) {
+					Thread.yield();
+				}
+				break;
+			case SLEEPING:
+			case BLOCKING:
+				if (attempt > SPIN_TRIES + YIELD_TRIES) {
+					LockSupport.parkNanos(Math.min(MAX_SLEEP_NANOS, 1000L << Math.min(10, attempt - SPIN_TRIES - YIELD_TRIES)));
+				} else if (attempt > SPIN_TRIES) {
+					Thread.yield();
+				}
+				break;
+			default:
+				throw new IllegalStateException("Unknown wait strategy " + waitStrategy);
+		}
+	}
+
+	/**
+	 * A bounded multi-producer, single-consumer ring buffer and the thread consuming it. Each slot carries a
+	 * sequence number telling producers and the consumer whether the slot is free or holds a published event.
+	 */
+	private class Lane implements Runnable {
+		private final ApplicationEvent[] buffer;
+		private final AtomicLongArray sequences;
+		private final int mask;
+		private final AtomicLong tail = new AtomicLong();
+		private final AtomicLong dropped = new AtomicLong();
+		// Only written by the consumer thread.
+		private volatile long head;
+		// The drops already reported to the delegate, only used by the consumer thread.
+		private long reportedDrops;
+		private volatile boolean parked;
+		private Thread consumer;
+
+		private Lane(int capacity) {
+			buffer = new ApplicationEvent[capacity];
+			sequences = new AtomicLongArray(capacity);
+			for (int i = 0; i < capacity; i++) {
+				sequences.set(i, i);
+			}
+			mask = capacity - 1;
+		}
+
+		private long depth() {
+			return Math.max(0, tail.get() - head);
+		}
+
+		private void offer(ApplicationEvent event) {
+			long position = tail.get();
+			int attempt = 0;
+			while (true) {
+				final int index = (int) position & mask;
+				final long difference = sequences.get(index) - position;
+				if (difference == 0) {
+					if (tail.compareAndSet(position, position + 1)) {
+						buffer[index] = event;
+						sequences.lazySet(index, position + 1);
+						if (parked) {
+							LockSupport.unpark(consumer);
+						}
+						return;
+					}
+				} else if (difference < 0) {
+					if (dropOnOverflow || !running) {
+						// Never wait on a consumer that's gone.
+						dropped.incrementAndGet();
+						return;
+					}
+					// Full, wait for the consumer.
+					if (attempt == 0) {
+						publisherWaits.increment();
+					}
+					idle(++attempt);
+				}
+				position = tail.get();
+			}
+		}
+
+		private ApplicationEvent poll() {
+			final long position = head;
+			final int index = (int) position & mask;
+			if (sequences.get(index) != position + 1) {
+				return null;
+			}
+			final ApplicationEvent event = buffer[index];
+			buffer[index] = null;
+			sequences.lazySet(index, position + buffer.length);
+			head = position + 1;
+			return event;
+		}
+
+		private void reportDrops() {
+			final long drops = dropped.get();
+			if (drops != reportedDrops) {
+				final long count = drops - reportedDrops;
+				reportedDrops = drops;
+				LOGGER.warn("Dropped {} events, the event listeners fell behind", count);
+				try {
+					delegate.publishEvent(new RouteEventsDroppedEvent(RingBufferEventPublisher.this, count));
+				} catch (RuntimeException e) {
+					LOGGER.error("Error dispatching dropped events notification", e);
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			int attempt = 0;
+			while (true) {
+				reportDrops();
+				final ApplicationEvent event = poll();
+				if (event != null) {
+					attempt = 0;
+					try {
+						delegate.publishEvent(event);
+					} catch (RuntimeException e) {
+						LOGGER.error("Error dispatching event {}", event, e);
+					}
+				} else if (!running && tail.get() == head) {
+					return;
+				} else if (waitStrategy == WaitStrategy.BLOCKING && ++attempt > SPIN_TRIES) {
+					parked = true;
+					if (tail.get() == head && running) {
+						LockSupport.parkNanos(MAX_SLEEP_NANOS);
+					}
+					parked = false;
+				} else {
+					idle(++attempt);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+/**
+ * A single change made to a {@link RoutingTable}, as returned by {@link RoutingTable#changesSince(long)}.
+ *
+ * @author Mike Heath
+ */
+public final class RouteChange {
+
+	private final long sequence;
+	private final RouteChangeListener.ChangeType type;
+	private final RouteDetails route;
+
+	RouteChange(long sequence, RouteChangeListener.ChangeType type, RouteDetails route) {
+		this.sequence = sequence;
+		this.type = type;
+		this.route = route;
+	}
+
+	/**
+	 * Returns the sequence number of the change, which is the version of the first {@link RoutingTableSnapshot}
+	 * that includes it. Changes applied together, e.g. the routes of a batch registration, share a sequence number.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public RouteChangeListener.ChangeType getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the registered route, or the route that was removed for unregisters and evictions. A registration
+	 * replaces any route with the same host and address.
+	 */
+	public RouteDetails getRoute() {
+		return route;
+	}
+
+	@Override
+	public String toString() {
+		return sequence + " " + type + " " + route.getHost() + " " + route.getAddress();
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.springframework.context.ApplicationEvent;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The net route changes made to a {@link RoutingTable} over a batching window. Published instead of individual
+ * {@link RouteRegisterEvent}s and {@link RouteUnregisterEvent}s when the table has batching enabled.
+ *
+ * <p>Changes that undo each other within the window, such as a new route that is unregistered again, are not
+ * included. Each route appears at most once, in either the register or the unregister list. The
+ * {@link RouteUnregisterEvent#isLast()} flag of the unregister events tells whether the host had no routes left
+ * when the batch was published, so it holds regardless of the order the lists are applied in.
+ *
+ * @author Mike Heath
+ */
+public class RouteChangeBatchEvent extends ApplicationEvent {
+
+	private final List<RouteRegisterEvent> registerEvents;
+	private final List<RouteUnregisterEvent> unregisterEvents;
+
+	public RouteChangeBatchEvent(Object source, List<RouteRegisterEvent> registerEvents, List<RouteUnregisterEvent> unregisterEvents) {
+		super(source);
+		this.registerEvents = Collections.unmodifiableList(registerEvents);
+		this.unregisterEvents = Collections.unmodifiableList(unregisterEvents);
+	}
+
+	public List<RouteRegisterEvent> getRegisterEvents() {
+		return registerEvents;
+	}
+
+	public List<RouteUnregisterEvent> getUnregisterEvents() {
+		return unregisterEvents;
+	}
+
+	public int size() {
+		return registerEvents.size() + unregisterEvents.size();
+	}
+}
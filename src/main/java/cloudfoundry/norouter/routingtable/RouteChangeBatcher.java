@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Collects route changes and publishes them as a {@link RouteChangeBatchEvent} once the batching window elapses or
+ * the batch reaches its maximum size. Batches are always published from the scheduler, never from the thread
+ * making the change.
+ *
+ * @author Mike Heath
+ */
+class RouteChangeBatcher implements AutoCloseable {
+
+	private final Object source;
+	private final ApplicationEventPublisher eventPublisher;
+	private final Predicate<String> hostHasRoutes;
+	private final ScheduledExecutorService scheduler;
+	private final int maxBatchSize;
+	private final ScheduledFuture<?> flushFuture;
+
+	// Access to #pending must be synchronized on #lock.
+	private final Object lock = new Object();
+	private Map<RouteKey, PendingChange> pending = new LinkedHashMap<>();
+	private boolean flushScheduled = false;
+
+	// Serializes flushes so batches are published in order.
+	private final Object flushLock = new Object();
+
+	/**
+	 * @param hostHasRoutes tells whether a host currently has routes in the table, used to set
+	 *                      {@link RouteUnregisterEvent#isLast()} when a batch is published
+	 */
+	RouteChangeBatcher(Object source, ApplicationEventPublisher eventPublisher, Predicate<String> hostHasRoutes, ScheduledExecutorService scheduler, Duration window, int maxBatchSize) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("maxBatchSize must be positive");
+		}
+		this.source = source;
+		this.eventPublisher = eventPublisher;
+		this.hostHasRoutes = hostHasRoutes;
+		this.scheduler = scheduler;
+		this.maxBatchSize = maxBatchSize;
+		flushFuture = scheduler.scheduleWithFixedDelay(this::flush, window.toMillis(), window.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param replaced {@code true} if the registered route replaced an existing route with the same host and address
+	 */
+	void routeRegistered(RouteRegisterEvent event, boolean replaced) {
+		synchronized (lock) {
+			final RouteKey key = new RouteKey(event.getHost(), event.getAddress());
+			final PendingChange change = pending.get(key);
+			if (change == null) {
+				pending.put(key, new PendingChange(replaced, event));
+			} else {
+				change.event = event;
+			}
+			scheduleFlushIfFull();
+		}
+	}
+
+	void routeUnregistered(RouteUnregisterEvent event) {
+		synchronized (lock) {
+			final RouteKey key = new RouteKey(event.getHost(), event.getAddress());
+			final PendingChange change = pending.get(key);
+			if (change == null) {
+				pending.put(key, new PendingChange(true, event));
+			} else if (!change.existedBefore) {
+				// The route was added within this window so the listeners never knew about it.
+				pending.remove(key);
+			} else {
+				change.event = event;
+			}
+			scheduleFlushIfFull();
+		}
+	}
+
+	private void scheduleFlushIfFull() {
+		if (pending.size() >= maxBatchSize && !flushScheduled) {
+			flushScheduled = true;
+			scheduler.execute(this::flush);
+		}
+	}
+
+	void flush() {
+		synchronized (flushLock) {
+			final Map<RouteKey, PendingChange> changes;
+			synchronized (lock) {
+				flushScheduled = false;
+				if (pending.isEmpty()) {
+					return;
+				}
+				changes = pending;
+				pending = new LinkedHashMap<>();
+			}
+			final List<RouteRegisterEvent> registerEvents = new ArrayList<>();
+			final List<RouteUnregisterEvent> unregisterEvents = new ArrayList<>();
+			for (PendingChange change : changes.values()) {
+				if (change.event instanceof RouteRegisterEvent) {
+					registerEvents.add((RouteRegisterEvent) change.event);
+				} else {
+					unregisterEvents.add(withCurrentLast((RouteUnregisterEvent) change.event));
+				}
+			}
+			eventPublisher.publishEvent(new RouteChangeBatchEvent(source, registerEvents, unregisterEvents));
+		}
+	}
+
+	/**
+	 * The last flag captured with the event may be outdated, e.g. when the host's last route was unregistered and a
+	 * new route registered for it within the window. Registers and unregisters are published in separate lists, so
+	 * consumers can't tell from the order, recompute the flag against the table instead.
+	 */
+	private RouteUnregisterEvent withCurrentLast(RouteUnregisterEvent event) {
+		final boolean last = !hostHasRoutes.test(event.getHost());
+		return (last == event.isLast()) ? event : RouteUnregisterEvent.fromRouteDetails(event.getSource(), event, last);
+	}
+
+	@Override
+	public void close() {
+		flushFuture.cancel(false);
+		flush();
+	}
+
+	private static class PendingChange {
+		// Whether the route existed before the first change in the current window.
+		private final boolean existedBefore;
+		private AbstractRouteEvent event;
+
+		private PendingChange(boolean existedBefore, AbstractRouteEvent event) {
+			this.existedBefore = existedBefore;
+			this.event = event;
+		}
+	}
+
+	private static class RouteKey {
+		private final String host;
+		private final InetSocketAddress address;
+
+		private RouteKey(String host, InetSocketAddress address) {
+			this.host = host;
+			this.address = address;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+
+			final RouteKey routeKey = (RouteKey) o;
+			return host.equals(routeKey.host) && address.equals(routeKey.address);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * host.hashCode() + address.hashCode();
+		}
+	}
+}
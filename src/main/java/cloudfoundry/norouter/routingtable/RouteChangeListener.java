@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+/**
+ * Receives every change made to a {@link RoutingTable}, including inserted routes, which don't publish events, and
+ * evictions, which publish an unregister event but are reported here as {@link ChangeType#EVICT}. Listeners are
+ * invoked while the host's lock is held, so changes to the same host are seen in the order they were made, and
+ * listeners must return quickly. A listener that has to wait for a change, e.g. until it is durable, waits in
+ * {@link #changesApplied()}, which the writing thread invokes once it has released its locks.
+ *
+ * @author Mike Heath
+ */
+@FunctionalInterface
+public interface RouteChangeListener {
+
+	enum ChangeType {
+		/**
+		 * A route was added or an existing route was replaced.
+		 */
+		REGISTER,
+		/**
+		 * A route was removed by an unregister.
+		 */
+		UNREGISTER,
+		/**
+		 * A route was removed because it went stale.
+		 */
+		EVICT
+	}
+
+	void routeChanged(ChangeType type, RouteDetails route);
+
+	/**
+	 * Invoked by a writing thread after it has reported its changes and released the locks it held for them, before
+	 * the write returns.
+	 */
+	default void changesApplied() {
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The most recent changes made to a {@link RoutingTable}, indexed by the snapshot version they produced.
+ *
+ * <p>Writers to different hosts swap in new snapshots concurrently, so the changes of each version are stored in
+ * the slot of that version rather than appended. A version's slot is written right after its snapshot was swapped
+ * in, a reader that finds the slot still holding an older version waits for the writer to catch up. It spins
+ * briefly, then parks, and gives up with a resync if the writer doesn't record the version within a bounded wait,
+ * e.g. because it stalled or failed between the swap and the record.
+ *
+ * @author Mike Heath
+ */
+final class RouteChangeLog {
+
+	private static final int SPINS = 100;
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long DEFAULT_MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final long epoch;
+	private final long maxWaitNanos;
+	private final AtomicReferenceArray<Entry> entries;
+	private final int mask;
+
+	/**
+	 * @param capacity the number of versions kept, rounded up to a power of two
+	 * @param epoch identifies this log, sequence numbers handed out by another log are never answered with changes
+	 */
+	RouteChangeLog(int capacity, long epoch) {
+		this(capacity, epoch, DEFAULT_MAX_WAIT_NANOS);
+	}
+
+	/**
+	 * @param maxWaitNanos how long a reader waits for a writer to record a version it swapped in before resyncing
+	 */
+	RouteChangeLog(int capacity, long epoch, long maxWaitNanos) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.epoch = epoch;
+		this.maxWaitNanos = maxWaitNanos;
+		final int size = (capacity == 1) ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		entries = new AtomicReferenceArray<>(size);
+		mask = size - 1;
+	}
+
+	int capacity() {
+		return entries.length();
+	}
+
+	long epoch() {
+		return epoch;
+	}
+
+	/**
+	 * Records the changes that produced {@code version}. Must be invoked for every version, even one without
+	 * changes, readers wait for it.
+	 */
+	void record(long version, RouteChangeListener.ChangeType type, List<? extends RouteDetails> routes) {
+		final RouteChange[] changes = new RouteChange[routes.size()];
+		for (int i = 0; i < changes.length; i++) {
+			changes[i] = new RouteChange(version, type, routes.get(i));
+		}
+		entries.set((int) version & mask, new Entry(version, changes));
+	}
+
+	/**
+	 * Returns the changes after {@code sequence} up to the version of {@code current}, or a resync to
+	 * {@code current} if {@code sequence} is from another epoch, some of the changes are no longer kept or weren't
+	 * recorded in time.
+	 */
+	RouteChanges changesSince(long epoch, long sequence, RoutingTableSnapshot current) {
+		final long version = current.getVersion();
+		if (epoch != this.epoch) {
+			return new RouteChanges(this.epoch, version, current, Collections.emptyList());
+		}
+		if (sequence == version) {
+			return new RouteChanges(this.epoch, version, null, Collections.emptyList());
+		}
+		if (sequence < 0 || sequence > version || version - sequence > entries.length()) {
+			return new RouteChanges(this.epoch, version, current, Collections.emptyList());
+		}
+		final List<RouteChange> changes = new ArrayList<>();
+		long deadline = 0;
+		for (long v = sequence + 1; v <= version; v++) {
+			Entry entry = entries.get((int) v & mask);
+			// The writer of this version swapped its snapshot in but hasn't recorded its changes yet.
+			for (int spins = 0; (entry == null || entry.version < v) && spins < SPINS; spins++) {
+				Thread.yield();
+				entry = entries.get((int) v & mask);
+			}
+			if (entry == null || entry.version < v) {
+				if (deadline == 0) {
+					deadline = System.nanoTime() + maxWaitNanos;
+				}
+				long parkNanos = 1000;
+				while (entry == null || entry.version < v) {
+					final long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						return new RouteChanges(this.epoch, version, current, Collections.emptyList());
+					}
+					LockSupport.parkNanos(Math.min(parkNanos, remaining));
+					parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+					entry = entries.get((int) v & mask);
+				}
+			}
+			if (entry.version > v) {
+				// Overwritten while we were reading.
+				return new RouteChanges(this.epoch, version, current, Collections.emptyList());
+			}
+			Collections.addAll(changes, entry.changes);
+		}
+		return new RouteChanges(this.epoch, version, null, Collections.unmodifiableList(changes));
+	}
+
+	private static final class Entry {
+		private final long version;
+		private final RouteChange[] changes;
+
+		private Entry(long version, RouteChange[] changes) {
+			this.version = version;
+			this.changes = changes;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import java.util.List;
+
+/**
+ * The changes made to a {@link RoutingTable} after a given sequence number, see
+ * {@link RoutingTable#changesSince(long, long)}.
+ *
+ * <p>If the changes the consumer asked for are no longer available, or the sequence number is from another epoch,
+ * the result is a resync: it carries a snapshot of the entire table the consumer must replace its state with, and
+ * no changes.
+ *
+ * @author Mike Heath
+ */
+public final class RouteChanges {
+
+	private final long epoch;
+	private final long sequence;
+	private final RoutingTableSnapshot snapshot;
+	private final List<RouteChange> changes;
+
+	RouteChanges(long epoch, long sequence, RoutingTableSnapshot snapshot, List<RouteChange> changes) {
+		this.epoch = epoch;
+		this.sequence = sequence;
+		this.snapshot = snapshot;
+		this.changes = changes;
+	}
+
+	/**
+	 * Returns the epoch of the table the changes are from. Sequence numbers are only meaningful within an epoch,
+	 * pass it along with {@link #getSequence()} to the next call of {@link RoutingTable#changesSince(long, long)}.
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Returns the sequence number the consumer is up to date with after applying these changes. Pass it to the
+	 * next call of {@link RoutingTable#changesSince(long, long)}.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Returns {@code true} if the changes asked for are no longer available and {@link #getSnapshot()} has to be
+	 * applied instead.
+	 */
+	public boolean isResync() {
+		return snapshot != null;
+	}
+
+	/**
+	 * Returns the snapshot to resync from, or {@code null} unless this is a {@link #isResync() resync}.
+	 */
+	public RoutingTableSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Returns the changes in the order they were made.
+	 */
+	public List<RouteChange> getChanges() {
+		return changes;
+	}
+}
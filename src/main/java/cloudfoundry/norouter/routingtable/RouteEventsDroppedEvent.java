@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by a {@link RingBufferEventPublisher} that drops events on overflow once it dropped some. The route
+ * events in between are lost for good, so listeners that track the table through events must catch up from
+ * {@link RoutingTable#changesSince(long)} or a {@link RoutingTable#snapshot()} instead.
+ *
+ * <p>The event is published from the consumer thread of the ring buffer that overflowed, shortly after the drop.
+ *
+ * @author Mike Heath
+ */
+public class RouteEventsDroppedEvent extends ApplicationEvent {
+
+	private final long droppedCount;
+
+	public RouteEventsDroppedEvent(Object source, long droppedCount) {
+		super(source);
+		this.droppedCount = droppedCount;
+	}
+
+	/**
+	 * Returns the number of events dropped since the previous {@code RouteEventsDroppedEvent}.
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+}
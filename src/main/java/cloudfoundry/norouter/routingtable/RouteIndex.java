@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable index of routes by an attribute other than their host. Like {@link PersistentHashMap}, updates
+ * return a new index sharing everything not on the updated path, so indexes can be swapped in together with the
+ * table they index.
+ *
+ * <p>Several routes may share a key, e.g. all routes of an application. They are kept in a nested map keyed by host
+ * and address, the key of a route in the table.
+ *
+ * @author Mike Heath
+ */
+final class RouteIndex<K> {
+
+	private static final RouteIndex<?> EMPTY = new RouteIndex<>(PersistentHashMap.empty());
+
+	private final PersistentHashMap<K, PersistentHashMap<RouteKey, RoutingTable.Route>> routes;
+
+	private RouteIndex(PersistentHashMap<K, PersistentHashMap<RouteKey, RoutingTable.Route>> routes) {
+		this.routes = routes;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <K> RouteIndex<K> empty() {
+		return (RouteIndex<K>) EMPTY;
+	}
+
+	/**
+	 * Returns the number of distinct keys in the index.
+	 */
+	int size() {
+		return routes.size();
+	}
+
+	/**
+	 * Returns the routes indexed under {@code key}.
+	 */
+	List<RouteDetails> get(Object key) {
+		final PersistentHashMap<RouteKey, RoutingTable.Route> keyRoutes = (key == null) ? null : routes.get(key);
+		if (keyRoutes == null) {
+			return Collections.emptyList();
+		}
+		final List<RouteDetails> list = new ArrayList<>(keyRoutes.size());
+		keyRoutes.forEach((routeKey, route) -> list.add(route));
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Returns an index with {@code route} added under {@code key}. A {@code null} key isn't indexed.
+	 */
+	RouteIndex<K> with(K key, RoutingTable.Route route) {
+		if (key == null) {
+			return this;
+		}
+		final PersistentHashMap<RouteKey, RoutingTable.Route> keyRoutes = routes.get(key);
+		final PersistentHashMap<RouteKey, RoutingTable.Route> updated =
+				((keyRoutes == null) ? PersistentHashMap.<RouteKey, RoutingTable.Route>empty() : keyRoutes).put(new RouteKey(route), route);
+		return (updated == keyRoutes) ? this : new RouteIndex<>(routes.put(key, updated));
+	}
+
+	/**
+	 * Returns an index without {@code route} under {@code key}. Nothing changes if a different route with the same
+	 * host and address is indexed, so a replaced route may be removed after its replacement was added.
+	 */
+	RouteIndex<K> without(K key, RoutingTable.Route route) {
+		if (key == null) {
+			return this;
+		}
+		final PersistentHashMap<RouteKey, RoutingTable.Route> keyRoutes = routes.get(key);
+		if (keyRoutes == null) {
+			return this;
+		}
+		final RouteKey routeKey = new RouteKey(route);
+		if (keyRoutes.get(routeKey) != route) {
+			return this;
+		}
+		final PersistentHashMap<RouteKey, RoutingTable.Route> updated = keyRoutes.remove(routeKey);
+		return new RouteIndex<>(updated.isEmpty() ? routes.remove(key) : routes.put(key, updated));
+	}
+
+	private static final class RouteKey {
+		private final String host;
+		private final InetSocketAddress address;
+
+		private RouteKey(RoutingTable.Route route) {
+			this.host = route.getHost();
+			this.address = route.getAddress();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+
+			final RouteKey routeKey = (RouteKey) o;
+
+			return host.equals(routeKey.host) && address.equals(routeKey.address);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * host.hashCode() + address.hashCode();
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import java.net.InetSocketAddress;
+import java.util.UUID;
+
+/**
+ * Canonicalizes the values making up a route so that routes sharing a host, backend address, application or
+ * private instance id share a single instance of it. The pools only hold weak references.
+ *
+ * <p>Route messages are decoded on every heartbeat, so backend addresses and application GUIDs can be looked up by
+ * their raw values. Finding an instance that is already pooled neither locks nor allocates, an
+ * {@code InetSocketAddress} or {@code UUID} is only built for values seen for the first time.
+ *
+ * @author Mike Heath
+ */
+public class RouteInterner {
+
+	private static final WeakInterner.Matcher<InetSocketAddress> ADDRESS = (candidate, host, port, unused) ->
+			candidate.getPort() == port && candidate.isUnresolved() && candidate.getHostString().equals(host);
+	private static final WeakInterner.Factory<InetSocketAddress> NEW_ADDRESS = (host, port, unused) ->
+			InetSocketAddress.createUnresolved((String) host, (int) port);
+
+	private static final WeakInterner.Matcher<UUID> APPLICATION_GUID = (candidate, unused, mostSigBits, leastSigBits) ->
+			candidate.getMostSignificantBits() == mostSigBits && candidate.getLeastSignificantBits() == leastSigBits;
+	private static final WeakInterner.Factory<UUID> NEW_APPLICATION_GUID = (unused, mostSigBits, leastSigBits) ->
+			new UUID(mostSigBits, leastSigBits);
+
+	private final WeakInterner<String> strings = new WeakInterner<>();
+	// Unresolved addresses keyed by their host string and port, the others by equality.
+	private final WeakInterner<InetSocketAddress> unresolvedAddresses = new WeakInterner<>();
+	private final WeakInterner<InetSocketAddress> resolvedAddresses = new WeakInterner<>();
+	private final WeakInterner<UUID> applicationGuids = new WeakInterner<>();
+
+	public String host(String host) {
+		return strings.intern(host);
+	}
+
+	public String privateInstanceId(String privateInstanceId) {
+		return strings.intern(privateInstanceId);
+	}
+
+	public InetSocketAddress address(InetSocketAddress address) {
+		if (address == null) {
+			return null;
+		}
+		if (address.isUnresolved()) {
+			return address(address.getHostString(), address.getPort());
+		}
+		return resolvedAddresses.intern(address);
+	}
+
+	/**
+	 * Returns the canonical unresolved address for the given host and port.
+	 */
+	public InetSocketAddress address(String host, int port) {
+		// Not InetSocketAddress#hashCode(), which lower cases the host on every call.
+		return unresolvedAddresses.intern(host.hashCode() * 31 + port, ADDRESS, host, port, 0, NEW_ADDRESS);
+	}
+
+	public UUID applicationGuid(UUID applicationGuid) {
+		if (applicationGuid == null) {
+			return null;
+		}
+		return applicationGuid(applicationGuid.getMostSignificantBits(), applicationGuid.getLeastSignificantBits());
+	}
+
+	/**
+	 * Parses and canonicalizes an application GUID.
+	 *
+	 * @return the canonical {@code UUID} or {@code null} if {@code applicationGuid} is {@code null}
+	 * @throws IllegalArgumentException if {@code applicationGuid} isn't a valid UUID
+	 */
+	public UUID applicationGuid(String applicationGuid) {
+		if (applicationGuid == null) {
+			return null;
+		}
+		if (!isCanonicalUuid(applicationGuid)) {
+			// Let UUID parse and validate the unusual forms.
+			return applicationGuid(UUID.fromString(applicationGuid));
+		}
+		final long mostSigBits = hex(applicationGuid, 0, 8) << 32 | hex(applicationGuid, 9, 13) << 16 | hex(applicationGuid, 14, 18);
+		final long leastSigBits = hex(applicationGuid, 19, 23) << 48 | hex(applicationGuid, 24, 36);
+		return applicationGuid(mostSigBits, leastSigBits);
+	}
+
+	private UUID applicationGuid(long mostSigBits, long leastSigBits) {
+		final long hilo = mostSigBits ^ leastSigBits;
+		return applicationGuids.intern((int) (hilo >> 32) ^ (int) hilo, APPLICATION_GUID, null, mostSigBits, leastSigBits, NEW_APPLICATION_GUID);
+	}
+
+	/**
+	 * Returns whether {@code s} is a UUID in the 8-4-4-4-12 hex digit form.
+	 */
+	private static boolean isCanonicalUuid(String s) {
+		if (s.length() != 36) {
+			return false;
+		}
+		for (int i = 0; i < 36; i++) {
+			final char c = s.charAt(i);
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (c != '-') {
+					return false;
+				}
+			} else if (Character.digit(c, 16) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long hex(String s, int start, int end) {
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			value = value << 4 | Character.digit(s.charAt(i), 16);
+		}
+		return value;
+	}
+}
@@ -16,6 +16,7 @@
 package cloudfoundry.norouter.routingtable;
 
 import java.net.InetSocketAddress;
+import java.util.Collection;
 import java.util.UUID;
 
 /**
@@ -25,10 +26,40 @@ public interface RouteRegistrar {
 
 	void insertRoute(String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId);
 
+	/**
+	 * Registers a route. The host may be a wildcard of the form {@code *.apps.example.com} covering every host below
+	 * that domain that doesn't have a more specific route.
+	 */
 	void registerRoute(String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId);
 
+	/**
+	 * Registers a route to {@code address} for each of {@code hosts}, as a single router register message does.
+	 * Implementations may apply the whole batch at once, the default registers each route in turn.
+	 */
+	default void registerRoutes(Collection<String> hosts, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId) {
+		for (String host : hosts) {
+			registerRoute(host, address, applicationGuid, applicationIndex, privateInstanceId);
+		}
+	}
+
 	boolean unregisterRoute(String host, InetSocketAddress address);
 
+	/**
+	 * Unregisters the route to {@code address} of each of {@code hosts}. Implementations may apply the whole batch
+	 * at once, the default unregisters each route in turn.
+	 *
+	 * @return the number of routes that were removed
+	 */
+	default int unregisterRoutes(Collection<String> hosts, InetSocketAddress address) {
+		int count = 0;
+		for (String host : hosts) {
+			if (unregisterRoute(host, address)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
 	RouteDetails getRouteByAddress(InetSocketAddress address);
 
 }
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+/**
+ * Picks a single backend for a host. Implementations are safe to use from many threads concurrently.
+ *
+ * @author Mike Heath
+ */
+public interface RouteSelector {
+
+	/**
+	 * @param host the host to select a route for
+	 * @return one of the routes for {@code host} or {@code null} if the host has no routes
+	 */
+	RouteDetails selectRoute(String host);
+
+}
@@ -16,53 +16,327 @@
 package cloudfoundry.norouter.routingtable;
 
 import cloudfoundry.norouter.RouteProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEventPublisher;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
-import java.time.Instant;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 /**
  * @author Mike Heath
  */
 public class RoutingTable implements AutoCloseable, RouteRegistrar {
 
+	private static final Logger LOGGER = LoggerFactory.getLogger(RoutingTable.class);
+
+	/**
+	 * The default number of ticks the stale route timeout is divided into when no granularity is specified.
+	 */
+	private static final int DEFAULT_TICKS_PER_TIMEOUT = 60;
+
+	private static final int DEFAULT_CHANGE_LOG_CAPACITY = 8192;
+
 	private final ApplicationEventPublisher eventPublisher;
+	private final RingBufferEventPublisher eventDispatcher;
+	private final RouteChangeBatcher routeChangeBatcher;
 
 	private final ScheduledFuture<?> staleRouteScheduleFuture;
-	private final Duration staleRouteTimeout;
+	private final long staleRouteTimeout;
+	private final TimingWheel<Route> staleRouteWheel;
+
+	private final Path snapshotFile;
+	private final ScheduledFuture<?> snapshotScheduleFuture;
 
-	// Access to #hostTable must be synchronized on #lock.
-	private final Map<String, Map<SocketAddress, Route>> hostTable = new HashMap<>();
+	/**
+	 * The number of lock stripes used to serialize writes. Writes to hosts in different stripes never contend.
+	 */
+	private static final int HOST_LOCK_STRIPES = 256;
+
+	// The current state of the table. Readers take the current snapshot without locking. Writers hold the lock
+	// stripe of the host they modify, which serializes writes and events per host, and then swap in a new snapshot
+	// sharing everything but the modified host.
+	private final AtomicReference<RoutingTableSnapshot> table = new AtomicReference<>(RoutingTableSnapshot.EMPTY);
+	private final Object[] hostLocks = new Object[HOST_LOCK_STRIPES];
 	private final Map<InetSocketAddress, Route> addressTable = new ConcurrentHashMap<>();
-	private final Object lock = new Object();
+	// Index of the hosts in #table that start with "*.", used to resolve hosts without an exact match.
+	private final DomainTrie wildcardHosts = new DomainTrie();
+
+	private final RouteSelector roundRobinSelector = host -> {
+		final HostEntry entry = findHost(host.toLowerCase());
+		if (entry == null) {
+			return null;
+		}
+		final int next = entry.next.getAndIncrement() & Integer.MAX_VALUE;
+		return entry.routes[next % entry.routes.length];
+	};
+
+	private final RouteSelector randomSelector = host -> {
+		final HostEntry entry = findHost(host.toLowerCase());
+		return entry == null ? null : entry.routes[ThreadLocalRandom.current().nextInt(entry.routes.length)];
+	};
+
 	private final RouteProvider routeProvider;
+	private final RouteInterner interner;
+	private final RoutingTableMetrics metrics = new RoutingTableMetrics();
+	private final RouteChangeListener changeListener;
+	private final RouteChangeLog changeLog;
+
+	public static Builder create() {
+		return new Builder();
+	}
+
+	public static class Builder {
+
+		private ApplicationEventPublisher eventPublisher;
+		private ScheduledExecutorService scheduler;
+		private Duration staleRouteTimeout = Duration.ofMinutes(5);
+		private Duration staleRouteGranularity;
+		private RouteProvider routeProvider;
+		private RouteInterner interner;
+		private Duration batchWindow;
+		private int maxBatchSize;
+		private int dispatchConsumers;
+		private int dispatchBufferSize;
+		private RingBufferEventPublisher.WaitStrategy dispatchWaitStrategy;
+		private boolean dropEventsOnOverflow;
+		private Path snapshotFile;
+		private Duration snapshotInterval;
+		private ScheduledExecutorService snapshotScheduler;
+		private RouteChangeListener changeListener;
+		private int changeLogCapacity = DEFAULT_CHANGE_LOG_CAPACITY;
+
+		public Builder eventPublisher(ApplicationEventPublisher eventPublisher) {
+			Objects.requireNonNull(eventPublisher);
+			this.eventPublisher = eventPublisher;
+			return this;
+		}
+
+		/**
+		 * Sets the scheduler used to evict stale routes. If no scheduler is provided, stale routes are only evicted
+		 * when {@link RoutingTable#cleanupStaleRoutes()} is invoked explicitly.
+		 */
+		public Builder scheduler(ScheduledExecutorService scheduler) {
+			this.scheduler = scheduler;
+			return this;
+		}
+
+		public Builder staleRouteTimeout(Duration staleRouteTimeout) {
+			Objects.requireNonNull(staleRouteTimeout);
+			this.staleRouteTimeout = staleRouteTimeout;
+			return this;
+		}
+
+		/**
+		 * Sets how often the stale route timer ticks. A route is evicted no later than one tick after it has
+		 * become stale. Defaults to 1/60th of the stale route timeout.
+		 */
+		public Builder staleRouteGranularity(Duration staleRouteGranularity) {
+			this.staleRouteGranularity = staleRouteGranularity;
+			return this;
+		}
+
+		public Builder routeProvider(RouteProvider routeProvider) {
+			Objects.requireNonNull(routeProvider);
+			this.routeProvider = routeProvider;
+			return this;
+		}
+
+		/**
+		 * Sets the interner used to share hosts, addresses, application GUIDs and private instance ids between
+		 * routes. Pass the same interner used to decode route registrations to share instances with the decoder.
+		 */
+		public Builder interner(RouteInterner interner) {
+			Objects.requireNonNull(interner);
+			this.interner = interner;
+			return this;
+		}
+
+		/**
+		 * Publishes route changes as {@link RouteChangeBatchEvent}s instead of individual register and unregister
+		 * events. A batch is published once {@code window} has elapsed or once it holds {@code maxBatchSize}
+		 * changes, whichever comes first. Requires a {@link #scheduler(ScheduledExecutorService) scheduler}.
+		 */
+		public Builder batchRouteChanges(Duration window, int maxBatchSize) {
+			Objects.requireNonNull(window);
+			this.batchWindow = window;
+			this.maxBatchSize = maxBatchSize;
+			return this;
+		}
+
+		/**
+		 * Publishes events from dedicated consumer threads instead of the thread making the change, so slow
+		 * listeners don't hold up writers. Events for the same host are delivered in order. Events are published
+		 * while the host's lock is held, so when a listener falls so far behind that its ring buffer fills up,
+		 * writers to the hosts of that lock stripe wait for it using {@code waitStrategy}, unless
+		 * {@link #dropEventsOnOverflow(boolean)} is set.
+		 *
+		 * @see RingBufferEventPublisher
+		 */
+		public Builder dispatchEventsAsynchronously(int consumers, int bufferSize, RingBufferEventPublisher.WaitStrategy waitStrategy) {
+			Objects.requireNonNull(waitStrategy);
+			this.dispatchConsumers = consumers;
+			this.dispatchBufferSize = bufferSize;
+			this.dispatchWaitStrategy = waitStrategy;
+			return this;
+		}
+
+		/**
+		 * Sets whether events that don't fit the full ring buffer of an {@link #dispatchEventsAsynchronously(int,
+		 * int, RingBufferEventPublisher.WaitStrategy) asynchronous dispatcher} are dropped rather than having the
+		 * writer wait, off by default. Drops are followed by a {@link RouteEventsDroppedEvent}, listeners must then
+		 * catch up from {@link RoutingTable#changesSince(long)}.
+		 */
+		public Builder dropEventsOnOverflow(boolean dropEventsOnOverflow) {
+			this.dropEventsOnOverflow = dropEventsOnOverflow;
+			return this;
+		}
+
+		/**
+		 * Persists the table to {@code file} so it survives restarts. The routes in the file are loaded when the
+		 * table is built, the file is rewritten every {@code interval} if a
+		 * {@link #scheduler(ScheduledExecutorService) scheduler} or {@link #snapshotScheduler(ScheduledExecutorService)
+		 * snapshot scheduler} is provided, and once more when the table is
+		 * closed. Loaded routes keep the time they were last updated, so routes that went stale while the router
+		 * was down are skipped and the others are evicted on schedule unless they are registered again.
+		 *
+		 * @see RoutingTableSnapshotFile
+		 */
+		public Builder persistSnapshots(Path file, Duration interval) {
+			Objects.requireNonNull(file);
+			Objects.requireNonNull(interval);
+			this.snapshotFile = file;
+			this.snapshotInterval = interval;
+			return this;
+		}
+
+		/**
+		 * Sets the scheduler that rewrites the snapshot file, defaults to the {@link
+		 * #scheduler(ScheduledExecutorService) scheduler}. Writing a large table takes a while, a separate
+		 * scheduler keeps it from delaying evictions.
+		 */
+		public Builder snapshotScheduler(ScheduledExecutorService snapshotScheduler) {
+			Objects.requireNonNull(snapshotScheduler);
+			this.snapshotScheduler = snapshotScheduler;
+			return this;
+		}
+
+		/**
+		 * Sets a listener notified of every change made to the table.
+		 */
+		public Builder changeListener(RouteChangeListener changeListener) {
+			Objects.requireNonNull(changeListener);
+			this.changeListener = changeListener;
+			return this;
+		}
+
+		/**
+		 * Sets how many versions of the table {@link RoutingTable#changesSince(long)} can return the changes of.
+		 * Consumers further behind than this are sent a snapshot instead. Defaults to 8192.
+		 */
+		public Builder changeLogCapacity(int changeLogCapacity) {
+			if (changeLogCapacity < 1) {
+				throw new IllegalArgumentException("changeLogCapacity must be positive");
+			}
+			this.changeLogCapacity = changeLogCapacity;
+			return this;
+		}
+
+		public RoutingTable build() {
+			return new RoutingTable(this);
+		}
+	}
 
 	public RoutingTable(ApplicationEventPublisher eventPublisher, Duration staleRouteTimeout, RouteProvider routeProvider) {
 		this(eventPublisher, null, staleRouteTimeout, routeProvider);
 	}
 
 	public RoutingTable(ApplicationEventPublisher eventPublisher, ScheduledExecutorService scheduler, Duration staleRouteTimeout, RouteProvider routeProvider) {
-		this.eventPublisher = eventPublisher;
-		this.staleRouteTimeout = staleRouteTimeout;
-		this.routeProvider = routeProvider;
+		this(create()
+				.eventPublisher(eventPublisher)
+				.scheduler(scheduler)
+				.staleRouteTimeout(staleRouteTimeout)
+				.routeProvider(routeProvider));
+	}
+
+	private RoutingTable(Builder builder) {
+		Objects.requireNonNull(builder.eventPublisher, "eventPublisher is a required argument");
+		if (builder.dispatchWaitStrategy == null) {
+			eventDispatcher = null;
+			eventPublisher = builder.eventPublisher;
+		} else {
+			eventDispatcher = new RingBufferEventPublisher(
+					builder.eventPublisher,
+					builder.dispatchConsumers,
+					builder.dispatchBufferSize,
+					builder.dispatchWaitStrategy,
+					builder.dropEventsOnOverflow);
+			eventPublisher = eventDispatcher;
+		}
+		Objects.requireNonNull(builder.routeProvider, "routeProvider is a required argument");
+		routeProvider = builder.routeProvider;
+		interner = (builder.interner == null) ? new RouteInterner() : builder.interner;
+		changeListener = builder.changeListener;
+		// Versions start over with every table, so each table gets its own epoch.
+		changeLog = new RouteChangeLog(builder.changeLogCapacity, ThreadLocalRandom.current().nextLong());
+		for (int i = 0; i < hostLocks.length; i++) {
+			hostLocks[i] = new Object();
+		}
+
+		staleRouteTimeout = builder.staleRouteTimeout.toMillis();
+		final long granularity = (builder.staleRouteGranularity == null) ?
+				Math.max(1, staleRouteTimeout / DEFAULT_TICKS_PER_TIMEOUT) :
+				builder.staleRouteGranularity.toMillis();
+		staleRouteWheel = new TimingWheel<>(granularity, staleRouteTimeout, System.currentTimeMillis());
+
+		if (builder.batchWindow == null) {
+			routeChangeBatcher = null;
+		} else {
+			Objects.requireNonNull(builder.scheduler, "a scheduler is required to batch route changes");
+			routeChangeBatcher = new RouteChangeBatcher(this, eventPublisher, host -> !snapshot().getRoutes(host).isEmpty(), builder.scheduler, builder.batchWindow, builder.maxBatchSize);
+		}
+
+		snapshotFile = builder.snapshotFile;
+		if (snapshotFile != null) {
+			loadSnapshot();
+		}
 
 		staleRouteScheduleFuture =
-				(scheduler == null) ? null : scheduler.scheduleAtFixedRate(
+				(builder.scheduler == null) ? null : builder.scheduler.scheduleAtFixedRate(
 						this::cleanupStaleRoutes,
-						staleRouteTimeout.toMillis(),
-						staleRouteTimeout.toMillis(),
+						granularity,
+						granularity,
+						TimeUnit.MILLISECONDS
+				);
+		final ScheduledExecutorService snapshotScheduler = (builder.snapshotScheduler == null) ? builder.scheduler : builder.snapshotScheduler;
+		snapshotScheduleFuture =
+				(snapshotScheduler == null || snapshotFile == null) ? null : snapshotScheduler.scheduleAtFixedRate(
+						this::writeSnapshot,
+						builder.snapshotInterval.toMillis(),
+						builder.snapshotInterval.toMillis(),
 						TimeUnit.MILLISECONDS
 				);
 	}
@@ -72,65 +346,329 @@ public class RoutingTable implements AutoCloseable, RouteRegistrar {
 		if (staleRouteScheduleFuture != null) {
 			staleRouteScheduleFuture.cancel(true);
 		}
+		if (snapshotFile != null) {
+			if (snapshotScheduleFuture != null) {
+				// Don't interrupt, that would close the channel of a snapshot being written.
+				snapshotScheduleFuture.cancel(false);
+			}
+			writeSnapshot();
+		}
+		if (routeChangeBatcher != null) {
+			routeChangeBatcher.close();
+		}
+		if (eventDispatcher != null) {
+			eventDispatcher.close();
+		}
+	}
+
+	private void loadSnapshot() {
+		if (!Files.exists(snapshotFile)) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		// Routes are written grouped by host, so each host's entry is built once instead of once per route.
+		final List<Route> hostRoutes = new ArrayList<>();
+		final int[] loaded = {0};
+		try {
+			final int count = RoutingTableSnapshotFile.read(snapshotFile, (host, address, applicationGuid, applicationIndex, privateInstanceId, lastUpdated) -> {
+				if (now - lastUpdated > staleRouteTimeout) {
+					return;
+				}
+				host = interner.host(host.toLowerCase());
+				if (!hostRoutes.isEmpty() && !hostRoutes.get(0).host.equals(host)) {
+					restoreHost(hostRoutes);
+					hostRoutes.clear();
+				}
+				hostRoutes.add(new Route(
+						interner.address(address),
+						interner.applicationGuid(applicationGuid),
+						applicationIndex,
+						host,
+						interner.privateInstanceId(privateInstanceId),
+						lastUpdated));
+				loaded[0]++;
+			});
+			if (!hostRoutes.isEmpty()) {
+				restoreHost(hostRoutes);
+			}
+			LOGGER.info("Loaded {} of {} routes from {} in {}ms", loaded[0], count, snapshotFile, System.currentTimeMillis() - now);
+		} catch (IOException e) {
+			LOGGER.warn("Unable to load routing table snapshot from {}", snapshotFile, e);
+		}
+	}
+
+	/**
+	 * Inserts routes of a single host read from a snapshot file without publishing events. Like inserted routes they
+	 * are reported to the change listener, so a journal records them before any later unregister or eviction.
+	 */
+	private void restoreHost(List<Route> routes) {
+		final String host = routes.get(0).host;
+		synchronized (lockFor(host)) {
+			HostEntry entry = table.get().getHostEntry(host);
+			final List<Route> replaced = new ArrayList<>();
+			if (entry == null) {
+				entry = new HostEntry(host, routes.toArray(new Route[routes.size()]), new AtomicInteger());
+				if (DomainTrie.isWildcard(host)) {
+					wildcardHosts.add(host);
+				}
+			} else {
+				for (Route route : routes) {
+					final Route current = entry.get(route.address);
+					if (current != null) {
+						current.removed = true;
+						replaced.add(current);
+					}
+					entry = entry.with(route);
+				}
+			}
+			final Map<String, HostEntry> update = Collections.singletonMap(host, entry);
+			swap(snapshot -> snapshot.withHosts(update, routes, replaced), RouteChangeListener.ChangeType.REGISTER, routes);
+			for (Route route : routes) {
+				staleRouteWheel.schedule(route, route.lastUpdated + staleRouteTimeout + 1);
+				addressTable.put(route.address, route);
+				notifyChange(RouteChangeListener.ChangeType.REGISTER, route);
+			}
+		}
+		changesApplied();
+	}
+
+	private synchronized void writeSnapshot() {
+		try {
+			RoutingTableSnapshotFile.write(table.get(), snapshotFile);
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("Unable to write routing table snapshot to {}", snapshotFile, e);
+		}
+	}
+
+	public RouteInterner getInterner() {
+		return interner;
+	}
+
+	public RoutingTableMetrics getMetrics() {
+		return metrics;
 	}
 
+	/**
+	 * Returns the asynchronous event dispatcher or {@code null} if events are published synchronously.
+	 */
+	public RingBufferEventPublisher getEventDispatcher() {
+		return eventDispatcher;
+	}
+
+	/**
+	 * Evicts the routes that have not been refreshed within the stale route timeout. Only the routes whose timer
+	 * tick has come due are examined. Nothing is evicted while the {@link RouteProvider} is unavailable, routes
+	 * that went stale in the meantime are evicted on the first invocation after the provider becomes available.
+	 *
+	 * @return the number of routes evicted or -1 if the route provider is unavailable
+	 */
 	protected int cleanupStaleRoutes() {
 		if (!routeProvider.isAvailable()) {
 			return -1;
 		}
-		final Instant now = Instant.now();
-		int count = 0;
-		synchronized (lock) {
-			final Iterator<Map.Entry<String, Map<SocketAddress, Route>>> routeTableIterator = hostTable.entrySet().iterator();
-			while (routeTableIterator.hasNext()) {
-				final Map.Entry<String, Map<SocketAddress, Route>> routeTableEntry = routeTableIterator.next();
-				final Map<SocketAddress, Route> routeMap = routeTableEntry.getValue();
-				final Iterator<Map.Entry<SocketAddress, Route>> routeMapIterator = routeMap.entrySet().iterator();
-				while (routeMapIterator.hasNext()) {
-					final Map.Entry<SocketAddress, Route> routeEntry = routeMapIterator.next();
-					final Duration staleTime = Duration.between(routeEntry.getValue().lasteUpdated, now);
-					if (staleTime.compareTo(staleRouteTimeout) > 0) {
-						count++;
-						publishRouteUnregister(routeEntry.getValue(), routeMap.isEmpty());
-						routeMapIterator.remove();
-					}
-				}
-				if (routeMap.isEmpty()) {
-					routeTableIterator.remove();
-				}
+		final long start = System.nanoTime();
+		final int[] count = {0};
+		staleRouteWheel.advance(System.currentTimeMillis(), (route, now) -> {
+			if (route.removed) {
+				return -1;
+			}
+			final long deadline = route.lastUpdated + staleRouteTimeout;
+			if (now <= deadline) {
+				return deadline + 1;
+			}
+			if (evictRoute(route, now)) {
+				count[0]++;
+				return -1;
+			}
+			// A heartbeat refreshed the route after we read its timestamp.
+			return route.removed ? -1 : route.lastUpdated + staleRouteTimeout + 1;
+		});
+		changesApplied();
+		metrics.sweepCompleted(count[0], System.nanoTime() - start);
+		return count[0];
+	}
+
+	private boolean evictRoute(Route route, long now) {
+		synchronized (lockFor(route.host)) {
+			final HostEntry entry = table.get().getHostEntry(route.host);
+			if (entry == null || entry.get(route.address) != route) {
+				return false;
+			}
+			// Heartbeats refresh routes without the lock. Mark the route first and check the timestamp after, while
+			// a heartbeat refreshes the timestamp first and checks the mark after, so at least one of them sees the
+			// other. If a heartbeat got in, unmark the route and let the sweep reschedule it, see #refreshRoute.
+			route.removed = true;
+			if (now - route.lastUpdated <= staleRouteTimeout) {
+				route.removed = false;
+				return false;
 			}
+			addressTable.remove(route.address, route);
+			final boolean last = removeRoute(entry, route, RouteChangeListener.ChangeType.EVICT);
+			notifyChange(RouteChangeListener.ChangeType.EVICT, route);
+			publishRouteUnregister(route, last);
+			return true;
 		}
-		return count;
 	}
 
 	@Override
 	public void insertRoute(String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId) {
-		addRoute(host, address, applicationGuid, applicationIndex, privateInstanceId, false);
+		addRoute(host, address, applicationGuid, applicationIndex, privateInstanceId, false, System.currentTimeMillis());
 	}
 
 	@Override
 	public void registerRoute(String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId) {
-		addRoute(host, address, applicationGuid, applicationIndex, privateInstanceId, true).touch();
+		host = host.toLowerCase();
+		if (refreshRoute(host, address, applicationGuid, privateInstanceId)) {
+			// Lock free, so not recorded as a write.
+			metrics.routeRegistered(false);
+			return;
+		}
+		addRoute(host, address, applicationGuid, applicationIndex, privateInstanceId, true, System.currentTimeMillis()).touch();
 	}
 
-	private Route addRoute(String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId, boolean publishChange) {
+	/**
+	 * The heartbeat fast path. Most registrations re-register a route that hasn't changed, so look the route up in
+	 * the current snapshot and, if it matches, only refresh its timestamp. This neither locks nor allocates.
+	 *
+	 * @return {@code false} if the route is missing, has changed or was removed concurrently, in which case the
+	 * registration has to go through {@link #addRoute}
+	 */
+	private boolean refreshRoute(String host, InetSocketAddress address, UUID applicationGuid, String privateInstanceId) {
+		final HostEntry entry = table.get().getHostEntry(host);
+		final Route route = (entry == null) ? null : entry.get(address);
+		if (route == null || !route.matches(applicationGuid, privateInstanceId)) {
+			return false;
+		}
+		route.touch();
+		// Routes are marked removed before they leave the table and evictions check the timestamp only after
+		// marking, so if the route isn't marked yet any eviction still to come sees the refreshed timestamp. If it
+		// is marked, the registration goes through #addRoute, which waits for the eviction to finish or back off.
+		return !route.removed;
+	}
+
+	/**
+	 * Registers the routes of all {@code hosts} at once. Unchanged routes take the heartbeat fast path, the rest are
+	 * applied while holding the locks of all their hosts, become visible in a single snapshot and have their events
+	 * published together.
+	 */
+	@Override
+	public void registerRoutes(Collection<String> hosts, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId) {
+		List<String> pending = null;
+		for (String host : hosts) {
+			host = host.toLowerCase();
+			if (refreshRoute(host, address, applicationGuid, privateInstanceId)) {
+				metrics.routeRegistered(false);
+			} else {
+				if (pending == null) {
+					pending = new ArrayList<>(hosts.size());
+				}
+				pending.add(host);
+			}
+		}
+		if (pending != null) {
+			final List<String> changed = pending;
+			final long start = System.nanoTime();
+			withHostLocks(changed, () -> registerRoutesLocked(changed, address, applicationGuid, applicationIndex, privateInstanceId));
+			changesApplied();
+			metrics.write(System.nanoTime() - start);
+		}
+	}
+
+	private void registerRoutesLocked(List<String> hosts, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId) {
+		final RoutingTableSnapshot snapshot = table.get();
+		final Map<String, HostEntry> updates = new LinkedHashMap<>();
+		final List<Route> registered = new ArrayList<>(hosts.size());
+		final List<Route> replaced = new ArrayList<>(hosts.size());
+		final List<Route> removed = new ArrayList<>();
+		final long now = System.currentTimeMillis();
+		for (String host : hosts) {
+			final HostEntry entry = updates.containsKey(host) ? updates.get(host) : snapshot.getHostEntry(host);
+			final Route route = (entry == null) ? null : entry.get(address);
+			if (route != null && route.matches(applicationGuid, privateInstanceId)) {
+				route.touch();
+				metrics.routeRegistered(false);
+				continue;
+			}
+			final Route newRoute = new Route(
+					interner.address(address),
+					interner.applicationGuid(applicationGuid),
+					applicationIndex,
+					interner.host(host),
+					interner.privateInstanceId(privateInstanceId),
+					now);
+			if (entry == null && DomainTrie.isWildcard(host)) {
+				wildcardHosts.add(host);
+			}
+			updates.put(host, (entry == null) ? new HostEntry(host, newRoute) : entry.with(newRoute));
+			registered.add(newRoute);
+			replaced.add(route);
+			if (route != null) {
+				removed.add(route);
+			}
+		}
+		if (updates.isEmpty()) {
+			return;
+		}
+		swap(current -> current.withHosts(updates, registered, removed), RouteChangeListener.ChangeType.REGISTER, registered);
+		for (int i = 0; i < registered.size(); i++) {
+			final Route newRoute = registered.get(i);
+			final Route route = replaced.get(i);
+			if (route != null) {
+				route.removed = true;
+			}
+			staleRouteWheel.schedule(newRoute, newRoute.lastUpdated + staleRouteTimeout + 1);
+			addressTable.put(newRoute.address, newRoute);
+			notifyChange(RouteChangeListener.ChangeType.REGISTER, newRoute);
+			metrics.routeRegistered(true);
+		}
+		for (int i = 0; i < registered.size(); i++) {
+			publishRouteRegister(registered.get(i), replaced.get(i) != null);
+		}
+	}
+
+	private Route addRoute(String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId, boolean publishChange, long lastUpdated) {
 		host = host.toLowerCase();
-		final Route newRoute = new Route(address, applicationGuid, applicationIndex, host, privateInstanceId);
-		synchronized (lock) {
-			Map<SocketAddress, Route> routes = hostTable.get(host);
-			if (routes == null) {
-				routes = new HashMap<>();
-				hostTable.put(host, routes);
-			}
-			final Route route = routes.get(address);
-			if (route == null || !newRoute.equals(route)) {
-				routes.put(address, newRoute);
-				addressTable.put(address, newRoute);
+		final long start = System.nanoTime();
+		try {
+			return addRouteLocked(host, address, applicationGuid, applicationIndex, privateInstanceId, publishChange, lastUpdated);
+		} finally {
+			changesApplied();
+			metrics.write(System.nanoTime() - start);
+		}
+	}
+
+	private Route addRouteLocked(String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId, boolean publishChange, long lastUpdated) {
+		synchronized (lockFor(host)) {
+			final HostEntry entry = table.get().getHostEntry(host);
+			final Route route = (entry == null) ? null : entry.get(address);
+			if (route == null || !route.matches(applicationGuid, privateInstanceId)) {
+				// Only routes that actually go into the table are built from canonical instances.
+				final Route newRoute = new Route(
+						interner.address(address),
+						interner.applicationGuid(applicationGuid),
+						applicationIndex,
+						interner.host(host),
+						interner.privateInstanceId(privateInstanceId),
+						lastUpdated);
+				if (entry == null && DomainTrie.isWildcard(host)) {
+					wildcardHosts.add(host);
+				}
+				updateHost(host, (entry == null) ? new HostEntry(host, newRoute) : entry.with(newRoute), newRoute, route, RouteChangeListener.ChangeType.REGISTER);
+				if (route != null) {
+					route.removed = true;
+				}
+				staleRouteWheel.schedule(newRoute, newRoute.lastUpdated + staleRouteTimeout + 1);
+				addressTable.put(newRoute.address, newRoute);
+				notifyChange(RouteChangeListener.ChangeType.REGISTER, newRoute);
 				if (publishChange) {
-					publishRouteRegister(newRoute);
+					metrics.routeRegistered(true);
+					publishRouteRegister(newRoute, route != null);
 				}
 				return newRoute;
 			}
+			if (publishChange) {
+				metrics.routeRegistered(false);
+			}
 			return route;
 		}
 	}
@@ -139,21 +677,155 @@ public class RoutingTable implements AutoCloseable, RouteRegistrar {
 	public boolean unregisterRoute(String host, InetSocketAddress address) {
 		host = host.toLowerCase();
 		addressTable.remove(address);
-		synchronized (lock) {
-			Map<SocketAddress, Route> routes = hostTable.get(host);
-			if (routes == null) {
-				return false;
+		final long start = System.nanoTime();
+		try {
+			synchronized (lockFor(host)) {
+				final HostEntry entry = table.get().getHostEntry(host);
+				final Route route = (entry == null) ? null : entry.get(address);
+				if (route == null) {
+					return false;
+				}
+				final boolean last = removeRoute(entry, route, RouteChangeListener.ChangeType.UNREGISTER);
+				metrics.routeUnregistered();
+				notifyChange(RouteChangeListener.ChangeType.UNREGISTER, route);
+				publishRouteUnregister(route, last);
+				return true;
 			}
-			final Route route = routes.remove(address);
-			final boolean removed = route != null;
-			final boolean last = routes.size() == 0;
-			if (last) {
-				hostTable.remove(host);
+		} finally {
+			changesApplied();
+			metrics.write(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Unregisters the routes to {@code address} of all {@code hosts} while holding the locks of all of them. The
+	 * removals become visible in a single snapshot and their events are published together.
+	 */
+	@Override
+	public int unregisterRoutes(Collection<String> hosts, InetSocketAddress address) {
+		addressTable.remove(address);
+		final List<String> lowerCaseHosts = new ArrayList<>(hosts.size());
+		for (String host : hosts) {
+			lowerCaseHosts.add(host.toLowerCase());
+		}
+		final long start = System.nanoTime();
+		final int[] count = {0};
+		withHostLocks(lowerCaseHosts, () -> count[0] = unregisterRoutesLocked(lowerCaseHosts, address));
+		changesApplied();
+		metrics.write(System.nanoTime() - start);
+		return count[0];
+	}
+
+	private int unregisterRoutesLocked(List<String> hosts, InetSocketAddress address) {
+		final RoutingTableSnapshot snapshot = table.get();
+		final Map<String, HostEntry> updates = new LinkedHashMap<>();
+		final List<Route> removed = new ArrayList<>(hosts.size());
+		for (String host : hosts) {
+			final HostEntry entry = updates.containsKey(host) ? updates.get(host) : snapshot.getHostEntry(host);
+			final Route route = (entry == null) ? null : entry.get(address);
+			if (route == null) {
+				continue;
 			}
-			if (removed) {
-				publishRouteUnregister(route, last);
+			final HostEntry updated = entry.without(route);
+			if (updated == null && DomainTrie.isWildcard(host)) {
+				wildcardHosts.remove(host);
 			}
-			return removed;
+			updates.put(host, updated);
+			removed.add(route);
+		}
+		if (removed.isEmpty()) {
+			return 0;
+		}
+		for (Route route : removed) {
+			route.removed = true;
+		}
+		swap(current -> current.withHosts(updates, Collections.emptyList(), removed), RouteChangeListener.ChangeType.UNREGISTER, removed);
+		for (Route route : removed) {
+			metrics.routeUnregistered();
+			notifyChange(RouteChangeListener.ChangeType.UNREGISTER, route);
+		}
+		for (Route route : removed) {
+			publishRouteUnregister(route, updates.get(route.host) == null);
+		}
+		return removed.size();
+	}
+
+	/**
+	 * Removes {@code route} from the table. Must be invoked while holding the host's lock.
+	 *
+	 * @return {@code true} if the route was the last route of its host
+	 */
+	private boolean removeRoute(HostEntry entry, Route route, RouteChangeListener.ChangeType type) {
+		route.removed = true;
+		final HostEntry updated = entry.without(route);
+		if (updated == null && DomainTrie.isWildcard(entry.host)) {
+			wildcardHosts.remove(entry.host);
+		}
+		updateHost(entry.host, updated, null, route, type);
+		return updated == null;
+	}
+
+	private void notifyChange(RouteChangeListener.ChangeType type, Route route) {
+		if (changeListener != null) {
+			try {
+				changeListener.routeChanged(type, route);
+			} catch (RuntimeException e) {
+				LOGGER.error("Route change listener failed on {} of {}", type, route, e);
+			}
+		}
+	}
+
+	/**
+	 * Lets the change listener finish the changes reported so far. Must be invoked without holding any host lock.
+	 */
+	private void changesApplied() {
+		if (changeListener != null) {
+			try {
+				changeListener.changesApplied();
+			} catch (RuntimeException e) {
+				LOGGER.error("Route change listener failed to apply changes", e);
+			}
+		}
+	}
+
+	private void updateHost(String host, HostEntry entry, Route added, Route removed, RouteChangeListener.ChangeType type) {
+		// Writers to other hosts may swap the snapshot concurrently, but never touch this host since we hold its lock.
+		swap(snapshot -> snapshot.withHost(host, entry, added, removed), type, Collections.singletonList((added == null) ? removed : added));
+	}
+
+	/**
+	 * Swaps in a new snapshot and records the change in the change log. Nothing may be done in between, readers
+	 * of the change log wait for the changes of every version to be recorded.
+	 */
+	private void swap(UnaryOperator<RoutingTableSnapshot> update, RouteChangeListener.ChangeType type, List<Route> routes) {
+		changeLog.record(table.updateAndGet(update).getVersion(), type, routes);
+	}
+
+	private Object lockFor(String host) {
+		return hostLocks[lockStripe(host)];
+	}
+
+	private int lockStripe(String host) {
+		final int h = host.hashCode();
+		return (h ^ (h >>> 16)) & (hostLocks.length - 1);
+	}
+
+	/**
+	 * Runs {@code action} while holding the locks of all {@code hosts}. Locks are always taken in stripe order so
+	 * batches over overlapping hosts can't deadlock.
+	 */
+	private void withHostLocks(Collection<String> hosts, Runnable action) {
+		final int[] stripes = hosts.stream().mapToInt(this::lockStripe).distinct().sorted().toArray();
+		lockStripes(stripes, 0, action);
+	}
+
+	private void lockStripes(int[] stripes, int i, Runnable action) {
+		if (i == stripes.length) {
+			action.run();
+			return;
+		}
+		synchronized (hostLocks[stripes[i]]) {
+			lockStripes(stripes, i + 1, action);
 		}
 	}
 
@@ -162,41 +834,218 @@ public class RoutingTable implements AutoCloseable, RouteRegistrar {
 		return addressTable.get(address);
 	}
 
-	private void publishRouteRegister(Route route) {
-		eventPublisher.publishEvent(RouteRegisterEvent.fromRouteDetails(this, route));
+	private void publishRouteRegister(Route route, boolean replaced) {
+		final RouteRegisterEvent event = RouteRegisterEvent.fromRouteDetails(this, route);
+		if (routeChangeBatcher == null) {
+			eventPublisher.publishEvent(event);
+		} else {
+			routeChangeBatcher.routeRegistered(event, replaced);
+		}
 	}
 
 	private void publishRouteUnregister(Route route, boolean last) {
-		eventPublisher.publishEvent(RouteUnregisterEvent.fromRouteDetails(this, route, last));
+		final RouteUnregisterEvent event = RouteUnregisterEvent.fromRouteDetails(this, route, last);
+		if (routeChangeBatcher == null) {
+			eventPublisher.publishEvent(event);
+		} else {
+			routeChangeBatcher.routeUnregistered(event);
+		}
 	}
 
+	/**
+	 * Returns the routes for {@code host}. If no route has been registered for the exact host, the routes of the
+	 * most specific wildcard host covering it are returned, e.g. the routes of {@code *.apps.example.com} for
+	 * {@code foo.apps.example.com}.
+	 */
 	public Set<RouteDetails> getRoutes(String host) {
 		host = host.toLowerCase();
 		final HashSet<RouteDetails> routes = new HashSet<>();
-		synchronized (lock) {
-			final Map<SocketAddress, Route> routeMap = hostTable.get(host);
-			if (routeMap != null) {
-				routeMap.forEach((k, v) -> routes.add(v));
-			}
+		final HostEntry entry = findHost(host);
+		if (entry != null) {
+			Collections.addAll(routes, entry.routes);
 		}
 		return routes;
 	}
 
-	private class Route implements RouteDetails {
+	/**
+	 * Returns the routes of all hosts mapped to the application with the given GUID.
+	 *
+	 * @see RoutingTableSnapshot#getRoutesByApplication(UUID)
+	 */
+	public List<RouteDetails> getRoutesByApplication(UUID applicationGuid) {
+		return table.get().getRoutesByApplication(applicationGuid);
+	}
+
+	/**
+	 * Returns the routes of the given application instance, as used by the {@code X-CF-APP-INSTANCE} header.
+	 *
+	 * @see RoutingTableSnapshot#getRoutesByApplicationInstance(UUID, int)
+	 */
+	public List<RouteDetails> getRoutesByApplicationInstance(UUID applicationGuid, int applicationIndex) {
+		return table.get().getRoutesByApplicationInstance(applicationGuid, applicationIndex);
+	}
+
+	/**
+	 * Returns the routes of the application instance with the given private instance id, as used by
+	 * {@code __VCAP_ID__} sticky sessions.
+	 *
+	 * @see RoutingTableSnapshot#getRoutesByPrivateInstanceId(String)
+	 */
+	public List<RouteDetails> getRoutesByPrivateInstanceId(String privateInstanceId) {
+		return table.get().getRoutesByPrivateInstanceId(privateInstanceId);
+	}
+
+	/**
+	 * Returns the changes made to the table after {@code sequence}, the sequence number of the last change the
+	 * caller has seen, in {@code epoch}. Consumers start with the {@link #getEpoch() epoch} and version of a
+	 * snapshot they've applied, or any epoch and a sequence of 0, and pass {@link RouteChanges#getEpoch()} and
+	 * {@link RouteChanges#getSequence()} to the next call.
+	 *
+	 * <p>If the consumer is further behind than the change log capacity, or {@code epoch} isn't this table's epoch,
+	 * e.g. because the sequence was seen before a restart, the result is a resync carrying a snapshot of the table.
+	 */
+	public RouteChanges changesSince(long epoch, long sequence) {
+		return changeLog.changesSince(epoch, sequence, table.get());
+	}
+
+	/**
+	 * Returns the changes made to the table after {@code sequence} for consumers that live as long as the table and
+	 * so can't see another epoch. Consumers that persist sequence numbers or receive them from other processes have
+	 * to use {@link #changesSince(long, long)}.
+	 */
+	public RouteChanges changesSince(long sequence) {
+		return changesSince(getEpoch(), sequence);
+	}
+
+	/**
+	 * Returns the random epoch of this table. Versions and change sequence numbers start over with every table, so
+	 * they only identify a state of the table together with the epoch.
+	 */
+	public long getEpoch() {
+		return changeLog.epoch();
+	}
+
+	/**
+	 * Returns an immutable, consistent view of the entire table. Taking a snapshot is a single volatile read and
+	 * doesn't block or slow down writers, later changes to the table are not visible in the snapshot.
+	 */
+	public RoutingTableSnapshot snapshot() {
+		return table.get();
+	}
+
+	/**
+	 * Returns a selector that cycles through the routes of each host in turn. Selecting a route doesn't allocate
+	 * and doesn't lock, the selector reads the same route array {@link #getRoutes(String)} does.
+	 */
+	public RouteSelector roundRobinSelector() {
+		return roundRobinSelector;
+	}
+
+	/**
+	 * Returns a selector that picks a random route for each host. Selecting a route doesn't allocate and doesn't
+	 * lock.
+	 */
+	public RouteSelector randomSelector() {
+		return randomSelector;
+	}
+
+	private HostEntry findHost(String host) {
+		final RoutingTableSnapshot snapshot = table.get();
+		final HostEntry entry = snapshot.getHostEntry(host);
+		if (entry != null) {
+			return entry;
+		}
+		final String wildcardHost = wildcardHosts.find(host);
+		return (wildcardHost == null) ? null : snapshot.getHostEntry(wildcardHost);
+	}
+
+	/**
+	 * The routes of a single host. Instances are immutable so they can be shared between snapshots, every change
+	 * to a host's routes creates a new entry.
+	 */
+	static final class HostEntry {
+		final String host;
+		final Route[] routes;
+		final List<RouteDetails> routeList;
+		// Round robin position, carried over when the host's routes change.
+		final AtomicInteger next;
+
+		private HostEntry(String host, Route route) {
+			this(host, new Route[] {route}, new AtomicInteger());
+		}
+
+		private HostEntry(String host, Route[] routes, AtomicInteger next) {
+			this.host = host;
+			this.routes = routes;
+			this.routeList = Collections.unmodifiableList(Arrays.<RouteDetails>asList(routes));
+			this.next = next;
+		}
+
+		Route get(SocketAddress address) {
+			final int i = indexOf(address);
+			return (i < 0) ? null : routes[i];
+		}
+
+		/**
+		 * Returns a copy of this entry with {@code route} added or replacing the route with the same address.
+		 */
+		HostEntry with(Route route) {
+			final int i = indexOf(route.address);
+			final Route[] updated;
+			if (i < 0) {
+				updated = Arrays.copyOf(routes, routes.length + 1);
+				updated[routes.length] = route;
+			} else {
+				updated = routes.clone();
+				updated[i] = route;
+			}
+			return new HostEntry(host, updated, next);
+		}
+
+		/**
+		 * Returns a copy of this entry without {@code route} or {@code null} if it was the only route.
+		 */
+		HostEntry without(Route route) {
+			final int i = indexOf(route.address);
+			if (i < 0) {
+				return this;
+			}
+			if (routes.length == 1) {
+				return null;
+			}
+			final Route[] updated = new Route[routes.length - 1];
+			System.arraycopy(routes, 0, updated, 0, i);
+			System.arraycopy(routes, i + 1, updated, i, updated.length - i);
+			return new HostEntry(host, updated, next);
+		}
+
+		private int indexOf(SocketAddress address) {
+			for (int i = 0; i < routes.length; i++) {
+				if (routes[i].address.equals(address)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+
+	static class Route implements RouteDetails {
 		private final InetSocketAddress address;
 		private final UUID applicationGuid;
 		private final Integer applicationIndex;
 		private final String host;
 		private final String privateInstanceId;
-		private volatile Instant lasteUpdated;
+		private volatile long lastUpdated;
+		// Set once the route has been replaced or removed from the table.
+		private volatile boolean removed;
 
-		private Route(InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String host, String privateInstanceId) {
+		private Route(InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String host, String privateInstanceId, long lastUpdated) {
 			this.address = address;
 			this.applicationGuid = applicationGuid;
 			this.applicationIndex = applicationIndex;
 			this.host = host;
 			this.privateInstanceId = privateInstanceId;
-			touch();
+			this.lastUpdated = lastUpdated;
 		}
 
 		@Override
@@ -224,7 +1073,18 @@ public class RoutingTable implements AutoCloseable, RouteRegistrar {
 		}
 
 		public void touch() {
-			lasteUpdated = Instant.now();
+			lastUpdated = System.currentTimeMillis();
+		}
+
+		long getLastUpdated() {
+			return lastUpdated;
+		}
+
+		/**
+		 * Returns {@code true} if a route for the same host and address with the given values is equal to this route.
+		 */
+		boolean matches(UUID applicationGuid, String privateInstanceId) {
+			return Objects.equals(this.applicationGuid, applicationGuid) && Objects.equals(this.privateInstanceId, privateInstanceId);
 		}
 
 		@Override
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import cloudfoundry.norouter.metrics.LatencyHistogram;
+import cloudfoundry.norouter.metrics.Meter;
+
+/**
+ * Counters and timings of a {@link RoutingTable}. Recording never locks, so reading the metrics doesn't slow down
+ * the table.
+ *
+ * @author Mike Heath
+ */
+public final class RoutingTableMetrics {
+
+	private final Meter registers = new Meter();
+	private final Meter routeChanges = new Meter();
+	private final Meter unregisters = new Meter();
+	private final Meter evictions = new Meter();
+	private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+	private volatile int lastSweepEvictions;
+	private volatile long lastSweepNanos;
+
+	RoutingTableMetrics() {
+	}
+
+	void routeRegistered(boolean changed) {
+		registers.mark();
+		if (changed) {
+			routeChanges.mark();
+		}
+	}
+
+	void routeUnregistered() {
+		unregisters.mark();
+	}
+
+	void write(long nanos) {
+		writeLatency.record(nanos);
+	}
+
+	void sweepCompleted(int evicted, long nanos) {
+		evictions.mark(evicted);
+		lastSweepEvictions = evicted;
+		lastSweepNanos = nanos;
+	}
+
+	/**
+	 * Register messages received, including heartbeats that didn't change the table.
+	 */
+	public Meter getRegisters() {
+		return registers;
+	}
+
+	/**
+	 * Register messages that added a route or changed an existing route.
+	 */
+	public Meter getRouteChanges() {
+		return routeChanges;
+	}
+
+	/**
+	 * Routes removed by unregister messages.
+	 */
+	public Meter getUnregisters() {
+		return unregisters;
+	}
+
+	/**
+	 * Routes evicted because they went stale.
+	 */
+	public Meter getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * The fraction of register messages that were heartbeats and didn't change the table.
+	 */
+	public double getHeartbeatNoOpRatio() {
+		final long count = registers.getCount();
+		return count == 0 ? 0 : (count - routeChanges.getCount()) / (double) count;
+	}
+
+	/**
+	 * Time spent waiting for and holding host locks while adding or removing routes. Heartbeats that only refresh an
+	 * existing route take no lock and are not recorded.
+	 */
+	public LatencyHistogram getWriteLatency() {
+		return writeLatency;
+	}
+
+	public int getLastSweepEvictions() {
+		return lastSweepEvictions;
+	}
+
+	public long getLastSweepNanos() {
+		return lastSweepNanos;
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * An immutable view of a {@link RoutingTable} at a specific version. Snapshots share their structure with the table
+ * and with each other so taking one is O(1) regardless of the size of the table.
+ *
+ * @author Mike Heath
+ */
+public final class RoutingTableSnapshot {
+
+	static final RoutingTableSnapshot EMPTY = new RoutingTableSnapshot(0, PersistentHashMap.empty(), 0,
+			RouteIndex.empty(), RouteIndex.empty(), RouteIndex.empty());
+
+	private final long version;
+	private final PersistentHashMap<String, RoutingTable.HostEntry> hosts;
+	private final int routeCount;
+	// Secondary indexes, always updated together with the hosts so they are consistent with them.
+	private final RouteIndex<UUID> applications;
+	private final RouteIndex<ApplicationInstance> applicationInstances;
+	private final RouteIndex<String> privateInstanceIds;
+
+	private RoutingTableSnapshot(long version, PersistentHashMap<String, RoutingTable.HostEntry> hosts, int routeCount,
+			RouteIndex<UUID> applications, RouteIndex<ApplicationInstance> applicationInstances, RouteIndex<String> privateInstanceIds) {
+		this.version = version;
+		this.hosts = hosts;
+		this.routeCount = routeCount;
+		this.applications = applications;
+		this.applicationInstances = applicationInstances;
+		this.privateInstanceIds = privateInstanceIds;
+	}
+
+	/**
+	 * Returns the version of the table this snapshot was taken at. The version increases every time a route is
+	 * added, changed or removed.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public int getHostCount() {
+		return hosts.size();
+	}
+
+	public int getRouteCount() {
+		return routeCount;
+	}
+
+	/**
+	 * Returns the routes registered for exactly {@code host}, wildcard hosts are not expanded.
+	 */
+	public List<RouteDetails> getRoutes(String host) {
+		final RoutingTable.HostEntry entry = hosts.get(host.toLowerCase());
+		return (entry == null) ? Collections.emptyList() : entry.routeList;
+	}
+
+	/**
+	 * Invokes {@code action} for each host with the host's routes. The lists passed are views of the snapshot and
+	 * are not copied.
+	 */
+	public void forEachHost(BiConsumer<String, List<RouteDetails>> action) {
+		hosts.forEach((host, entry) -> action.accept(host, entry.routeList));
+	}
+
+	public void forEachRoute(Consumer<RouteDetails> action) {
+		hosts.forEach((host, entry) -> {
+			for (RouteDetails route : entry.routes) {
+				action.accept(route);
+			}
+		});
+	}
+
+	/**
+	 * Returns the routes of all hosts mapped to the application with the given GUID.
+	 */
+	public List<RouteDetails> getRoutesByApplication(UUID applicationGuid) {
+		return applications.get(applicationGuid);
+	}
+
+	/**
+	 * Returns the routes of a single application instance, one per host mapped to the application.
+	 */
+	public List<RouteDetails> getRoutesByApplicationInstance(UUID applicationGuid, int applicationIndex) {
+		return (applicationGuid == null) ? Collections.emptyList() : applicationInstances.get(new ApplicationInstance(applicationGuid, applicationIndex));
+	}
+
+	/**
+	 * Returns the routes of the application instance with the given private instance id, one per host mapped to the
+	 * application.
+	 */
+	public List<RouteDetails> getRoutesByPrivateInstanceId(String privateInstanceId) {
+		return privateInstanceIds.get(privateInstanceId);
+	}
+
+	RoutingTable.HostEntry getHostEntry(String host) {
+		return hosts.get(host);
+	}
+
+	/**
+	 * Returns a new snapshot with the routes of {@code host} replaced by {@code entry}, or removed if {@code entry}
+	 * is {@code null}. {@code added} and {@code removed} are the routes that differ between the current and the new
+	 * entry, either may be {@code null}.
+	 */
+	RoutingTableSnapshot withHost(String host, RoutingTable.HostEntry entry, RoutingTable.Route added, RoutingTable.Route removed) {
+		final RoutingTable.HostEntry current = hosts.get(host);
+		final int delta = ((entry == null) ? 0 : entry.routes.length) - ((current == null) ? 0 : current.routes.length);
+		final PersistentHashMap<String, RoutingTable.HostEntry> updated =
+				(entry == null) ? hosts.remove(host) : hosts.put(host, entry);
+		return withIndexes(updated, routeCount + delta,
+				(added == null) ? Collections.emptyList() : Collections.singletonList(added),
+				(removed == null) ? Collections.emptyList() : Collections.singletonList(removed));
+	}
+
+	/**
+	 * Returns a new snapshot with the routes of each host in {@code entries} replaced, or removed where the entry is
+	 * {@code null}. The whole batch counts as a single version.
+	 */
+	RoutingTableSnapshot withHosts(Map<String, RoutingTable.HostEntry> entries, Collection<RoutingTable.Route> added, Collection<RoutingTable.Route> removed) {
+		PersistentHashMap<String, RoutingTable.HostEntry> updated = hosts;
+		int count = routeCount;
+		for (Map.Entry<String, RoutingTable.HostEntry> e : entries.entrySet()) {
+			final RoutingTable.HostEntry current = updated.get(e.getKey());
+			final RoutingTable.HostEntry entry = e.getValue();
+			count += ((entry == null) ? 0 : entry.routes.length) - ((current == null) ? 0 : current.routes.length);
+			updated = (entry == null) ? updated.remove(e.getKey()) : updated.put(e.getKey(), entry);
+		}
+		return withIndexes(updated, count, added, removed);
+	}
+
+	private RoutingTableSnapshot withIndexes(PersistentHashMap<String, RoutingTable.HostEntry> updated, int count,
+			Collection<RoutingTable.Route> added, Collection<RoutingTable.Route> removed) {
+		RouteIndex<UUID> applications = this.applications;
+		RouteIndex<ApplicationInstance> applicationInstances = this.applicationInstances;
+		RouteIndex<String> privateInstanceIds = this.privateInstanceIds;
+		for (RoutingTable.Route route : removed) {
+			applications = applications.without(route.getApplicationGuid(), route);
+			applicationInstances = applicationInstances.without(ApplicationInstance.of(route), route);
+			privateInstanceIds = privateInstanceIds.without(route.getPrivateInstanceId(), route);
+		}
+		for (RoutingTable.Route route : added) {
+			applications = applications.with(route.getApplicationGuid(), route);
+			applicationInstances = applicationInstances.with(ApplicationInstance.of(route), route);
+			privateInstanceIds = privateInstanceIds.with(route.getPrivateInstanceId(), route);
+		}
+		return new RoutingTableSnapshot(version + 1, updated, count, applications, applicationInstances, privateInstanceIds);
+	}
+
+	private static final class ApplicationInstance {
+		private final UUID applicationGuid;
+		private final int applicationIndex;
+
+		private ApplicationInstance(UUID applicationGuid, int applicationIndex) {
+			this.applicationGuid = applicationGuid;
+			this.applicationIndex = applicationIndex;
+		}
+
+		/**
+		 * Returns the instance of {@code route} or {@code null} if the route doesn't say which application instance
+		 * it belongs to.
+		 */
+		static ApplicationInstance of(RoutingTable.Route route) {
+			final UUID applicationGuid = route.getApplicationGuid();
+			final Integer applicationIndex = route.getApplicationIndex();
+			return (applicationGuid == null || applicationIndex == null) ? null : new ApplicationInstance(applicationGuid, applicationIndex);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+
+			final ApplicationInstance that = (ApplicationInstance) o;
+
+			return applicationIndex == that.applicationIndex && applicationGuid.equals(that.applicationGuid);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * applicationGuid.hashCode() + applicationIndex;
+		}
+	}
+}
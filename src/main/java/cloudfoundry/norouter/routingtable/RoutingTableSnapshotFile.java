@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Reads and writes {@link RoutingTableSnapshot}s in a compact binary format so a restarted router can serve routes
+ * before it has heard from every backend again.
+ *
+ * <p>The file starts with a header holding a magic number, the format version, the time the file was written, the
+ * snapshot's version and the number of strings and routes. It is followed by a table of every distinct host,
+ * backend host and private instance id, each as a length prefixed UTF-8 string, and then by the routes. Routes
+ * refer to strings by their index in the string table so each string is only decoded once when loading.
+ *
+ * <p>Files are written to a temporary file that is moved into place once complete, so a crash while writing never
+ * leaves a truncated snapshot behind. Files are read through a memory mapping.
+ *
+ * @author Mike Heath
+ */
+public final class RoutingTableSnapshotFile {
+
+	private static final int MAGIC = 0x4e525453; // "NRTS"
+	private static final int FORMAT_VERSION = 1;
+
+	private static final byte HAS_APPLICATION_GUID = 1;
+	private static final byte HAS_APPLICATION_INDEX = 2;
+	private static final byte HAS_PRIVATE_INSTANCE_ID = 4;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// The largest encoded route: host, address host, port, flags, GUID, index, private instance id, last updated.
+	private static final int MAX_ROUTE_SIZE = 4 + 4 + 2 + 1 + 16 + 4 + 4 + 8;
+
+	/**
+	 * Receives the routes read from a snapshot file.
+	 */
+	@FunctionalInterface
+	public interface RouteHandler {
+		void route(String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId, long lastUpdated);
+	}
+
+	private RoutingTableSnapshotFile() {
+		// Utility class
+	}
+
+	/**
+	 * Writes {@code snapshot} to {@code path}, replacing any existing file.
+	 */
+	public static void write(RoutingTableSnapshot snapshot, Path path) throws IOException {
+		final Map<String, Integer> strings = new HashMap<>();
+		final List<String> stringTable = new ArrayList<>();
+		final int[] routeCount = {0};
+		snapshot.forEachRoute(route -> {
+			addString(strings, stringTable, route.getHost());
+			addString(strings, stringTable, route.getAddress().getHostString());
+			if (route.getPrivateInstanceId() != null) {
+				addString(strings, stringTable, route.getPrivateInstanceId());
+			}
+			routeCount[0]++;
+		});
+
+		final Path directory = path.toAbsolutePath().getParent();
+		final Path temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				final Writer writer = new Writer(channel);
+				final ByteBuffer header = writer.reserve(4 + 4 + 8 + 8 + 4 + 4);
+				header.putInt(MAGIC);
+				header.putInt(FORMAT_VERSION);
+				header.putLong(System.currentTimeMillis());
+				header.putLong(snapshot.getVersion());
+				header.putInt(stringTable.size());
+				header.putInt(routeCount[0]);
+				for (String string : stringTable) {
+					final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+					writer.reserve(4).putInt(bytes.length);
+					writer.write(bytes);
+				}
+				final IOException[] failure = {null};
+				snapshot.forEachRoute(route -> {
+					if (failure[0] == null) {
+						try {
+							writeRoute(writer, strings, route);
+						} catch (IOException e) {
+							failure[0] = e;
+						}
+					}
+				});
+				if (failure[0] != null) {
+					throw failure[0];
+				}
+				writer.flush();
+				channel.force(false);
+			}
+			try {
+				Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static void addString(Map<String, Integer> strings, List<String> stringTable, String string) {
+		if (!strings.containsKey(string)) {
+			strings.put(string, stringTable.size());
+			stringTable.add(string);
+		}
+	}
+
+	private static void writeRoute(Writer writer, Map<String, Integer> strings, RouteDetails route) throws IOException {
+		final ByteBuffer buffer = writer.reserve(MAX_ROUTE_SIZE);
+		buffer.putInt(strings.get(route.getHost()));
+		buffer.putInt(strings.get(route.getAddress().getHostString()));
+		buffer.putChar((char) route.getAddress().getPort());
+		byte flags = 0;
+		if (route.getApplicationGuid() != null) {
+			flags |= HAS_APPLICATION_GUID;
+		}
+		if (route.getApplicationIndex() != null) {
+			flags |= HAS_APPLICATION_INDEX;
+		}
+		if (route.getPrivateInstanceId() != null) {
+			flags |= HAS_PRIVATE_INSTANCE_ID;
+		}
+		buffer.put(flags);
+		if (route.getApplicationGuid() != null) {
+			buffer.putLong(route.getApplicationGuid().getMostSignificantBits());
+			buffer.putLong(route.getApplicationGuid().getLeastSignificantBits());
+		}
+		if (route.getApplicationIndex() != null) {
+			buffer.putInt(route.getApplicationIndex());
+		}
+		if (route.getPrivateInstanceId() != null) {
+			buffer.putInt(strings.get(route.getPrivateInstanceId()));
+		}
+		buffer.putLong(route instanceof RoutingTable.Route ? ((RoutingTable.Route) route).getLastUpdated() : System.currentTimeMillis());
+	}
+
+	/**
+	 * Reads the routes in the snapshot at {@code path} and hands each to {@code handler}.
+	 *
+	 * @return the number of routes read
+	 * @throws IOException if the file can't be read or isn't a valid snapshot
+	 */
+	public static int read(Path path, RouteHandler handler) throws IOException {
+		final MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Not a routing table snapshot: " + path);
+			}
+			final int version = buffer.getInt();
+			if (version != FORMAT_VERSION) {
+				throw new IOException("Unsupported routing table snapshot version " + version + ": " + path);
+			}
+			buffer.getLong(); // Time written
+			buffer.getLong(); // Table version
+			final String[] strings = new String[buffer.getInt()];
+			final int routeCount = buffer.getInt();
+			final byte[] bytes = new byte[256];
+			for (int i = 0; i < strings.length; i++) {
+				final int length = buffer.getInt();
+				final byte[] target = (length <= bytes.length) ? bytes : new byte[length];
+				buffer.get(target, 0, length);
+				strings[i] = new String(target, 0, length, StandardCharsets.UTF_8);
+			}
+			for (int i = 0; i < routeCount; i++) {
+				final String host = strings[buffer.getInt()];
+				final InetSocketAddress address = InetSocketAddress.createUnresolved(strings[buffer.getInt()], buffer.getChar());
+				final byte flags = buffer.get();
+				final UUID applicationGuid = ((flags & HAS_APPLICATION_GUID) == 0) ? null : new UUID(buffer.getLong(), buffer.getLong());
+				final Integer applicationIndex = ((flags & HAS_APPLICATION_INDEX) == 0) ? null : buffer.getInt();
+				final String privateInstanceId = ((flags & HAS_PRIVATE_INSTANCE_ID) == 0) ? null : strings[buffer.getInt()];
+				handler.route(host, address, applicationGuid, applicationIndex, privateInstanceId, buffer.getLong());
+			}
+			return routeCount;
+		} catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IOException("Truncated or corrupt routing table snapshot: " + path, e);
+		}
+	}
+
+	/**
+	 * Returns {@code true} if {@code path} starts like a routing table snapshot.
+	 */
+	public static boolean isSnapshot(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final ByteBuffer magic = ByteBuffer.allocate(4);
+			while (magic.hasRemaining() && channel.read(magic) >= 0) {
+				// Keep reading until we have the magic number or hit the end of the file.
+			}
+			return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+		}
+	}
+
+	/**
+	 * Buffers writes to a channel.
+	 */
+	private static class Writer {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		Writer(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Returns the buffer with at least {@code bytes} bytes remaining, flushing it if necessary.
+		 */
+		ByteBuffer reserve(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				flush();
+			}
+			return buffer;
+		}
+
+		void write(byte[] bytes) throws IOException {
+			if (bytes.length > buffer.capacity()) {
+				flush();
+				final ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+				while (wrapped.hasRemaining()) {
+					channel.write(wrapped);
+				}
+			} else {
+				reserve(bytes.length).put(bytes);
+			}
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link RouteRegistrar} that only passes the registrations of the hosts this member owns on to the routing
+ * table, so each member of a cluster holds a slice of the routes. Hosts are assigned to members with a
+ * {@link ConsistentHashRing}. Wildcard hosts are kept by every member since a lookup of any host below the
+ * wildcard's domain may fall back to them.
+ *
+ * <p>Until {@link #setMembers(Collection)} is called this member is alone on the ring and owns every host.
+ * Unregistrations are always passed on. A registration racing a rebalance may leave a route of a released host
+ * behind, it is evicted once it goes stale since its heartbeats are no longer accepted.
+ *
+ * @author Mike Heath
+ */
+public class ShardedRouteRegistrar implements RouteRegistrar {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ShardedRouteRegistrar.class);
+
+	private final RoutingTable routingTable;
+	private final String memberId;
+
+	private volatile ConsistentHashRing ring;
+
+	private final LongAdder rejectedRegistrations = new LongAdder();
+
+	public static Builder create() {
+		return new Builder();
+	}
+
+	public static class Builder {
+		private RoutingTable routingTable;
+		private String memberId;
+		private int virtualNodes = ConsistentHashRing.DEFAULT_VIRTUAL_NODES;
+
+		public Builder routingTable(RoutingTable routingTable) {
+			this.routingTable = routingTable;
+			return this;
+		}
+
+		/**
+		 * Sets the id this member is known by on the ring. Every member must use a different id.
+		 */
+		public Builder memberId(String memberId) {
+			this.memberId = memberId;
+			return this;
+		}
+
+		/**
+		 * Sets the number of points each member is placed at on the ring. Every member of a cluster must use the
+		 * same value.
+		 */
+		public Builder virtualNodes(int virtualNodes) {
+			if (virtualNodes < 1) {
+				throw new IllegalArgumentException("virtualNodes must be positive");
+			}
+			this.virtualNodes = virtualNodes;
+			return this;
+		}
+
+		public ShardedRouteRegistrar build() {
+			return new ShardedRouteRegistrar(this);
+		}
+	}
+
+	private ShardedRouteRegistrar(Builder builder) {
+		Objects.requireNonNull(builder.routingTable, "routingTable is a required argument");
+		Objects.requireNonNull(builder.memberId, "memberId is a required argument");
+		routingTable = builder.routingTable;
+		memberId = builder.memberId;
+		ring = new ConsistentHashRing(Collections.singleton(memberId), builder.virtualNodes);
+	}
+
+	@Override
+	public void insertRoute(String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId) {
+		if (accepts(host)) {
+			routingTable.insertRoute(host, address, applicationGuid, applicationIndex, privateInstanceId);
+		} else {
+			rejectedRegistrations.increment();
+		}
+	}
+
+	@Override
+	public void registerRoute(String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId) {
+		if (accepts(host)) {
+			routingTable.registerRoute(host, address, applicationGuid, applicationIndex, privateInstanceId);
+		} else {
+			rejectedRegistrations.increment();
+		}
+	}
+
+	@Override
+	public void registerRoutes(Collection<String> hosts, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId) {
+		final List<String> owned = new ArrayList<>(hosts.size());
+		for (String host : hosts) {
+			if (accepts(host)) {
+				owned.add(host);
+			} else {
+				rejectedRegistrations.increment();
+			}
+		}
+		if (!owned.isEmpty()) {
+			routingTable.registerRoutes(owned, address, applicationGuid, applicationIndex, privateInstanceId);
+		}
+	}
+
+	@Override
+	public boolean unregisterRoute(String host, InetSocketAddress address) {
+		return routingTable.unregisterRoute(host, address);
+	}
+
+	@Override
+	public int unregisterRoutes(Collection<String> hosts, InetSocketAddress address) {
+		return routingTable.unregisterRoutes(hosts, address);
+	}
+
+	@Override
+	public RouteDetails getRouteByAddress(InetSocketAddress address) {
+		return routingTable.getRouteByAddress(address);
+	}
+
+	/**
+	 * Replaces the members of the ring. This member is always on the ring, whether or not it is in {@code members}.
+	 * The routes of the hosts this member no longer owns are removed from the routing table, the routes of the hosts
+	 * it gained arrive with their next registration.
+	 *
+	 * @return {@code true} if the members changed
+	 */
+	public synchronized boolean setMembers(Collection<String> members) {
+		final TreeSet<String> updated = new TreeSet<>(members);
+		updated.add(memberId);
+		final ConsistentHashRing current = ring;
+		if (updated.equals(current.getMembers())) {
+			return false;
+		}
+		final ConsistentHashRing next = new ConsistentHashRing(updated, current.getVirtualNodes());
+		ring = next;
+		final int released = releaseHosts();
+		LOGGER.info("Shard members changed to {}, released {} hosts", updated, released);
+		return true;
+	}
+
+	/**
+	 * Removes the routes of every host this member doesn't own from the routing table.
+	 *
+	 * @return the number of hosts removed
+	 */
+	private int releaseHosts() {
+		// Group by backend so each backend's routes are removed in one batch.
+		final Map<InetSocketAddress, List<String>> hostsByAddress = new HashMap<>();
+		final int[] hostCount = {0};
+		routingTable.snapshot().forEachHost((host, routes) -> {
+			if (!accepts(host)) {
+				hostCount[0]++;
+				for (RouteDetails route : routes) {
+					hostsByAddress.computeIfAbsent(route.getAddress(), address -> new ArrayList<>()).add(host);
+				}
+			}
+		});
+		hostsByAddress.forEach((address, hosts) -> routingTable.unregisterRoutes(hosts, address));
+		return hostCount[0];
+	}
+
+	private boolean accepts(String host) {
+		return isWildcard(host) || memberId.equals(ring.owner(host));
+	}
+
+	private static boolean isWildcard(String host) {
+		return host.startsWith("*.");
+	}
+
+	/**
+	 * Returns {@code true} if this member holds the routes of {@code host}.
+	 */
+	public boolean owns(String host) {
+		return accepts(host);
+	}
+
+	/**
+	 * Returns the id of the member holding the routes of {@code host}. Wildcard hosts are held by every member, so
+	 * this member's id is returned for them.
+	 */
+	public String getOwner(String host) {
+		return isWildcard(host) ? memberId : ring.owner(host);
+	}
+
+	public String getMemberId() {
+		return memberId;
+	}
+
+	public ConsistentHashRing getRing() {
+		return ring;
+	}
+
+	/**
+	 * Returns the number of route registrations dropped because another member owns their host.
+	 */
+	public long getRejectedRegistrationCount() {
+		return rejectedRegistrations.sum();
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A timing wheel that hands items back once their deadline has been reached. Deadlines are rounded up to the
+ * wheel's tick so an item is never expired early and at most one tick late.
+ *
+ * <p>Items are re-checked lazily: when an item's bucket comes due the {@link Expirer} decides whether the item
+ * actually expired or whether it should be scheduled again for a later deadline. This keeps scheduling out of any
+ * hot path that merely extends an item's deadline.
+ *
+ * @author Mike Heath
+ */
+class TimingWheel<T> {
+
+	interface Expirer<T> {
+		/**
+		 * Invoked when the bucket holding {@code item} comes due.
+		 *
+		 * @return the new deadline at which {@code item} must be checked again or a negative value to drop it
+		 */
+		long expire(T item, long now);
+	}
+
+	private final long tickMillis;
+	private final List<T>[] buckets;
+
+	// The last tick that has been processed. Only advanced by #advance.
+	private volatile long cursor;
+
+	@SuppressWarnings("unchecked")
+	TimingWheel(long tickMillis, long spanMillis, long now) {
+		if (tickMillis <= 0) {
+			throw new IllegalArgumentException("tick must be positive");
+		}
+		this.tickMillis = tickMillis;
+		// Any deadline scheduled is at most #spanMillis away, plus one bucket for rounding up and one for the cursor.
+		final int size = (int) ((spanMillis + tickMillis - 1) / tickMillis) + 2;
+		buckets = new List[size];
+		for (int i = 0; i < size; i++) {
+			buckets[i] = new ArrayList<>();
+		}
+		cursor = now / tickMillis;
+	}
+
+	void schedule(T item, long deadline) {
+		final long tick = Math.max((deadline + tickMillis - 1) / tickMillis, cursor + 1);
+		final List<T> bucket = buckets[(int) (tick % buckets.length)];
+		synchronized (bucket) {
+			bucket.add(item);
+		}
+	}
+
+	/**
+	 * Processes every bucket that has come due since the last call.
+	 */
+	void advance(long now, Expirer<T> expirer) {
+		final long nowTick = now / tickMillis;
+		// If we fell behind by a full rotation or more, every bucket needs to be processed exactly once.
+		long tick = Math.max(cursor + 1, nowTick - buckets.length + 1);
+		for (; tick <= nowTick; tick++) {
+			cursor = tick;
+			final List<T> bucket = buckets[(int) (tick % buckets.length)];
+			final Object[] items;
+			synchronized (bucket) {
+				if (bucket.isEmpty()) {
+					continue;
+				}
+				items = bucket.toArray();
+				bucket.clear();
+			}
+			for (Object item : items) {
+				@SuppressWarnings("unchecked")
+				final T t = (T) item;
+				final long deadline = expirer.expire(t, now);
+				if (deadline >= 0) {
+					schedule(t, deadline);
+				}
+			}
+		}
+		if (cursor < nowTick) {
+			cursor = nowTick;
+		}
+	}
+
+	long getTickMillis() {
+		return tickMillis;
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A pool of canonical instances. Interning an object returns the pooled instance equal to it, adding the object to
+ * the pool if there is none. The pool only holds weak references so instances no longer referenced elsewhere are
+ * garbage collected.
+ *
+ * <p>Instances can also be looked up by the values they are made of through a {@link Matcher}, so callers don't have
+ * to build an instance just to find the pooled one. Lookups of pooled instances neither lock nor allocate. Adding an
+ * instance locks one of several stripes and also drops the entries of collected instances.
+ *
+ * @author Mike Heath
+ */
+class WeakInterner<T> {
+
+	/**
+	 * Tells whether a pooled instance is made of the given values. Matchers are meant to be stateless, so passing one
+	 * doesn't allocate.
+	 */
+	@FunctionalInterface
+	interface Matcher<T> {
+		boolean matches(T candidate, Object key, long a, long b);
+	}
+
+	/**
+	 * Builds the instance made of the given values when none is pooled yet.
+	 */
+	@FunctionalInterface
+	interface Factory<T> {
+		T create(Object key, long a, long b);
+	}
+
+	private static final int STRIPES = 32;
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static final Matcher<Object> EQUAL = (candidate, key, a, b) -> candidate.equals(key);
+
+	private final Stripe<T>[] stripes;
+
+	@SuppressWarnings("unchecked")
+	WeakInterner() {
+		stripes = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe<>();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	T intern(T sample) {
+		if (sample == null) {
+			return null;
+		}
+		return intern(sample.hashCode(), EQUAL, sample, 0, 0, (key, a, b) -> (T) key);
+	}
+
+	/**
+	 * Returns the pooled instance {@code matcher} matches with the given values, adding the one {@code factory} builds
+	 * if there is none. The hash must be derived from the values the same way for every caller of the pool.
+	 */
+	T intern(int hash, Matcher<? super T> matcher, Object key, long a, long b, Factory<? extends T> factory) {
+		final int h = hash ^ (hash >>> 16);
+		final Stripe<T> stripe = stripes[h & (STRIPES - 1)];
+		final T pooled = stripe.get(h, matcher, key, a, b);
+		return (pooled == null) ? stripe.add(h, matcher, key, a, b, factory) : pooled;
+	}
+
+	int size() {
+		int size = 0;
+		for (Stripe<T> stripe : stripes) {
+			synchronized (stripe) {
+				stripe.expunge();
+				size += stripe.size;
+			}
+		}
+		return size;
+	}
+
+	private static final class Entry<T> extends WeakReference<T> {
+		final int hash;
+		final Entry<T> next;
+
+		Entry(T referent, int hash, Entry<T> next, ReferenceQueue<T> queue) {
+			super(referent, queue);
+			this.hash = hash;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * A hash table of weak entries. Chains are immutable and replaced as a whole, so readers walk them without
+	 * locking while writers hold the stripe's lock.
+	 */
+	private static final class Stripe<T> {
+		private final ReferenceQueue<T> queue = new ReferenceQueue<>();
+		private volatile AtomicReferenceArray<Entry<T>> table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+		// Guarded by this.
+		private int size;
+
+		T get(int h, Matcher<? super T> matcher, Object key, long a, long b) {
+			final AtomicReferenceArray<Entry<T>> t = table;
+			for (Entry<T> e = t.get(h & (t.length() - 1)); e != null; e = e.next) {
+				if (e.hash == h) {
+					final T candidate = e.get();
+					if (candidate != null && matcher.matches(candidate, key, a, b)) {
+						return candidate;
+					}
+				}
+			}
+			return null;
+		}
+
+		synchronized T add(int h, Matcher<? super T> matcher, Object key, long a, long b, Factory<? extends T> factory) {
+			final T pooled = get(h, matcher, key, a, b);
+			if (pooled != null) {
+				return pooled;
+			}
+			expunge();
+			if (size >= table.length() * 3 / 4) {
+				resize();
+			}
+			final T instance = factory.create(key, a, b);
+			final AtomicReferenceArray<Entry<T>> t = table;
+			final int index = h & (t.length() - 1);
+			t.set(index, new Entry<>(instance, h, t.get(index), queue));
+			size++;
+			return instance;
+		}
+
+		// Must hold this
+		private void expunge() {
+			for (Object collected; (collected = queue.poll()) != null; ) {
+				final Entry<?> entry = (Entry<?>) collected;
+				final AtomicReferenceArray<Entry<T>> t = table;
+				final int index = entry.hash & (t.length() - 1);
+				t.set(index, without(t.get(index), entry));
+			}
+		}
+
+		/**
+		 * Returns the chain starting at {@code head} without {@code entry} or the entries of other collected instances
+		 * in front of it, copying the entries kept in front of it. Entries already dropped, e.g. by a resize, aren't
+		 * found and leave the chain as it is. Must hold this.
+		 */
+		private Entry<T> without(Entry<T> head, Entry<?> entry) {
+			if (head == null) {
+				return null;
+			}
+			if (head == entry) {
+				size--;
+				return head.next;
+			}
+			final Entry<T> rest = without(head.next, entry);
+			if (rest == head.next) {
+				return head;
+			}
+			final T referent = head.get();
+			if (referent == null) {
+				size--;
+				return rest;
+			}
+			return new Entry<>(referent, head.hash, rest, queue);
+		}
+
+		// Must hold this
+		private void resize() {
+			final AtomicReferenceArray<Entry<T>> old = table;
+			final AtomicReferenceArray<Entry<T>> resized = new AtomicReferenceArray<>(old.length() * 2);
+			int live = 0;
+			for (int i = 0; i < old.length(); i++) {
+				for (Entry<T> e = old.get(i); e != null; e = e.next) {
+					final T referent = e.get();
+					if (referent != null) {
+						final int index = e.hash & (resized.length() - 1);
+						resized.set(index, new Entry<>(referent, e.hash, resized.get(index), queue));
+						live++;
+					}
+				}
+			}
+			table = resized;
+			size = live;
+		}
+	}
+}
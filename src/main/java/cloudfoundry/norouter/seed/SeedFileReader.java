@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.seed;
+
+import cloudfoundry.norouter.routingtable.RouteInterner;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads route seed files. A seed file is UTF-8 text with one route per line, made of whitespace separated fields:
+ *
+ * <pre>
+ * host address:port [applicationGuid [applicationIndex [privateInstanceId]]]
+ * </pre>
+ *
+ * Optional fields may be given as {@code -}. Empty lines and lines starting with {@code #} are ignored.
+ *
+ * <p>The file is split into chunks at line boundaries and each chunk is memory mapped and parsed on its own thread,
+ * so the handler is invoked concurrently and must be thread safe. Malformed lines are skipped and counted.
+ *
+ * @author Mike Heath
+ */
+public final class SeedFileReader {
+
+	// Chunks smaller than this aren't worth a thread of their own.
+	private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+	// A single mapping can't exceed Integer.MAX_VALUE bytes, leave room for extending a chunk to the end of its line.
+	static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE - MIN_CHUNK_SIZE;
+	private static final int MAX_LINE_LENGTH = 4096;
+
+	/**
+	 * Receives the routes read from a seed file.
+	 */
+	@FunctionalInterface
+	public interface RouteHandler {
+		void route(String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId);
+	}
+
+	/**
+	 * The number of routes read and lines skipped.
+	 */
+	public static final class Result {
+		private final int routes;
+		private final int malformedLines;
+
+		Result(int routes, int malformedLines) {
+			this.routes = routes;
+			this.malformedLines = malformedLines;
+		}
+
+		public int getRoutes() {
+			return routes;
+		}
+
+		public int getMalformedLines() {
+			return malformedLines;
+		}
+	}
+
+	private SeedFileReader() {
+		// Utility class
+	}
+
+	public static Result read(Path path, int parallelism, RouteInterner interner, RouteHandler handler) throws IOException {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be positive");
+		}
+		final AtomicInteger routes = new AtomicInteger();
+		final AtomicInteger malformedLines = new AtomicInteger();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final List<long[]> chunks = chunks(channel, parallelism, MAX_CHUNK_SIZE);
+			if (chunks.size() == 1) {
+				readChunk(channel, chunks.get(0), interner, handler, routes, malformedLines);
+				return new Result(routes.get(), malformedLines.get());
+			}
+			final AtomicInteger threadCount = new AtomicInteger();
+			final ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, chunks.size()), runnable -> {
+				final Thread thread = new Thread(runnable, "seed-file-reader-" + threadCount.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			});
+			try {
+				final List<Future<?>> futures = new ArrayList<>(chunks.size());
+				for (long[] chunk : chunks) {
+					futures.add(executor.submit(() -> {
+						readChunk(channel, chunk, interner, handler, routes, malformedLines);
+						return null;
+					}));
+				}
+				for (Future<?> future : futures) {
+					future.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted reading seed file " + path, e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException("Error reading seed file " + path, e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		return new Result(routes.get(), malformedLines.get());
+	}
+
+	/**
+	 * Splits the file into chunks of {start, end} that each end right after a newline or at the end of the file.
+	 * There are up to {@code parallelism} chunks unless they would grow larger than {@code maxChunkSize}.
+	 */
+	static List<long[]> chunks(FileChannel channel, int parallelism, long maxChunkSize) throws IOException {
+		final long size = channel.size();
+		final long chunkSize = Math.min(maxChunkSize, Math.max(MIN_CHUNK_SIZE, (size + parallelism - 1) / parallelism));
+		final List<long[]> chunks = new ArrayList<>();
+		final ByteBuffer buffer = ByteBuffer.allocate(MAX_LINE_LENGTH);
+		long start = 0;
+		while (start < size) {
+			long end = Math.min(size, start + chunkSize);
+			if (end < size) {
+				// A line too long to fit is split, both halves are counted as malformed.
+				end = Math.min(nextLine(channel, end, buffer), start + Integer.MAX_VALUE);
+			}
+			chunks.add(new long[] {start, end});
+			start = end;
+		}
+		if (chunks.isEmpty()) {
+			chunks.add(new long[] {0, 0});
+		}
+		return chunks;
+	}
+
+	/**
+	 * Returns the position following the first newline at or after {@code position}, or the size of the file.
+	 */
+	private static long nextLine(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+		while (true) {
+			buffer.clear();
+			final int read = channel.read(buffer, position);
+			if (read < 0) {
+				return channel.size();
+			}
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+	}
+
+	private static void readChunk(FileChannel channel, long[] chunk, RouteInterner interner, RouteHandler handler, AtomicInteger routes, AtomicInteger malformedLines) throws IOException {
+		final long start = chunk[0];
+		final long length = chunk[1] - chunk[0];
+		if (length == 0) {
+			return;
+		}
+		final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+		byte[] line = new byte[256];
+		int count = 0;
+		int malformed = 0;
+		while (buffer.hasRemaining()) {
+			int lineLength = 0;
+			while (buffer.hasRemaining()) {
+				final byte b = buffer.get();
+				if (b == '\n') {
+					break;
+				}
+				if (lineLength == line.length) {
+					line = Arrays.copyOf(line, line.length * 2);
+				}
+				line[lineLength++] = b;
+			}
+			final int parsed = parseLine(new String(line, 0, lineLength, StandardCharsets.UTF_8), interner, handler);
+			if (parsed > 0) {
+				count++;
+			} else if (parsed < 0) {
+				malformed++;
+			}
+		}
+		routes.addAndGet(count);
+		malformedLines.addAndGet(malformed);
+	}
+
+	/**
+	 * @return 1 if the line held a route, 0 if it was blank or a comment and -1 if it was malformed
+	 */
+	static int parseLine(String line, RouteInterner interner, RouteHandler handler) {
+		final String trimmed = line.trim();
+		if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+			return 0;
+		}
+		final String[] fields = trimmed.split("\\s+");
+		if (fields.length < 2 || fields.length > 5) {
+			return -1;
+		}
+		try {
+			final int colon = fields[1].lastIndexOf(':');
+			if (colon <= 0) {
+				return -1;
+			}
+			final int port = Integer.parseInt(fields[1].substring(colon + 1));
+			if (port < 0 || port > 0xffff) {
+				return -1;
+			}
+			final InetSocketAddress address = interner.address(fields[1].substring(0, colon), port);
+			final String guid = field(fields, 2);
+			final String index = field(fields, 3);
+			handler.route(
+					interner.host(fields[0].toLowerCase()),
+					address,
+					interner.applicationGuid(guid),
+					(index == null) ? null : Integer.valueOf(index),
+					interner.privateInstanceId(field(fields, 4)));
+			return 1;
+		} catch (IllegalArgumentException e) {
+			// Also covers NumberFormatException
+			return -1;
+		}
+	}
+
+	private static String field(String[] fields, int i) {
+		return (i >= fields.length || "-".equals(fields[i])) ? null : fields[i];
+	}
+}
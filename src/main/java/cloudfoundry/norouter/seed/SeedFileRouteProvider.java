@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.seed;
+
+import cloudfoundry.norouter.AvailabilityListener;
+import cloudfoundry.norouter.AvailabilityState;
+import cloudfoundry.norouter.ObservableRouteProvider;
+import cloudfoundry.norouter.routingtable.RouteInterner;
+import cloudfoundry.norouter.routingtable.RouteRegistrar;
+import cloudfoundry.norouter.routingtable.RoutingTableSnapshotFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk loads routes from a local file when the router starts, so it can serve routes before NATS traffic arrives.
+ * The file is either a seed file as read by {@link SeedFileReader}, e.g. produced by deployment tooling, or a
+ * routing table snapshot written by another router, see {@link RoutingTableSnapshotFile}. Routes are inserted
+ * without publishing route events.
+ *
+ * <p>The provider is unavailable while the file loads and for the confirmation period afterwards, which should
+ * cover at least one register interval. Stale route eviction is suspended until then, so seeded routes are only
+ * evicted once the route emitters had a chance to confirm them over NATS. A missing or unreadable file makes the
+ * provider available right away, there are no routes to confirm.
+ *
+ * @author Mike Heath
+ */
+public class SeedFileRouteProvider implements ObservableRouteProvider, AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SeedFileRouteProvider.class);
+
+	private final Path seedFile;
+	private final RouteRegistrar registrar;
+	private final RouteInterner interner;
+	private final ScheduledExecutorService scheduler;
+	private final int parallelism;
+	private final Duration confirmationPeriod;
+
+	private final AvailabilityState availability = new AvailabilityState(this, "Seed file not loaded");
+
+	private volatile int seededRoutes;
+	private volatile int malformedLines;
+	private ScheduledFuture<?> confirmationFuture;
+
+	public static Builder create() {
+		return new Builder();
+	}
+
+	public static class Builder {
+		private Path seedFile;
+		private RouteRegistrar registrar;
+		private RouteInterner interner;
+		private ScheduledExecutorService scheduler;
+		private int parallelism = Runtime.getRuntime().availableProcessors();
+		private Duration confirmationPeriod = Duration.ofSeconds(30);
+
+		public Builder seedFile(Path seedFile) {
+			this.seedFile = seedFile;
+			return this;
+		}
+
+		public Builder registrar(RouteRegistrar registrar) {
+			this.registrar = registrar;
+			return this;
+		}
+
+		/**
+		 * Sets the interner used to canonicalize the values read from seed files. Use the routing table's interner
+		 * so both share the same instances.
+		 */
+		public Builder interner(RouteInterner interner) {
+			this.interner = interner;
+			return this;
+		}
+
+		public Builder scheduler(ScheduledExecutorService scheduler) {
+			this.scheduler = scheduler;
+			return this;
+		}
+
+		/**
+		 * Sets the number of threads parsing a seed file, one per available processor by default.
+		 */
+		public Builder parallelism(int parallelism) {
+			if (parallelism < 1) {
+				throw new IllegalArgumentException("parallelism must be positive");
+			}
+			this.parallelism = parallelism;
+			return this;
+		}
+
+		/**
+		 * Sets how long stale route eviction stays suspended after the seeded routes were loaded.
+		 */
+		public Builder confirmationPeriod(Duration confirmationPeriod) {
+			Objects.requireNonNull(confirmationPeriod);
+			this.confirmationPeriod = confirmationPeriod;
+			return this;
+		}
+
+		public SeedFileRouteProvider build() {
+			return new SeedFileRouteProvider(this);
+		}
+	}
+
+	private SeedFileRouteProvider(Builder builder) {
+		Objects.requireNonNull(builder.seedFile, "seedFile is a required argument");
+		Objects.requireNonNull(builder.registrar, "registrar is a required argument");
+		Objects.requireNonNull(builder.scheduler, "scheduler is a required argument");
+		seedFile = builder.seedFile;
+		registrar = builder.registrar;
+		interner = (builder.interner == null) ? new RouteInterner() : builder.interner;
+		scheduler = builder.scheduler;
+		parallelism = builder.parallelism;
+		confirmationPeriod = builder.confirmationPeriod;
+	}
+
+	/**
+	 * Loads the seed file into the registrar.
+	 */
+	public synchronized void load() {
+		if (!Files.exists(seedFile)) {
+			LOGGER.info("No seed file at {}", seedFile);
+			availability.available();
+			return;
+		}
+		availability.unavailable("Loading seed file " + seedFile);
+		final long start = System.nanoTime();
+		try {
+			if (RoutingTableSnapshotFile.isSnapshot(seedFile)) {
+				seededRoutes = RoutingTableSnapshotFile.read(seedFile, (host, address, applicationGuid, applicationIndex, privateInstanceId, lastUpdated) ->
+						registrar.insertRoute(host, address, applicationGuid, applicationIndex, privateInstanceId));
+			} else {
+				final SeedFileReader.Result result = SeedFileReader.read(seedFile, parallelism, interner, registrar::insertRoute);
+				seededRoutes = result.getRoutes();
+				malformedLines = result.getMalformedLines();
+				if (malformedLines > 0) {
+					LOGGER.warn("Skipped {} malformed lines in seed file {}", malformedLines, seedFile);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("Error loading seed file {}", seedFile, e);
+			availability.available();
+			return;
+		}
+		LOGGER.info("Seeded {} routes from {} in {}ms", seededRoutes, seedFile, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		if (seededRoutes == 0) {
+			availability.available();
+			return;
+		}
+		availability.unavailable("Waiting for route emitters to confirm " + seededRoutes + " seeded routes");
+		confirmationFuture = scheduler.schedule(availability::available, confirmationPeriod.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public synchronized void close() {
+		if (confirmationFuture != null) {
+			confirmationFuture.cancel(false);
+		}
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return availability.isAvailable();
+	}
+
+	@Override
+	public String getUnavailableReason() {
+		return availability.getUnavailableReason();
+	}
+
+	@Override
+	public void addAvailabilityListener(AvailabilityListener listener) {
+		availability.addListener(listener);
+	}
+
+	@Override
+	public void removeAvailabilityListener(AvailabilityListener listener) {
+		availability.removeListener(listener);
+	}
+
+	public int getSeededRouteCount() {
+		return seededRoutes;
+	}
+
+	public int getMalformedLineCount() {
+		return malformedLines;
+	}
+
+	@Override
+	public String toString() {
+		return "SeedFileRouteProvider";
+	}
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.template;
+
+import cloudfoundry.norouter.routingtable.RouteChange;
+import cloudfoundry.norouter.routingtable.RouteChangeBatchEvent;
+import cloudfoundry.norouter.routingtable.RouteChanges;
+import cloudfoundry.norouter.routingtable.RouteDetails;
+import cloudfoundry.norouter.routingtable.RouteEventsDroppedEvent;
+import cloudfoundry.norouter.routingtable.RouteRegisterEvent;
+import cloudfoundry.norouter.routingtable.RouteUnregisterEvent;
+import cloudfoundry.norouter.routingtable.RoutingTable;
+import cloudfoundry.norouter.routingtable.RoutingTableSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Renders the routing table to a file, e.g. the configuration of an external load balancer, using StringTemplate.
+ *
+ * <p>The output is the {@code header} template, followed by the {@code host} template rendered once per host with
+ * the attributes {@code host} and {@code routes}, followed by the {@code footer} template. Header and footer are
+ * optional. Hosts are rendered in alphabetical order.
+ *
+ * <p>Route events don't render the file right away, they schedule a render once the debounce window has elapsed
+ * so a burst of changes is rendered once. Each render asks the table which hosts changed since the previous one,
+ * see {@link RoutingTable#changesSince(long)}, and only re-renders the fragments of those hosts. The rendered
+ * fragments are cached as encoded bytes and written to disk with gathering writes, so the document as a whole is
+ * never built in memory.
+ *
+ * @author Mike Heath
+ */
+public class IncrementalTemplateRenderer implements ApplicationListener<ApplicationEvent>, AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(IncrementalTemplateRenderer.class);
+
+	public static final String HEADER_TEMPLATE = "header";
+	public static final String HOST_TEMPLATE = "host";
+	public static final String FOOTER_TEMPLATE = "footer";
+
+	// Buffers handed to a single gathering write.
+	private static final int MAX_BUFFERS_PER_WRITE = 1024;
+
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	// What a new file gets with the usual umask of 022.
+	private static final Set<PosixFilePermission> DEFAULT_PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
+
+	private final RoutingTable routingTable;
+	private final STGroup templates;
+	private final Path output;
+	private final ScheduledExecutorService scheduler;
+	private final long debounceMillis;
+	private final Charset charset;
+	private final Set<PosixFilePermission> permissions;
+
+	private final AtomicBoolean renderScheduled = new AtomicBoolean();
+	private volatile boolean closed;
+
+	// Guarded by this.
+	private final TreeMap<String, ByteBuffer> fragments = new TreeMap<>();
+	private ByteBuffer header;
+	private ByteBuffer footer;
+	private long sequence = -1;
+	private long renderCount;
+	private int lastRenderedFragments;
+
+	public static Builder create() {
+		return new Builder();
+	}
+
+	public static class Builder {
+		private RoutingTable routingTable;
+		private STGroup templates;
+		private Path output;
+		private ScheduledExecutorService scheduler;
+		private Duration debounce = Duration.ofSeconds(1);
+		private Charset charset = StandardCharsets.UTF_8;
+		private Set<PosixFilePermission> permissions;
+
+		public Builder routingTable(RoutingTable routingTable) {
+			Objects.requireNonNull(routingTable);
+			this.routingTable = routingTable;
+			return this;
+		}
+
+		/**
+		 * Sets the template group defining the {@code host} template and optionally the {@code header} and
+		 * {@code footer} templates.
+		 */
+		public Builder templates(STGroup templates) {
+			Objects.requireNonNull(templates);
+			this.templates = templates;
+			return this;
+		}
+
+		public Builder output(Path output) {
+			Objects.requireNonNull(output);
+			this.output = output;
+			return this;
+		}
+
+		public Builder scheduler(ScheduledExecutorService scheduler) {
+			Objects.requireNonNull(scheduler);
+			this.scheduler = scheduler;
+			return this;
+		}
+
+		/**
+		 * Sets how long to wait after a route event before rendering, defaults to one second.
+		 */
+		public Builder debounce(Duration debounce) {
+			Objects.requireNonNull(debounce);
+			this.debounce = debounce;
+			return this;
+		}
+
+		public Builder charset(Charset charset) {
+			Objects.requireNonNull(charset);
+			this.charset = charset;
+			return this;
+		}
+
+		/**
+		 * Sets the permissions of the output file. By default an existing output file keeps its permissions and a
+		 * new one is created {@code rw-r--r--}. Ignored on file systems without POSIX permissions.
+		 */
+		public Builder permissions(Set<PosixFilePermission> permissions) {
+			Objects.requireNonNull(permissions);
+			this.permissions = EnumSet.copyOf(permissions);
+			return this;
+		}
+
+		public IncrementalTemplateRenderer build() {
+			return new IncrementalTemplateRenderer(this);
+		}
+	}
+
+	private IncrementalTemplateRenderer(Builder builder) {
+		Objects.requireNonNull(builder.routingTable, "routingTable is a required argument");
+		Objects.requireNonNull(builder.templates, "templates is a required argument");
+		Objects.requireNonNull(builder.output, "output is a required argument");
+		Objects.requireNonNull(builder.scheduler, "scheduler is a required argument");
+		if (!builder.templates.isDefined(HOST_TEMPLATE)) {
+			throw new IllegalArgumentException("templates must define a " + HOST_TEMPLATE + " template");
+		}
+		routingTable = builder.routingTable;
+		templates = builder.templates;
+		output = builder.output;
+		scheduler = builder.scheduler;
+		debounceMillis = builder.debounce.toMillis();
+		charset = builder.charset;
+		permissions = builder.permissions;
+		// Render the initial table right away.
+		requestRender();
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationEvent event) {
+		if (event instanceof RouteRegisterEvent || event instanceof RouteUnregisterEvent || event instanceof RouteChangeBatchEvent
+				|| event instanceof RouteEventsDroppedEvent) {
+			requestRender();
+		}
+	}
+
+	/**
+	 * Schedules a render once the debounce window has elapsed, unless one is already scheduled.
+	 */
+	public void requestRender() {
+		if (!closed && renderScheduled.compareAndSet(false, true)) {
+			scheduler.schedule(() -> {
+				try {
+					render();
+				} catch (IOException | RuntimeException e) {
+					LOGGER.error("Unable to render {}", output, e);
+				}
+			}, debounceMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Renders the hosts that changed since the previous render and rewrites the output file.
+	 */
+	public synchronized void render() throws IOException {
+		// Events arriving from now on schedule another render.
+		renderScheduled.set(false);
+		if (closed) {
+			return;
+		}
+		if (header == null) {
+			header = renderOptional(HEADER_TEMPLATE);
+			footer = renderOptional(FOOTER_TEMPLATE);
+		}
+		final RouteChanges changes = routingTable.changesSince(sequence);
+		if (changes.isResync()) {
+			fragments.clear();
+			changes.getSnapshot().forEachHost((host, routes) -> fragments.put(host, renderHost(host, routes)));
+			lastRenderedFragments = fragments.size();
+		} else {
+			if (changes.getChanges().isEmpty() && renderCount > 0) {
+				return;
+			}
+			final Set<String> hosts = new LinkedHashSet<>();
+			for (RouteChange change : changes.getChanges()) {
+				hosts.add(change.getRoute().getHost());
+			}
+			// The snapshot may include changes made after the ones listed, their hosts are rendered again next time.
+			final RoutingTableSnapshot snapshot = routingTable.snapshot();
+			for (String host : hosts) {
+				final List<RouteDetails> routes = snapshot.getRoutes(host);
+				if (routes.isEmpty()) {
+					fragments.remove(host);
+				} else {
+					fragments.put(host, renderHost(host, routes));
+				}
+			}
+			lastRenderedFragments = hosts.size();
+		}
+		sequence = changes.getSequence();
+		write();
+		renderCount++;
+	}
+
+	private ByteBuffer renderHost(String host, List<RouteDetails> routes) {
+		final ST template = templates.getInstanceOf(HOST_TEMPLATE);
+		template.add("host", host);
+		template.add("routes", routes);
+		return encode(template.render());
+	}
+
+	private ByteBuffer renderOptional(String name) {
+		return templates.isDefined(name) ? encode(templates.getInstanceOf(name).render()) : EMPTY;
+	}
+
+	private ByteBuffer encode(String text) {
+		return ByteBuffer.wrap(text.getBytes(charset));
+	}
+
+	private void write() throws IOException {
+		final ByteBuffer[] buffers = new ByteBuffer[fragments.size() + 2];
+		int i = 0;
+		buffers[i++] = header.duplicate();
+		for (ByteBuffer fragment : fragments.values()) {
+			buffers[i++] = fragment.duplicate();
+		}
+		buffers[i] = footer.duplicate();
+
+		final Path directory = output.toAbsolutePath().getParent();
+		final Path temp = Files.createTempFile(directory, output.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				int offset = 0;
+				while (offset < buffers.length) {
+					channel.write(buffers, offset, Math.min(MAX_BUFFERS_PER_WRITE, buffers.length - offset));
+					while (offset < buffers.length && !buffers[offset].hasRemaining()) {
+						offset++;
+					}
+				}
+			}
+			// The temporary file is only readable by its owner and moving it replaces the output's permissions.
+			setPermissions(temp);
+			Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private void setPermissions(Path temp) throws IOException {
+		try {
+			Set<PosixFilePermission> target = permissions;
+			if (target == null) {
+				target = Files.exists(output) ? Files.getPosixFilePermissions(output) : DEFAULT_PERMISSIONS;
+			}
+			Files.setPosixFilePermissions(temp, target);
+		} catch (UnsupportedOperationException e) {
+			// No POSIX permissions to keep.
+		}
+	}
+
+	/**
+	 * Returns the number of times the output has been written.
+	 */
+	public synchronized long getRenderCount() {
+		return renderCount;
+	}
+
+	/**
+	 * Returns the number of host fragments rendered by the last render, as opposed to reused from the cache.
+	 */
+	public synchronized int getLastRenderedFragments() {
+		return lastRenderedFragments;
+	}
+
+	/**
+	 * Stops rendering. A render already running completes.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.web;
+
+import cloudfoundry.norouter.metrics.LatencyHistogram;
+import cloudfoundry.norouter.metrics.Meter;
+import cloudfoundry.norouter.nats.NatsRouteProvider;
+import cloudfoundry.norouter.routingtable.RingBufferEventPublisher;
+import cloudfoundry.norouter.routingtable.RoutingTable;
+import cloudfoundry.norouter.routingtable.RoutingTableMetrics;
+import cloudfoundry.norouter.routingtable.RoutingTableSnapshot;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes the metrics of the routing table and of the NATS route provider as JSON. Reading the metrics never
+ * blocks route updates.
+ *
+ * @author Mike Heath
+ */
+@RestController
+public class MetricsController {
+
+	private final RoutingTable routingTable;
+	private final NatsRouteProvider natsRouteProvider;
+
+	public MetricsController(RoutingTable routingTable, NatsRouteProvider natsRouteProvider) {
+		this.routingTable = Objects.requireNonNull(routingTable, "routingTable is a required argument");
+		this.natsRouteProvider = natsRouteProvider;
+	}
+
+	@RequestMapping(value = "/norouter/metrics", method = RequestMethod.GET)
+	public Map<String, Object> metrics() {
+		final Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("routingTable", routingTableMetrics());
+		if (natsRouteProvider != null) {
+			metrics.put("nats", natsMetrics());
+		}
+		return metrics;
+	}
+
+	private Map<String, Object> routingTableMetrics() {
+		final RoutingTableSnapshot snapshot = routingTable.snapshot();
+		final RoutingTableMetrics tableMetrics = routingTable.getMetrics();
+
+		final Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("version", snapshot.getVersion());
+		metrics.put("hosts", snapshot.getHostCount());
+		metrics.put("routes", snapshot.getRouteCount());
+		metrics.put("registers", meter(tableMetrics.getRegisters()));
+		metrics.put("routeChanges", meter(tableMetrics.getRouteChanges()));
+		metrics.put("heartbeatNoOpRatio", tableMetrics.getHeartbeatNoOpRatio());
+		metrics.put("unregisters", meter(tableMetrics.getUnregisters()));
+		metrics.put("evictions", meter(tableMetrics.getEvictions()));
+		metrics.put("lastSweepEvictions", tableMetrics.getLastSweepEvictions());
+		metrics.put("lastSweepMicros", TimeUnit.NANOSECONDS.toMicros(tableMetrics.getLastSweepNanos()));
+		metrics.put("writeLatency", histogram(tableMetrics.getWriteLatency()));
+
+		final RingBufferEventPublisher dispatcher = routingTable.getEventDispatcher();
+		if (dispatcher != null) {
+			final Map<String, Object> dispatcherMetrics = new LinkedHashMap<>();
+			dispatcherMetrics.put("queueDepth", dispatcher.getQueueDepth());
+			dispatcherMetrics.put("published", dispatcher.getPublishedCount());
+			dispatcherMetrics.put("dispatched", dispatcher.getDispatchedCount());
+			dispatcherMetrics.put("publisherWaits", dispatcher.getPublisherWaitCount());
+			dispatcherMetrics.put("dropped", dispatcher.getDroppedCount());
+			metrics.put("eventDispatcher", dispatcherMetrics);
+		}
+		return metrics;
+	}
+
+	private Map<String, Object> natsMetrics() {
+		final Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("available", natsRouteProvider.isAvailable());
+		metrics.put("unavailableReason", natsRouteProvider.getUnavailableReason());
+		final Duration timeSinceLastPing = natsRouteProvider.getTimeSinceLastPing();
+		metrics.put("timeSinceLastPingMillis", timeSinceLastPing == null ? null : timeSinceLastPing.toMillis());
+		metrics.put("pingIntervalMillis", natsRouteProvider.getNatsPingInterval().toMillis());
+		metrics.put("registerMessages", meter(natsRouteProvider.getRegisterMessages()));
+		metrics.put("unregisterMessages", meter(natsRouteProvider.getUnregisterMessages()));
+		metrics.put("pendingMessages", natsRouteProvider.getPendingMessageCount());
+		return metrics;
+	}
+
+	private static Map<String, Object> meter(Meter meter) {
+		final Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("count", meter.getCount());
+		metrics.put("oneMinuteRate", meter.getOneMinuteRate());
+		metrics.put("meanRate", meter.getMeanRate());
+		return metrics;
+	}
+
+	private static Map<String, Object> histogram(LatencyHistogram histogram) {
+		final Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("count", histogram.getCount());
+		metrics.put("meanMicros", histogram.getMeanNanos() / 1000);
+		metrics.put("p50Micros", histogram.getPercentileNanos(0.5) / 1000.0);
+		metrics.put("p99Micros", histogram.getPercentileNanos(0.99) / 1000.0);
+		metrics.put("p999Micros", histogram.getPercentileNanos(0.999) / 1000.0);
+		metrics.put("maxMicros", histogram.getMaxNanos() / 1000.0);
+		return metrics;
+	}
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.web;
+
+import cloudfoundry.norouter.routingtable.RouteChange;
+import cloudfoundry.norouter.routingtable.RouteChangeBatchEvent;
+import cloudfoundry.norouter.routingtable.RouteChanges;
+import cloudfoundry.norouter.routingtable.RouteDetails;
+import cloudfoundry.norouter.routingtable.RouteEventsDroppedEvent;
+import cloudfoundry.norouter.routingtable.RouteRegisterEvent;
+import cloudfoundry.norouter.routingtable.RouteUnregisterEvent;
+import cloudfoundry.norouter.routingtable.RoutingTable;
+import cloudfoundry.norouter.routingtable.RoutingTableSnapshot;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Exposes the routing table over HTTP.
+ *
+ * <ul>
+ *     <li>{@code GET /norouter/routes} streams every route, grouped by host.</li>
+ *     <li>{@code GET /norouter/routes/{host}} returns the routes of a single host.</li>
+ *     <li>{@code GET /norouter/changes?epoch=<epoch>&since=<version>} long-polls for the changes made after a
+ *     version, see {@link RoutingTable#changesSince(long, long)}. It responds as soon as there are changes, or
+ *     with no changes once the timeout elapses. If the changes are no longer available, or the epoch isn't the
+ *     table's current epoch, the response has {@code resync} set and the client has to fetch the full table
+ *     again.</li>
+ * </ul>
+ *
+ * <p>Versions start over when norouter restarts, so every response carries the table's {@link
+ * RoutingTable#getEpoch() epoch} and versions are only compared within an epoch. The table endpoints tag
+ * responses with the epoch and version as ETag and respond with {@code 304 Not Modified} when the client already
+ * has the current version. A client syncing the table fetches {@code /norouter/routes} once and then follows the
+ * change feed from the epoch and version it returned.
+ *
+ * @author Mike Heath
+ */
+@RestController
+public class RoutesController implements ApplicationListener<ApplicationEvent> {
+
+	static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+	static final long MAX_TIMEOUT_MILLIS = 120000;
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private final RoutingTable routingTable;
+	private final Queue<ChangeWaiter> waiters = new ConcurrentLinkedQueue<>();
+
+	public RoutesController(RoutingTable routingTable) {
+		this.routingTable = Objects.requireNonNull(routingTable, "routingTable is a required argument");
+	}
+
+	@RequestMapping(value = "/norouter/routes", method = RequestMethod.GET)
+	public void routes(@RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch, HttpServletResponse response) throws IOException {
+		final RoutingTableSnapshot snapshot = routingTable.snapshot();
+		final String etag = etag(snapshot);
+		response.setHeader("ETag", etag);
+		if (etag.equals(ifNoneMatch)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		response.setContentType("application/json;charset=UTF-8");
+		writeRoutes(epoch(), snapshot, response.getOutputStream());
+	}
+
+	@RequestMapping(value = "/norouter/routes/{host:.+}", method = RequestMethod.GET)
+	public ResponseEntity<Map<String, Object>> hostRoutes(@PathVariable("host") String host, @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+		final RoutingTableSnapshot snapshot = routingTable.snapshot();
+		final HttpHeaders headers = new HttpHeaders();
+		final String etag = etag(snapshot);
+		headers.setETag(etag);
+		if (etag.equals(ifNoneMatch)) {
+			return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+		}
+		final List<RouteDetails> routes = snapshot.getRoutes(host);
+		if (routes.isEmpty()) {
+			return new ResponseEntity<>(headers, HttpStatus.NOT_FOUND);
+		}
+		final List<Map<String, Object>> routeList = new ArrayList<>(routes.size());
+		for (RouteDetails route : routes) {
+			routeList.add(route(route));
+		}
+		final Map<String, Object> body = new LinkedHashMap<>();
+		body.put("epoch", epoch());
+		body.put("version", snapshot.getVersion());
+		body.put("host", host.toLowerCase());
+		body.put("routes", routeList);
+		return new ResponseEntity<>(body, headers, HttpStatus.OK);
+	}
+
+	@RequestMapping(value = "/norouter/changes", method = RequestMethod.GET)
+	public DeferredResult<Map<String, Object>> changes(
+			@RequestParam(value = "epoch", required = false) String epoch,
+			@RequestParam("since") long since,
+			@RequestParam(value = "timeout", required = false) Long timeout) {
+		final long timeoutMillis = (timeout == null) ? DEFAULT_TIMEOUT_MILLIS : Math.max(0, Math.min(timeout, MAX_TIMEOUT_MILLIS));
+		final DeferredResult<Map<String, Object>> result = new DeferredResult<>(timeoutMillis);
+		final RouteChanges changes = changesSince(epoch, since);
+		if (changes.isResync() || !changes.getChanges().isEmpty() || timeoutMillis == 0) {
+			result.setResult(changes(changes));
+			return result;
+		}
+		final ChangeWaiter waiter = new ChangeWaiter(epoch, since, result);
+		result.onTimeout(() -> result.setResult(changes(changesSince(epoch, since))));
+		result.onCompletion(() -> waiters.remove(waiter));
+		waiters.add(waiter);
+		// The table may have changed before the waiter was added, without an event left to wake it up.
+		if (routingTable.snapshot().getVersion() != changes.getSequence()) {
+			wakeWaiters();
+		}
+		return result;
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationEvent event) {
+		if (event instanceof RouteRegisterEvent || event instanceof RouteUnregisterEvent || event instanceof RouteChangeBatchEvent
+				|| event instanceof RouteEventsDroppedEvent) {
+			wakeWaiters();
+		}
+	}
+
+	/**
+	 * Responds to every waiting long-poll that has changes to return.
+	 */
+	void wakeWaiters() {
+		if (waiters.isEmpty()) {
+			return;
+		}
+		for (Iterator<ChangeWaiter> i = waiters.iterator(); i.hasNext(); ) {
+			final ChangeWaiter waiter = i.next();
+			final RouteChanges changes = changesSince(waiter.epoch, waiter.since);
+			// Events may arrive after the changes they announce were already returned, keep waiting for new ones.
+			if (changes.isResync() || !changes.getChanges().isEmpty()) {
+				i.remove();
+				waiter.result.setResult(changes(changes));
+			}
+		}
+	}
+
+	int getWaiterCount() {
+		return waiters.size();
+	}
+
+	private RouteChanges changesSince(String epoch, long since) {
+		final long current = routingTable.getEpoch();
+		// A missing or different epoch never matches, the client's version may be from before a restart.
+		return routingTable.changesSince(epoch(current).equals(epoch) ? current : ~current, since);
+	}
+
+	private String epoch() {
+		return epoch(routingTable.getEpoch());
+	}
+
+	/**
+	 * Formats epochs as strings, JSON numbers lose precision beyond 53 bits in many clients.
+	 */
+	static String epoch(long epoch) {
+		return Long.toHexString(epoch);
+	}
+
+	/**
+	 * Writes the routes of {@code snapshot} as JSON, one host at a time, without building the document in memory.
+	 */
+	static void writeRoutes(String epoch, RoutingTableSnapshot snapshot, OutputStream out) throws IOException {
+		try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+			generator.writeStartObject();
+			generator.writeStringField("epoch", epoch);
+			generator.writeNumberField("version", snapshot.getVersion());
+			generator.writeObjectFieldStart("hosts");
+			try {
+				snapshot.forEachHost((host, routes) -> {
+					try {
+						generator.writeArrayFieldStart(host);
+						for (RouteDetails route : routes) {
+							writeRoute(generator, route);
+						}
+						generator.writeEndArray();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			generator.writeEndObject();
+			generator.writeEndObject();
+		}
+	}
+
+	private static void writeRoute(JsonGenerator generator, RouteDetails route) throws IOException {
+		generator.writeStartObject();
+		generator.writeStringField("address", route.getAddress().getHostString());
+		generator.writeNumberField("port", route.getAddress().getPort());
+		if (route.getApplicationGuid() != null) {
+			generator.writeStringField("applicationGuid", route.getApplicationGuid().toString());
+		}
+		if (route.getApplicationIndex() != null) {
+			generator.writeNumberField("applicationIndex", route.getApplicationIndex());
+		}
+		if (route.getPrivateInstanceId() != null) {
+			generator.writeStringField("privateInstanceId", route.getPrivateInstanceId());
+		}
+		generator.writeEndObject();
+	}
+
+	private static Map<String, Object> changes(RouteChanges changes) {
+		final Map<String, Object> body = new LinkedHashMap<>();
+		body.put("epoch", epoch(changes.getEpoch()));
+		body.put("sequence", changes.getSequence());
+		body.put("resync", changes.isResync());
+		final List<Map<String, Object>> changeList = new ArrayList<>(changes.getChanges().size());
+		for (RouteChange change : changes.getChanges()) {
+			final Map<String, Object> entry = new LinkedHashMap<>();
+			entry.put("sequence", change.getSequence());
+			entry.put("type", change.getType());
+			entry.put("host", change.getRoute().getHost());
+			entry.put("route", route(change.getRoute()));
+			changeList.add(entry);
+		}
+		body.put("changes", changeList);
+		return body;
+	}
+
+	private static Map<String, Object> route(RouteDetails route) {
+		final Map<String, Object> map = new LinkedHashMap<>();
+		map.put("address", route.getAddress().getHostString());
+		map.put("port", route.getAddress().getPort());
+		// Same fields as #writeRoute.
+		if (route.getApplicationGuid() != null) {
+			map.put("applicationGuid", route.getApplicationGuid().toString());
+		}
+		if (route.getApplicationIndex() != null) {
+			map.put("applicationIndex", route.getApplicationIndex());
+		}
+		if (route.getPrivateInstanceId() != null) {
+			map.put("privateInstanceId", route.getPrivateInstanceId());
+		}
+		return map;
+	}
+
+	private String etag(RoutingTableSnapshot snapshot) {
+		return "\"" + epoch() + "-" + snapshot.getVersion() + "\"";
+	}
+
+	private static final class ChangeWaiter {
+		private final String epoch;
+		private final long since;
+		private final DeferredResult<Map<String, Object>> result;
+
+		private ChangeWaiter(String epoch, long since, DeferredResult<Map<String, Object>> result) {
+			this.epoch = epoch;
+			this.since = since;
+			this.result = result;
+		}
+	}
+}
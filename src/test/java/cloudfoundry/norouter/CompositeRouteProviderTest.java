@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class CompositeRouteProviderTest {
+
+	@Test
+	public void emptyCompositeIsUnavailable() {
+		final CompositeRouteProvider composite = new CompositeRouteProvider();
+		assertFalse(composite.isAvailable());
+		assertEquals(composite.getUnavailableReason(), "No route providers");
+	}
+
+	@Test
+	public void aggregatesPushedAvailability() {
+		final TestProvider first = new TestProvider("first");
+		final TestProvider second = new TestProvider("second");
+		final CompositeRouteProvider composite = new CompositeRouteProvider();
+		final List<String> transitions = new ArrayList<>();
+		composite.addAvailabilityListener((provider, available, reason) -> transitions.add(available ? "available" : reason));
+
+		composite.addProvider(first);
+		composite.addProvider(second);
+		assertFalse(composite.isAvailable());
+		assertEquals(composite.getUnavailableReason(), "first: Not started");
+
+		first.state.available();
+		assertFalse(composite.isAvailable());
+		assertEquals(composite.getUnavailableReason(), "second: Not started");
+
+		second.state.available();
+		assertTrue(composite.isAvailable());
+		assertNull(composite.getUnavailableReason());
+
+		second.state.unavailable("Lost connection");
+		assertFalse(composite.isAvailable());
+		assertEquals(composite.getUnavailableReason(), "second: Lost connection");
+
+		second.state.unavailable("Reconnecting");
+		assertEquals(composite.getUnavailableReason(), "second: Reconnecting");
+
+		composite.removeProvider(second);
+		assertTrue(composite.isAvailable());
+
+		// Reason changes while unavailable are pushed too, not only the transitions.
+		assertEquals(transitions, Arrays.asList("first: Not started", "second: Not started", "available",
+				"second: Lost connection", "second: Reconnecting", "available"));
+	}
+
+	@Test
+	public void plainProvidersArePolled() {
+		final TestProvider observable = new TestProvider("observable");
+		observable.state.available();
+		final AtomicBoolean plainAvailable = new AtomicBoolean();
+		final CompositeRouteProvider composite = new CompositeRouteProvider();
+		composite.addProvider(observable);
+		composite.addProvider(plainAvailable::get);
+		assertFalse(composite.isAvailable());
+		plainAvailable.set(true);
+		assertTrue(composite.isAvailable());
+	}
+
+	private static class TestProvider implements ObservableRouteProvider {
+		final AvailabilityState state = new AvailabilityState(this, "Not started");
+		final String name;
+
+		TestProvider(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public boolean isAvailable() {
+			return state.isAvailable();
+		}
+
+		@Override
+		public String getUnavailableReason() {
+			return state.getUnavailableReason();
+		}
+
+		@Override
+		public void addAvailabilityListener(AvailabilityListener listener) {
+			state.addListener(listener);
+		}
+
+		@Override
+		public void removeAvailabilityListener(AvailabilityListener listener) {
+			state.removeListener(listener);
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+}
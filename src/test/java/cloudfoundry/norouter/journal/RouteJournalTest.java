@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.journal;
+
+import cloudfoundry.norouter.routingtable.RouteChangeListener.ChangeType;
+import cloudfoundry.norouter.routingtable.RouteRegisterEvent;
+import cloudfoundry.norouter.routingtable.RoutingTable;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * @author Mike Heath
+ */
+public class RouteJournalTest {
+
+	private static final String HOST = "foo.lds.org";
+	private static final InetSocketAddress ADDRESS = InetSocketAddress.createUnresolved("1.2.3.4", 1234);
+	private static final UUID APPLICATION_GUID = UUID.randomUUID();
+
+	private Path directory;
+
+	@BeforeMethod
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("journal");
+	}
+
+	@AfterMethod
+	public void cleanup() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path path : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Test
+	public void journalsRoutingTableChanges() throws IOException {
+		try (RouteJournal journal = RouteJournal.create().directory(directory).durability(RouteJournal.Durability.SYNC).build();
+			 RoutingTable routingTable = RoutingTable.create()
+					 .eventPublisher(event -> {})
+					 .routeProvider(() -> true)
+					 .changeListener(journal)
+					 .build()) {
+			routingTable.registerRoute(HOST, ADDRESS, APPLICATION_GUID, 1, "private");
+			// Heartbeats don't change the table and aren't journaled.
+			routingTable.registerRoute(HOST, ADDRESS, APPLICATION_GUID, 1, "private");
+			routingTable.unregisterRoute(HOST, ADDRESS);
+			assertEquals(journal.getDurableSequence(), 2);
+		}
+
+		try (JournalReader reader = new JournalReader(directory, 0)) {
+			final JournalRecord register = reader.next();
+			assertEquals(register.getSequence(), 1);
+			assertEquals(register.getType(), ChangeType.REGISTER);
+			assertEquals(register.getHost(), HOST);
+			assertEquals(register.getAddress(), ADDRESS);
+			assertEquals(register.getApplicationGuid(), APPLICATION_GUID);
+			assertEquals(register.getApplicationIndex(), Integer.valueOf(1));
+			assertEquals(register.getPrivateInstanceId(), "private");
+
+			final JournalRecord unregister = reader.next();
+			assertEquals(unregister.getSequence(), 2);
+			assertEquals(unregister.getType(), ChangeType.UNREGISTER);
+			assertNull(reader.next());
+		}
+	}
+
+	@Test
+	public void readerTailsJournal() throws IOException {
+		try (RouteJournal journal = syncJournal(1024);
+			 JournalReader reader = new JournalReader(directory, 0)) {
+			assertNull(reader.next());
+			append(journal, 0, 10);
+			assertEquals(readAll(reader).size(), 10);
+			assertNull(reader.next());
+			append(journal, 10, 100);
+			final List<JournalRecord> records = readAll(reader);
+			assertEquals(records.size(), 90);
+			assertEquals(records.get(0).getSequence(), 11);
+			assertEquals(records.get(89).getSequence(), 100);
+		}
+	}
+
+	@Test
+	public void segmentsRollAndSequenceContinuesAfterReopen() throws IOException {
+		try (RouteJournal journal = syncJournal(512)) {
+			append(journal, 0, 50);
+		}
+		assertTrue(RouteJournal.listSegments(directory).size() > 1);
+		try (RouteJournal journal = syncJournal(512)) {
+			assertEquals(journal.getLastSequence(), 50);
+			append(journal, 50, 60);
+		}
+		try (JournalReader reader = new JournalReader(directory, 45)) {
+			final List<JournalRecord> records = readAll(reader);
+			assertEquals(records.size(), 16);
+			for (int i = 0; i < records.size(); i++) {
+				assertEquals(records.get(i).getSequence(), 45 + i);
+			}
+		}
+	}
+
+	@Test
+	public void incompleteRecordIsDiscardedOnReopen() throws IOException {
+		try (RouteJournal journal = syncJournal(1024 * 1024)) {
+			append(journal, 0, 3);
+		}
+		final Path segment = RouteJournal.listSegments(directory).get(0);
+		Files.write(segment, new byte[] {0, 0, 0, 100, 1, 2}, StandardOpenOption.APPEND);
+
+		try (RouteJournal journal = syncJournal(1024 * 1024)) {
+			assertEquals(journal.getLastSequence(), 3);
+			append(journal, 3, 4);
+		}
+		try (JournalReader reader = new JournalReader(directory, 0)) {
+			assertEquals(readAll(reader).size(), 4);
+		}
+	}
+
+	@Test
+	public void compactionKeepsRegisteredRoutes() throws IOException {
+		try (RouteJournal journal = syncJournal(256)) {
+			append(journal, 0, 20);
+			for (int i = 0; i < 20; i += 2) {
+				journal.append(ChangeType.UNREGISTER, route(i));
+			}
+			// Re-register a route so only its latest register survives.
+			journal.append(ChangeType.REGISTER, route(1));
+			journal.compact();
+			assertEquals(RouteJournal.listSegments(directory).size(), 1);
+
+			append(journal, 100, 101);
+		}
+		try (JournalReader reader = new JournalReader(directory, 0)) {
+			final List<JournalRecord> records = readAll(reader);
+			assertEquals(records.size(), 11);
+			for (JournalRecord record : records) {
+				assertEquals(record.getType(), ChangeType.REGISTER);
+			}
+			assertEquals(records.get(records.size() - 2).getAddress(), route(1).getAddress());
+			assertEquals(records.get(records.size() - 1).getAddress(), route(100).getAddress());
+		}
+	}
+
+	@Test
+	public void failedWritesAreRetriedAndFailSyncAppends() throws IOException {
+		final Path segments = directory.resolve("segments");
+		final Path moved = directory.resolve("moved");
+		try (RouteJournal journal = RouteJournal.create().directory(segments).maxSegmentSize(1).durability(RouteJournal.Durability.SYNC).build()) {
+			append(journal, 0, 1);
+
+			// Every record starts a new segment, which fails while the directory is gone.
+			Files.move(segments, moved);
+			Files.createFile(segments);
+			try {
+				append(journal, 1, 2);
+				fail("Appending should fail when the change can't be written");
+			} catch (UncheckedIOException e) {
+				// Expected
+			}
+			assertEquals(journal.getDurableSequence(), 1);
+
+			Files.delete(segments);
+			Files.move(moved, segments);
+			append(journal, 2, 3);
+			assertEquals(journal.getDurableSequence(), 3);
+		}
+		try (JournalReader reader = new JournalReader(segments, 0)) {
+			final List<JournalRecord> records = readAll(reader);
+			assertEquals(records.size(), 3);
+			for (int i = 0; i < records.size(); i++) {
+				assertEquals(records.get(i).getSequence(), i + 1);
+			}
+		}
+	}
+
+	@Test
+	public void syncChangeListenerWaitsAfterChangesAreApplied() throws IOException {
+		final Path segments = directory.resolve("segments");
+		final Path moved = directory.resolve("moved");
+		try (RouteJournal journal = RouteJournal.create().directory(segments).maxSegmentSize(1).durability(RouteJournal.Durability.SYNC).build()) {
+			append(journal, 0, 1);
+
+			// The table reports changes while holding host locks, so they must not wait even when writes fail.
+			Files.move(segments, moved);
+			Files.createFile(segments);
+			journal.routeChanged(ChangeType.REGISTER, route(1));
+			try {
+				journal.changesApplied();
+				fail("Waiting for the change should fail when it can't be written");
+			} catch (UncheckedIOException e) {
+				// Expected
+			}
+			assertEquals(journal.getDurableSequence(), 1);
+
+			Files.delete(segments);
+			Files.move(moved, segments);
+			journal.routeChanged(ChangeType.REGISTER, route(2));
+			journal.changesApplied();
+			assertEquals(journal.getDurableSequence(), 3);
+			// Nothing left to wait for.
+			journal.changesApplied();
+		}
+	}
+
+	@Test
+	public void batchedChangesAreDurableWhenWriteReturns() {
+		try (RouteJournal journal = syncJournal(1024);
+			 RoutingTable routingTable = RoutingTable.create()
+					 .eventPublisher(event -> {})
+					 .routeProvider(() -> true)
+					 .changeListener(journal)
+					 .build()) {
+			final List<String> hosts = Arrays.asList("a.lds.org", "b.lds.org", "c.lds.org");
+			routingTable.registerRoutes(hosts, ADDRESS, APPLICATION_GUID, 1, null);
+			assertEquals(journal.getDurableSequence(), 3);
+			assertEquals(routingTable.unregisterRoutes(hosts, ADDRESS), 3);
+			assertEquals(journal.getDurableSequence(), 6);
+		}
+	}
+
+	@Test
+	public void replayRestoresTable() throws IOException {
+		try (RouteJournal journal = syncJournal(1024)) {
+			append(journal, 0, 5);
+			journal.append(ChangeType.EVICT, route(0));
+		}
+		try (RoutingTable routingTable = new RoutingTable(event -> {}, Duration.ofMinutes(1), () -> true)) {
+			assertEquals(RouteJournal.replay(directory, routingTable), 6);
+			assertEquals(routingTable.snapshot().getRouteCount(), 4);
+			assertEquals(routingTable.getRoutes(HOST).size(), 4);
+		}
+	}
+
+	private RouteJournal syncJournal(long maxSegmentSize) {
+		return RouteJournal.create()
+				.directory(directory)
+				.maxSegmentSize(maxSegmentSize)
+				.durability(RouteJournal.Durability.SYNC)
+				.build();
+	}
+
+	private static void append(RouteJournal journal, int from, int to) {
+		for (int i = from; i < to; i++) {
+			journal.append(ChangeType.REGISTER, route(i));
+		}
+	}
+
+	private static RouteRegisterEvent route(int i) {
+		return new RouteRegisterEvent(RouteJournalTest.class, HOST, InetSocketAddress.createUnresolved("10.0.0." + (i % 256), 1000 + i), null, i, null);
+	}
+
+	private static List<JournalRecord> readAll(JournalReader reader) throws IOException {
+		final List<JournalRecord> records = new ArrayList<>();
+		for (JournalRecord record = reader.next(); record != null; record = reader.next()) {
+			records.add(record);
+		}
+		return records;
+	}
+}
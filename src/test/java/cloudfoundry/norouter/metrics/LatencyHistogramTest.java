@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.metrics;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void emptyHistogram() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(histogram.getCount(), 0);
+		assertEquals(histogram.getPercentileNanos(0.99), 0);
+		assertEquals(histogram.getMeanNanos(), 0.0, 0.0);
+	}
+
+	@Test
+	public void percentilesAreBoundedByBucket() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 99; i++) {
+			histogram.record(100);
+		}
+		histogram.record(10_000);
+
+		assertEquals(histogram.getCount(), 100);
+		assertEquals(histogram.getMaxNanos(), 10_000);
+		final long p50 = histogram.getPercentileNanos(0.5);
+		assertTrue(p50 >= 100 && p50 < 200, "p50 was " + p50);
+		assertTrue(histogram.getPercentileNanos(0.99) < 200);
+		assertEquals(histogram.getPercentileNanos(1), 10_000);
+		assertEquals(histogram.getMeanNanos(), 199.0, 0.0001);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void rejectsInvalidPercentile() {
+		new LatencyHistogram().getPercentileNanos(1.5);
+	}
+}
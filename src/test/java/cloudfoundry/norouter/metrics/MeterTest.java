@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.metrics;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * @author Mike Heath
+ */
+public class MeterTest {
+
+	@Test
+	public void steadyRateIsReportedRegardlessOfHowOftenItIsRead() {
+		final long start = 0;
+		final Meter meter = new Meter(start);
+		// 10 events per second, the rate read once a minute.
+		for (int minute = 1; minute <= 10; minute++) {
+			meter.mark(600);
+			assertEquals(meter.getOneMinuteRate(start + TimeUnit.MINUTES.toNanos(minute)), 10.0, 0.001);
+		}
+	}
+
+	@Test
+	public void rateDecaysWhenEventsStop() {
+		final Meter meter = new Meter(0);
+		meter.mark(50);
+		assertEquals(meter.getOneMinuteRate(TimeUnit.SECONDS.toNanos(5)), 10.0, 0.001);
+		// A minute without events decays the average by a factor of e.
+		assertEquals(meter.getOneMinuteRate(TimeUnit.SECONDS.toNanos(65)), 10.0 / Math.E, 0.001);
+	}
+}
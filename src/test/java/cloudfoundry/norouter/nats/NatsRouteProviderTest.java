@@ -20,8 +20,10 @@ import cf.nats.DefaultCfNats;
 import cf.nats.message.RouterRegister;
 import cf.nats.message.RouterStart;
 import cf.nats.message.RouterUnregister;
+import cloudfoundry.norouter.routingtable.RouteDetails;
 import cloudfoundry.norouter.routingtable.RouteRegistrar;
 import nats.client.MockNats;
+import nats.client.spring.NatsDisconnectedApplicationEvent;
 import nats.client.spring.NatsServerReadyApplicationEvent;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.event.ContextRefreshedEvent;
@@ -29,8 +31,15 @@ import org.testng.annotations.Test;
 
 import java.net.InetSocketAddress;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.mockito.Mockito.*;
@@ -65,6 +74,38 @@ public class NatsRouteProviderTest {
 		}
 	}
 
+	@Test
+	public void pushesAvailabilityTransitions() throws Exception {
+		final MockNats mockNats = new MockNats();
+		final CfNats nats = new DefaultCfNats(mockNats);
+		final List<String> transitions = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch availableLatch = new CountDownLatch(1);
+		final NatsRouteProvider natsRouteProvider = NatsRouteProvider.create()
+				.nats(nats)
+				.routeRegistrar(mock(RouteRegistrar.class))
+				.natsPingInterval(Duration.ofMillis(10))
+				.build();
+		natsRouteProvider.addAvailabilityListener((provider, available, reason) -> {
+			transitions.add(available ? "available" : reason);
+			if (available) {
+				availableLatch.countDown();
+			}
+		});
+		assertEquals(natsRouteProvider.getUnavailableReason(), "Not started");
+
+		natsRouteProvider.start();
+		assertTrue(availableLatch.await(5, TimeUnit.SECONDS));
+		assertTrue(natsRouteProvider.isAvailable());
+		assertNull(natsRouteProvider.getUnavailableReason());
+
+		natsRouteProvider.close();
+		assertFalse(natsRouteProvider.isAvailable());
+		assertEquals(natsRouteProvider.getUnavailableReason(), "Closed");
+		// A late ping may flip the availability in between, but it starts and ends like this.
+		assertEquals(transitions.get(0), "available");
+		assertEquals(transitions.get(transitions.size() - 1), "Closed");
+	}
+
 	@Test
 	public void publishesRouterStartOnStart() {
 		final CountDownLatch routerStartLatch = new CountDownLatch(1);
@@ -126,8 +167,7 @@ public class NatsRouteProviderTest {
 			nats.publish(new RouterRegister(host, port, uri1, uri2));
 		}
 
-		verify(routeRegistrar).registerRoute(uri1, InetSocketAddress.createUnresolved(host, port), null, null, null);
-		verify(routeRegistrar).registerRoute(uri2, InetSocketAddress.createUnresolved(host, port), null, null, null);
+		verify(routeRegistrar).registerRoutes(Arrays.asList(uri1, uri2), InetSocketAddress.createUnresolved(host, port), null, null, null);
 	}
 
 	@Test
@@ -149,8 +189,7 @@ public class NatsRouteProviderTest {
 			nats.publish(new RouterUnregister(host, port, uri1, uri2));
 		}
 
-		verify(routeRegistrar).unregisterRoute(uri1, InetSocketAddress.createUnresolved(host, port));
-		verify(routeRegistrar).unregisterRoute(uri2, InetSocketAddress.createUnresolved(host, port));
+		verify(routeRegistrar).unregisterRoutes(Arrays.asList(uri1, uri2), InetSocketAddress.createUnresolved(host, port));
 	}
 
 	@Test
@@ -187,4 +226,83 @@ public class NatsRouteProviderTest {
 			assertEquals(routerStartCounter.get(), 2);
 		}
 	}
+
+	@Test
+	public void unavailableAsSoonAsNatsDisconnects() throws Exception {
+		final MockNats mockNats = new MockNats();
+		final CountDownLatch availableLatch = new CountDownLatch(1);
+		try (final NatsRouteProvider natsRouteProvider = NatsRouteProvider.create()
+				.nats(new DefaultCfNats(mockNats))
+				.routeRegistrar(mock(RouteRegistrar.class))
+				.natsPingInterval(Duration.ofMinutes(1))
+				.build()) {
+			natsRouteProvider.addAvailabilityListener((provider, available, reason) -> {
+				if (available) {
+					availableLatch.countDown();
+				}
+			});
+			natsRouteProvider.start();
+			assertTrue(availableLatch.await(5, TimeUnit.SECONDS));
+
+			// No need to wait for the watchdog, which wouldn't run for another minute.
+			natsRouteProvider.onApplicationEvent(new NatsDisconnectedApplicationEvent(mockNats));
+			assertFalse(natsRouteProvider.isAvailable());
+			assertEquals(natsRouteProvider.getUnavailableReason(), "Not connected to NATS");
+		}
+	}
+
+	@Test
+	public void partitionedMessagesKeepPerBackendOrder() {
+		final Map<InetSocketAddress, List<String>> calls = new ConcurrentHashMap<>();
+		final RouteRegistrar routeRegistrar = new RouteRegistrar() {
+			@Override
+			public void insertRoute(String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void registerRoute(String host, InetSocketAddress address, UUID applicationGuid, Integer applicationIndex, String privateInstanceId) {
+				calls.computeIfAbsent(address, key -> Collections.synchronizedList(new ArrayList<>())).add("register " + host);
+			}
+
+			@Override
+			public boolean unregisterRoute(String host, InetSocketAddress address) {
+				calls.computeIfAbsent(address, key -> Collections.synchronizedList(new ArrayList<>())).add("unregister " + host);
+				return true;
+			}
+
+			@Override
+			public RouteDetails getRouteByAddress(InetSocketAddress address) {
+				return null;
+			}
+		};
+
+		final int backends = 50;
+		final MockNats mockNats = new MockNats();
+		final CfNats nats = new DefaultCfNats(mockNats);
+		try (final NatsRouteProvider natsRouteProvider = NatsRouteProvider.create()
+				.nats(nats)
+				.routeRegistrar(routeRegistrar)
+				.partitions(4, 16)
+				.build()) {
+			natsRouteProvider.start();
+			for (int round = 0; round < 10; round++) {
+				for (int i = 0; i < backends; i++) {
+					nats.publish(new RouterRegister("10.0.0." + i, 80, "app" + round));
+					nats.publish(new RouterUnregister("10.0.0." + i, 80, "app" + round));
+				}
+			}
+		} finally {
+			mockNats.close();
+		}
+
+		assertEquals(calls.size(), backends);
+		for (List<String> backendCalls : calls.values()) {
+			assertEquals(backendCalls.size(), 20);
+			for (int round = 0; round < 10; round++) {
+				assertEquals(backendCalls.get(round * 2), "register app" + round);
+				assertEquals(backendCalls.get(round * 2 + 1), "unregister app" + round);
+			}
+		}
+	}
 }
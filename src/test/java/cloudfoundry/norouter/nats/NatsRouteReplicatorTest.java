@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.nats;
+
+import cloudfoundry.norouter.routingtable.RoutingTable;
+import cf.nats.CfNats;
+import cf.nats.DefaultCfNats;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nats.client.MockNats;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class NatsRouteReplicatorTest {
+
+	private ScheduledExecutorService scheduler;
+	private MockNats nats;
+	private RoutingTable source;
+	private RoutingTable replica;
+
+	@BeforeMethod
+	public void setup() {
+		scheduler = Executors.newScheduledThreadPool(2);
+		nats = new MockNats();
+		source = RoutingTable.create().eventPublisher(event -> {}).routeProvider(() -> true).build();
+		replica = RoutingTable.create().eventPublisher(event -> {}).routeProvider(() -> true).build();
+	}
+
+	@AfterMethod
+	public void cleanup() {
+		source.close();
+		replica.close();
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void joiningNodeReceivesSnapshotAndDeltas() throws Exception {
+		final UUID applicationGuid = UUID.randomUUID();
+		for (int i = 0; i < 500; i++) {
+			source.registerRoute("app" + (i % 50) + ".example.com", address(i), applicationGuid, i, "instance" + i);
+		}
+
+		try (NatsRouteReplicator serving = replicator(source, false);
+			 NatsRouteReplicator joining = replicator(replica, true)) {
+			serving.start();
+			assertTrue(serving.isServing());
+			joining.start();
+			waitFor(() -> serving.getNodeId().equals(joining.getFollowing()));
+			assertTrue(joining.isServing());
+			assertEquals(replica.snapshot().getRouteCount(), 500);
+			assertEquals(replica.getRoutesByApplicationInstance(applicationGuid, 7).get(0).getPrivateInstanceId(), "instance7");
+
+			source.registerRoute("new.example.com", address(1000), null, null, null);
+			source.unregisterRoute("app0.example.com", address(0));
+			serving.publishDeltas();
+			assertEquals(replica.getRoutes("new.example.com").size(), 1);
+			assertNull(replica.getRouteByAddress(address(0)));
+			assertEquals(replica.snapshot().getRouteCount(), 500);
+		}
+	}
+
+	@Test
+	public void missedDeltaTriggersResync() throws Exception {
+		source.registerRoute("foo.example.com", address(1), null, null, null);
+		try (NatsRouteReplicator serving = replicator(source, false);
+			 NatsRouteReplicator joining = replicator(replica, true)) {
+			serving.start();
+			joining.start();
+			waitFor(() -> serving.getNodeId().equals(joining.getFollowing()));
+
+			// The replica misses a delta, the next one tells it changes were lost.
+			source.registerRoute("bar.example.com", address(2), null, null, null);
+			final long version = source.snapshot().getVersion();
+			final ReplicationDelta delta = new ReplicationDelta(serving.getNodeId(), version, version + 1, false, Collections.emptyList(), null);
+			nats.publish(NatsRouteReplicator.deltaSubject(serving.getNodeId()), new ObjectMapper().writeValueAsString(delta));
+			// The snapshot's routes are registered before the replica follows its source again.
+			waitFor(() -> serving.getNodeId().equals(joining.getFollowing()));
+			assertEquals(replica.getRoutes("bar.example.com").size(), 1);
+		}
+	}
+
+	@Test
+	public void nodesNeverFollowTheirFollowers() throws Exception {
+		source.registerRoute("foo.example.com", address(1), null, null, null);
+		final RoutingTable third = RoutingTable.create().eventPublisher(event -> {}).routeProvider(() -> true).build();
+		try (NatsRouteReplicator first = replicator(source, false, Duration.ofMillis(300));
+			 NatsRouteReplicator second = replicator(replica, true);
+			 NatsRouteReplicator last = replicator(third, true)) {
+			first.start();
+			second.start();
+			waitFor(() -> first.getNodeId().equals(second.getFollowing()));
+			// Only the second node serves besides the first one, so the third follows the first through it.
+			first.close();
+			last.start();
+			waitFor(() -> second.getNodeId().equals(last.getFollowing()));
+			assertEquals(last.getUpstream(), Arrays.asList(second.getNodeId(), first.getNodeId()));
+		}
+		third.close();
+
+		// The first node asks again while its only peer follows it, so it must not follow the peer.
+		try (NatsRouteReplicator first = replicator(source, false, Duration.ofMillis(300));
+			 NatsRouteReplicator second = replicator(replica, true)) {
+			first.start();
+			second.start();
+			waitFor(() -> first.getNodeId().equals(second.getFollowing()));
+			first.requestSync();
+			waitFor(() -> !first.isSyncing());
+			assertNull(first.getFollowing());
+			assertEquals(second.getFollowing(), first.getNodeId());
+		}
+	}
+
+	@Test
+	public void firstNodeStartsServingAfterSyncTimeout() throws Exception {
+		try (NatsRouteReplicator joining = replicator(replica, true, Duration.ofMillis(200))) {
+			joining.start();
+			assertFalse(joining.isServing());
+			waitFor(joining::isServing);
+			assertNull(joining.getFollowing());
+		}
+	}
+
+	@Test
+	public void stalledSnapshotsAreRequestedAgain() throws Exception {
+		// A source whose last chunk never arrives.
+		final CfNats cfNats = new DefaultCfNats(nats);
+		final List<String> requests = new CopyOnWriteArrayList<>();
+		cfNats.subscribe(ReplicationSyncRequest.class, NatsRouteReplicator.QUEUE_GROUP, publication -> {
+			final String requestId = publication.getMessageBody().getRequestId();
+			requests.add(requestId);
+			cfNats.publish(new ReplicationSnapshotChunk(requestId, "stalled", 1, 0, false, new byte[16], Collections.emptyList()));
+		});
+		try (NatsRouteReplicator joining = replicator(replica, true, Duration.ofMillis(200))) {
+			joining.start();
+			waitFor(joining::isServing);
+			assertEquals(requests.size(), NatsRouteReplicator.MAX_SYNC_REQUESTS);
+			assertFalse(joining.isSyncing());
+			assertNull(joining.getFollowing());
+		}
+	}
+
+	private NatsRouteReplicator replicator(RoutingTable routingTable, boolean join) {
+		return replicator(routingTable, join, Duration.ofSeconds(5));
+	}
+
+	private NatsRouteReplicator replicator(RoutingTable routingTable, boolean join, Duration syncTimeout) {
+		return NatsRouteReplicator.create()
+				.nats(nats)
+				.routingTable(routingTable)
+				.scheduler(scheduler)
+				.chunkSize(256)
+				.deltaInterval(Duration.ofHours(1))
+				.syncTimeout(syncTimeout)
+				.join(join)
+				.build();
+	}
+
+	private static InetSocketAddress address(int port) {
+		return InetSocketAddress.createUnresolved("10.0.0.1", port);
+	}
+
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.nanoTime() < deadline, "Timed out waiting");
+			Thread.sleep(10);
+		}
+	}
+}
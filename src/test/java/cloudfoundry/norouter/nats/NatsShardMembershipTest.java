@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.nats;
+
+import cf.nats.CfNats;
+import cf.nats.DefaultCfNats;
+import cloudfoundry.norouter.routingtable.RoutingTable;
+import cloudfoundry.norouter.routingtable.ShardedRouteRegistrar;
+import nats.client.MockNats;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class NatsShardMembershipTest {
+
+	private ScheduledExecutorService scheduler;
+	private CfNats nats;
+	private RoutingTable routingTable;
+
+	@BeforeMethod
+	public void setup() {
+		scheduler = Executors.newScheduledThreadPool(2);
+		nats = new DefaultCfNats(new MockNats());
+		routingTable = RoutingTable.create().eventPublisher(event -> {}).routeProvider(() -> true).build();
+	}
+
+	@AfterMethod
+	public void cleanup() {
+		routingTable.close();
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void membersJoinAndTimeOut() throws Exception {
+		final ShardedRouteRegistrar a = ShardedRouteRegistrar.create().routingTable(routingTable).memberId("a").build();
+		final ShardedRouteRegistrar b = ShardedRouteRegistrar.create().routingTable(routingTable).memberId("b").build();
+		final AtomicInteger rebalances = new AtomicInteger();
+		try (NatsShardMembership membershipA = membership(a, "10.0.0.1:8080", rebalances::incrementAndGet)) {
+			membershipA.start();
+			try (NatsShardMembership membershipB = membership(b, "10.0.0.2:8080", () -> {})) {
+				membershipB.start();
+				waitFor(() -> a.getRing().getMembers().size() == 2 && b.getRing().getMembers().size() == 2);
+				assertEquals(a.getRing().getMembers(), b.getRing().getMembers());
+				// A member joining only takes hosts away.
+				assertEquals(rebalances.get(), 0);
+
+				int owned = 0;
+				for (int i = 0; i < 100; i++) {
+					final String host = "app" + i + ".example.com";
+					final String owner = membershipA.getOwner(host);
+					assertEquals(membershipB.getOwner(host), owner);
+					assertEquals(membershipA.getOwnerAddress(host), owner.equals("a") ? "10.0.0.1:8080" : "10.0.0.2:8080");
+					if (owner.equals("a")) {
+						owned++;
+					}
+				}
+				assertTrue(owned > 0 && owned < 100);
+			}
+			// Without announcements b is taken off the ring again and a gains its hosts.
+			waitFor(() -> rebalances.get() == 1);
+			assertEquals(a.getRing().getMembers(), Collections.singleton("a"));
+			assertTrue(membershipA.getPeers().isEmpty());
+		}
+	}
+
+	private NatsShardMembership membership(ShardedRouteRegistrar registrar, String address, Runnable rebalanceListener) {
+		return NatsShardMembership.create()
+				.nats(nats)
+				.registrar(registrar)
+				.scheduler(scheduler)
+				.announceInterval(Duration.ofMillis(50))
+				.memberTimeout(Duration.ofMillis(500))
+				.address(address)
+				.rebalanceListener(rebalanceListener)
+				.build();
+	}
+
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.nanoTime() < deadline, "Timed out waiting");
+			Thread.sleep(10);
+		}
+	}
+}
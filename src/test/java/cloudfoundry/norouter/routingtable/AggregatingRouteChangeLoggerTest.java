@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class AggregatingRouteChangeLoggerTest {
+
+	private ScheduledExecutorService scheduler;
+
+	@BeforeMethod
+	public void setup() {
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	@AfterMethod
+	public void cleanup() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void summarizesChangesPerApplication() {
+		final UUID busy = UUID.randomUUID();
+		final UUID quiet = UUID.randomUUID();
+		try (AggregatingRouteChangeLogger logger = logger(10, 100000)) {
+			assertNull(logger.flush());
+			for (int i = 0; i < 100; i++) {
+				logger.onApplicationEvent(register("busy.example.com", i, busy));
+			}
+			logger.onApplicationEvent(new RouteChangeBatchEvent(this,
+					Collections.singletonList(register("quiet.example.com", 1, quiet)),
+					Arrays.asList(unregister("busy.example.com", 0, busy), unregister("other.example.com", 1, null))));
+
+			final String summary = logger.flush();
+			assertTrue(summary.contains("101 registered, 2 unregistered for 3 applications or hosts"), summary);
+			assertTrue(summary.contains("most changes: " + busy + " (+100/-1), "), summary);
+			assertTrue(summary.contains("other.example.com (+0/-1)"), summary);
+			assertTrue(summary.contains("sample: +busy.example.com 10.0.0.1:0, +busy.example.com 10.0.0.1:1, "), summary);
+			assertNull(logger.flush());
+		}
+	}
+
+	@Test
+	public void enforcesLogBudget() {
+		try (AggregatingRouteChangeLogger logger = logger(1, 100000)) {
+			logger.onApplicationEvent(register("foo.example.com", 1, null));
+			assertTrue(logger.flush().startsWith("Route changes"));
+
+			// The budget of one line per minute is used up, changes accumulate into the next summary.
+			logger.onApplicationEvent(register("foo.example.com", 2, null));
+			assertNull(logger.flush());
+			logger.onApplicationEvent(register("foo.example.com", 3, null));
+			assertNull(logger.flush());
+		}
+	}
+
+	@Test
+	public void dropsEventsBeyondMaxPending() {
+		try (AggregatingRouteChangeLogger logger = logger(10, 5)) {
+			for (int i = 0; i < 8; i++) {
+				logger.onApplicationEvent(register("foo.example.com", i, null));
+			}
+			final String summary = logger.flush();
+			assertTrue(summary.contains("5 registered"), summary);
+			assertTrue(summary.endsWith("; 3 changes dropped"), summary);
+
+			// Room was made for new events.
+			logger.onApplicationEvent(register("foo.example.com", 9, null));
+			assertTrue(logger.flush().contains("1 registered"));
+		}
+	}
+
+	private AggregatingRouteChangeLogger logger(int maxLinesPerMinute, int maxPending) {
+		return AggregatingRouteChangeLogger.create()
+				.scheduler(scheduler)
+				.interval(Duration.ofHours(1))
+				.maxLinesPerMinute(maxLinesPerMinute)
+				.maxPending(maxPending)
+				.build();
+	}
+
+	private RouteRegisterEvent register(String host, int port, UUID applicationGuid) {
+		return new RouteRegisterEvent(this, host, InetSocketAddress.createUnresolved("10.0.0.1", port), applicationGuid, null, null);
+	}
+
+	private RouteUnregisterEvent unregister(String host, int port, UUID applicationGuid) {
+		return new RouteUnregisterEvent(this, host, InetSocketAddress.createUnresolved("10.0.0.1", port), applicationGuid, null, null, true);
+	}
+}
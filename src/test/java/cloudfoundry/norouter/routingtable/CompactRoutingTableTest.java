@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class CompactRoutingTableTest {
+
+	private static final String HOST = "foo.lds.org";
+	private static final InetSocketAddress ADDRESS = InetSocketAddress.createUnresolved("1.2.3.4", 1234);
+	private static final UUID APPLICATION_GUID = UUID.randomUUID();
+	private static final Integer APPLICATION_INDEX = 2;
+	private static final String PRIVATE_INSTANCE_ID = "thisIsPrivate";
+
+	private ApplicationEventQueue eventPublisher;
+	private CompactRoutingTable routingTable;
+
+	@BeforeMethod
+	public void setup() {
+		eventPublisher = new ApplicationEventQueue();
+		routingTable = new CompactRoutingTable(eventPublisher, null, Duration.ofMillis(100), () -> true, 16);
+	}
+
+	@AfterMethod
+	public void cleanup() {
+		routingTable.close();
+	}
+
+	@Test
+	public void addressesRoundTrip() {
+		final InetSocketAddress address = InetSocketAddress.createUnresolved("255.0.10.1", 65535);
+		assertEquals(CompactRoutingTable.decodeAddress(CompactRoutingTable.encodeAddress(address)), address);
+	}
+
+	@Test
+	public void onlyEncodesCanonicalIpv4Addresses() {
+		assertEquals(CompactRoutingTable.encodeAddress(InetSocketAddress.createUnresolved("010.0.0.1", 80)), -1L);
+		assertEquals(CompactRoutingTable.encodeAddress(InetSocketAddress.createUnresolved("foo.lds.org", 80)), -1L);
+		assertEquals(CompactRoutingTable.encodeAddress(InetSocketAddress.createUnresolved("::1", 80)), -1L);
+		assertEquals(CompactRoutingTable.encodeAddress(InetSocketAddress.createUnresolved("0.0.0.0", 80)), 80L);
+	}
+
+	@Test
+	public void storesAddressesThatArentIpv4() {
+		final InetSocketAddress hostname = InetSocketAddress.createUnresolved("backend.lds.org", 80);
+		final InetSocketAddress ipv6 = InetSocketAddress.createUnresolved("fe80::1", 8080);
+		final InetSocketAddress zeroPadded = InetSocketAddress.createUnresolved("010.0.0.1", 80);
+		for (InetSocketAddress address : Arrays.asList(hostname, ipv6, zeroPadded)) {
+			routingTable.registerRoute(HOST, address, null, null, null);
+			routingTable.registerRoute("bar.lds.org", address, null, null, null);
+		}
+		routingTable.registerRoute(HOST, InetSocketAddress.createUnresolved("10.0.0.1", 80), null, null, null);
+
+		final Set<InetSocketAddress> addresses = new HashSet<>();
+		routingTable.getRoutes(HOST).forEach(route -> addresses.add(route.getAddress()));
+		assertEquals(addresses, new HashSet<>(Arrays.asList(hostname, ipv6, zeroPadded, InetSocketAddress.createUnresolved("10.0.0.1", 80))));
+		assertEquals(routingTable.getRouteByAddress(zeroPadded).getAddress().getHostString(), "010.0.0.1");
+
+		assertTrue(routingTable.unregisterRoute(HOST, hostname));
+		assertTrue(routingTable.unregisterRoute("bar.lds.org", hostname));
+		assertNull(routingTable.getRouteByAddress(hostname));
+		assertFalse(routingTable.unregisterRoute(HOST, hostname));
+		assertEquals(routingTable.getRoutes("bar.lds.org").size(), 2);
+	}
+
+	@Test
+	public void registerAndUnregisterRoute() {
+		routingTable.registerRoute(HOST, ADDRESS, APPLICATION_GUID, APPLICATION_INDEX, PRIVATE_INSTANCE_ID);
+		routingTable.registerRoute(HOST, ADDRESS, APPLICATION_GUID, APPLICATION_INDEX, PRIVATE_INSTANCE_ID);
+
+		final RouteRegisterEvent registerEvent = (RouteRegisterEvent) eventPublisher.poll();
+		assertDefaultRoute(registerEvent);
+		assertNull(eventPublisher.poll());
+
+		final Set<RouteDetails> routes = routingTable.getRoutes("FOO.lds.org");
+		assertEquals(routes.size(), 1);
+		assertDefaultRoute(routes.iterator().next());
+		assertDefaultRoute(routingTable.getRouteByAddress(ADDRESS));
+
+		assertTrue(routingTable.unregisterRoute(HOST, ADDRESS));
+		final RouteUnregisterEvent unregisterEvent = (RouteUnregisterEvent) eventPublisher.poll();
+		assertDefaultRoute(unregisterEvent);
+		assertTrue(unregisterEvent.isLast());
+		assertFalse(routingTable.unregisterRoute(HOST, ADDRESS));
+		assertTrue(routingTable.getRoutes(HOST).isEmpty());
+		assertNull(routingTable.getRouteByAddress(ADDRESS));
+		assertEquals(routingTable.size(), 0);
+	}
+
+	@Test
+	public void changedRouteIsRepublished() {
+		routingTable.registerRoute(HOST, ADDRESS, APPLICATION_GUID, APPLICATION_INDEX, PRIVATE_INSTANCE_ID);
+		routingTable.registerRoute(HOST, ADDRESS, null, null, null);
+
+		eventPublisher.poll();
+		final RouteRegisterEvent changed = (RouteRegisterEvent) eventPublisher.poll();
+		assertNull(changed.getApplicationGuid());
+		assertNull(changed.getApplicationIndex());
+		assertNull(changed.getPrivateInstanceId());
+		assertEquals(routingTable.size(), 1);
+	}
+
+	@Test
+	public void holdsManyHostsAndRoutes() {
+		final int hosts = 5000;
+		for (int i = 0; i < hosts; i++) {
+			for (int j = 0; j < 3; j++) {
+				routingTable.insertRoute("host" + i, address(i * 3 + j), null, j, null);
+			}
+		}
+		assertEquals(routingTable.size(), hosts * 3);
+		// Remove every other host to exercise deletion from the open addressing tables.
+		for (int i = 0; i < hosts; i += 2) {
+			for (int j = 0; j < 3; j++) {
+				assertTrue(routingTable.unregisterRoute("host" + i, address(i * 3 + j)));
+			}
+		}
+		assertEquals(routingTable.size(), hosts / 2 * 3);
+		for (int i = 0; i < hosts; i++) {
+			final Set<RouteDetails> routes = routingTable.getRoutes("host" + i);
+			if (i % 2 == 0) {
+				assertTrue(routes.isEmpty());
+				assertNull(routingTable.getRouteByAddress(address(i * 3)));
+			} else {
+				assertEquals(routes.size(), 3);
+				assertEquals(routingTable.getRouteByAddress(address(i * 3 + 2)).getApplicationIndex(), Integer.valueOf(2));
+			}
+		}
+	}
+
+	@Test
+	public void unregisterRoutesAfterTimeout() throws Exception {
+		routingTable.registerRoute(HOST, ADDRESS, APPLICATION_GUID, APPLICATION_INDEX, PRIVATE_INSTANCE_ID);
+		eventPublisher.poll();
+		assertEquals(routingTable.cleanupStaleRoutes(), 0);
+
+		Thread.sleep(110);
+		assertEquals(routingTable.cleanupStaleRoutes(), 1);
+		assertTrue(routingTable.getRoutes(HOST).isEmpty());
+		assertNull(routingTable.getRouteByAddress(ADDRESS));
+		assertDefaultRoute((RouteUnregisterEvent) eventPublisher.poll());
+	}
+
+	@Test
+	public void refreshedRoutesAreRescheduled() throws Exception {
+		routingTable.registerRoute(HOST, ADDRESS, null, null, null);
+		Thread.sleep(60);
+		routingTable.registerRoute(HOST, ADDRESS, null, null, null);
+		Thread.sleep(60);
+		assertEquals(routingTable.cleanupStaleRoutes(), 0);
+		assertEquals(routingTable.size(), 1);
+		Thread.sleep(60);
+		assertEquals(routingTable.cleanupStaleRoutes(), 1);
+	}
+
+	@Test
+	public void evictsInBatches() throws Exception {
+		final int routes = 3000;
+		for (int i = 0; i < routes; i++) {
+			routingTable.registerRoute("host" + i, address(i), null, null, null);
+		}
+		// Free and reuse a slot, the route in it must only be evicted once.
+		routingTable.unregisterRoute("host0", address(0));
+		routingTable.registerRoute("host0", address(0), null, null, null);
+		Thread.sleep(110);
+		while (eventPublisher.poll() != null) {
+			// Skip the registrations
+		}
+		assertEquals(routingTable.cleanupStaleRoutes(), routes);
+		assertEquals(routingTable.size(), 0);
+		int unregistered = 0;
+		while (eventPublisher.poll() instanceof RouteUnregisterEvent) {
+			unregistered++;
+		}
+		assertEquals(unregistered, routes);
+	}
+
+	@Test
+	public void doesNotCleanupWhenProviderUnavailable() throws Exception {
+		routingTable = new CompactRoutingTable(eventPublisher, null, Duration.ofMillis(1), () -> false, 16);
+		routingTable.registerRoute(HOST, ADDRESS, null, null, null);
+		Thread.sleep(5);
+		assertEquals(routingTable.cleanupStaleRoutes(), -1);
+		assertEquals(routingTable.size(), 1);
+	}
+
+	private static InetSocketAddress address(int i) {
+		return InetSocketAddress.createUnresolved("10.0." + (i >> 8 & 0xff) + "." + (i & 0xff), 8000 + (i >> 16));
+	}
+
+	private static void assertDefaultRoute(RouteDetails route) {
+		assertEquals(route.getHost(), HOST);
+		assertEquals(route.getAddress(), ADDRESS);
+		assertEquals(route.getApplicationGuid(), APPLICATION_GUID);
+		assertEquals(route.getApplicationIndex(), APPLICATION_INDEX);
+		assertEquals(route.getPrivateInstanceId(), PRIVATE_INSTANCE_ID);
+	}
+}
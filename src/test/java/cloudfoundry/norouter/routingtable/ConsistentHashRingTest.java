@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class ConsistentHashRingTest {
+
+	private static final int HOSTS = 20000;
+
+	@Test
+	public void hostsAreSpreadAcrossMembers() {
+		final ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a", "b", "c", "d"));
+		final Map<String, Integer> counts = new HashMap<>();
+		for (int i = 0; i < HOSTS; i++) {
+			counts.merge(ring.owner("app" + i + ".example.com"), 1, Integer::sum);
+		}
+		assertEquals(counts.keySet(), ring.getMembers());
+		for (int count : counts.values()) {
+			assertTrue(count > HOSTS / 4 * 0.7 && count < HOSTS / 4 * 1.3, "Uneven spread " + counts);
+		}
+	}
+
+	@Test
+	public void addingMemberOnlyMovesHostsToIt() {
+		final ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a", "b", "c", "d"));
+		final ConsistentHashRing grown = ring.withMember("e");
+		int moved = 0;
+		for (int i = 0; i < HOSTS; i++) {
+			final String host = "app" + i + ".example.com";
+			final String before = ring.owner(host);
+			final String after = grown.owner(host);
+			if (!before.equals(after)) {
+				assertEquals(after, "e");
+				moved++;
+			}
+		}
+		assertTrue(moved > HOSTS / 5 * 0.7 && moved < HOSTS / 5 * 1.3, "Moved " + moved);
+
+		// Removing the member again moves its hosts back where they were.
+		final ConsistentHashRing shrunk = grown.withoutMember("e");
+		for (int i = 0; i < HOSTS; i++) {
+			final String host = "app" + i + ".example.com";
+			assertEquals(shrunk.owner(host), ring.owner(host));
+		}
+	}
+
+	@Test
+	public void membersOnlyGainHostsWhenOthersLeave() {
+		final ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a", "b", "c"));
+		final ConsistentHashRing grown = ring.withMember("d");
+		assertFalse(grown.gainsHosts("a", ring));
+		assertTrue(grown.gainsHosts("d", ring));
+
+		final ConsistentHashRing shrunk = ring.withoutMember("c");
+		assertTrue(shrunk.gainsHosts("a", ring) || shrunk.gainsHosts("b", ring));
+		assertFalse(shrunk.gainsHosts("c", ring));
+		for (String member : Arrays.asList("a", "b")) {
+			boolean gained = false;
+			for (int i = 0; i < HOSTS; i++) {
+				final String host = "app" + i + ".example.com";
+				gained |= member.equals(shrunk.owner(host)) && !member.equals(ring.owner(host));
+			}
+			// With this many hosts every gained range holds some of them.
+			assertEquals(shrunk.gainsHosts(member, ring), gained);
+		}
+	}
+
+	@Test
+	public void ownerIsIndependentOfMemberOrderAndHostCase() {
+		final ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a", "b", "c"));
+		final ConsistentHashRing reordered = new ConsistentHashRing(Arrays.asList("c", "a", "b"));
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(reordered.owner("app" + i + ".example.com"), ring.owner("APP" + i + ".Example.com"));
+		}
+		assertSame(ring.withMember("a"), ring);
+		assertNull(new ConsistentHashRing(Collections.emptyList()).owner("foo.example.com"));
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+/**
+ * @author Mike Heath
+ */
+public class PersistentHashMapTest {
+
+	@Test
+	public void behavesLikeHashMap() {
+		final Random random = new Random(42);
+		final Map<Key, Integer> expected = new HashMap<>();
+		PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+		for (int i = 0; i < 20000; i++) {
+			// Only 64 distinct hash codes to force collision nodes.
+			final Key key = new Key(random.nextInt(2000), random.nextInt(64));
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				map = map.remove(key);
+			} else {
+				expected.put(key, i);
+				map = map.put(key, i);
+			}
+			assertEquals(map.size(), expected.size());
+		}
+		for (Map.Entry<Key, Integer> entry : expected.entrySet()) {
+			assertEquals(map.get(entry.getKey()), entry.getValue());
+		}
+		final Map<Key, Integer> actual = new HashMap<>();
+		map.forEach(actual::put);
+		assertEquals(actual, expected);
+	}
+
+	@Test
+	public void updatesDoNotModifyOriginal() {
+		final PersistentHashMap<String, String> original = PersistentHashMap.<String, String>empty().put("a", "1");
+		final PersistentHashMap<String, String> updated = original.put("b", "2").remove("a");
+
+		assertEquals(original.size(), 1);
+		assertEquals(original.get("a"), "1");
+		assertNull(original.get("b"));
+		assertEquals(updated.size(), 1);
+		assertNull(updated.get("a"));
+		assertSame(original.remove("missing"), original);
+	}
+
+	private static class Key {
+		private final int id;
+		private final int hash;
+
+		private Key(int id, int hash) {
+			this.id = id;
+			this.hash = hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && ((Key) o).id == id && ((Key) o).hash == hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
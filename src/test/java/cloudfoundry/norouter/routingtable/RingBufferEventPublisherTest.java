@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class RingBufferEventPublisherTest {
+
+	@Test
+	public void preservesPerHostOrder() throws Exception {
+		for (RingBufferEventPublisher.WaitStrategy waitStrategy : RingBufferEventPublisher.WaitStrategy.values()) {
+			final int hosts = 8;
+			final int eventsPerHost = 5000;
+			final Map<String, List<Integer>> received = new ConcurrentHashMap<>();
+			final CountDownLatch latch = new CountDownLatch(hosts * eventsPerHost);
+			// Small buffers to exercise publishers waiting on full ring buffers.
+			try (final RingBufferEventPublisher publisher = new RingBufferEventPublisher(event -> {
+				final RouteRegisterEvent registerEvent = (RouteRegisterEvent) event;
+				received.computeIfAbsent(registerEvent.getHost(), host -> new ArrayList<>()).add(registerEvent.getAddress().getPort());
+				latch.countDown();
+			}, 3, 16, waitStrategy)) {
+				final List<Thread> threads = new ArrayList<>();
+				for (int h = 0; h < hosts; h++) {
+					final String host = "host" + h;
+					final Thread thread = new Thread(() -> {
+						for (int i = 0; i < eventsPerHost; i++) {
+							publisher.publishEvent(new RouteRegisterEvent(this, host, InetSocketAddress.createUnresolved("1.2.3.4", i), null, null, null));
+						}
+					});
+					thread.start();
+					threads.add(thread);
+				}
+				for (Thread thread : threads) {
+					thread.join();
+				}
+				assertTrue(latch.await(10, TimeUnit.SECONDS), "Not all events dispatched with " + waitStrategy);
+				assertEquals(publisher.getQueueDepth(), 0);
+				assertEquals(publisher.getPublishedCount(), hosts * eventsPerHost);
+			}
+			for (List<Integer> ports : received.values()) {
+				assertEquals(ports.size(), eventsPerHost);
+				for (int i = 0; i < eventsPerHost; i++) {
+					assertEquals(ports.get(i).intValue(), i);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void dropsOnOverflowAndIgnoresEventsAfterClose() throws Exception {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger delivered = new AtomicInteger();
+		final List<Long> drops = new CopyOnWriteArrayList<>();
+		final RingBufferEventPublisher publisher = new RingBufferEventPublisher(event -> {
+			if (event instanceof RouteEventsDroppedEvent) {
+				drops.add(((RouteEventsDroppedEvent) event).getDroppedCount());
+				return;
+			}
+			blocked.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			delivered.incrementAndGet();
+		}, 1, 4, RingBufferEventPublisher.WaitStrategy.BLOCKING, true);
+		publisher.publishEvent(event(0));
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		// The consumer is stuck in a listener, the publisher must neither wait nor fail.
+		for (int i = 1; i <= 10; i++) {
+			publisher.publishEvent(event(i));
+		}
+		assertEquals(publisher.getDroppedCount(), 6);
+
+		release.countDown();
+		publisher.close();
+		assertEquals(delivered.get(), 5);
+		// Listeners are told events were lost.
+		assertEquals(drops, Collections.singletonList(6L));
+		publisher.publishEvent(event(11));
+		assertEquals(publisher.getPublishedCount(), 5);
+	}
+
+	private RouteRegisterEvent event(int port) {
+		return new RouteRegisterEvent(this, "host", InetSocketAddress.createUnresolved("1.2.3.4", port), null, null, null);
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class RouteChangeLogTest {
+
+	private static final List<RouteDetails> ROUTES = Collections.singletonList(
+			new RouteRegisterEvent(RouteChangeLogTest.class, "foo.lds.org", InetSocketAddress.createUnresolved("1.2.3.4", 80), null, null, null));
+
+	private final RoutingTableSnapshot current = RoutingTableSnapshot.EMPTY.withHosts(Collections.emptyMap(), Collections.emptyList(), Collections.emptyList());
+
+	@Test
+	public void readersResyncWhenVersionIsNeverRecorded() {
+		final RouteChangeLog changeLog = new RouteChangeLog(16, 1, TimeUnit.MILLISECONDS.toNanos(50));
+		final long start = System.nanoTime();
+		final RouteChanges changes = changeLog.changesSince(1, 0, current);
+		assertTrue(changes.isResync());
+		assertSame(changes.getSnapshot(), current);
+		assertEquals(changes.getSequence(), 1);
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+	}
+
+	@Test
+	public void readersWaitForLateWriters() throws Exception {
+		final RouteChangeLog changeLog = new RouteChangeLog(16, 1, TimeUnit.SECONDS.toNanos(10));
+		final Thread writer = new Thread(() -> {
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				return;
+			}
+			changeLog.record(1, RouteChangeListener.ChangeType.REGISTER, ROUTES);
+		});
+		writer.start();
+		final RouteChanges changes = changeLog.changesSince(1, 0, current);
+		writer.join();
+		assertFalse(changes.isResync());
+		assertEquals(changes.getChanges().size(), 1);
+		assertEquals(changes.getChanges().get(0).getSequence(), 1);
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+/**
+ * @author Mike Heath
+ */
+public class RouteInternerTest {
+
+	@Test
+	public void addressesAreFoundByHostAndPort() {
+		final RouteInterner interner = new RouteInterner();
+		final InetSocketAddress address = interner.address(new String("10.0.0.1"), 8080);
+		assertEquals(address, InetSocketAddress.createUnresolved("10.0.0.1", 8080));
+		assertSame(interner.address(new String("10.0.0.1"), 8080), address);
+		assertSame(interner.address(InetSocketAddress.createUnresolved("10.0.0.1", 8080)), address);
+		assertNotSame(interner.address("10.0.0.1", 8081), address);
+		assertNotSame(interner.address("10.0.0.2", 8080), address);
+	}
+
+	@Test
+	public void applicationGuidsAreParsedLikeUuid() {
+		final RouteInterner interner = new RouteInterner();
+		for (int i = 0; i < 1000; i++) {
+			final UUID uuid = UUID.randomUUID();
+			final UUID interned = interner.applicationGuid(uuid.toString());
+			assertEquals(interned, uuid);
+			assertSame(interner.applicationGuid(uuid.toString().toUpperCase()), interned);
+			assertSame(interner.applicationGuid(uuid), interned);
+		}
+		// Short forms are handed to UUID.
+		assertEquals(interner.applicationGuid("1-2-3-4-5"), UUID.fromString("1-2-3-4-5"));
+		assertNull(interner.applicationGuid((String) null));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void invalidApplicationGuidsAreRejected() {
+		new RouteInterner().applicationGuid("5b4e9b1e-4e6b-4b6c-9f2a-2f1d3c4b5aXY");
+	}
+
+	@Test
+	public void concurrentCallersShareOneInstance() throws Exception {
+		final RouteInterner interner = new RouteInterner();
+		final int values = 5000;
+		final InetSocketAddress[][] results = new InetSocketAddress[4][values];
+		final List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < results.length; t++) {
+			final InetSocketAddress[] result = results[t];
+			final Thread thread = new Thread(() -> {
+				for (int i = 0; i < values; i++) {
+					result[i] = interner.address("10.0." + (i >> 8) + "." + (i & 0xff), 8080);
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		for (int i = 0; i < values; i++) {
+			for (InetSocketAddress[] result : results) {
+				assertSame(result[i], results[0][i]);
+			}
+		}
+	}
+
+	@Test
+	public void collectedInstancesLeaveThePool() throws Exception {
+		final WeakInterner<String> pool = new WeakInterner<>();
+		final String kept = pool.intern(new String("kept"));
+		for (int i = 0; i < 10000; i++) {
+			pool.intern("value" + i);
+		}
+		for (int i = 0; i < 50 && pool.size() > 1; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertEquals(pool.size(), 1);
+		assertSame(pool.intern(new String("kept")), kept);
+	}
+}
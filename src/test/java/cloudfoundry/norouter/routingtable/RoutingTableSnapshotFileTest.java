@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class RoutingTableSnapshotFileTest {
+
+	private static final String HOST = "foo.lds.org";
+	private static final InetSocketAddress ADDRESS = InetSocketAddress.createUnresolved("1.2.3.4", 65000);
+	private static final UUID APPLICATION_GUID = UUID.randomUUID();
+
+	private Path directory;
+	private Path file;
+
+	@BeforeMethod
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("norouter");
+		file = directory.resolve("routes.snapshot");
+	}
+
+	@AfterMethod
+	public void cleanup() throws IOException {
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(directory);
+	}
+
+	@Test
+	public void writeAndReadRoutes() throws IOException {
+		try (RoutingTable routingTable = new RoutingTable(new ApplicationEventQueue(), Duration.ofMinutes(1), () -> true)) {
+			routingTable.insertRoute(HOST, ADDRESS, APPLICATION_GUID, 3, "privateId");
+			routingTable.insertRoute(HOST, InetSocketAddress.createUnresolved("1.2.3.5", 80), null, null, null);
+			routingTable.insertRoute("bar.lds.org", ADDRESS, null, 0, null);
+			RoutingTableSnapshotFile.write(routingTable.snapshot(), file);
+		}
+
+		final List<RouteDetails> routes = new ArrayList<>();
+		final int count = RoutingTableSnapshotFile.read(file, (host, address, applicationGuid, applicationIndex, privateInstanceId, lastUpdated) -> {
+			routes.add(new RouteRegisterEvent(this, host, address, applicationGuid, applicationIndex, privateInstanceId));
+			assertTrue(System.currentTimeMillis() - lastUpdated < 60_000);
+		});
+		assertEquals(count, 3);
+		assertEquals(routes.size(), 3);
+		for (RouteDetails route : routes) {
+			if (route.getAddress().equals(ADDRESS) && route.getHost().equals(HOST)) {
+				assertEquals(route.getApplicationGuid(), APPLICATION_GUID);
+				assertEquals(route.getApplicationIndex(), Integer.valueOf(3));
+				assertEquals(route.getPrivateInstanceId(), "privateId");
+			} else if (route.getHost().equals(HOST)) {
+				assertEquals(route.getAddress(), InetSocketAddress.createUnresolved("1.2.3.5", 80));
+				assertNull(route.getApplicationGuid());
+				assertNull(route.getApplicationIndex());
+				assertNull(route.getPrivateInstanceId());
+			} else {
+				assertEquals(route.getHost(), "bar.lds.org");
+				assertEquals(route.getApplicationIndex(), Integer.valueOf(0));
+			}
+		}
+	}
+
+	@Test
+	public void tableIsRestoredAfterRestart() {
+		final ApplicationEventQueue eventPublisher = new ApplicationEventQueue();
+		try (RoutingTable routingTable = RoutingTable.create()
+				.eventPublisher(eventPublisher)
+				.routeProvider(() -> true)
+				.persistSnapshots(file, Duration.ofMinutes(1))
+				.build()) {
+			routingTable.registerRoute(HOST, ADDRESS, APPLICATION_GUID, 1, null);
+		}
+		assertTrue(Files.exists(file));
+		eventPublisher.poll();
+
+		try (RoutingTable routingTable = RoutingTable.create()
+				.eventPublisher(eventPublisher)
+				.routeProvider(() -> true)
+				.persistSnapshots(file, Duration.ofMinutes(1))
+				.build()) {
+			final Set<RouteDetails> routes = routingTable.getRoutes(HOST);
+			assertEquals(routes.size(), 1);
+			assertEquals(routes.iterator().next().getApplicationGuid(), APPLICATION_GUID);
+			// Restored routes don't generate events.
+			assertNull(eventPublisher.poll());
+		}
+	}
+
+	@Test
+	public void restoredRoutesAreReportedToChangeListener() {
+		try (RoutingTable routingTable = RoutingTable.create()
+				.eventPublisher(new ApplicationEventQueue())
+				.routeProvider(() -> true)
+				.persistSnapshots(file, Duration.ofMinutes(1))
+				.build()) {
+			routingTable.registerRoute(HOST, ADDRESS, APPLICATION_GUID, 1, null);
+		}
+
+		final List<RouteChangeListener.ChangeType> changes = new ArrayList<>();
+		final List<RouteDetails> routes = new ArrayList<>();
+		try (RoutingTable routingTable = RoutingTable.create()
+				.eventPublisher(new ApplicationEventQueue())
+				.routeProvider(() -> true)
+				.persistSnapshots(file, Duration.ofMinutes(1))
+				.changeListener((type, route) -> {
+					changes.add(type);
+					routes.add(route);
+				})
+				.build()) {
+			assertEquals(changes, Collections.singletonList(RouteChangeListener.ChangeType.REGISTER));
+			assertEquals(routes.get(0).getHost(), HOST);
+			assertEquals(routes.get(0).getAddress(), ADDRESS);
+			assertEquals(routes.get(0).getApplicationGuid(), APPLICATION_GUID);
+		}
+	}
+
+	@Test
+	public void snapshotsAreWrittenOnTheSnapshotScheduler() throws Exception {
+		final ScheduledExecutorService snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "snapshot-writer"));
+		try (RoutingTable routingTable = RoutingTable.create()
+				.eventPublisher(new ApplicationEventQueue())
+				.routeProvider(() -> true)
+				.persistSnapshots(file, Duration.ofMillis(20))
+				.snapshotScheduler(snapshotScheduler)
+				.build()) {
+			routingTable.registerRoute(HOST, ADDRESS, null, null, null);
+			final long deadline = System.currentTimeMillis() + 10000;
+			while (!Files.exists(file)) {
+				assertTrue(System.currentTimeMillis() < deadline, "Snapshot not written");
+				Thread.sleep(10);
+			}
+		} finally {
+			snapshotScheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void staleRoutesAreNotRestored() throws Exception {
+		final Duration staleRouteTimeout = Duration.ofMillis(50);
+		try (RoutingTable routingTable = RoutingTable.create()
+				.eventPublisher(new ApplicationEventQueue())
+				.routeProvider(() -> true)
+				.staleRouteTimeout(staleRouteTimeout)
+				.persistSnapshots(file, Duration.ofMinutes(1))
+				.build()) {
+			routingTable.insertRoute(HOST, ADDRESS, null, null, null);
+		}
+		Thread.sleep(staleRouteTimeout.toMillis() + 10);
+
+		try (RoutingTable routingTable = RoutingTable.create()
+				.eventPublisher(new ApplicationEventQueue())
+				.routeProvider(() -> true)
+				.staleRouteTimeout(staleRouteTimeout)
+				.persistSnapshots(file, Duration.ofMinutes(1))
+				.build()) {
+			assertTrue(routingTable.getRoutes(HOST).isEmpty());
+		}
+	}
+
+	@Test
+	public void corruptFileIsIgnored() throws IOException {
+		Files.write(file, new byte[] {1, 2, 3});
+		try {
+			RoutingTableSnapshotFile.read(file, (host, address, applicationGuid, applicationIndex, privateInstanceId, lastUpdated) -> {});
+			throw new AssertionError("Expected IOException");
+		} catch (IOException e) {
+			// Expected
+		}
+
+		try (RoutingTable routingTable = RoutingTable.create()
+				.eventPublisher(new ApplicationEventQueue())
+				.routeProvider(() -> true)
+				.persistSnapshots(file, Duration.ofMinutes(1))
+				.build()) {
+			assertFalse(routingTable.snapshot().getHostCount() > 0);
+		}
+	}
+}
@@ -15,6 +15,8 @@
  */
 package cloudfoundry.norouter.routingtable;
 
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeClass;
@@ -24,16 +26,28 @@ import org.testng.annotations.Test;
 import java.net.InetSocketAddress;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotEquals;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
 /**
@@ -205,6 +219,70 @@ public class RoutingTableTest {
 
 	}
 
+	@Test
+	public void refreshedRoutesAreNotEvicted() throws Exception {
+		final Duration staleRouteTimeout = Duration.ofMillis(100);
+		routingTable = new RoutingTable(eventPublisher, staleRouteTimeout, () -> true);
+		registerDefaultRoute();
+
+		for (int i = 0; i < 4; i++) {
+			Thread.sleep(staleRouteTimeout.toMillis() / 2);
+			registerDefaultRoute();
+			assertEquals(routingTable.cleanupStaleRoutes(), 0);
+		}
+		assertEquals(routingTable.getRoutes(HOST).size(), 1);
+	}
+
+	@Test
+	public void heartbeatsRacingEvictionsKeepTheirRoutes() throws Exception {
+		final Duration staleRouteTimeout = Duration.ofMillis(50);
+		routingTable = new RoutingTable(eventPublisher, staleRouteTimeout, () -> true);
+		final int routes = 500;
+		for (int i = 0; i < routes; i++) {
+			routingTable.registerRoute(HOST, InetSocketAddress.createUnresolved("10.0.0." + (i % 256), i), APPLICATION_GUID, null, null);
+		}
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			for (int round = 0; round < 20; round++) {
+				Thread.sleep(staleRouteTimeout.toMillis() + 10);
+				// Every route is stale now, sweep while all of them get a heartbeat.
+				final CountDownLatch start = new CountDownLatch(1);
+				final Future<?> sweep = executor.submit(() -> {
+					start.await();
+					return routingTable.cleanupStaleRoutes();
+				});
+				start.countDown();
+				for (int i = 0; i < routes; i++) {
+					routingTable.registerRoute(HOST, InetSocketAddress.createUnresolved("10.0.0." + (i % 256), i), APPLICATION_GUID, null, null);
+				}
+				sweep.get();
+				assertEquals(routingTable.getRoutes(HOST).size(), routes, "routes lost in round " + round);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void scheduledEvictionHonorsGranularity() throws Exception {
+		routingTable.close();
+		routingTable = RoutingTable.create()
+				.eventPublisher(eventPublisher)
+				.scheduler(scheduler)
+				.staleRouteTimeout(Duration.ofMillis(100))
+				.staleRouteGranularity(Duration.ofMillis(10))
+				.routeProvider(() -> true)
+				.build();
+		registerDefaultRoute();
+		assertDefaultRoute((RouteRegisterEvent) eventPublisher.poll());
+
+		Thread.sleep(250);
+		assertTrue(routingTable.getRoutes(HOST).isEmpty());
+		final RouteUnregisterEvent unregisterEvent = (RouteUnregisterEvent) eventPublisher.poll();
+		assertDefaultRoute(unregisterEvent);
+		assertTrue(unregisterEvent.isLast());
+	}
+
 	@Test
 	public void lastFlagGetsSetWhenFinalHostIsUnregistered() throws Exception {
 		routingTable = new RoutingTable(eventPublisher, Duration.ofMinutes(1), () -> true);
@@ -239,6 +317,168 @@ public class RoutingTableTest {
 		assertEquals(routeUnregisterEvent.getHost(), "test");
 	}
 
+	@Test
+	public void wildcardHostsMatchMostSpecificSuffix() {
+		final InetSocketAddress appsAddress = InetSocketAddress.createUnresolved("1.0.0.1", 1);
+		final InetSocketAddress domainAddress = InetSocketAddress.createUnresolved("1.0.0.2", 2);
+		final InetSocketAddress exactAddress = InetSocketAddress.createUnresolved("1.0.0.3", 3);
+		routingTable.registerRoute("*.Apps.example.com", appsAddress, null, null, null);
+		routingTable.registerRoute("*.example.com", domainAddress, null, null, null);
+		routingTable.registerRoute("exact.apps.example.com", exactAddress, null, null, null);
+
+		assertEquals(routingTable.getRoutes("foo.apps.example.com").iterator().next().getAddress(), appsAddress);
+		assertEquals(routingTable.getRoutes("a.b.apps.example.com").iterator().next().getAddress(), appsAddress);
+		assertEquals(routingTable.getRoutes("exact.apps.example.com").iterator().next().getAddress(), exactAddress);
+		assertEquals(routingTable.getRoutes("apps.example.com").iterator().next().getAddress(), domainAddress);
+		assertEquals(routingTable.getRoutes("bar.example.com").iterator().next().getAddress(), domainAddress);
+		assertTrue(routingTable.getRoutes("example.com").isEmpty());
+		assertTrue(routingTable.getRoutes("foo.example.org").isEmpty());
+
+		assertTrue(routingTable.unregisterRoute("*.apps.example.com", appsAddress));
+		assertEquals(routingTable.getRoutes("foo.apps.example.com").iterator().next().getAddress(), domainAddress);
+		assertTrue(routingTable.unregisterRoute("*.example.com", domainAddress));
+		assertTrue(routingTable.getRoutes("foo.apps.example.com").isEmpty());
+	}
+
+	@Test
+	public void roundRobinSelectorCyclesThroughRoutes() {
+		final InetSocketAddress address1 = InetSocketAddress.createUnresolved("1.0.0.0", 1);
+		final InetSocketAddress address2 = InetSocketAddress.createUnresolved("1.0.0.0", 2);
+		final InetSocketAddress address3 = InetSocketAddress.createUnresolved("1.0.0.0", 3);
+		routingTable.insertRoute(HOST, address1, null, null, null);
+		routingTable.insertRoute(HOST, address2, null, null, null);
+		routingTable.insertRoute(HOST, address3, null, null, null);
+
+		final RouteSelector selector = routingTable.roundRobinSelector();
+		final Set<InetSocketAddress> selected = new HashSet<>();
+		for (int i = 0; i < 3; i++) {
+			selected.add(selector.selectRoute(HOST).getAddress());
+		}
+		assertEquals(selected.size(), 3);
+
+		routingTable.unregisterRoute(HOST, address2);
+		for (int i = 0; i < 4; i++) {
+			assertFalse(selector.selectRoute(HOST).getAddress().equals(address2));
+		}
+		assertNull(selector.selectRoute("unknown.host"));
+	}
+
+	@Test
+	public void randomSelectorReturnsRegisteredRoute() {
+		assertNull(routingTable.randomSelector().selectRoute(HOST));
+		registerDefaultRoute();
+		assertDefaultRoute(routingTable.randomSelector().selectRoute(HOST.toUpperCase()));
+	}
+
+	@Test
+	public void snapshotsAreImmutableAndVersioned() {
+		final RoutingTableSnapshot empty = routingTable.snapshot();
+		registerDefaultRoute();
+		final InetSocketAddress otherAddress = InetSocketAddress.createUnresolved("1.0.0.0", 1);
+		routingTable.registerRoute("other.host", otherAddress, null, null, null);
+		final RoutingTableSnapshot snapshot = routingTable.snapshot();
+		assertTrue(snapshot.getVersion() > empty.getVersion());
+		assertEquals(snapshot.getHostCount(), 2);
+		assertEquals(snapshot.getRouteCount(), 2);
+
+		routingTable.unregisterRoute(HOST, ADDRESS);
+		assertTrue(routingTable.snapshot().getVersion() > snapshot.getVersion());
+		assertEquals(routingTable.snapshot().getRouteCount(), 1);
+
+		assertEquals(empty.getRouteCount(), 0);
+		assertEquals(snapshot.getRoutes(HOST).size(), 1);
+		assertDefaultRoute(snapshot.getRoutes(HOST).get(0));
+		final List<RouteDetails> visited = new ArrayList<>();
+		snapshot.forEachRoute(visited::add);
+		assertEquals(visited.size(), 2);
+		final Set<String> hosts = new HashSet<>();
+		snapshot.forEachHost((host, routes) -> hosts.add(host));
+		assertEquals(hosts, new HashSet<>(Arrays.asList(HOST, "other.host")));
+	}
+
+	@Test
+	public void batchedRouteChangesCancelOut() throws Exception {
+		final BlockingQueue<ApplicationEvent> events = new LinkedBlockingQueue<>();
+		final InetSocketAddress existingAddress = InetSocketAddress.createUnresolved("1.0.0.0", 1);
+		final InetSocketAddress transientAddress = InetSocketAddress.createUnresolved("1.0.0.0", 2);
+		final InetSocketAddress newAddress = InetSocketAddress.createUnresolved("1.0.0.0", 3);
+		try (final RoutingTable batchingTable = RoutingTable.create()
+				.eventPublisher(events::add)
+				.scheduler(scheduler)
+				.routeProvider(() -> true)
+				.batchRouteChanges(Duration.ofMillis(50), 100)
+				.build()) {
+			batchingTable.insertRoute(HOST, existingAddress, null, null, null);
+			batchingTable.registerRoute(HOST, transientAddress, null, null, null);
+			batchingTable.registerRoute(HOST, newAddress, null, null, null);
+			batchingTable.unregisterRoute(HOST, transientAddress);
+			batchingTable.unregisterRoute(HOST, existingAddress);
+
+			final RouteChangeBatchEvent batch = (RouteChangeBatchEvent) events.poll(1, TimeUnit.SECONDS);
+			assertNotNull(batch);
+			assertEquals(batch.getRegisterEvents().size(), 1);
+			assertEquals(batch.getRegisterEvents().get(0).getAddress(), newAddress);
+			assertEquals(batch.getUnregisterEvents().size(), 1);
+			assertEquals(batch.getUnregisterEvents().get(0).getAddress(), existingAddress);
+		}
+		assertNull(events.poll());
+	}
+
+	@Test
+	public void batchedUnregisterIsOnlyLastIfHostHasNoRoutesLeft() throws Exception {
+		final BlockingQueue<ApplicationEvent> events = new LinkedBlockingQueue<>();
+		final InetSocketAddress oldAddress = InetSocketAddress.createUnresolved("1.0.0.0", 1);
+		final InetSocketAddress newAddress = InetSocketAddress.createUnresolved("1.0.0.0", 2);
+		try (final RoutingTable batchingTable = RoutingTable.create()
+				.eventPublisher(events::add)
+				.scheduler(scheduler)
+				.routeProvider(() -> true)
+				.batchRouteChanges(Duration.ofMillis(50), 100)
+				.build()) {
+			batchingTable.insertRoute(HOST, oldAddress, null, null, null);
+			// The host's last route goes away and a new one arrives within the same window.
+			batchingTable.unregisterRoute(HOST, oldAddress);
+			batchingTable.registerRoute(HOST, newAddress, null, null, null);
+
+			final RouteChangeBatchEvent batch = (RouteChangeBatchEvent) events.poll(1, TimeUnit.SECONDS);
+			assertNotNull(batch);
+			assertEquals(batch.getUnregisterEvents().size(), 1);
+			assertFalse(batch.getUnregisterEvents().get(0).isLast());
+			assertEquals(batch.getRegisterEvents().get(0).getAddress(), newAddress);
+		}
+	}
+
+	@Test
+	public void batchPublishedWhenFull() throws Exception {
+		final BlockingQueue<ApplicationEvent> events = new LinkedBlockingQueue<>();
+		try (final RoutingTable batchingTable = RoutingTable.create()
+				.eventPublisher(events::add)
+				.scheduler(scheduler)
+				.routeProvider(() -> true)
+				.batchRouteChanges(Duration.ofMinutes(1), 2)
+				.build()) {
+			batchingTable.registerRoute(HOST, InetSocketAddress.createUnresolved("1.0.0.0", 1), null, null, null);
+			batchingTable.registerRoute(HOST, InetSocketAddress.createUnresolved("1.0.0.0", 2), null, null, null);
+
+			final RouteChangeBatchEvent batch = (RouteChangeBatchEvent) events.poll(1, TimeUnit.SECONDS);
+			assertNotNull(batch);
+			assertEquals(batch.size(), 2);
+		}
+	}
+
+	@Test
+	public void routesShareCanonicalInstances() {
+		final UUID applicationGuid = UUID.randomUUID();
+		routingTable.registerRoute("a.host", InetSocketAddress.createUnresolved("1.0.0.0", 1), new UUID(applicationGuid.getMostSignificantBits(), applicationGuid.getLeastSignificantBits()), 0, new String("id"));
+		routingTable.registerRoute("b.host", InetSocketAddress.createUnresolved("1.0.0.0", 1), new UUID(applicationGuid.getMostSignificantBits(), applicationGuid.getLeastSignificantBits()), 0, new String("id"));
+
+		final RouteDetails a = routingTable.getRoutes("a.host").iterator().next();
+		final RouteDetails b = routingTable.getRoutes("b.host").iterator().next();
+		assertSame(a.getAddress(), b.getAddress());
+		assertSame(a.getApplicationGuid(), b.getApplicationGuid());
+		assertSame(a.getPrivateInstanceId(), b.getPrivateInstanceId());
+	}
+
 	@Test
 	public void getRouteByAddress() {
 		routingTable = new RoutingTable(eventPublisher, Duration.ofMinutes(1), () -> true);
@@ -258,6 +498,288 @@ public class RoutingTableTest {
 		assertEquals(host2, routingTable.getRouteByAddress(address3).getHost());
 	}
 
+	@Test
+	public void concurrentRegistrationsAcrossHosts() throws Exception {
+		final ApplicationEventPublisher publisher = event -> {};
+		routingTable = new RoutingTable(publisher, Duration.ofMinutes(1), () -> true);
+
+		final int threads = 4;
+		final int hosts = 50;
+		final int routesPerHost = 20;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				final int thread = t;
+				futures.add(executor.submit(() -> {
+					for (int h = 0; h < hosts; h++) {
+						for (int r = thread; r < routesPerHost; r += threads) {
+							routingTable.registerRoute("host" + h, InetSocketAddress.createUnresolved("10.0.0." + h, r), null, null, null);
+							routingTable.getRoutes("host" + h);
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		for (int h = 0; h < hosts; h++) {
+			assertEquals(routingTable.getRoutes("host" + h).size(), routesPerHost);
+		}
+	}
+
+	@Test
+	public void metricsCountRegistrationsAndHeartbeats() {
+		registerDefaultRoute();
+		registerDefaultRoute();
+		registerDefaultRoute();
+		routingTable.insertRoute(HOST, InetSocketAddress.createUnresolved("1.2.3.5", 80), null, null, null);
+		assertTrue(routingTable.unregisterRoute(HOST, ADDRESS));
+
+		final RoutingTableMetrics metrics = routingTable.getMetrics();
+		assertEquals(metrics.getRegisters().getCount(), 3);
+		assertEquals(metrics.getRouteChanges().getCount(), 1);
+		assertEquals(metrics.getUnregisters().getCount(), 1);
+		assertEquals(metrics.getHeartbeatNoOpRatio(), 2 / 3.0, 0.0001);
+		assertEquals(metrics.getWriteLatency().getCount(), 3, "heartbeats take no lock and are not recorded as writes");
+	}
+
+	@Test
+	public void changeListenerSeesEveryChange() throws Exception {
+		final List<String> changes = new ArrayList<>();
+		final Duration staleRouteTimeout = Duration.ofMillis(50);
+		routingTable = RoutingTable.create()
+				.eventPublisher(eventPublisher)
+				.routeProvider(() -> true)
+				.staleRouteTimeout(staleRouteTimeout)
+				.changeListener((type, route) -> changes.add(type + " " + route.getAddress().getPort()))
+				.build();
+		registerDefaultRoute();
+		registerDefaultRoute();
+		routingTable.insertRoute(HOST, InetSocketAddress.createUnresolved("1.2.3.5", 80), null, null, null);
+		assertTrue(routingTable.unregisterRoute(HOST, ADDRESS));
+		Thread.sleep(staleRouteTimeout.toMillis() * 2);
+		assertEquals(routingTable.cleanupStaleRoutes(), 1);
+
+		assertEquals(changes, Arrays.asList("REGISTER 1234", "REGISTER 80", "UNREGISTER 1234", "EVICT 80"));
+	}
+
+	@Test
+	public void heartbeatRefreshesRouteInPlace() throws Exception {
+		registerDefaultRoute();
+		assertNotNull(eventPublisher.poll());
+		final RoutingTable.Route route = (RoutingTable.Route) routingTable.getRouteByAddress(ADDRESS);
+		final long registered = route.getLastUpdated();
+
+		Thread.sleep(5);
+		routingTable.registerRoute(HOST.toUpperCase(), ADDRESS, APPLICATION_GUID, APPLICATION_INDEX, PRIVATE_INSTANCE_ID);
+		assertNull(eventPublisher.poll());
+		assertSame(routingTable.getRouteByAddress(ADDRESS), route);
+		assertSame(routingTable.getRoutes(HOST).iterator().next(), route);
+		assertTrue(route.getLastUpdated() > registered);
+
+		// A heartbeat for a route that was unregistered registers it again.
+		assertTrue(routingTable.unregisterRoute(HOST, ADDRESS));
+		assertNotNull(eventPublisher.poll());
+		registerDefaultRoute();
+		assertTrue(eventPublisher.poll() instanceof RouteRegisterEvent);
+		assertEquals(routingTable.getRoutes(HOST).size(), 1);
+	}
+
+	@Test
+	public void batchesAreAppliedInOneSnapshot() {
+		final String otherHost = "bar.lds.org";
+		routingTable.insertRoute(otherHost, InetSocketAddress.createUnresolved("1.2.3.5", 80), null, null, null);
+		final long version = routingTable.snapshot().getVersion();
+
+		routingTable.registerRoutes(Arrays.asList(HOST, otherHost, "*.lds.org"), ADDRESS, APPLICATION_GUID, APPLICATION_INDEX, PRIVATE_INSTANCE_ID);
+		assertEquals(routingTable.snapshot().getVersion(), version + 1);
+		assertEquals(routingTable.snapshot().getRouteCount(), 4);
+		assertEquals(routingTable.getRoutes("baz.lds.org").size(), 1);
+		for (int i = 0; i < 3; i++) {
+			assertTrue(eventPublisher.poll() instanceof RouteRegisterEvent);
+		}
+		assertNull(eventPublisher.poll());
+
+		// Heartbeats don't change the table.
+		routingTable.registerRoutes(Arrays.asList(HOST.toUpperCase(), otherHost, "*.lds.org"), ADDRESS, APPLICATION_GUID, APPLICATION_INDEX, PRIVATE_INSTANCE_ID);
+		assertEquals(routingTable.snapshot().getVersion(), version + 1);
+		assertNull(eventPublisher.poll());
+
+		assertEquals(routingTable.unregisterRoutes(Arrays.asList(HOST, otherHost, "*.lds.org", "unknown.lds.org"), ADDRESS), 3);
+		assertEquals(routingTable.snapshot().getVersion(), version + 2);
+		assertEquals(routingTable.snapshot().getRouteCount(), 1);
+		assertTrue(((RouteUnregisterEvent) eventPublisher.poll()).isLast());
+		assertFalse(((RouteUnregisterEvent) eventPublisher.poll()).isLast());
+		assertTrue(((RouteUnregisterEvent) eventPublisher.poll()).isLast());
+		assertNull(eventPublisher.poll());
+		assertTrue(routingTable.getRoutes("baz.lds.org").isEmpty());
+		assertNull(routingTable.getRouteByAddress(ADDRESS));
+	}
+
+	@Test
+	public void secondaryIndexesFollowTheTable() throws Exception {
+		final String otherHost = "bar.lds.org";
+		final InetSocketAddress otherAddress = InetSocketAddress.createUnresolved("1.2.3.5", 80);
+		registerDefaultRoute();
+		routingTable.registerRoute(otherHost, ADDRESS, APPLICATION_GUID, APPLICATION_INDEX, PRIVATE_INSTANCE_ID);
+		routingTable.registerRoute(HOST, otherAddress, APPLICATION_GUID, 3, "otherInstance");
+
+		assertEquals(routingTable.getRoutesByApplication(APPLICATION_GUID).size(), 3);
+		assertEquals(routingTable.getRoutesByApplicationInstance(APPLICATION_GUID, APPLICATION_INDEX).size(), 2);
+		final List<RouteDetails> instanceRoutes = routingTable.getRoutesByApplicationInstance(APPLICATION_GUID, 3);
+		assertEquals(instanceRoutes.size(), 1);
+		assertEquals(instanceRoutes.get(0).getAddress(), otherAddress);
+		assertEquals(routingTable.getRoutesByPrivateInstanceId(PRIVATE_INSTANCE_ID).size(), 2);
+		assertTrue(routingTable.getRoutesByApplication(UUID.randomUUID()).isEmpty());
+		assertTrue(routingTable.getRoutesByPrivateInstanceId(null).isEmpty());
+
+		// A changed route moves between index entries.
+		final UUID otherApplication = UUID.randomUUID();
+		routingTable.registerRoute(HOST, otherAddress, otherApplication, 0, "movedInstance");
+		assertEquals(routingTable.getRoutesByApplication(APPLICATION_GUID).size(), 2);
+		assertTrue(routingTable.getRoutesByApplicationInstance(APPLICATION_GUID, 3).isEmpty());
+		assertTrue(routingTable.getRoutesByPrivateInstanceId("otherInstance").isEmpty());
+		assertEquals(routingTable.getRoutesByPrivateInstanceId("movedInstance").size(), 1);
+
+		routingTable.unregisterRoutes(Arrays.asList(HOST, otherHost), ADDRESS);
+		assertTrue(routingTable.getRoutesByApplication(APPLICATION_GUID).isEmpty());
+		assertTrue(routingTable.getRoutesByPrivateInstanceId(PRIVATE_INSTANCE_ID).isEmpty());
+
+		Thread.sleep(STALE_ROUTE_TIMEOUT.toMillis() * 2);
+		routingTable.cleanupStaleRoutes();
+		assertTrue(routingTable.getRoutesByApplication(otherApplication).isEmpty());
+		assertTrue(routingTable.getRoutesByApplicationInstance(otherApplication, 0).isEmpty());
+	}
+
+	@Test
+	public void changesSinceReturnsChangesInOrder() {
+		final InetSocketAddress otherAddress = InetSocketAddress.createUnresolved("1.2.3.5", 80);
+		RouteChanges changes = routingTable.changesSince(0);
+		assertFalse(changes.isResync());
+		assertTrue(changes.getChanges().isEmpty());
+
+		registerDefaultRoute();
+		registerDefaultRoute();
+		routingTable.registerRoutes(Arrays.asList(HOST, "bar.lds.org"), otherAddress, null, null, null);
+		assertTrue(routingTable.unregisterRoute(HOST, ADDRESS));
+
+		changes = routingTable.changesSince(changes.getSequence());
+		assertFalse(changes.isResync());
+		assertEquals(changes.getSequence(), routingTable.snapshot().getVersion());
+		final List<String> summary = new ArrayList<>();
+		for (RouteChange change : changes.getChanges()) {
+			summary.add(change.getSequence() + " " + change.getType() + " " + change.getRoute().getHost() + ":" + change.getRoute().getAddress().getPort());
+		}
+		assertEquals(summary, Arrays.asList(
+				"1 REGISTER foo.lds.org:1234",
+				"2 REGISTER foo.lds.org:80",
+				"2 REGISTER bar.lds.org:80",
+				"3 UNREGISTER foo.lds.org:1234"));
+
+		final RouteChanges caughtUp = routingTable.changesSince(changes.getSequence());
+		assertFalse(caughtUp.isResync());
+		assertTrue(caughtUp.getChanges().isEmpty());
+		assertEquals(caughtUp.getSequence(), changes.getSequence());
+	}
+
+	@Test
+	public void changesSinceResyncsConsumersTooFarBehind() {
+		routingTable.close();
+		routingTable = RoutingTable.create()
+				.eventPublisher(eventPublisher)
+				.routeProvider(() -> true)
+				.changeLogCapacity(4)
+				.build();
+		for (int i = 0; i < 10; i++) {
+			routingTable.registerRoute(HOST, InetSocketAddress.createUnresolved("1.2.3.4", i), null, null, null);
+		}
+		assertEquals(routingTable.changesSince(6).getChanges().size(), 4);
+
+		final RouteChanges changes = routingTable.changesSince(5);
+		assertTrue(changes.isResync());
+		assertTrue(changes.getChanges().isEmpty());
+		assertEquals(changes.getSnapshot().getRouteCount(), 10);
+		assertEquals(changes.getSequence(), changes.getSnapshot().getVersion());
+
+		// A sequence from before a restart is unknown.
+		assertTrue(routingTable.changesSince(100).isResync());
+	}
+
+	@Test
+	public void changesSinceResyncsConsumersFromAnotherEpoch() {
+		registerDefaultRoute();
+		final long epoch = routingTable.getEpoch();
+		assertEquals(routingTable.changesSince(epoch, 0).getEpoch(), epoch);
+		assertFalse(routingTable.changesSince(epoch, 0).isResync());
+
+		// A restarted table reaches the same versions with different changes.
+		try (RoutingTable restarted = new RoutingTable(eventPublisher, STALE_ROUTE_TIMEOUT, () -> true)) {
+			assertNotEquals(restarted.getEpoch(), epoch);
+			restarted.registerRoute(HOST, InetSocketAddress.createUnresolved("4.3.2.1", 80), null, null, null);
+			restarted.registerRoute(HOST, InetSocketAddress.createUnresolved("4.3.2.1", 81), null, null, null);
+			final RouteChanges changes = restarted.changesSince(epoch, 1);
+			assertTrue(changes.isResync());
+			assertEquals(changes.getEpoch(), restarted.getEpoch());
+			assertEquals(changes.getSnapshot().getRouteCount(), 2);
+		}
+	}
+
+	@Test
+	public void changesSinceIsConsistentUnderConcurrentWrites() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				final String host = "host" + t + ".lds.org";
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 2000; i++) {
+						final InetSocketAddress address = InetSocketAddress.createUnresolved("10.0.0.1", i % 50);
+						if (i % 3 == 0) {
+							routingTable.unregisterRoute(host, address);
+						} else {
+							routingTable.registerRoute(host, address, null, i % 7, null);
+						}
+					}
+				}));
+			}
+			final Set<String> routes = new HashSet<>();
+			long sequence = 0;
+			boolean done = false;
+			while (!done) {
+				done = futures.stream().allMatch(Future::isDone);
+				final RouteChanges changes = routingTable.changesSince(sequence);
+				if (changes.isResync()) {
+					routes.clear();
+					changes.getSnapshot().forEachRoute(route -> routes.add(route.getHost() + route.getAddress()));
+				}
+				for (RouteChange change : changes.getChanges()) {
+					final String key = change.getRoute().getHost() + change.getRoute().getAddress();
+					if (change.getType() == RouteChangeListener.ChangeType.REGISTER) {
+						routes.add(key);
+					} else {
+						assertTrue(routes.remove(key), change.toString());
+					}
+				}
+				sequence = changes.getSequence();
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+			final RouteChanges last = routingTable.changesSince(sequence);
+			assertTrue(last.getChanges().isEmpty());
+			final Set<String> expected = new HashSet<>();
+			routingTable.snapshot().forEachRoute(route -> expected.add(route.getHost() + route.getAddress()));
+			assertEquals(routes, expected);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
 	private void registerDefaultRoute() {
 		routingTable.registerRoute(HOST, ADDRESS, APPLICATION_GUID, APPLICATION_INDEX, PRIVATE_INSTANCE_ID);
 	}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.routingtable;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class ShardedRouteRegistrarTest {
+
+	private RoutingTable routingTable;
+	private ShardedRouteRegistrar registrar;
+
+	@BeforeMethod
+	public void setup() {
+		routingTable = RoutingTable.create().eventPublisher(event -> {}).routeProvider(() -> true).build();
+		registrar = ShardedRouteRegistrar.create().routingTable(routingTable).memberId("a").build();
+	}
+
+	@AfterMethod
+	public void cleanup() {
+		routingTable.close();
+	}
+
+	@Test
+	public void aloneMemberOwnsEveryHost() {
+		registrar.registerRoute("foo.example.com", address(1), null, null, null);
+		assertEquals(routingTable.getRoutes("foo.example.com").size(), 1);
+		assertEquals(registrar.getOwner("foo.example.com"), "a");
+		assertEquals(registrar.getRejectedRegistrationCount(), 0);
+	}
+
+	@Test
+	public void onlyOwnedHostsReachTheRoutingTable() {
+		assertTrue(registrar.setMembers(Arrays.asList("a", "b", "c")));
+		assertFalse(registrar.setMembers(Arrays.asList("b", "c")));
+
+		final List<String> hosts = hosts(300);
+		registrar.registerRoutes(hosts, address(1), null, null, null);
+		registrar.registerRoute("*.apps.example.com", address(2), null, null, null);
+
+		int owned = 0;
+		for (String host : hosts) {
+			final boolean present = !routingTable.snapshot().getRoutes(host).isEmpty();
+			assertEquals(present, registrar.owns(host), host);
+			assertEquals(present, "a".equals(registrar.getOwner(host)), host);
+			if (present) {
+				owned++;
+			}
+		}
+		assertTrue(owned > 0 && owned < hosts.size());
+		assertEquals(registrar.getRejectedRegistrationCount(), hosts.size() - owned);
+		// Wildcards are kept by every member.
+		assertEquals(routingTable.snapshot().getRoutes("*.apps.example.com").size(), 1);
+	}
+
+	@Test
+	public void rebalanceReleasesOnlyHostsThatMoved() {
+		final List<String> hosts = hosts(300);
+		registrar.registerRoutes(hosts, address(1), null, null, null);
+		registrar.registerRoute(hosts.get(0), address(2), null, null, null);
+		registrar.registerRoute("*.apps.example.com", address(3), null, null, null);
+		final ConsistentHashRing before = registrar.getRing();
+
+		registrar.setMembers(Collections.singleton("b"));
+		final ConsistentHashRing after = registrar.getRing();
+		final List<String> kept = new ArrayList<>();
+		for (String host : hosts) {
+			final boolean present = !routingTable.snapshot().getRoutes(host).isEmpty();
+			assertEquals(before.owner(host), "a");
+			assertEquals(present, after.owner(host).equals("a"), host);
+			if (present) {
+				kept.add(host);
+			}
+		}
+		assertTrue(!kept.isEmpty() && kept.size() < hosts.size());
+		assertEquals(routingTable.snapshot().getHostCount(), kept.size() + 1);
+		assertEquals(routingTable.snapshot().getRoutes("*.apps.example.com").size(), 1);
+	}
+
+	private static List<String> hosts(int count) {
+		final List<String> hosts = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			hosts.add("app" + i + ".example.com");
+		}
+		return hosts;
+	}
+
+	private static InetSocketAddress address(int port) {
+		return InetSocketAddress.createUnresolved("10.0.0.1", port);
+	}
+}
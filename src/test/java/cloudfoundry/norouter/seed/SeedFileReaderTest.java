@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.seed;
+
+import cloudfoundry.norouter.routingtable.RouteInterner;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.BufferedWriter;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class SeedFileReaderTest {
+
+	private Path seedFile;
+
+	@BeforeMethod
+	public void setup() throws Exception {
+		seedFile = Files.createTempFile("seed", ".txt");
+	}
+
+	@AfterMethod
+	public void cleanup() throws Exception {
+		Files.deleteIfExists(seedFile);
+	}
+
+	@Test
+	public void readsLargeFileInParallelChunks() throws Exception {
+		final int routes = 60000;
+		final UUID applicationGuid = UUID.randomUUID();
+		try (BufferedWriter writer = Files.newBufferedWriter(seedFile, StandardCharsets.UTF_8)) {
+			writer.write("# Generated for a test\n");
+			for (int i = 0; i < routes; i++) {
+				writer.write("app" + i + ".example.com 10.0." + (i >> 8 & 0xff) + "." + (i & 0xff) + ":" + (8000 + i % 100)
+						+ " " + applicationGuid + " " + i + " instance-" + i + "\n");
+			}
+		}
+		assertTrue(Files.size(seedFile) > 4 * 1024 * 1024);
+
+		final Set<String> hosts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+		final Set<String> threads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+		final SeedFileReader.Result result = SeedFileReader.read(seedFile, 4, new RouteInterner(),
+				(host, address, guid, index, privateInstanceId) -> {
+					assertEquals(guid, applicationGuid);
+					assertEquals(privateInstanceId, "instance-" + index);
+					assertEquals(host, "app" + index + ".example.com");
+					hosts.add(host);
+					threads.add(Thread.currentThread().getName());
+				});
+		assertEquals(result.getRoutes(), routes);
+		assertEquals(result.getMalformedLines(), 0);
+		assertEquals(hosts.size(), routes);
+		assertTrue(threads.size() > 1, "Expected several reader threads, got " + threads);
+	}
+
+	@Test
+	public void optionalFieldsAndMalformedLines() throws Exception {
+		Files.write(seedFile, (
+				"Foo.Example.com 10.0.0.1:8080\n"
+						+ "\n"
+						+ "bar.example.com 10.0.0.2:8080 - 3 -\n"
+						+ "missing.address.example.com\n"
+						+ "bad.port.example.com 10.0.0.3:http\n"
+						+ "bad.guid.example.com 10.0.0.4:80 not-a-guid\n"
+						+ "no.newline.example.com 10.0.0.5:80").getBytes(StandardCharsets.UTF_8));
+		final Set<String> seen = new HashSet<>();
+		final SeedFileReader.Result result = SeedFileReader.read(seedFile, 1, new RouteInterner(),
+				(host, address, guid, index, privateInstanceId) -> {
+					seen.add(host);
+					assertNull(guid);
+					assertNull(privateInstanceId);
+					if (host.equals("bar.example.com")) {
+						assertEquals(index, Integer.valueOf(3));
+						assertEquals(address, InetSocketAddress.createUnresolved("10.0.0.2", 8080));
+					} else {
+						assertNull(index);
+					}
+				});
+		assertEquals(result.getRoutes(), 3);
+		assertEquals(result.getMalformedLines(), 3);
+		assertEquals(seen, new HashSet<>(Arrays.asList("foo.example.com", "bar.example.com", "no.newline.example.com")));
+	}
+
+	@Test
+	public void chunksNeverExceedTheMaximumSize() throws Exception {
+		final StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			content.append("app").append(i).append(".example.com 10.0.0.1:8080\n");
+		}
+		Files.write(seedFile, content.toString().getBytes(StandardCharsets.UTF_8));
+		final long maxChunkSize = 1024 * 1024;
+		try (FileChannel channel = FileChannel.open(seedFile, StandardOpenOption.READ)) {
+			// A single chunk would be wanted, but it can't be that large.
+			final List<long[]> chunks = SeedFileReader.chunks(channel, 1, maxChunkSize);
+			assertTrue(chunks.size() > 1, "Expected several chunks, got " + chunks.size());
+			long position = 0;
+			for (long[] chunk : chunks) {
+				assertEquals(chunk[0], position);
+				assertTrue(chunk[1] - chunk[0] <= maxChunkSize + 64);
+				assertEquals(content.charAt((int) chunk[1] - 1), '\n');
+				position = chunk[1];
+			}
+			assertEquals(position, channel.size());
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.seed;
+
+import cloudfoundry.norouter.routingtable.RoutingTable;
+import cloudfoundry.norouter.routingtable.RoutingTableSnapshotFile;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class SeedFileRouteProviderTest {
+
+	private ScheduledExecutorService scheduler;
+	private RoutingTable routingTable;
+	private Path seedFile;
+
+	@BeforeMethod
+	public void setup() throws Exception {
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		routingTable = RoutingTable.create().eventPublisher(event -> {}).routeProvider(() -> true).build();
+		seedFile = Files.createTempFile("seed", ".txt");
+	}
+
+	@AfterMethod
+	public void cleanup() throws Exception {
+		routingTable.close();
+		scheduler.shutdownNow();
+		Files.deleteIfExists(seedFile);
+	}
+
+	@Test
+	public void unavailableUntilSeededRoutesAreConfirmed() throws Exception {
+		Files.write(seedFile, "foo.example.com 10.0.0.1:8080\nbar.example.com 10.0.0.2:8080\n".getBytes(StandardCharsets.UTF_8));
+		try (SeedFileRouteProvider provider = provider(Duration.ofMillis(200))) {
+			final CountDownLatch available = new CountDownLatch(1);
+			provider.addAvailabilityListener((p, isAvailable, reason) -> {
+				if (isAvailable) {
+					available.countDown();
+				}
+			});
+			assertFalse(provider.isAvailable());
+			provider.load();
+			assertEquals(provider.getSeededRouteCount(), 2);
+			assertEquals(routingTable.getRoutes("foo.example.com").size(), 1);
+			assertFalse(provider.isAvailable());
+			assertEquals(provider.getUnavailableReason(), "Waiting for route emitters to confirm 2 seeded routes");
+
+			assertTrue(available.await(5, TimeUnit.SECONDS));
+			assertTrue(provider.isAvailable());
+			assertNull(provider.getUnavailableReason());
+		}
+	}
+
+	@Test
+	public void loadsRoutingTableSnapshots() throws Exception {
+		final RoutingTable source = RoutingTable.create().eventPublisher(event -> {}).routeProvider(() -> true).build();
+		try {
+			final UUID applicationGuid = UUID.randomUUID();
+			source.registerRoute("foo.example.com", InetSocketAddress.createUnresolved("10.0.0.1", 8080), applicationGuid, 1, "instance");
+			RoutingTableSnapshotFile.write(source.snapshot(), seedFile);
+		} finally {
+			source.close();
+		}
+		try (SeedFileRouteProvider provider = provider(Duration.ofHours(1))) {
+			provider.load();
+			assertEquals(provider.getSeededRouteCount(), 1);
+			assertEquals(routingTable.getRoutes("foo.example.com").iterator().next().getPrivateInstanceId(), "instance");
+			assertFalse(provider.isAvailable());
+		}
+	}
+
+	@Test
+	public void missingSeedFileIsAvailable() throws Exception {
+		Files.delete(seedFile);
+		try (SeedFileRouteProvider provider = provider(Duration.ofHours(1))) {
+			provider.load();
+			assertTrue(provider.isAvailable());
+			assertEquals(provider.getSeededRouteCount(), 0);
+		}
+	}
+
+	private SeedFileRouteProvider provider(Duration confirmationPeriod) {
+		return SeedFileRouteProvider.create()
+				.seedFile(seedFile)
+				.registrar(routingTable)
+				.interner(routingTable.getInterner())
+				.scheduler(scheduler)
+				.confirmationPeriod(confirmationPeriod)
+				.build();
+	}
+}
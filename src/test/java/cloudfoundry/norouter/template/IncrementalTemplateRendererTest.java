@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.template;
+
+import cloudfoundry.norouter.routingtable.RouteRegisterEvent;
+import cloudfoundry.norouter.routingtable.RoutingTable;
+import org.stringtemplate.v4.STGroupString;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * @author Mike Heath
+ */
+public class IncrementalTemplateRendererTest {
+
+	private static final String TEMPLATES =
+			"header() ::= \"# routes\\n\"\n" +
+			"host(host, routes) ::= \"<host> <routes:{r|<r.address.port>}; separator=\\\",\\\">\\n\"\n" +
+			"footer() ::= \"# end\\n\"\n";
+
+	private ScheduledExecutorService scheduler;
+	private Path directory;
+	private RoutingTable routingTable;
+
+	@BeforeMethod
+	public void setup() throws Exception {
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		directory = Files.createTempDirectory("renderer");
+		routingTable = RoutingTable.create()
+				.eventPublisher(event -> {})
+				.routeProvider(() -> true)
+				.build();
+	}
+
+	@AfterMethod
+	public void cleanup() throws Exception {
+		routingTable.close();
+		scheduler.shutdownNow();
+		for (Path path : Files.newDirectoryStream(directory)) {
+			Files.delete(path);
+		}
+		Files.delete(directory);
+	}
+
+	@Test
+	public void rendersOnlyChangedHosts() throws Exception {
+		routingTable.registerRoutes(Arrays.asList("b.example.com", "a.example.com"), address(80), null, null, null);
+		final Path output = directory.resolve("routes.conf");
+		try (IncrementalTemplateRenderer renderer = IncrementalTemplateRenderer.create()
+				.routingTable(routingTable)
+				.templates(new STGroupString(TEMPLATES))
+				.output(output)
+				.scheduler(scheduler)
+				.debounce(Duration.ofHours(1))
+				.build()) {
+			renderer.render();
+			assertEquals(read(output), "# routes\na.example.com 80\nb.example.com 80\n# end\n");
+			assertEquals(renderer.getLastRenderedFragments(), 2);
+
+			routingTable.registerRoute("a.example.com", address(81), null, null, null);
+			routingTable.registerRoute("c.example.com", address(80), null, null, null);
+			renderer.render();
+			assertEquals(read(output), "# routes\na.example.com 80,81\nb.example.com 80\nc.example.com 80\n# end\n");
+			assertEquals(renderer.getLastRenderedFragments(), 2);
+
+			routingTable.unregisterRoute("b.example.com", address(80));
+			renderer.render();
+			assertEquals(read(output), "# routes\na.example.com 80,81\nc.example.com 80\n# end\n");
+			assertEquals(renderer.getLastRenderedFragments(), 1);
+
+			// Nothing changed, the file isn't written again.
+			renderer.render();
+			assertEquals(renderer.getRenderCount(), 3);
+		}
+	}
+
+	@Test
+	public void debouncesRouteEvents() throws Exception {
+		final Path output = directory.resolve("routes.conf");
+		try (IncrementalTemplateRenderer renderer = IncrementalTemplateRenderer.create()
+				.routingTable(routingTable)
+				.templates(new STGroupString(TEMPLATES))
+				.output(output)
+				.scheduler(scheduler)
+				.debounce(Duration.ofMillis(50))
+				.build()) {
+			Thread.sleep(200);
+			assertEquals(read(output), "# routes\n# end\n");
+			for (int i = 0; i < 10; i++) {
+				routingTable.registerRoute("a.example.com", address(8000 + i), null, null, null);
+				renderer.onApplicationEvent(new RouteRegisterEvent(this, "a.example.com", address(8000 + i), null, null, null));
+			}
+			Thread.sleep(200);
+			assertEquals(renderer.getRenderCount(), 2);
+			assertEquals(read(output).split(",").length, 10);
+		}
+	}
+
+	@Test
+	public void keepsOutputPermissions() throws Exception {
+		final Path output = directory.resolve("routes.conf");
+		try (IncrementalTemplateRenderer renderer = IncrementalTemplateRenderer.create()
+				.routingTable(routingTable)
+				.templates(new STGroupString(TEMPLATES))
+				.output(output)
+				.scheduler(scheduler)
+				.debounce(Duration.ofHours(1))
+				.build()) {
+			renderer.render();
+			assertEquals(PosixFilePermissions.toString(Files.getPosixFilePermissions(output)), "rw-r--r--");
+
+			Files.setPosixFilePermissions(output, PosixFilePermissions.fromString("rw-r-----"));
+			routingTable.registerRoute("a.example.com", address(80), null, null, null);
+			renderer.render();
+			assertEquals(PosixFilePermissions.toString(Files.getPosixFilePermissions(output)), "rw-r-----");
+		}
+		try (IncrementalTemplateRenderer renderer = IncrementalTemplateRenderer.create()
+				.routingTable(routingTable)
+				.templates(new STGroupString(TEMPLATES))
+				.output(output)
+				.scheduler(scheduler)
+				.debounce(Duration.ofHours(1))
+				.permissions(PosixFilePermissions.fromString("rw-rw-r--"))
+				.build()) {
+			renderer.render();
+			assertEquals(PosixFilePermissions.toString(Files.getPosixFilePermissions(output)), "rw-rw-r--");
+		}
+	}
+
+	private static InetSocketAddress address(int port) {
+		return InetSocketAddress.createUnresolved("10.0.0.1", port);
+	}
+
+	private static String read(Path path) throws Exception {
+		return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+	}
+}
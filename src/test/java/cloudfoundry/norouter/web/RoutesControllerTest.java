@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015 Intellectual Reserve, Inc.  All rights reserved.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package cloudfoundry.norouter.web;
+
+import cloudfoundry.norouter.routingtable.RouteEventsDroppedEvent;
+import cloudfoundry.norouter.routingtable.RouteRegisterEvent;
+import cloudfoundry.norouter.routingtable.RoutingTable;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Mike Heath
+ */
+public class RoutesControllerTest {
+
+	private static final InetSocketAddress ADDRESS = InetSocketAddress.createUnresolved("10.0.0.1", 8080);
+
+	private RoutingTable routingTable;
+	private RoutesController controller;
+
+	@BeforeMethod
+	public void setup() {
+		routingTable = RoutingTable.create()
+				.eventPublisher(event -> controller.onApplicationEvent(event))
+				.routeProvider(() -> true)
+				.build();
+		controller = new RoutesController(routingTable);
+	}
+
+	@AfterMethod
+	public void cleanup() {
+		routingTable.close();
+	}
+
+	@Test
+	public void streamsAllRoutes() throws Exception {
+		final UUID applicationGuid = UUID.fromString("5b4e9b1e-4e6b-4b6c-9f2a-2f1d3c4b5a69");
+		routingTable.registerRoute("foo.example.com", ADDRESS, applicationGuid, 1, "instance");
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RoutesController.writeRoutes("abc", routingTable.snapshot(), out);
+		assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8),
+				"{\"epoch\":\"abc\",\"version\":1,\"hosts\":{\"foo.example.com\":[{\"address\":\"10.0.0.1\",\"port\":8080," +
+						"\"applicationGuid\":\"5b4e9b1e-4e6b-4b6c-9f2a-2f1d3c4b5a69\",\"applicationIndex\":1,\"privateInstanceId\":\"instance\"}]}}");
+	}
+
+	@Test
+	public void hostLookupHonorsETag() {
+		routingTable.registerRoute("foo.example.com", ADDRESS, null, null, null);
+
+		final ResponseEntity<Map<String, Object>> response = controller.hostRoutes("FOO.example.com", null);
+		assertEquals(response.getStatusCode(), HttpStatus.OK);
+		assertEquals(((List<?>) response.getBody().get("routes")).size(), 1);
+		final String etag = response.getHeaders().getETag();
+		final String epoch = RoutesController.epoch(routingTable.getEpoch());
+		assertEquals(etag, "\"" + epoch + "-1\"");
+		assertEquals(response.getBody().get("epoch"), epoch);
+
+		assertEquals(controller.hostRoutes("foo.example.com", etag).getStatusCode(), HttpStatus.NOT_MODIFIED);
+		assertEquals(controller.hostRoutes("bar.example.com", null).getStatusCode(), HttpStatus.NOT_FOUND);
+		routingTable.registerRoute("bar.example.com", ADDRESS, null, null, null);
+		assertEquals(controller.hostRoutes("foo.example.com", etag).getStatusCode(), HttpStatus.OK);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void longPollReturnsOnChange() {
+		routingTable.registerRoute("foo.example.com", ADDRESS, null, null, null);
+
+		final String epoch = RoutesController.epoch(routingTable.getEpoch());
+
+		// Behind, changes are returned right away.
+		Map<String, Object> body = (Map<String, Object>) controller.changes(epoch, 0, null).getResult();
+		assertEquals(body.get("epoch"), epoch);
+		assertEquals(body.get("sequence"), 1L);
+		assertEquals(((List<?>) body.get("changes")).size(), 1);
+
+		// Caught up, wait for the next change.
+		final DeferredResult<Map<String, Object>> result = controller.changes(epoch, 1, 10000L);
+		assertFalse(result.hasResult());
+		assertEquals(controller.getWaiterCount(), 1);
+		// An event for a change the client already has doesn't complete the poll.
+		controller.onApplicationEvent(new RouteRegisterEvent(this, "foo.example.com", ADDRESS, null, null, null));
+		assertFalse(result.hasResult());
+
+		routingTable.unregisterRoute("foo.example.com", ADDRESS);
+		assertTrue(result.hasResult());
+		assertEquals(controller.getWaiterCount(), 0);
+		body = (Map<String, Object>) result.getResult();
+		assertEquals(body.get("sequence"), 2L);
+		assertEquals(body.get("resync"), false);
+		final Map<String, Object> change = ((List<Map<String, Object>>) body.get("changes")).get(0);
+		assertEquals(change.get("type").toString(), "UNREGISTER");
+		assertEquals(change.get("host"), "foo.example.com");
+		assertNull(((Map<String, Object>) change.get("route")).get("applicationGuid"));
+
+		// Unknown versions ask the client to resync.
+		body = (Map<String, Object>) controller.changes(epoch, 42, null).getResult();
+		assertEquals(body.get("resync"), true);
+	}
+
+	@Test
+	public void droppedEventsWakeLongPolls() {
+		// A table whose events never reach the controller, as if they were all dropped.
+		final RoutingTable silentTable = RoutingTable.create().eventPublisher(event -> {}).routeProvider(() -> true).build();
+		final RoutesController silentController = new RoutesController(silentTable);
+		final String epoch = RoutesController.epoch(silentTable.getEpoch());
+		final DeferredResult<Map<String, Object>> result = silentController.changes(epoch, 0, 10000L);
+		silentTable.registerRoute("foo.example.com", ADDRESS, null, null, null);
+		assertFalse(result.hasResult());
+
+		silentController.onApplicationEvent(new RouteEventsDroppedEvent(this, 1));
+		assertTrue(result.hasResult());
+		silentTable.close();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void versionsFromAnotherEpochResync() {
+		routingTable.registerRoute("foo.example.com", ADDRESS, null, null, null);
+		routingTable.registerRoute("bar.example.com", ADDRESS, null, null, null);
+		final String epoch = RoutesController.epoch(routingTable.getEpoch());
+
+		// Version 1 of a table from before a restart, or of another node.
+		Map<String, Object> body = (Map<String, Object>) controller.changes("0", 1, null).getResult();
+		assertEquals(body.get("resync"), true);
+		assertEquals(body.get("epoch"), epoch);
+		body = (Map<String, Object>) controller.changes(null, 1, null).getResult();
+		assertEquals(body.get("resync"), true);
+		body = (Map<String, Object>) controller.changes(epoch, 1, null).getResult();
+		assertEquals(body.get("resync"), false);
+
+		assertEquals(controller.hostRoutes("foo.example.com", "\"0-2\"").getStatusCode(), HttpStatus.OK);
+	}
+}